@@ -0,0 +1,449 @@
+package com.cardbookvr.cardboardbox;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hands out aligned slices of a few large direct buffers, so thousands of
+ * meshes cost a handful of native allocations instead of one or more each.
+ *
+ * Each slab is a list of blocks in address order, used or free. Allocation
+ * takes the first free block that fits and splits off the rest; freeing
+ * merges a block with free neighbours. Freed space is reused straight away,
+ * but alternating sizes still leave holes, so {@link #defragment} slides
+ * every block down to the start of the arena and releases slabs left
+ * empty. Requests bigger than a slab get a slab of their own, released as
+ * soon as the block is freed.
+ *
+ * Defragmenting moves data: buffers taken from blocks before it are stale
+ * afterwards and have to be fetched again, which {@link #getGeneration}
+ * tells callers to do. Not thread safe.
+ */
+public class BufferArena {
+    /**
+     * A slice of the arena. Its buffers have native byte order and cover
+     * exactly the requested size.
+     */
+    public static final class Block {
+        private Slab slab;
+        private int offset;
+        private int size;
+        private boolean free;
+        private Block previous;
+        private Block next;
+        // Views of the slice, created on first use and after moves
+        private ByteBuffer bytes;
+        private FloatBuffer floats;
+        private ShortBuffer shorts;
+
+        private Block(Slab slab, int offset, int size, boolean free) {
+            this.slab = slab;
+            this.offset = offset;
+            this.size = size;
+            this.free = free;
+        }
+
+        /**
+         * @return requested size in bytes, rounded up to the alignment.
+         */
+        public int getSize() {
+            return size;
+        }
+
+        public boolean isFreed() {
+            return slab == null;
+        }
+
+        public ByteBuffer getByteBuffer() {
+            if (bytes == null) {
+                checkLive();
+                ByteBuffer view = slab.memory.duplicate();
+                view.position(offset);
+                view.limit(offset + size);
+                bytes = view.slice().order(ByteOrder.nativeOrder());
+            }
+            return bytes;
+        }
+
+        public FloatBuffer getFloatBuffer() {
+            if (floats == null) {
+                floats = getByteBuffer().asFloatBuffer();
+            }
+            return floats;
+        }
+
+        public ShortBuffer getShortBuffer() {
+            if (shorts == null) {
+                shorts = getByteBuffer().asShortBuffer();
+            }
+            return shorts;
+        }
+
+        private void checkLive() {
+            if (slab == null) {
+                throw new IllegalStateException("block was freed");
+            }
+        }
+
+        private void invalidate() {
+            bytes = null;
+            floats = null;
+            shorts = null;
+        }
+    }
+
+    private static final class Slab {
+        final ByteBuffer memory;
+        final boolean dedicated;
+        Block first;
+
+        Slab(int capacity, boolean dedicated) {
+            memory = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+            this.dedicated = dedicated;
+        }
+
+        int capacity() {
+            return memory.capacity();
+        }
+    }
+
+    private final int slabBytes;
+    private final int alignment;
+    private final List<Slab> slabs = new ArrayList<>();
+
+    private long usedBytes;
+    private int blockCount;
+    private long reservedBytes;
+    private int slabsAllocated;
+    private int generation;
+
+    /**
+     * @param slabBytes - size of each native allocation, a multiple of alignment.
+     * @param alignment - byte alignment of every block within its slab, a
+     *                  power of two; 4 suits float and short data.
+     */
+    public BufferArena(int slabBytes, int alignment) {
+        if (alignment <= 0 || (alignment & (alignment - 1)) != 0) {
+            throw new IllegalArgumentException("alignment must be a power of two");
+        }
+        if (slabBytes <= 0 || slabBytes % alignment != 0) {
+            throw new IllegalArgumentException("slabBytes must be a positive multiple of alignment");
+        }
+        this.slabBytes = slabBytes;
+        this.alignment = alignment;
+    }
+
+    /**
+     * @param bytes - at least 1.
+     * @return a block of at least that many bytes, zero filled only if it
+     * is in a new slab.
+     */
+    public Block allocate(int bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("bytes must be positive");
+        }
+        int size = align(bytes);
+        Block block;
+        if (size > slabBytes) {
+            Slab slab = addSlab(size, true);
+            block = slab.first;
+            block.free = false;
+        } else {
+            block = findFree(size);
+            if (block == null) {
+                block = addSlab(slabBytes, false).first;
+            }
+            split(block, size);
+            block.free = false;
+        }
+        usedBytes += size;
+        blockCount++;
+        return block;
+    }
+
+    /**
+     * Return a block to the arena. Its buffers must not be used after this.
+     */
+    public void free(Block block) {
+        block.checkLive();
+        Slab slab = block.slab;
+        usedBytes -= block.size;
+        blockCount--;
+        block.free = true;
+        block.slab = null;
+        block.invalidate();
+        if (slab.dedicated) {
+            removeSlab(slab);
+            return;
+        }
+        // The freed block's place in the list is taken by a new free block,
+        // so the caller's handle stays dead even after merging
+        Block hole = new Block(slab, block.offset, block.size, true);
+        replace(block, hole);
+        Block next = hole.next;
+        if (next != null && next.free) {
+            hole.size += next.size;
+            unlink(next);
+        }
+        Block previous = hole.previous;
+        if (previous != null && previous.free) {
+            previous.size += hole.size;
+            unlink(hole);
+        }
+    }
+
+    /**
+     * Slide every block down to the lowest free address, across slabs in
+     * the order they were created, and release the slabs left empty.
+     * Buffers fetched from blocks before this are stale if it returns more
+     * than zero.
+     *
+     * @return bytes moved.
+     */
+    public long defragment() {
+        List<Slab> shared = new ArrayList<>();
+        for (Slab slab : slabs) {
+            if (!slab.dedicated) {
+                shared.add(slab);
+            }
+        }
+        if (shared.isEmpty()) {
+            return 0;
+        }
+
+        // Gather the live blocks in address order and empty the slabs
+        List<Block> live = new ArrayList<>(blockCount);
+        for (Slab slab : shared) {
+            for (Block b = slab.first; b != null; b = b.next) {
+                if (!b.free) {
+                    live.add(b);
+                }
+            }
+        }
+
+        long moved = 0;
+        int target = 0;
+        int targetOffset = 0;
+        Block last = null;
+        for (Slab slab : shared) {
+            slab.first = null;
+        }
+        for (Block block : live) {
+            if (targetOffset + block.size > slabBytes) {
+                closeSlab(shared.get(target), last, targetOffset);
+                target++;
+                targetOffset = 0;
+                last = null;
+            }
+            Slab to = shared.get(target);
+            if (block.slab != to || block.offset != targetOffset) {
+                move(block.slab.memory, block.offset, to.memory, targetOffset, block.size);
+                moved += block.size;
+                block.invalidate();
+            }
+            block.slab = to;
+            block.offset = targetOffset;
+            block.previous = last;
+            block.next = null;
+            if (last == null) {
+                to.first = block;
+            } else {
+                last.next = block;
+            }
+            last = block;
+            targetOffset += block.size;
+        }
+        closeSlab(shared.get(target), last, targetOffset);
+
+        // Everything after the last slab written to is empty; keep one
+        // slab around even when nothing is live
+        for (int i = shared.size() - 1; i > target; i--) {
+            removeSlab(shared.get(i));
+        }
+        if (moved > 0) {
+            generation++;
+        }
+        return moved;
+    }
+
+    /**
+     * @return a count that changes whenever {@link #defragment} moves
+     * blocks, so cached buffers can be checked for staleness.
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return bytes in live blocks.
+     */
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * @return native bytes held by the arena, used or not.
+     */
+    public long getResidentBytes() {
+        return reservedBytes;
+    }
+
+    /**
+     * @return bytes in free blocks.
+     */
+    public long getFreeBytes() {
+        return reservedBytes - usedBytes;
+    }
+
+    /**
+     * @return size of the largest free block, the biggest allocation that
+     * fits without a new slab.
+     */
+    public int getLargestFreeBlock() {
+        int largest = 0;
+        for (Slab slab : slabs) {
+            for (Block b = slab.first; b != null; b = b.next) {
+                if (b.free) {
+                    largest = Math.max(largest, b.size);
+                }
+            }
+        }
+        return largest;
+    }
+
+    /**
+     * @return how scattered the free space is: 0 when it is all in one
+     * block, approaching 1 as it splinters.
+     */
+    public float getFragmentation() {
+        long free = getFreeBytes();
+        return free == 0 ? 0 : 1 - (float) getLargestFreeBlock() / free;
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    public int getSlabCount() {
+        return slabs.size();
+    }
+
+    /**
+     * @return native allocations made over the arena's lifetime.
+     */
+    public int getSlabsAllocated() {
+        return slabsAllocated;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d blocks, %d of %d bytes used in %d slabs, %.0f%% fragmented",
+                blockCount, usedBytes, reservedBytes, slabs.size(), getFragmentation() * 100);
+    }
+
+    private int align(int bytes) {
+        return (bytes + alignment - 1) & -alignment;
+    }
+
+    private Block findFree(int size) {
+        for (Slab slab : slabs) {
+            for (Block b = slab.first; b != null; b = b.next) {
+                if (b.free && b.size >= size) {
+                    return b;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void split(Block block, int size) {
+        if (block.size == size) {
+            return;
+        }
+        Block rest = new Block(block.slab, block.offset + size, block.size - size, true);
+        rest.previous = block;
+        rest.next = block.next;
+        if (block.next != null) {
+            block.next.previous = rest;
+        }
+        block.next = rest;
+        block.size = size;
+    }
+
+    private Slab addSlab(int capacity, boolean dedicated) {
+        Slab slab = new Slab(capacity, dedicated);
+        slab.first = new Block(slab, 0, capacity, true);
+        slabs.add(slab);
+        reservedBytes += capacity;
+        slabsAllocated++;
+        return slab;
+    }
+
+    private void removeSlab(Slab slab) {
+        slabs.remove(slab);
+        reservedBytes -= slab.capacity();
+    }
+
+    /**
+     * End a compacted slab's list with one free block for the rest of it.
+     */
+    private void closeSlab(Slab slab, Block last, int used) {
+        if (used == slab.capacity()) {
+            return;
+        }
+        Block rest = new Block(slab, used, slab.capacity() - used, true);
+        rest.previous = last;
+        if (last == null) {
+            slab.first = rest;
+        } else {
+            last.next = rest;
+        }
+    }
+
+    private static void replace(Block old, Block with) {
+        with.previous = old.previous;
+        with.next = old.next;
+        if (old.previous != null) {
+            old.previous.next = with;
+        } else {
+            with.slab.first = with;
+        }
+        if (old.next != null) {
+            old.next.previous = with;
+        }
+        old.previous = null;
+        old.next = null;
+    }
+
+    private static void unlink(Block block) {
+        if (block.previous != null) {
+            block.previous.next = block.next;
+        } else {
+            block.slab.first = block.next;
+        }
+        if (block.next != null) {
+            block.next.previous = block.previous;
+        }
+    }
+
+    /**
+     * Copy towards lower addresses. Within one slab the ranges may overlap,
+     * so it is copied in pieces no longer than the distance moved.
+     */
+    private static void move(ByteBuffer from, int fromOffset, ByteBuffer to, int toOffset,
+                             int size) {
+        int piece = from == to ? fromOffset - toOffset : size;
+        ByteBuffer src = from.duplicate();
+        ByteBuffer dst = to.duplicate();
+        for (int done = 0; done < size; done += piece) {
+            int length = Math.min(piece, size - done);
+            src.limit(fromOffset + done + length).position(fromOffset + done);
+            dst.limit(toOffset + done + length).position(toOffset + done);
+            dst.put(src);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.cardbookvr.cardboardbox;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ground made of {@link FloorChunk}s around the viewer, generated on worker
+ * threads as the viewer moves.
+ *
+ * {@link #update} runs on the GL thread once per frame. It never waits for
+ * a worker: finished chunks arrive through a lock-free queue and are picked
+ * up by the next update. Chunks missing from around the viewer are queued
+ * for generation only when the viewer enters a new chunk. Resident chunks
+ * are kept in least recently used order and the oldest are evicted over
+ * the limit; the chunks around the viewer are always the most recently
+ * used, so they are never evicted. Evicted vertex buffers are pooled and
+ * reused by the workers instead of allocating new direct memory.
+ */
+public class ChunkedFloor {
+    private final FloorChunkGenerator generator;
+    private final Executor executor;
+    private final int radius;
+    private final int maxResident;
+    private final ShortBuffer indices;
+
+    // GL thread only
+    private final LinkedHashMap<Long, FloorChunk> resident = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<Long> pending = new HashSet<>();
+    private final FloorChunk[] visible;
+    private int visibleCount;
+    private int centerX;
+    private int centerZ;
+    private boolean centered;
+    private int evictions;
+
+    // Shared with the workers
+    private final ConcurrentLinkedQueue<FloorChunk> completed = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<FloatBuffer> bufferPool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger generated = new AtomicInteger();
+    private final AtomicInteger buffersAllocated = new AtomicInteger();
+
+    /**
+     * @param executor - runs chunk generation, typically a small thread pool.
+     * @param radius - chunks kept around the viewer in each direction.
+     * @param maxResident - chunks kept in memory, at least (2 * radius + 1)^2.
+     */
+    public ChunkedFloor(FloorChunkGenerator generator, Executor executor, int radius,
+                        int maxResident) {
+        int side = 2 * radius + 1;
+        if (maxResident < side * side) {
+            throw new IllegalArgumentException("maxResident must hold every visible chunk");
+        }
+        this.generator = generator;
+        this.executor = executor;
+        this.radius = radius;
+        this.maxResident = maxResident;
+        indices = generator.createIndexBuffer();
+        visible = new FloorChunk[side * side];
+    }
+
+    /**
+     * Move the viewer to (x, z) in floor space and pick up finished chunks.
+     * Call from the GL thread.
+     */
+    public void update(float x, float z) {
+        boolean changed = drainCompleted();
+        int cx = (int) Math.floor(x / generator.getChunkSize());
+        int cz = (int) Math.floor(z / generator.getChunkSize());
+        if (!centered || cx != centerX || cz != centerZ) {
+            centerX = cx;
+            centerZ = cz;
+            centered = true;
+            requestMissing();
+            changed = true;
+        }
+        if (changed) {
+            collectVisible();
+            evict();
+        }
+    }
+
+    /**
+     * Move the viewer to the eye position of a rigid view matrix.
+     */
+    public void update(float[] view) {
+        float tx = view[12], ty = view[13], tz = view[14];
+        float x = -(view[0] * tx + view[1] * ty + view[2] * tz);
+        float z = -(view[8] * tx + view[9] * ty + view[10] * tz);
+        update(x, z);
+    }
+
+    /**
+     * @return resident chunks around the viewer, nearest rings first.
+     */
+    public int getVisibleCount() {
+        return visibleCount;
+    }
+
+    public FloorChunk getVisibleChunk(int i) {
+        return visible[i];
+    }
+
+    /**
+     * @return the index buffer shared by every chunk.
+     */
+    public ShortBuffer getIndexBuffer() {
+        return indices;
+    }
+
+    public int getIndexCount() {
+        return generator.getIndexCount();
+    }
+
+    /**
+     * @return distance between consecutive vertices, in bytes.
+     */
+    public int getStride() {
+        return FloorChunkGenerator.STRIDE_FLOATS * 4;
+    }
+
+    /**
+     * Fill bounds with the floor-space box around the visible area.
+     *
+     * @param bounds - float[6], min x, y, z then max x, y, z.
+     */
+    public void getBounds(float[] bounds) {
+        float size = generator.getChunkSize();
+        float amplitude = generator.getTerrain().getAmplitude();
+        bounds[0] = (centerX - radius) * size;
+        bounds[1] = -amplitude;
+        bounds[2] = (centerZ - radius) * size;
+        bounds[3] = (centerX + radius + 1) * size;
+        bounds[4] = amplitude;
+        bounds[5] = (centerZ + radius + 1) * size;
+    }
+
+    public int getResidentCount() {
+        return resident.size();
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public boolean isResident(int chunkX, int chunkZ) {
+        return resident.containsKey(FloorChunk.key(chunkX, chunkZ));
+    }
+
+    public int getGeneratedCount() {
+        return generated.get();
+    }
+
+    public int getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * @return direct buffers created so far; the rest were reused.
+     */
+    public int getBuffersAllocated() {
+        return buffersAllocated.get();
+    }
+
+    private boolean drainCompleted() {
+        boolean changed = false;
+        FloorChunk chunk;
+        while ((chunk = completed.poll()) != null) {
+            Long key = FloorChunk.key(chunk.getChunkX(), chunk.getChunkZ());
+            pending.remove(key);
+            resident.put(key, chunk);
+            changed = true;
+        }
+        return changed;
+    }
+
+    private void requestMissing() {
+        for (int dz = -radius; dz <= radius; dz++) {
+            for (int dx = -radius; dx <= radius; dx++) {
+                final int cx = centerX + dx;
+                final int cz = centerZ + dz;
+                Long key = FloorChunk.key(cx, cz);
+                if (resident.containsKey(key) || pending.contains(key)) {
+                    continue;
+                }
+                pending.add(key);
+                try {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            generate(cx, cz);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // Shutting down
+                    pending.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs on a worker.
+     */
+    private void generate(int cx, int cz) {
+        FloatBuffer buffer = bufferPool.poll();
+        if (buffer == null) {
+            buffer = generator.allocateVertexBuffer();
+            buffersAllocated.incrementAndGet();
+        }
+        generator.generate(cx, cz, buffer);
+        generated.incrementAndGet();
+        completed.add(new FloorChunk(cx, cz, buffer));
+    }
+
+    /**
+     * Gather resident chunks around the viewer in rings, which also marks
+     * them as the most recently used.
+     */
+    private void collectVisible() {
+        visibleCount = 0;
+        for (int ring = 0; ring <= radius; ring++) {
+            for (int dz = -ring; dz <= ring; dz++) {
+                for (int dx = -ring; dx <= ring; dx++) {
+                    if (Math.max(Math.abs(dx), Math.abs(dz)) != ring) {
+                        continue;
+                    }
+                    FloorChunk chunk = resident.get(FloorChunk.key(centerX + dx, centerZ + dz));
+                    if (chunk != null) {
+                        visible[visibleCount++] = chunk;
+                    }
+                }
+            }
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Long, FloorChunk>> it = resident.entrySet().iterator();
+        while (resident.size() > maxResident && it.hasNext()) {
+            FloorChunk chunk = it.next().getValue();
+            it.remove();
+            bufferPool.add(chunk.getVertices());
+            evictions++;
+        }
+    }
+}
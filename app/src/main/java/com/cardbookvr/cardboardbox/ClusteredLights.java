@@ -0,0 +1,545 @@
+package com.cardbookvr.cardboardbox;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Assigns point lights to the clusters of one eye's view frustum, so
+ * shading only loops over the lights near what it shades.
+ *
+ * The frustum is split into a grid of screen tiles, and in depth into
+ * slices that grow exponentially from the near plane to the far plane, so
+ * near and far clusters are about as deep as they are wide. Each frame the
+ * lights are moved into view space and every light is added to the
+ * clusters its sphere touches: its depth and screen extents bound the
+ * candidates, then a sphere and box test settles each one. Slices are
+ * binned independently, across a ForkJoinPool when there are enough
+ * lights.
+ *
+ * The result is packed into one buffer to upload as it is: an int per
+ * cluster, holding the offset of its list in the index section shifted up
+ * by 8 bits and its light count in the low 8, then the lists themselves
+ * as unsigned shorts. {@link #getPackedLights} has the lights in view
+ * space to go with them.
+ *
+ * The projection has to be a perspective one as from frustumM, possibly
+ * off-centre, such as each Cardboard eye's. Nothing is allocated per frame
+ * once the arrays have grown, except a task per slice range when binning
+ * in parallel.
+ *
+ * SceneRenderer does not use this yet. The scene has a single light, and
+ * its shaders light per vertex on GLES 2.0, which cannot read the index
+ * lists; binning each eye belongs with moving lighting to the fragment
+ * stage.
+ */
+public class ClusteredLights {
+    public static final int MAX_LIGHTS_PER_CLUSTER = 255;
+    // View-space x, y, z and radius, then r, g, b and one unused
+    public static final int LIGHT_FLOATS = 8;
+    public static final int PARALLEL_THRESHOLD = 64;
+
+    private static final int MAX_LIGHTS = 65536;
+
+    private final int tilesX;
+    private final int tilesY;
+    private final int slices;
+    private final int clusterCount;
+    private final int maxPerCluster;
+    private final ForkJoinPool pool;
+
+    // Lights in world space
+    private int lightCount;
+    private float[] worldX;
+    private float[] worldY;
+    private float[] worldZ;
+    private float[] radius;
+    private float[] colors;
+
+    // Per build: lights in view space and the slices they may touch
+    private float[] viewX;
+    private float[] viewY;
+    private float[] viewZ;
+    private int[] lightSlices;
+    private float[] packedLights;
+
+    // The projection the cluster boxes were computed for
+    private final float[] projection = new float[16];
+    private float near = Float.NaN;
+    private float far = Float.NaN;
+    private final float[] view = new float[16];
+    private final float[] sliceDepths;
+    private final float[] clusterBounds;
+    private float sliceScale;
+    private float sliceBias;
+
+    private final int[] clusterCounts;
+    private final short[] clusterLights;
+    private ByteBuffer packed;
+    private int packedBytes;
+
+    private final AtomicInteger assignments = new AtomicInteger();
+    private final AtomicInteger overflows = new AtomicInteger();
+
+    /**
+     * @param tilesX - columns of clusters across the view.
+     * @param tilesY - rows of clusters.
+     * @param slices - clusters in depth.
+     * @param maxLightsPerCluster - up to MAX_LIGHTS_PER_CLUSTER; lights past
+     *                            it are left out, and counted.
+     * @param pool - bins slices in parallel, or null to bin on the calling
+     *             thread only.
+     */
+    public ClusteredLights(int tilesX, int tilesY, int slices, int maxLightsPerCluster,
+                           ForkJoinPool pool) {
+        if (tilesX <= 0 || tilesY <= 0 || slices <= 0) {
+            throw new IllegalArgumentException("cluster grid must have positive dimensions");
+        }
+        if (maxLightsPerCluster <= 0 || maxLightsPerCluster > MAX_LIGHTS_PER_CLUSTER) {
+            throw new IllegalArgumentException("lights per cluster must be 1 to "
+                    + MAX_LIGHTS_PER_CLUSTER);
+        }
+        this.tilesX = tilesX;
+        this.tilesY = tilesY;
+        this.slices = slices;
+        this.maxPerCluster = maxLightsPerCluster;
+        this.pool = pool;
+        clusterCount = tilesX * tilesY * slices;
+        sliceDepths = new float[slices + 1];
+        clusterBounds = new float[clusterCount * 6];
+        clusterCounts = new int[clusterCount];
+        clusterLights = new short[clusterCount * maxLightsPerCluster];
+        allocateLights(16);
+    }
+
+    /**
+     * @return the new light's id, numbered from 0 in the order added.
+     */
+    public int addLight(float x, float y, float z, float radius, float r, float g, float b) {
+        if (lightCount == MAX_LIGHTS) {
+            throw new IllegalStateException("no more than " + MAX_LIGHTS + " lights");
+        }
+        if (lightCount == worldX.length) {
+            allocateLights(lightCount * 2);
+        }
+        int id = lightCount++;
+        setLight(id, x, y, z, radius);
+        colors[id * 3] = r;
+        colors[id * 3 + 1] = g;
+        colors[id * 3 + 2] = b;
+        return id;
+    }
+
+    /**
+     * Move a light, in world space, for the next {@link #build}.
+     */
+    public void setLight(int id, float x, float y, float z, float radius) {
+        checkLight(id);
+        if (!(radius > 0)) {
+            throw new IllegalArgumentException("light radius must be positive");
+        }
+        worldX[id] = x;
+        worldY[id] = y;
+        worldZ[id] = z;
+        this.radius[id] = radius;
+    }
+
+    public int getLightCount() {
+        return lightCount;
+    }
+
+    public void clearLights() {
+        lightCount = 0;
+    }
+
+    public int getClusterCount() {
+        return clusterCount;
+    }
+
+    /**
+     * @param tileX - 0 at the left of the view.
+     * @param tileY - 0 at the bottom.
+     * @param slice - 0 at the near plane.
+     */
+    public int getClusterIndex(int tileX, int tileY, int slice) {
+        if (tileX < 0 || tileX >= tilesX || tileY < 0 || tileY >= tilesY
+                || slice < 0 || slice >= slices) {
+            throw new IndexOutOfBoundsException("no cluster " + tileX + ", " + tileY + ", "
+                    + slice);
+        }
+        return (slice * tilesY + tileY) * tilesX + tileX;
+    }
+
+    /**
+     * Bin the lights for one eye.
+     *
+     * @param view - world to eye, 16 floats at viewOffset.
+     * @param projection - the eye's perspective, 16 floats at projectionOffset.
+     * @param near - distance to the near plane the projection was made with.
+     * @param far - distance to its far plane.
+     */
+    public void build(float[] view, int viewOffset, float[] projection, int projectionOffset,
+                      float near, float far) {
+        if (!(near > 0) || !(far > near)) {
+            throw new IllegalArgumentException("need 0 < near < far");
+        }
+        if (near != this.near || far != this.far
+                || !equal(projection, projectionOffset, this.projection)) {
+            System.arraycopy(projection, projectionOffset, this.projection, 0, 16);
+            this.near = near;
+            this.far = far;
+            computeClusterBounds();
+        }
+        System.arraycopy(view, viewOffset, this.view, 0, 16);
+        transformLights();
+
+        assignments.set(0);
+        overflows.set(0);
+        if (pool != null && lightCount >= PARALLEL_THRESHOLD) {
+            pool.invoke(new BinTask(0, slices));
+        } else {
+            binSlices(0, slices);
+        }
+        pack();
+    }
+
+    /**
+     * @return the cluster holding a view-space point, or -1 if it is
+     * outside the frustum.
+     */
+    public int findCluster(float x, float y, float z) {
+        float depth = -z;
+        if (!(depth >= near) || depth > far) {
+            return -1;
+        }
+        float ndcX = (projection[0] * x + projection[8] * z) / depth;
+        float ndcY = (projection[5] * y + projection[9] * z) / depth;
+        if (ndcX < -1 || ndcX > 1 || ndcY < -1 || ndcY > 1) {
+            return -1;
+        }
+        return (slice(depth) * tilesY + tile(ndcY, tilesY)) * tilesX + tile(ndcX, tilesX);
+    }
+
+    /**
+     * @return lights in a cluster, as of the last build.
+     */
+    public int getClusterLightCount(int cluster) {
+        checkCluster(cluster);
+        return clusterCounts[cluster];
+    }
+
+    /**
+     * @return the id of a cluster's i-th light, in the order they were added.
+     */
+    public int getClusterLight(int cluster, int i) {
+        checkCluster(cluster);
+        if (i < 0 || i >= clusterCounts[cluster]) {
+            throw new IndexOutOfBoundsException("cluster has no light " + i);
+        }
+        return clusterLights[cluster * maxPerCluster + i] & 0xffff;
+    }
+
+    /**
+     * @return the cluster headers then light lists, from position 0 to the
+     * limit, in native byte order.
+     */
+    public ByteBuffer getPackedIndices() {
+        ByteBuffer view = packed.duplicate().order(ByteOrder.nativeOrder());
+        view.position(0);
+        view.limit(packedBytes);
+        return view;
+    }
+
+    public int getPackedBytes() {
+        return packedBytes;
+    }
+
+    /**
+     * @return LIGHT_FLOATS per light, positions in view space, as of the
+     * last build.
+     */
+    public FloatBuffer getPackedLights() {
+        return FloatBuffer.wrap(packedLights, 0, lightCount * LIGHT_FLOATS).slice();
+    }
+
+    /**
+     * @return light and cluster pairs stored by the last build.
+     */
+    public int getAssignmentCount() {
+        return assignments.get();
+    }
+
+    /**
+     * @return light and cluster pairs left out of full clusters.
+     */
+    public int getOverflowCount() {
+        return overflows.get();
+    }
+
+    /**
+     * @return clusters with at least one light.
+     */
+    public int getOccupiedClusterCount() {
+        int occupied = 0;
+        for (int c = 0; c < clusterCount; c++) {
+            if (clusterCounts[c] > 0) {
+                occupied++;
+            }
+        }
+        return occupied;
+    }
+
+    public int getMaxClusterLightCount() {
+        int max = 0;
+        for (int c = 0; c < clusterCount; c++) {
+            max = Math.max(max, clusterCounts[c]);
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        int occupied = getOccupiedClusterCount();
+        return String.format("%d lights in %d of %d clusters, %.1f per occupied cluster,"
+                        + " max %d, %d left out", lightCount, occupied, clusterCount,
+                occupied == 0 ? 0f : getAssignmentCount() / (float) occupied,
+                getMaxClusterLightCount(), getOverflowCount());
+    }
+
+    /**
+     * Slice boundaries, then each cluster's view-space box: the box around
+     * the corners of its slice of the tile's sub-frustum.
+     */
+    private void computeClusterBounds() {
+        float logRatio = (float) Math.log(far / near);
+        sliceScale = slices / logRatio;
+        sliceBias = (float) -Math.log(near) * sliceScale;
+        for (int s = 0; s <= slices; s++) {
+            sliceDepths[s] = near * (float) Math.exp(logRatio * s / slices);
+        }
+        sliceDepths[slices] = far;
+
+        float[] p = projection;
+        for (int s = 0; s < slices; s++) {
+            float d0 = sliceDepths[s];
+            float d1 = sliceDepths[s + 1];
+            for (int ty = 0; ty < tilesY; ty++) {
+                float y0 = -1 + 2f * ty / tilesY;
+                float y1 = -1 + 2f * (ty + 1) / tilesY;
+                for (int tx = 0; tx < tilesX; tx++) {
+                    float x0 = -1 + 2f * tx / tilesX;
+                    float x1 = -1 + 2f * (tx + 1) / tilesX;
+                    int b = ((s * tilesY + ty) * tilesX + tx) * 6;
+                    // At depth d, ndc x maps back to d * (ndc + p8) / p0
+                    float ax = (x0 + p[8]) / p[0], bx = (x1 + p[8]) / p[0];
+                    float ay = (y0 + p[9]) / p[5], by = (y1 + p[9]) / p[5];
+                    clusterBounds[b] = Math.min(ax * d0, ax * d1);
+                    clusterBounds[b + 1] = Math.min(ay * d0, ay * d1);
+                    clusterBounds[b + 2] = -d1;
+                    clusterBounds[b + 3] = Math.max(bx * d0, bx * d1);
+                    clusterBounds[b + 4] = Math.max(by * d0, by * d1);
+                    clusterBounds[b + 5] = -d0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Move the lights into view space, pack them for upload, and work out
+     * the slices each one may touch.
+     */
+    private void transformLights() {
+        float[] m = view;
+        for (int i = 0; i < lightCount; i++) {
+            float wx = worldX[i], wy = worldY[i], wz = worldZ[i], r = radius[i];
+            float x = m[0] * wx + m[4] * wy + m[8] * wz + m[12];
+            float y = m[1] * wx + m[5] * wy + m[9] * wz + m[13];
+            float z = m[2] * wx + m[6] * wy + m[10] * wz + m[14];
+            viewX[i] = x;
+            viewY[i] = y;
+            viewZ[i] = z;
+            int o = i * LIGHT_FLOATS;
+            packedLights[o] = x;
+            packedLights[o + 1] = y;
+            packedLights[o + 2] = z;
+            packedLights[o + 3] = r;
+            packedLights[o + 4] = colors[i * 3];
+            packedLights[o + 5] = colors[i * 3 + 1];
+            packedLights[o + 6] = colors[i * 3 + 2];
+            packedLights[o + 7] = 0;
+
+            float depth = -z;
+            if (depth + r < near || depth - r > far) {
+                lightSlices[i * 2] = 1;
+                lightSlices[i * 2 + 1] = 0;
+                continue;
+            }
+            lightSlices[i * 2] = depth - r <= near ? 0 : slice(depth - r);
+            lightSlices[i * 2 + 1] = depth + r >= far ? slices - 1 : slice(depth + r);
+        }
+    }
+
+    /**
+     * The hot loop: every light against the candidate clusters in a range
+     * of slices. Only this range's clusters are written, so ranges can be
+     * binned at the same time.
+     *
+     * In each slice the candidate tiles are those under the box around the
+     * sphere, cut to the slice's depths. That box is in front of the
+     * viewer, so its projection is bounded by its corners'; lights reaching
+     * past the near plane still only cover the tiles they can light.
+     */
+    private void binSlices(int from, int to) {
+        int tilesPerSlice = tilesX * tilesY;
+        Arrays.fill(clusterCounts, from * tilesPerSlice, to * tilesPerSlice, 0);
+        float[] p = projection;
+        int stored = 0;
+        int dropped = 0;
+        for (int i = 0; i < lightCount; i++) {
+            int s0 = Math.max(lightSlices[i * 2], from);
+            int s1 = Math.min(lightSlices[i * 2 + 1], to - 1);
+            if (s0 > s1) {
+                continue;
+            }
+            float x = viewX[i], y = viewY[i], z = viewZ[i], r = radius[i];
+            float r2 = r * r;
+            for (int s = s0; s <= s1; s++) {
+                float d0 = Math.max(sliceDepths[s], -z - r);
+                float d1 = Math.min(sliceDepths[s + 1], -z + r);
+                // ndc x is p0 * x / depth - p8, smallest at the left edge
+                // over one of the two depths
+                float minX = p[0] * Math.min((x - r) / d0, (x - r) / d1) - p[8];
+                float maxX = p[0] * Math.max((x + r) / d0, (x + r) / d1) - p[8];
+                float minY = p[5] * Math.min((y - r) / d0, (y - r) / d1) - p[9];
+                float maxY = p[5] * Math.max((y + r) / d0, (y + r) / d1) - p[9];
+                if (maxX < -1 || minX > 1 || maxY < -1 || minY > 1) {
+                    continue;
+                }
+                int tx0 = tile(minX, tilesX), tx1 = tile(maxX, tilesX);
+                int ty1 = tile(maxY, tilesY);
+                for (int ty = tile(minY, tilesY); ty <= ty1; ty++) {
+                    int cluster = (s * tilesY + ty) * tilesX + tx0;
+                    for (int tx = tx0; tx <= tx1; tx++, cluster++) {
+                        int b = cluster * 6;
+                        float dx = Math.max(Math.max(clusterBounds[b] - x,
+                                x - clusterBounds[b + 3]), 0);
+                        float dy = Math.max(Math.max(clusterBounds[b + 1] - y,
+                                y - clusterBounds[b + 4]), 0);
+                        float dz = Math.max(Math.max(clusterBounds[b + 2] - z,
+                                z - clusterBounds[b + 5]), 0);
+                        if (dx * dx + dy * dy + dz * dz > r2) {
+                            continue;
+                        }
+                        int count = clusterCounts[cluster];
+                        if (count == maxPerCluster) {
+                            dropped++;
+                            continue;
+                        }
+                        clusterLights[cluster * maxPerCluster + count] = (short) i;
+                        clusterCounts[cluster] = count + 1;
+                        stored++;
+                    }
+                }
+            }
+        }
+        assignments.addAndGet(stored);
+        overflows.addAndGet(dropped);
+    }
+
+    /**
+     * Write the cluster headers and the lists after them, with no gaps.
+     */
+    private void pack() {
+        int bytes = clusterCount * 4 + assignments.get() * 2;
+        if (packed == null || packed.capacity() < bytes) {
+            packed = ByteBuffer.allocateDirect(Math.max(bytes, packed == null ? 0
+                    : packed.capacity() * 2)).order(ByteOrder.nativeOrder());
+        }
+        int offset = 0;
+        int at = clusterCount * 4;
+        for (int c = 0; c < clusterCount; c++) {
+            int count = clusterCounts[c];
+            packed.putInt(c * 4, offset << 8 | count);
+            int base = c * maxPerCluster;
+            for (int i = 0; i < count; i++) {
+                packed.putShort(at, clusterLights[base + i]);
+                at += 2;
+            }
+            offset += count;
+        }
+        packedBytes = bytes;
+    }
+
+    private int slice(float depth) {
+        int s = (int) Math.floor(Math.log(depth) * sliceScale + sliceBias);
+        return Math.max(0, Math.min(slices - 1, s));
+    }
+
+    private static int tile(float ndc, int tiles) {
+        int t = (int) Math.floor((ndc + 1) * 0.5f * tiles);
+        return Math.max(0, Math.min(tiles - 1, t));
+    }
+
+    private void allocateLights(int capacity) {
+        worldX = grow(worldX, capacity);
+        worldY = grow(worldY, capacity);
+        worldZ = grow(worldZ, capacity);
+        radius = grow(radius, capacity);
+        colors = grow(colors, capacity * 3);
+        viewX = grow(viewX, capacity);
+        viewY = grow(viewY, capacity);
+        viewZ = grow(viewZ, capacity);
+        packedLights = grow(packedLights, capacity * LIGHT_FLOATS);
+        lightSlices = lightSlices == null ? new int[capacity * 2]
+                : Arrays.copyOf(lightSlices, capacity * 2);
+    }
+
+    private static float[] grow(float[] array, int length) {
+        return array == null ? new float[length] : Arrays.copyOf(array, length);
+    }
+
+    private static boolean equal(float[] a, int offset, float[] b) {
+        for (int i = 0; i < 16; i++) {
+            if (a[offset + i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void checkLight(int id) {
+        if (id < 0 || id >= lightCount) {
+            throw new IndexOutOfBoundsException("no light " + id);
+        }
+    }
+
+    private void checkCluster(int cluster) {
+        if (cluster < 0 || cluster >= clusterCount) {
+            throw new IndexOutOfBoundsException("no cluster " + cluster);
+        }
+    }
+
+    private final class BinTask extends RecursiveAction {
+        private final int from;
+        private final int to;
+
+        BinTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                binSlices(from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new BinTask(from, middle), new BinTask(middle, to));
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.cardbookvr.cardboardbox;
+
+import java.nio.Buffer;
+import java.util.Arrays;
+
+/**
+ * GL calls recorded on any thread, to be made later on the GL thread by
+ * {@link #replay}. Methods match their {@link GlBackend} namesakes, except
+ * that buffers are recorded with the position to read them from rather
+ * than by setting it, so threads recording draws of the same vertex data
+ * never touch shared buffers; replay sets each position just before its
+ * call. Uniform values are copied when recorded.
+ *
+ * Commands are packed into int and float arrays that grow as needed and
+ * are reused after {@link #clear}, so recording the same frame again
+ * allocates nothing. One thread at a time.
+ */
+public class CommandList {
+    private static final int OP_CLEAR = 0;
+    private static final int OP_USE_PROGRAM = 1;
+    private static final int OP_UNIFORM_1F = 2;
+    private static final int OP_UNIFORM_3FV = 3;
+    private static final int OP_UNIFORM_4FV = 4;
+    private static final int OP_UNIFORM_MATRIX_4FV = 5;
+    private static final int OP_ATTRIB_POINTER = 6;
+    private static final int OP_DRAW_ARRAYS = 7;
+    private static final int OP_DRAW_ELEMENTS = 8;
+    private static final int OP_ATTRIB_DIVISOR = 9;
+    private static final int OP_DRAW_ELEMENTS_INSTANCED = 10;
+
+    // Opcodes and their int arguments, back to back
+    private int[] words;
+    private int wordCount;
+    private float[] floats;
+    private int floatCount;
+    private Buffer[] buffers;
+    private int bufferCount;
+    private int commandCount;
+
+    public CommandList() {
+        this(256);
+    }
+
+    /**
+     * @param initialWords - ints to start with; every command takes a few.
+     */
+    public CommandList(int initialWords) {
+        if (initialWords < 1) {
+            throw new IllegalArgumentException("initialWords must be positive");
+        }
+        words = new int[initialWords];
+        floats = new float[initialWords];
+        buffers = new Buffer[initialWords / 4 + 1];
+    }
+
+    /**
+     * Forget the recorded commands, keeping the storage.
+     */
+    public void clear() {
+        Arrays.fill(buffers, 0, bufferCount, null);
+        wordCount = 0;
+        floatCount = 0;
+        bufferCount = 0;
+        commandCount = 0;
+    }
+
+    /**
+     * @return commands recorded since the last clear.
+     */
+    public int size() {
+        return commandCount;
+    }
+
+    public void glClear(int mask) {
+        begin(OP_CLEAR, 1);
+        words[wordCount++] = mask;
+    }
+
+    public void glUseProgram(int program) {
+        begin(OP_USE_PROGRAM, 1);
+        words[wordCount++] = program;
+    }
+
+    public void glUniform1f(int location, float x) {
+        begin(OP_UNIFORM_1F, 2);
+        words[wordCount++] = location;
+        words[wordCount++] = Float.floatToRawIntBits(x);
+    }
+
+    public void glUniform3fv(int location, int count, float[] v, int offset) {
+        uniform(OP_UNIFORM_3FV, location, count, v, offset, count * 3);
+    }
+
+    public void glUniform4fv(int location, int count, float[] v, int offset) {
+        uniform(OP_UNIFORM_4FV, location, count, v, offset, count * 4);
+    }
+
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value,
+                                   int offset) {
+        uniform(OP_UNIFORM_MATRIX_4FV, location, transpose ? -count : count, value, offset,
+                count * 16);
+    }
+
+    /**
+     * @param position - where in pointer the attribute starts, in the
+     *                 buffer's own units; pointer's position is left alone.
+     */
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+                                      int stride, Buffer pointer, int position) {
+        begin(OP_ATTRIB_POINTER, 7);
+        words[wordCount++] = index;
+        words[wordCount++] = size;
+        words[wordCount++] = type;
+        words[wordCount++] = normalized ? 1 : 0;
+        words[wordCount++] = stride;
+        words[wordCount++] = addBuffer(pointer);
+        words[wordCount++] = position;
+    }
+
+    public void glDrawArrays(int mode, int first, int count) {
+        begin(OP_DRAW_ARRAYS, 3);
+        words[wordCount++] = mode;
+        words[wordCount++] = first;
+        words[wordCount++] = count;
+    }
+
+    /**
+     * @param position - the first index's position in indices.
+     */
+    public void glDrawElements(int mode, int count, int type, Buffer indices, int position) {
+        begin(OP_DRAW_ELEMENTS, 5);
+        words[wordCount++] = mode;
+        words[wordCount++] = count;
+        words[wordCount++] = type;
+        words[wordCount++] = addBuffer(indices);
+        words[wordCount++] = position;
+    }
+
+    public void glVertexAttribDivisor(int index, int divisor) {
+        begin(OP_ATTRIB_DIVISOR, 2);
+        words[wordCount++] = index;
+        words[wordCount++] = divisor;
+    }
+
+    public void glDrawElementsInstanced(int mode, int count, int type, Buffer indices,
+                                        int position, int instanceCount) {
+        begin(OP_DRAW_ELEMENTS_INSTANCED, 6);
+        words[wordCount++] = mode;
+        words[wordCount++] = count;
+        words[wordCount++] = type;
+        words[wordCount++] = addBuffer(indices);
+        words[wordCount++] = position;
+        words[wordCount++] = instanceCount;
+    }
+
+    /**
+     * Make the recorded calls, in order. The list is kept, and can be
+     * replayed again.
+     */
+    public void replay(GlBackend gl) {
+        int[] w = words;
+        int i = 0;
+        while (i < wordCount) {
+            switch (w[i++]) {
+                case OP_CLEAR:
+                    gl.glClear(w[i++]);
+                    break;
+                case OP_USE_PROGRAM:
+                    gl.glUseProgram(w[i++]);
+                    break;
+                case OP_UNIFORM_1F:
+                    gl.glUniform1f(w[i], Float.intBitsToFloat(w[i + 1]));
+                    i += 2;
+                    break;
+                case OP_UNIFORM_3FV:
+                    gl.glUniform3fv(w[i], w[i + 1], floats, w[i + 2]);
+                    i += 3;
+                    break;
+                case OP_UNIFORM_4FV:
+                    gl.glUniform4fv(w[i], w[i + 1], floats, w[i + 2]);
+                    i += 3;
+                    break;
+                case OP_UNIFORM_MATRIX_4FV: {
+                    int count = w[i + 1];
+                    gl.glUniformMatrix4fv(w[i], Math.abs(count), count < 0, floats, w[i + 2]);
+                    i += 3;
+                    break;
+                }
+                case OP_ATTRIB_POINTER: {
+                    Buffer pointer = buffers[w[i + 5]];
+                    pointer.position(w[i + 6]);
+                    gl.glVertexAttribPointer(w[i], w[i + 1], w[i + 2], w[i + 3] != 0, w[i + 4],
+                            pointer);
+                    i += 7;
+                    break;
+                }
+                case OP_DRAW_ARRAYS:
+                    gl.glDrawArrays(w[i], w[i + 1], w[i + 2]);
+                    i += 3;
+                    break;
+                case OP_DRAW_ELEMENTS: {
+                    Buffer indices = buffers[w[i + 3]];
+                    indices.position(w[i + 4]);
+                    gl.glDrawElements(w[i], w[i + 1], w[i + 2], indices);
+                    i += 5;
+                    break;
+                }
+                case OP_ATTRIB_DIVISOR:
+                    gl.glVertexAttribDivisor(w[i], w[i + 1]);
+                    i += 2;
+                    break;
+                case OP_DRAW_ELEMENTS_INSTANCED: {
+                    Buffer indices = buffers[w[i + 3]];
+                    indices.position(w[i + 4]);
+                    gl.glDrawElementsInstanced(w[i], w[i + 1], w[i + 2], indices, w[i + 5]);
+                    i += 6;
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("corrupt command list at " + (i - 1));
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d commands, %d ints, %d floats, %d buffers", commandCount,
+                wordCount, floatCount, bufferCount);
+    }
+
+    /**
+     * Record a uniform whose count is stored signed, for transpose.
+     */
+    private void uniform(int op, int location, int count, float[] v, int offset, int length) {
+        begin(op, 3);
+        if (floatCount + length > floats.length) {
+            floats = Arrays.copyOf(floats, Math.max(floats.length * 2, floatCount + length));
+        }
+        System.arraycopy(v, offset, floats, floatCount, length);
+        words[wordCount++] = location;
+        words[wordCount++] = count;
+        words[wordCount++] = floatCount;
+        floatCount += length;
+    }
+
+    private void begin(int op, int arguments) {
+        if (wordCount + 1 + arguments > words.length) {
+            words = Arrays.copyOf(words, Math.max(words.length * 2, wordCount + 1 + arguments));
+        }
+        words[wordCount++] = op;
+        commandCount++;
+    }
+
+    private int addBuffer(Buffer buffer) {
+        if (bufferCount == buffers.length) {
+            buffers = Arrays.copyOf(buffers, bufferCount * 2);
+        }
+        buffers[bufferCount] = buffer;
+        return bufferCount++;
+    }
+}
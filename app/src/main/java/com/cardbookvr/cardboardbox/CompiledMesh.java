@@ -0,0 +1,120 @@
+package com.cardbookvr.cardboardbox;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Indexed mesh with position, normal and color interleaved in one vertex
+ * array, as produced by {@link MeshCompiler}.
+ */
+public class CompiledMesh {
+    public static final int POSITION_SIZE = 3;
+    public static final int NORMAL_SIZE = 3;
+    public static final int COLOR_SIZE = 4;
+
+    // Attribute offsets within a vertex, in floats
+    public static final int POSITION_OFFSET = 0;
+    public static final int NORMAL_OFFSET = POSITION_OFFSET + POSITION_SIZE;
+    public static final int COLOR_OFFSET = NORMAL_OFFSET + NORMAL_SIZE;
+
+    private final float[] vertices;
+    private final short[] indices;
+    private final int strideFloats;
+    private final int sourceVertexCount;
+
+    CompiledMesh(float[] vertices, short[] indices, int strideFloats, int sourceVertexCount) {
+        this.vertices = vertices;
+        this.indices = indices;
+        this.strideFloats = strideFloats;
+        this.sourceVertexCount = sourceVertexCount;
+    }
+
+    public float[] getVertices() {
+        return vertices;
+    }
+
+    public short[] getIndices() {
+        return indices;
+    }
+
+    public int getVertexCount() {
+        return vertices.length / strideFloats;
+    }
+
+    public int getIndexCount() {
+        return indices.length;
+    }
+
+    /**
+     * @return the vertex layout, for writing meshes to a {@link MeshFile}.
+     */
+    public static MeshFile.Attribute[] getLayout() {
+        return new MeshFile.Attribute[] {
+                new MeshFile.Attribute(MeshFile.SEMANTIC_POSITION, POSITION_SIZE,
+                        MeshFile.TYPE_FLOAT, false, POSITION_OFFSET * 4),
+                new MeshFile.Attribute(MeshFile.SEMANTIC_NORMAL, NORMAL_SIZE,
+                        MeshFile.TYPE_FLOAT, false, NORMAL_OFFSET * 4),
+                new MeshFile.Attribute(MeshFile.SEMANTIC_COLOR, COLOR_SIZE,
+                        MeshFile.TYPE_FLOAT, false, COLOR_OFFSET * 4),
+        };
+    }
+
+    /**
+     * @return distance between consecutive vertices, in bytes.
+     */
+    public int getStride() {
+        return strideFloats * 4;
+    }
+
+    /**
+     * @return bytes the same geometry takes as unindexed, separate float arrays.
+     */
+    public int getSourceBytes() {
+        return sourceVertexCount * (POSITION_SIZE + NORMAL_SIZE + COLOR_SIZE) * 4;
+    }
+
+    public int getVertexBytes() {
+        return vertices.length * 4;
+    }
+
+    public int getIndexBytes() {
+        return indices.length * 2;
+    }
+
+    public int getCompiledBytes() {
+        return getVertexBytes() + getIndexBytes();
+    }
+
+    /**
+     * Copy the interleaved vertices into a direct buffer for glVertexAttribPointer.
+     */
+    public FloatBuffer createVertexBuffer() {
+        ByteBuffer bb = ByteBuffer.allocateDirect(getVertexBytes());
+        bb.order(ByteOrder.nativeOrder());
+        FloatBuffer buffer = bb.asFloatBuffer();
+        buffer.put(vertices);
+        buffer.position(0);
+        return buffer;
+    }
+
+    /**
+     * Copy the indices into a direct buffer for glDrawElements.
+     */
+    public ShortBuffer createIndexBuffer() {
+        ByteBuffer bb = ByteBuffer.allocateDirect(getIndexBytes());
+        bb.order(ByteOrder.nativeOrder());
+        ShortBuffer buffer = bb.asShortBuffer();
+        buffer.put(indices);
+        buffer.position(0);
+        return buffer;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d vertices -> %d vertices + %d indices, %d bytes -> %d bytes (stride %d)",
+                sourceVertexCount, getVertexCount(), getIndexCount(),
+                getSourceBytes(), getCompiledBytes(), getStride());
+    }
+}
@@ -94,6 +94,11 @@ public class Cube {
             1.0f,  0.65f, 0.0f, 1.0f,
     };
 
+    // Highlight color for when the user is looking at the cube
+    public static final float[] CUBE_FOUND_COLOR = new float[]{
+            1.0f,  0.65f, 0.0f, 1.0f,
+    };
+
     /**
      * Utility method for generating float arrays for cube faces
      *
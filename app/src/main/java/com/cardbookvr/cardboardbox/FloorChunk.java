@@ -0,0 +1,36 @@
+package com.cardbookvr.cardboardbox;
+
+import java.nio.FloatBuffer;
+
+/**
+ * One square tile of the ground, with its vertices in the
+ * {@link CompiledMesh} layout and world coordinates. All chunks share one
+ * index buffer, see {@link ChunkedFloor#getIndexBuffer()}.
+ */
+public class FloorChunk {
+    private final int chunkX;
+    private final int chunkZ;
+    private final FloatBuffer vertices;
+
+    FloorChunk(int chunkX, int chunkZ, FloatBuffer vertices) {
+        this.chunkX = chunkX;
+        this.chunkZ = chunkZ;
+        this.vertices = vertices;
+    }
+
+    public int getChunkX() {
+        return chunkX;
+    }
+
+    public int getChunkZ() {
+        return chunkZ;
+    }
+
+    public FloatBuffer getVertices() {
+        return vertices;
+    }
+
+    static long key(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xffffffffL);
+    }
+}
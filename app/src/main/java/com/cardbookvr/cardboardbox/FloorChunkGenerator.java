@@ -0,0 +1,126 @@
+package com.cardbookvr.cardboardbox;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Builds the vertices of floor chunks from a {@link Terrain}. A chunk is a
+ * grid of resolution x resolution quads; neighbouring chunks sample the same
+ * heights along their shared edge, so the ground has no cracks. Safe to use
+ * from several threads at once.
+ */
+public class FloorChunkGenerator {
+    public static final int STRIDE_FLOATS = CompiledMesh.POSITION_SIZE + CompiledMesh.NORMAL_SIZE
+            + CompiledMesh.COLOR_SIZE;
+
+    private final Terrain terrain;
+    private final float chunkSize;
+    private final int resolution;
+    private final float[] color;
+
+    /**
+     * @param chunkSize - edge length of a chunk, in world units.
+     * @param resolution - quads along each edge, at most 255.
+     * @param color - r, g, b, a of the ground.
+     */
+    public FloorChunkGenerator(Terrain terrain, float chunkSize, int resolution, float[] color) {
+        if (resolution < 1 || resolution > 255) {
+            throw new IllegalArgumentException("resolution must be in [1, 255]");
+        }
+        this.terrain = terrain;
+        this.chunkSize = chunkSize;
+        this.resolution = resolution;
+        this.color = color.clone();
+    }
+
+    public Terrain getTerrain() {
+        return terrain;
+    }
+
+    public float getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getVertexCount() {
+        return (resolution + 1) * (resolution + 1);
+    }
+
+    public int getIndexCount() {
+        return resolution * resolution * 6;
+    }
+
+    /**
+     * @return a direct buffer large enough for one chunk.
+     */
+    public FloatBuffer allocateVertexBuffer() {
+        return ByteBuffer.allocateDirect(getVertexCount() * STRIDE_FLOATS * 4)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    /**
+     * @return the indices of a chunk's grid, the same for every chunk.
+     */
+    public ShortBuffer createIndexBuffer() {
+        ShortBuffer indices = ByteBuffer.allocateDirect(getIndexCount() * 2)
+                .order(ByteOrder.nativeOrder()).asShortBuffer();
+        int row = resolution + 1;
+        for (int z = 0; z < resolution; z++) {
+            for (int x = 0; x < resolution; x++) {
+                // Counter-clockwise seen from above
+                int a = z * row + x;
+                indices.put((short) a);
+                indices.put((short) (a + row));
+                indices.put((short) (a + 1));
+                indices.put((short) (a + 1));
+                indices.put((short) (a + row));
+                indices.put((short) (a + row + 1));
+            }
+        }
+        indices.position(0);
+        return indices;
+    }
+
+    /**
+     * Fill out with the vertices of the chunk at (chunkX, chunkZ).
+     */
+    public void generate(int chunkX, int chunkZ, FloatBuffer out) {
+        float step = chunkSize / resolution;
+        float originX = chunkX * chunkSize;
+        float originZ = chunkZ * chunkSize;
+        int row = resolution + 1;
+        // One extra sample on every side for the normals
+        float[] heights = new float[(row + 2) * (row + 2)];
+        for (int z = -1; z <= row; z++) {
+            for (int x = -1; x <= row; x++) {
+                heights[(z + 1) * (row + 2) + x + 1] =
+                        terrain.height(originX + x * step, originZ + z * step);
+            }
+        }
+
+        int o = 0;
+        for (int z = 0; z < row; z++) {
+            for (int x = 0; x < row; x++) {
+                int h = (z + 1) * (row + 2) + x + 1;
+                out.put(o + CompiledMesh.POSITION_OFFSET, originX + x * step);
+                out.put(o + CompiledMesh.POSITION_OFFSET + 1, heights[h]);
+                out.put(o + CompiledMesh.POSITION_OFFSET + 2, originZ + z * step);
+
+                // Central differences
+                float nx = heights[h - 1] - heights[h + 1];
+                float nz = heights[h - (row + 2)] - heights[h + (row + 2)];
+                float ny = 2 * step;
+                float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+                out.put(o + CompiledMesh.NORMAL_OFFSET, nx / length);
+                out.put(o + CompiledMesh.NORMAL_OFFSET + 1, ny / length);
+                out.put(o + CompiledMesh.NORMAL_OFFSET + 2, nz / length);
+
+                for (int k = 0; k < CompiledMesh.COLOR_SIZE; k++) {
+                    out.put(o + CompiledMesh.COLOR_OFFSET + k, color[k]);
+                }
+                o += STRIDE_FLOATS;
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.cardbookvr.cardboardbox;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-stage timings for the render loop.
+ *
+ * The GL thread brackets each StereoRenderer callback with
+ * {@link #begin()} and {@link #end}, and calls {@link #frameStarted} at the
+ * top of every frame to track the frame interval and count frames that
+ * missed the display budget. Recording is a clock read and a few ordered
+ * stores; other threads read the results through {@link #snapshot}.
+ */
+public class FrameMetrics {
+    public static final int STAGE_NEW_FRAME = 0;
+    // Draw eye stages are offset by Eye.Type: MONOCULAR, LEFT, RIGHT
+    public static final int STAGE_DRAW_EYE = 1;
+    public static final int STAGE_FINISH_FRAME = 4;
+    public static final int STAGE_SURFACE_CREATED = 5;
+    public static final int STAGE_FRAME_INTERVAL = 6;
+    public static final int STAGE_COUNT = 7;
+
+    private static final String[] STAGE_NAMES = {
+            "onNewFrame", "onDrawEye(mono)", "onDrawEye(left)", "onDrawEye(right)",
+            "onFinishFrame", "onSurfaceCreated", "frame interval",
+    };
+
+    // Longer gaps mean the renderer was paused, not that frames were dropped
+    private static final long PAUSE_NANOS = 1000000000L;
+
+    private final LatencyHistogram[] stages = new LatencyHistogram[STAGE_COUNT];
+    private final long frameBudgetNanos;
+
+    // Only touched by the GL thread
+    private long lastFrameStart;
+
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+
+    /**
+     * @param frameBudgetNanos - display refresh interval, e.g. 16666667 for 60Hz.
+     */
+    public FrameMetrics(long frameBudgetNanos) {
+        this.frameBudgetNanos = frameBudgetNanos;
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            stages[i] = new LatencyHistogram();
+        }
+    }
+
+    public static int eyeStage(int eyeType) {
+        return STAGE_DRAW_EYE + eyeType;
+    }
+
+    public static String getStageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    public long begin() {
+        return System.nanoTime();
+    }
+
+    public void end(int stage, long start) {
+        stages[stage].record(System.nanoTime() - start);
+    }
+
+    /**
+     * Record a duration measured elsewhere.
+     */
+    public void record(int stage, long nanos) {
+        stages[stage].record(nanos);
+    }
+
+    /**
+     * Mark the start of a frame. Intervals longer than one and a half
+     * budgets count the vsyncs that were skipped as dropped frames.
+     */
+    public void frameStarted(long now) {
+        long interval = now - lastFrameStart;
+        if (lastFrameStart != 0 && interval < PAUSE_NANOS) {
+            stages[STAGE_FRAME_INTERVAL].record(interval);
+            long missed = (interval + frameBudgetNanos / 2) / frameBudgetNanos - 1;
+            if (missed > 0) {
+                droppedFrames.lazySet(droppedFrames.get() + missed);
+            }
+        }
+        lastFrameStart = now;
+        frames.lazySet(frames.get() + 1);
+    }
+
+    public long getFrameCount() {
+        return frames.get();
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    public long getFrameBudgetNanos() {
+        return frameBudgetNanos;
+    }
+
+    /**
+     * Safe to call from any thread.
+     */
+    public LatencyHistogram.Snapshot snapshot(int stage) {
+        return stages[stage].snapshot();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%d frames, %d dropped", getFrameCount(), getDroppedFrames()));
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            LatencyHistogram.Snapshot s = snapshot(i);
+            if (s.getCount() > 0) {
+                sb.append(String.format("\n%s: n=%d p50=%.3fms p99=%.3fms max=%.3fms",
+                        STAGE_NAMES[i], s.getCount(), s.getP50() / 1e6, s.getP99() / 1e6,
+                        s.getMax() / 1e6));
+            }
+        }
+        return sb.toString();
+    }
+}
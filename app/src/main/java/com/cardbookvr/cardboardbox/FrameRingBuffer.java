@@ -0,0 +1,123 @@
+package com.cardbookvr.cardboardbox;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Scratch memory for data rebuilt every frame, such as batched or
+ * animated vertices, allocated by bumping an offset and released all at
+ * once when the frame ends.
+ *
+ * One direct buffer is split into a region per frame in flight, used in
+ * turn by frame index, so a frame never overwrites data a previous one may
+ * still be reading: with client-side arrays one frame is enough, while
+ * buffers streamed to the GPU need as many as the driver queues up. After
+ * construction nothing is allocated.
+ */
+public class FrameRingBuffer {
+    private final ByteBuffer memory;
+    private final FloatBuffer floats;
+    private final int frameBytes;
+    private final int frames;
+    private final int alignment;
+
+    private int regionStart;
+    private int used;
+    private int peak;
+    private long overflows;
+
+    /**
+     * @param frameBytes - space for one frame, a multiple of alignment.
+     * @param frames - frames in flight, at least 1.
+     * @param alignment - byte alignment of every allocation, a power of two
+     *                  and at least 4 so float views line up.
+     */
+    public FrameRingBuffer(int frameBytes, int frames, int alignment) {
+        if (alignment < 4 || (alignment & (alignment - 1)) != 0) {
+            throw new IllegalArgumentException("alignment must be a power of two, at least 4");
+        }
+        if (frameBytes <= 0 || frameBytes % alignment != 0) {
+            throw new IllegalArgumentException("frameBytes must be a positive multiple of alignment");
+        }
+        if (frames < 1) {
+            throw new IllegalArgumentException("frames must be at least 1");
+        }
+        this.frameBytes = frameBytes;
+        this.frames = frames;
+        this.alignment = alignment;
+        memory = ByteBuffer.allocateDirect(frameBytes * frames).order(ByteOrder.nativeOrder());
+        floats = memory.asFloatBuffer();
+    }
+
+    /**
+     * Start allocating from the region of the given frame, releasing what
+     * was allocated there frames ago.
+     */
+    public void beginFrame(long frameIndex) {
+        regionStart = (int) (frameIndex % frames) * frameBytes;
+        used = 0;
+    }
+
+    /**
+     * @return byte offset into {@link #getByteBuffer} of the new space, or
+     * -1 if the frame's region is full; the data then has to be drawn
+     * some other way this frame, and {@link #getOverflowCount} says to
+     * make the region bigger.
+     */
+    public int allocate(int bytes) {
+        int size = (bytes + alignment - 1) & -alignment;
+        if (bytes < 0 || used + size > frameBytes) {
+            overflows++;
+            return -1;
+        }
+        int offset = regionStart + used;
+        used += size;
+        peak = Math.max(peak, used);
+        return offset;
+    }
+
+    /**
+     * @return the whole ring; allocations are addressed by byte offset.
+     */
+    public ByteBuffer getByteBuffer() {
+        return memory;
+    }
+
+    /**
+     * @return the whole ring as floats; an allocation starts at its byte
+     * offset / 4.
+     */
+    public FloatBuffer getFloatBuffer() {
+        return floats;
+    }
+
+    /**
+     * @return bytes allocated in the current frame.
+     */
+    public int getUsedBytes() {
+        return used;
+    }
+
+    /**
+     * @return most bytes used by any one frame so far.
+     */
+    public int getPeakBytes() {
+        return peak;
+    }
+
+    public int getFrameBytes() {
+        return frameBytes;
+    }
+
+    /**
+     * @return native bytes held, every frame's region together.
+     */
+    public int getResidentBytes() {
+        return memory.capacity();
+    }
+
+    public long getOverflowCount() {
+        return overflows;
+    }
+}
@@ -0,0 +1,459 @@
+package com.cardbookvr.cardboardbox;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides which objects each eye can see, from world-space boxes tested
+ * against the planes of each eye's view-projection.
+ *
+ * Both eyes look almost the same way, so most objects are either in both
+ * frusta or in neither. A single frustum enclosing both, built from the
+ * corners of the two, settles those with one bounding sphere test each;
+ * only objects crossing its boundary get a box test per eye. Objects fully
+ * inside it count as visible to both eyes, which may draw a few objects
+ * an eye can't quite see, but never misses one.
+ *
+ * Bounds are kept as separate centre and extent arrays so the loop runs
+ * over plain floats, and nothing is allocated per frame. With a
+ * ForkJoinPool, at least {@link #PARALLEL_THRESHOLD} objects are split
+ * across it, which allocates a task per slice.
+ */
+public class FrustumCuller {
+    public static final int EYE_LEFT = 0;
+    public static final int EYE_RIGHT = 1;
+
+    public static final int VISIBLE_NONE = 0;
+    public static final int VISIBLE_LEFT = 1;
+    public static final int VISIBLE_RIGHT = 2;
+    public static final int VISIBLE_BOTH = VISIBLE_LEFT | VISIBLE_RIGHT;
+
+    // Left, right, bottom, top, near, far; a, b, c, d each
+    public static final int PLANE_FLOATS = 24;
+    public static final int PARALLEL_THRESHOLD = 4096;
+
+    private final ForkJoinPool pool;
+
+    private int count;
+    private float[] centerX;
+    private float[] centerY;
+    private float[] centerZ;
+    private float[] extentX;
+    private float[] extentY;
+    private float[] extentZ;
+    private float[] radius;
+    private byte[] visibility;
+
+    private final float[][] eyePlanes = { new float[PLANE_FLOATS], new float[PLANE_FLOATS] };
+    private final boolean[] eyeSet = new boolean[2];
+    private final float[] unionPlanes = new float[PLANE_FLOATS];
+    private boolean unionValid;
+    // Scratch for the union: eight corners of each eye
+    private final float[] corners = new float[2 * 8 * 3];
+
+    private final int[] counts = new int[4];
+    private final AtomicInteger visibleAny = new AtomicInteger();
+    private final AtomicInteger visibleLeft = new AtomicInteger();
+    private final AtomicInteger visibleRight = new AtomicInteger();
+    private final AtomicInteger edges = new AtomicInteger();
+
+    /**
+     * @param capacity - objects to make room for; the culler grows past it.
+     * @param pool - splits large culls, or null to cull on the calling
+     *             thread only.
+     */
+    public FrustumCuller(int capacity, ForkJoinPool pool) {
+        this.pool = pool;
+        allocate(Math.max(capacity, 1));
+    }
+
+    /**
+     * Set an object's world-space box.
+     *
+     * @param bounds - min x, y, z then max x, y, z at offset.
+     */
+    public void setBounds(int id, float[] bounds, int offset) {
+        reserve(id);
+        float ex = (bounds[offset + 3] - bounds[offset]) * 0.5f;
+        float ey = (bounds[offset + 4] - bounds[offset + 1]) * 0.5f;
+        float ez = (bounds[offset + 5] - bounds[offset + 2]) * 0.5f;
+        set(id, bounds[offset] + ex, bounds[offset + 1] + ey, bounds[offset + 2] + ez,
+                ex, ey, ez);
+    }
+
+    /**
+     * Set an object's box from its model-space box and world transform,
+     * as {@link GazePicker#setBounds(int, float[], float[], int)}.
+     *
+     * @param localBounds - min x, y, z then max x, y, z.
+     * @param transforms - holds the world transform at offset.
+     */
+    public void setBounds(int id, float[] localBounds, float[] transforms, int offset) {
+        reserve(id);
+        float lx = (localBounds[0] + localBounds[3]) * 0.5f;
+        float ly = (localBounds[1] + localBounds[4]) * 0.5f;
+        float lz = (localBounds[2] + localBounds[5]) * 0.5f;
+        float hx = (localBounds[3] - localBounds[0]) * 0.5f;
+        float hy = (localBounds[4] - localBounds[1]) * 0.5f;
+        float hz = (localBounds[5] - localBounds[2]) * 0.5f;
+        float[] m = transforms;
+        int o = offset;
+        // The centre moves with the transform, the extents with its
+        // absolute values
+        set(id,
+                m[o] * lx + m[o + 4] * ly + m[o + 8] * lz + m[o + 12],
+                m[o + 1] * lx + m[o + 5] * ly + m[o + 9] * lz + m[o + 13],
+                m[o + 2] * lx + m[o + 6] * ly + m[o + 10] * lz + m[o + 14],
+                Math.abs(m[o]) * hx + Math.abs(m[o + 4]) * hy + Math.abs(m[o + 8]) * hz,
+                Math.abs(m[o + 1]) * hx + Math.abs(m[o + 5]) * hy + Math.abs(m[o + 9]) * hz,
+                Math.abs(m[o + 2]) * hx + Math.abs(m[o + 6]) * hy + Math.abs(m[o + 10]) * hz);
+    }
+
+    /**
+     * Copy an object's world-space box: min x, y, z then max x, y, z.
+     */
+    public void getBounds(int id, float[] bounds, int offset) {
+        checkObject(id);
+        bounds[offset] = centerX[id] - extentX[id];
+        bounds[offset + 1] = centerY[id] - extentY[id];
+        bounds[offset + 2] = centerZ[id] - extentZ[id];
+        bounds[offset + 3] = centerX[id] + extentX[id];
+        bounds[offset + 4] = centerY[id] + extentY[id];
+        bounds[offset + 5] = centerZ[id] + extentZ[id];
+    }
+
+    public int getObjectCount() {
+        return count;
+    }
+
+    /**
+     * Set an eye's frustum for the next {@link #cull}.
+     *
+     * @param eye - EYE_LEFT or EYE_RIGHT.
+     * @param viewProjection - projection times view, 16 floats at offset.
+     */
+    public void setFrustum(int eye, float[] viewProjection, int offset) {
+        extractPlanes(viewProjection, offset, eyePlanes[eye], 0);
+        eyeSet[eye] = true;
+        unionValid = false;
+    }
+
+    /**
+     * Find what each eye sees. Both frusta have to have been set.
+     *
+     * @return objects visible to at least one eye.
+     */
+    public int cull() {
+        if (!eyeSet[EYE_LEFT] || !eyeSet[EYE_RIGHT]) {
+            throw new IllegalStateException("both eye frusta must be set before culling");
+        }
+        if (!unionValid) {
+            computeUnion();
+            unionValid = true;
+        }
+        visibleAny.set(0);
+        visibleLeft.set(0);
+        visibleRight.set(0);
+        edges.set(0);
+        if (pool != null && count >= PARALLEL_THRESHOLD) {
+            pool.invoke(new CullTask(0, count));
+        } else {
+            Arrays.fill(counts, 0);
+            cullRange(0, count, counts);
+            addCounts(counts);
+        }
+        return visibleAny.get();
+    }
+
+    /**
+     * @return VISIBLE_NONE, VISIBLE_LEFT, VISIBLE_RIGHT or VISIBLE_BOTH, as
+     * of the last cull.
+     */
+    public int getVisibility(int id) {
+        checkObject(id);
+        return visibility[id];
+    }
+
+    public boolean isVisible(int id, int eye) {
+        checkObject(id);
+        return (visibility[id] & (1 << eye)) != 0;
+    }
+
+    /**
+     * @return objects an eye sees, as of the last cull.
+     */
+    public int getVisibleCount(int eye) {
+        return eye == EYE_LEFT ? visibleLeft.get() : visibleRight.get();
+    }
+
+    /**
+     * @return objects the last cull had to test per eye.
+     */
+    public int getEdgeCount() {
+        return edges.get();
+    }
+
+    /**
+     * Copy the planes enclosing both eyes' frusta, as of the last cull.
+     */
+    public void getUnionPlanes(float[] planes, int offset) {
+        System.arraycopy(unionPlanes, 0, planes, offset, PLANE_FLOATS);
+    }
+
+    /**
+     * Extract the six planes of a view-projection matrix, after Gribb and
+     * Hartmann: each is the sum or difference of the w row and the x, y or
+     * z row. Normals point inwards and are unit length, so a point's
+     * signed distance to plane i is a * x + b * y + c * z + d.
+     *
+     * @param m - column-major view-projection, 16 floats at offset.
+     * @param planes - receives PLANE_FLOATS floats at planesOffset.
+     */
+    public static void extractPlanes(float[] m, int offset, float[] planes, int planesOffset) {
+        for (int plane = 0; plane < 6; plane++) {
+            int row = plane / 2;
+            float sign = plane % 2 == 0 ? 1 : -1;
+            int p = planesOffset + plane * 4;
+            for (int col = 0; col < 4; col++) {
+                planes[p + col] = m[offset + col * 4 + 3] + sign * m[offset + col * 4 + row];
+            }
+            float length = (float) Math.sqrt(planes[p] * planes[p] + planes[p + 1] * planes[p + 1]
+                    + planes[p + 2] * planes[p + 2]);
+            for (int k = 0; k < 4; k++) {
+                planes[p + k] /= length;
+            }
+        }
+    }
+
+    /**
+     * @param planes - as from {@link #extractPlanes}.
+     * @param bounds - min x, y, z then max x, y, z at boundsOffset.
+     * @return whether the box is at least partly inside the planes.
+     */
+    public static boolean intersectsBox(float[] planes, int offset, float[] bounds,
+                                        int boundsOffset) {
+        float ex = (bounds[boundsOffset + 3] - bounds[boundsOffset]) * 0.5f;
+        float ey = (bounds[boundsOffset + 4] - bounds[boundsOffset + 1]) * 0.5f;
+        float ez = (bounds[boundsOffset + 5] - bounds[boundsOffset + 2]) * 0.5f;
+        return boxInside(planes, offset, bounds[boundsOffset] + ex, bounds[boundsOffset + 1] + ey,
+                bounds[boundsOffset + 2] + ez, ex, ey, ez);
+    }
+
+    private static boolean boxInside(float[] planes, int offset, float cx, float cy, float cz,
+                                     float ex, float ey, float ez) {
+        for (int p = offset; p < offset + PLANE_FLOATS; p += 4) {
+            float a = planes[p], b = planes[p + 1], c = planes[p + 2];
+            float distance = a * cx + b * cy + c * cz + planes[p + 3];
+            float reach = Math.abs(a) * ex + Math.abs(b) * ey + Math.abs(c) * ez;
+            if (distance < -reach) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The hot loop: a sphere against the union, then boxes against each eye
+     * for spheres crossing it.
+     *
+     * @param counts - gets visible left, visible right, edge and visible
+     *               objects added.
+     */
+    private void cullRange(int from, int to, int[] counts) {
+        float[] u = unionPlanes;
+        float[] left = eyePlanes[EYE_LEFT];
+        float[] right = eyePlanes[EYE_RIGHT];
+        int leftCount = 0;
+        int rightCount = 0;
+        int edgeCount = 0;
+        int visibleCount = 0;
+        for (int i = from; i < to; i++) {
+            float cx = centerX[i], cy = centerY[i], cz = centerZ[i], r = radius[i];
+            boolean inside = true;
+            boolean outside = false;
+            for (int p = 0; p < PLANE_FLOATS; p += 4) {
+                float distance = u[p] * cx + u[p + 1] * cy + u[p + 2] * cz + u[p + 3];
+                if (distance < -r) {
+                    outside = true;
+                    break;
+                }
+                if (distance < r) {
+                    inside = false;
+                }
+            }
+            int mask;
+            if (outside) {
+                mask = VISIBLE_NONE;
+            } else if (inside) {
+                mask = VISIBLE_BOTH;
+            } else {
+                edgeCount++;
+                float ex = extentX[i], ey = extentY[i], ez = extentZ[i];
+                mask = (boxInside(left, 0, cx, cy, cz, ex, ey, ez) ? VISIBLE_LEFT : 0)
+                        | (boxInside(right, 0, cx, cy, cz, ex, ey, ez) ? VISIBLE_RIGHT : 0);
+            }
+            visibility[i] = (byte) mask;
+            if (mask != VISIBLE_NONE) {
+                visibleCount++;
+            }
+            leftCount += mask & VISIBLE_LEFT;
+            rightCount += (mask & VISIBLE_RIGHT) >> 1;
+        }
+        counts[0] += leftCount;
+        counts[1] += rightCount;
+        counts[2] += edgeCount;
+        counts[3] += visibleCount;
+    }
+
+    private void addCounts(int[] counts) {
+        visibleLeft.addAndGet(counts[0]);
+        visibleRight.addAndGet(counts[1]);
+        edges.addAndGet(counts[2]);
+        visibleAny.addAndGet(counts[3]);
+    }
+
+    /**
+     * Planes enclosing both frusta: for each side, the mean of the eyes'
+     * normals, pushed out until every corner of both frusta is inside.
+     * As both frusta are the convex hulls of their corners, anything
+     * either eye sees is inside the result, and when the eyes' planes
+     * coincide or are parallel it is exactly the outer one.
+     */
+    private void computeUnion() {
+        for (int eye = 0; eye < 2; eye++) {
+            float[] planes = eyePlanes[eye];
+            int c = eye * 24;
+            for (int corner = 0; corner < 8; corner++) {
+                intersect(planes, (corner & 1) * 4, 8 + ((corner >> 1) & 1) * 4,
+                        16 + ((corner >> 2) & 1) * 4, corners, c + corner * 3);
+            }
+        }
+        float[] left = eyePlanes[EYE_LEFT];
+        float[] right = eyePlanes[EYE_RIGHT];
+        for (int p = 0; p < PLANE_FLOATS; p += 4) {
+            float a = left[p] + right[p];
+            float b = left[p + 1] + right[p + 1];
+            float c = left[p + 2] + right[p + 2];
+            float length = (float) Math.sqrt(a * a + b * b + c * c);
+            if (length < 1e-6f) {
+                // Opposed normals: no plane bounds both, so this side culls nothing
+                unionPlanes[p] = 0;
+                unionPlanes[p + 1] = 0;
+                unionPlanes[p + 2] = 0;
+                unionPlanes[p + 3] = Float.POSITIVE_INFINITY;
+                continue;
+            }
+            a /= length;
+            b /= length;
+            c /= length;
+            float nearest = Float.POSITIVE_INFINITY;
+            for (int k = 0; k < corners.length; k += 3) {
+                nearest = Math.min(nearest, a * corners[k] + b * corners[k + 1]
+                        + c * corners[k + 2]);
+            }
+            unionPlanes[p] = a;
+            unionPlanes[p + 1] = b;
+            unionPlanes[p + 2] = c;
+            unionPlanes[p + 3] = -nearest;
+        }
+    }
+
+    /**
+     * The point where three planes meet.
+     */
+    private static void intersect(float[] planes, int p1, int p2, int p3, float[] out,
+                                  int outOffset) {
+        float a1 = planes[p1], b1 = planes[p1 + 1], c1 = planes[p1 + 2], d1 = planes[p1 + 3];
+        float a2 = planes[p2], b2 = planes[p2 + 1], c2 = planes[p2 + 2], d2 = planes[p2 + 3];
+        float a3 = planes[p3], b3 = planes[p3 + 1], c3 = planes[p3 + 2], d3 = planes[p3 + 3];
+        // n2 x n3, n3 x n1, n1 x n2
+        float x23 = b2 * c3 - c2 * b3, y23 = c2 * a3 - a2 * c3, z23 = a2 * b3 - b2 * a3;
+        float x31 = b3 * c1 - c3 * b1, y31 = c3 * a1 - a3 * c1, z31 = a3 * b1 - b3 * a1;
+        float x12 = b1 * c2 - c1 * b2, y12 = c1 * a2 - a1 * c2, z12 = a1 * b2 - b1 * a2;
+        float denominator = -(a1 * x23 + b1 * y23 + c1 * z23);
+        out[outOffset] = (d1 * x23 + d2 * x31 + d3 * x12) / denominator;
+        out[outOffset + 1] = (d1 * y23 + d2 * y31 + d3 * y12) / denominator;
+        out[outOffset + 2] = (d1 * z23 + d2 * z31 + d3 * z12) / denominator;
+    }
+
+    private void set(int id, float cx, float cy, float cz, float ex, float ey, float ez) {
+        centerX[id] = cx;
+        centerY[id] = cy;
+        centerZ[id] = cz;
+        extentX[id] = ex;
+        extentY[id] = ey;
+        extentZ[id] = ez;
+        radius[id] = (float) Math.sqrt(ex * ex + ey * ey + ez * ez);
+    }
+
+    private void reserve(int id) {
+        if (id < 0) {
+            throw new IndexOutOfBoundsException("object id " + id + " out of range");
+        }
+        if (id >= centerX.length) {
+            grow(Math.max(id + 1, centerX.length * 2));
+        }
+        if (id >= count) {
+            // Objects skipped over are empty boxes at the origin
+            for (int i = count; i < id; i++) {
+                set(i, 0, 0, 0, 0, 0, 0);
+            }
+            count = id + 1;
+        }
+    }
+
+    private void checkObject(int id) {
+        if (id < 0 || id >= count) {
+            throw new IndexOutOfBoundsException("object id " + id + " out of range");
+        }
+    }
+
+    private void allocate(int capacity) {
+        centerX = new float[capacity];
+        centerY = new float[capacity];
+        centerZ = new float[capacity];
+        extentX = new float[capacity];
+        extentY = new float[capacity];
+        extentZ = new float[capacity];
+        radius = new float[capacity];
+        visibility = new byte[capacity];
+    }
+
+    private void grow(int capacity) {
+        centerX = Arrays.copyOf(centerX, capacity);
+        centerY = Arrays.copyOf(centerY, capacity);
+        centerZ = Arrays.copyOf(centerZ, capacity);
+        extentX = Arrays.copyOf(extentX, capacity);
+        extentY = Arrays.copyOf(extentY, capacity);
+        extentZ = Arrays.copyOf(extentZ, capacity);
+        radius = Arrays.copyOf(radius, capacity);
+        visibility = Arrays.copyOf(visibility, capacity);
+    }
+
+    /**
+     * Culls a slice, halving it until it is small enough to do directly.
+     */
+    private final class CullTask extends RecursiveAction {
+        private final int from;
+        private final int to;
+
+        CullTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                int[] sliceCounts = new int[4];
+                cullRange(from, to, sliceCounts);
+                addCounts(sliceCounts);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new CullTask(from, middle), new CullTask(middle, to));
+        }
+    }
+}
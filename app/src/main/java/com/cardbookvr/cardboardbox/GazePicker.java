@@ -0,0 +1,387 @@
+package com.cardbookvr.cardboardbox;
+
+import java.util.Arrays;
+
+/**
+ * Casts the head-forward gaze ray against a bounding volume hierarchy of
+ * world-space axis aligned bounding boxes and reports the nearest hit.
+ *
+ * Objects are either boxes or spheres. A spinning object picked by its box
+ * grows and shrinks with its spin; a sphere around it stays the same.
+ * Only ids given bounds can be hit, so the caller decides what is
+ * pickable.
+ *
+ * All storage is allocated up front, so {@link #refit()} and {@link #pick}
+ * can run once per frame without creating garbage.
+ */
+public class GazePicker {
+    public static final int NO_HIT = -1;
+
+    private static final int LEAF_SIZE = 4;
+    private static final int STACK_SIZE = 64;
+
+    private final int capacity;
+    private int objectCount;
+
+    // Object bounds, one entry per object id; empty until set
+    private final float[] objMin;
+    private final float[] objMax;
+    // Sphere radius, or negative for a box
+    private final float[] objRadius;
+
+    // Tree nodes. Internal nodes have count 0 and their children at
+    // first and first + 1; leaves index into objectOrder.
+    private final float[] nodeMin;
+    private final float[] nodeMax;
+    private final int[] nodeFirst;
+    private final int[] nodeCount;
+    private int nodesUsed;
+    private final int[] objectOrder;
+
+    private final int[] stack = new int[STACK_SIZE];
+    private float hitDistance;
+
+    public GazePicker(int capacity) {
+        this.capacity = capacity;
+        objMin = new float[capacity * 3];
+        objMax = new float[capacity * 3];
+        objRadius = new float[capacity];
+        Arrays.fill(objMin, Float.POSITIVE_INFINITY);
+        Arrays.fill(objMax, Float.NEGATIVE_INFINITY);
+        Arrays.fill(objRadius, -1);
+        nodeMin = new float[capacity * 2 * 3];
+        nodeMax = new float[capacity * 2 * 3];
+        nodeFirst = new int[capacity * 2];
+        nodeCount = new int[capacity * 2];
+        objectOrder = new int[capacity];
+    }
+
+    public int getObjectCount() {
+        return objectCount;
+    }
+
+    /**
+     * Set the world-space bounds of an object.
+     */
+    public void setBounds(int id, float minX, float minY, float minZ,
+                          float maxX, float maxY, float maxZ) {
+        if (id < 0 || id >= capacity) {
+            throw new IndexOutOfBoundsException("object id " + id + " out of range");
+        }
+        int o = id * 3;
+        objMin[o] = minX;
+        objMin[o + 1] = minY;
+        objMin[o + 2] = minZ;
+        objMax[o] = maxX;
+        objMax[o + 1] = maxY;
+        objMax[o + 2] = maxZ;
+        objRadius[id] = -1;
+        if (id >= objectCount) {
+            objectCount = id + 1;
+        }
+    }
+
+    /**
+     * Make an object a world-space sphere.
+     */
+    public void setSphere(int id, float x, float y, float z, float radius) {
+        if (!(radius >= 0)) {
+            throw new IllegalArgumentException("radius must not be negative");
+        }
+        setBounds(id, x - radius, y - radius, z - radius, x + radius, y + radius, z + radius);
+        objRadius[id] = radius;
+    }
+
+    /**
+     * Set the bounds of an object from its model-space box and model transform.
+     *
+     * @param localBounds - float[6] holding min x, y, z then max x, y, z.
+     * @param transform - column-major model matrix.
+     */
+    public void setBounds(int id, float[] localBounds, float[] transform) {
+        setBounds(id, localBounds, transform, 0);
+    }
+
+    /**
+     * Set the bounds of an object from its model-space box and the model
+     * matrix at offset in transforms.
+     */
+    public void setBounds(int id, float[] localBounds, float[] transforms, int offset) {
+        float minX = transforms[offset + 12];
+        float minY = transforms[offset + 13];
+        float minZ = transforms[offset + 14];
+        float maxX = minX, maxY = minY, maxZ = minZ;
+        // Transform the box one matrix element at a time (Arvo's method)
+        for (int col = 0; col < 3; col++) {
+            float lo = localBounds[col];
+            float hi = localBounds[col + 3];
+            int c = offset + col * 4;
+            float ax = transforms[c] * lo, bx = transforms[c] * hi;
+            float ay = transforms[c + 1] * lo, by = transforms[c + 1] * hi;
+            float az = transforms[c + 2] * lo, bz = transforms[c + 2] * hi;
+            minX += Math.min(ax, bx);
+            maxX += Math.max(ax, bx);
+            minY += Math.min(ay, by);
+            maxY += Math.max(ay, by);
+            minZ += Math.min(az, bz);
+            maxZ += Math.max(az, bz);
+        }
+        setBounds(id, minX, minY, minZ, maxX, maxY, maxZ);
+    }
+
+    /**
+     * Utility method for computing the model-space box of a vertex array.
+     *
+     * @param coords - float[] of x, y, z triples.
+     * @return - float[6] holding min x, y, z then max x, y, z.
+     */
+    public static float[] computeLocalBounds(float[] coords) {
+        float[] bounds = new float[] {
+                Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+                Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY,
+        };
+        for (int i = 0; i + 2 < coords.length; i += 3) {
+            for (int k = 0; k < 3; k++) {
+                bounds[k] = Math.min(bounds[k], coords[i + k]);
+                bounds[k + 3] = Math.max(bounds[k + 3], coords[i + k]);
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Rebuild the hierarchy from scratch. Call after objects are added.
+     */
+    public void build() {
+        for (int i = 0; i < objectCount; i++) {
+            objectOrder[i] = i;
+        }
+        nodesUsed = 1;
+        nodeFirst[0] = 0;
+        nodeCount[0] = objectCount;
+        if (objectCount > 0) {
+            subdivide(0);
+        }
+    }
+
+    /**
+     * Update node bounds after objects moved, keeping the tree topology.
+     */
+    public void refit() {
+        // Children are always stored after their parent, so walk backwards
+        for (int node = nodesUsed - 1; node >= 0; node--) {
+            if (nodeCount[node] > 0) {
+                updateLeafBounds(node);
+            } else {
+                int left = nodeFirst[node];
+                int n = node * 3, l = left * 3, r = (left + 1) * 3;
+                for (int k = 0; k < 3; k++) {
+                    nodeMin[n + k] = Math.min(nodeMin[l + k], nodeMin[r + k]);
+                    nodeMax[n + k] = Math.max(nodeMax[l + k], nodeMax[r + k]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Cast the forward (-Z) ray of a head view matrix into the scene.
+     *
+     * @param headView - world to head transform from HeadTransform.getHeadView.
+     * @return the nearest object id hit, or NO_HIT.
+     */
+    public int pick(float[] headView) {
+        // The ray lives in head space; bring it back to world space with the
+        // transpose of the rotation, assuming headView is rigid.
+        float tx = headView[12], ty = headView[13], tz = headView[14];
+        float ox = -(headView[0] * tx + headView[1] * ty + headView[2] * tz);
+        float oy = -(headView[4] * tx + headView[5] * ty + headView[6] * tz);
+        float oz = -(headView[8] * tx + headView[9] * ty + headView[10] * tz);
+        return pick(ox, oy, oz, -headView[2], -headView[6], -headView[10]);
+    }
+
+    /**
+     * Cast an arbitrary world-space ray into the scene.
+     *
+     * @return the nearest object id hit, or NO_HIT.
+     */
+    public int pick(float ox, float oy, float oz, float dx, float dy, float dz) {
+        hitDistance = Float.POSITIVE_INFINITY;
+        if (objectCount == 0) {
+            return NO_HIT;
+        }
+        float ix = 1.0f / dx, iy = 1.0f / dy, iz = 1.0f / dz;
+        int hit = NO_HIT;
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int node = stack[--top];
+            int n = node * 3;
+            if (intersect(nodeMin, nodeMax, n, ox, oy, oz, ix, iy, iz) >= hitDistance) {
+                continue;
+            }
+            int count = nodeCount[node];
+            if (count > 0) {
+                int first = nodeFirst[node];
+                for (int i = first; i < first + count; i++) {
+                    int id = objectOrder[i];
+                    float t = objRadius[id] < 0
+                            ? intersect(objMin, objMax, id * 3, ox, oy, oz, ix, iy, iz)
+                            : intersectSphere(id, ox, oy, oz, dx, dy, dz);
+                    if (t < hitDistance) {
+                        hitDistance = t;
+                        hit = id;
+                    }
+                }
+            } else {
+                stack[top++] = nodeFirst[node] + 1;
+                stack[top++] = nodeFirst[node];
+            }
+        }
+        return hit;
+    }
+
+    /**
+     * @return distance along the ray to the last hit, or infinity if none.
+     */
+    public float getHitDistance() {
+        return hitDistance;
+    }
+
+    /**
+     * Slab test. Returns the entry distance, or infinity if the ray misses.
+     */
+    private static float intersect(float[] min, float[] max, int o,
+                                   float ox, float oy, float oz,
+                                   float ix, float iy, float iz) {
+        if (min[o] > max[o]) {
+            // Never set
+            return Float.POSITIVE_INFINITY;
+        }
+        float t1 = (min[o] - ox) * ix, t2 = (max[o] - ox) * ix;
+        float tNear = Math.min(t1, t2), tFar = Math.max(t1, t2);
+        t1 = (min[o + 1] - oy) * iy;
+        t2 = (max[o + 1] - oy) * iy;
+        tNear = Math.max(tNear, Math.min(t1, t2));
+        tFar = Math.min(tFar, Math.max(t1, t2));
+        t1 = (min[o + 2] - oz) * iz;
+        t2 = (max[o + 2] - oz) * iz;
+        tNear = Math.max(tNear, Math.min(t1, t2));
+        tFar = Math.min(tFar, Math.max(t1, t2));
+        if (tFar < 0 || tNear > tFar) {
+            return Float.POSITIVE_INFINITY;
+        }
+        return Math.max(tNear, 0f);
+    }
+
+    /**
+     * Returns the distance to where the ray enters the sphere, 0 if it
+     * starts inside, or infinity if it misses.
+     */
+    private float intersectSphere(int id, float ox, float oy, float oz,
+                                  float dx, float dy, float dz) {
+        int o = id * 3;
+        float r = objRadius[id];
+        // From the centre to the ray origin
+        float cx = ox - (objMin[o] + r);
+        float cy = oy - (objMin[o + 1] + r);
+        float cz = oz - (objMin[o + 2] + r);
+        float a = dx * dx + dy * dy + dz * dz;
+        float b = dx * cx + dy * cy + dz * cz;
+        float c = cx * cx + cy * cy + cz * cz - r * r;
+        if (c <= 0) {
+            return 0;
+        }
+        float discriminant = b * b - a * c;
+        if (b >= 0 || discriminant < 0) {
+            return Float.POSITIVE_INFINITY;
+        }
+        return (-b - (float) Math.sqrt(discriminant)) / a;
+    }
+
+    private void subdivide(int node) {
+        updateLeafBounds(node);
+        int first = nodeFirst[node];
+        int count = nodeCount[node];
+        if (count <= LEAF_SIZE) {
+            return;
+        }
+
+        // Split at the median centroid along the longest axis
+        int n = node * 3;
+        int axis = 0;
+        float extent = nodeMax[n] - nodeMin[n];
+        for (int k = 1; k < 3; k++) {
+            if (nodeMax[n + k] - nodeMin[n + k] > extent) {
+                extent = nodeMax[n + k] - nodeMin[n + k];
+                axis = k;
+            }
+        }
+        int mid = first + count / 2;
+        select(first, first + count - 1, mid, axis);
+
+        int left = nodesUsed;
+        nodesUsed += 2;
+        nodeFirst[left] = first;
+        nodeCount[left] = mid - first;
+        nodeFirst[left + 1] = mid;
+        nodeCount[left + 1] = first + count - mid;
+        nodeFirst[node] = left;
+        nodeCount[node] = 0;
+        subdivide(left);
+        subdivide(left + 1);
+    }
+
+    private void updateLeafBounds(int node) {
+        int n = node * 3;
+        float minX = Float.POSITIVE_INFINITY, minY = minX, minZ = minX;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = maxX, maxZ = maxX;
+        int first = nodeFirst[node];
+        for (int i = first; i < first + nodeCount[node]; i++) {
+            int o = objectOrder[i] * 3;
+            minX = Math.min(minX, objMin[o]);
+            minY = Math.min(minY, objMin[o + 1]);
+            minZ = Math.min(minZ, objMin[o + 2]);
+            maxX = Math.max(maxX, objMax[o]);
+            maxY = Math.max(maxY, objMax[o + 1]);
+            maxZ = Math.max(maxZ, objMax[o + 2]);
+        }
+        nodeMin[n] = minX;
+        nodeMin[n + 1] = minY;
+        nodeMin[n + 2] = minZ;
+        nodeMax[n] = maxX;
+        nodeMax[n + 1] = maxY;
+        nodeMax[n + 2] = maxZ;
+    }
+
+    /**
+     * Quickselect on objectOrder so the k-th centroid along axis ends up at k.
+     */
+    private void select(int lo, int hi, int k, int axis) {
+        while (hi > lo) {
+            float pivot = centroid(objectOrder[(lo + hi) >>> 1], axis);
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (centroid(objectOrder[i], axis) < pivot) i++;
+                while (centroid(objectOrder[j], axis) > pivot) j--;
+                if (i <= j) {
+                    int tmp = objectOrder[i];
+                    objectOrder[i] = objectOrder[j];
+                    objectOrder[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private float centroid(int id, int axis) {
+        return objMin[id * 3 + axis] + objMax[id * 3 + axis];
+    }
+}
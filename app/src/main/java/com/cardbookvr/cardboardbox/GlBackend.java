@@ -0,0 +1,61 @@
+package com.cardbookvr.cardboardbox;
+
+import java.nio.Buffer;
+
+/**
+ * The GLES20 calls the renderer makes, so {@link GlState} can sit in front
+ * of the driver and be exercised on the JVM with a recording stub in place
+ * of it. Methods match their GLES20 namesakes, or GLES30 for the two
+ * instancing calls, which need an OpenGL ES 3.0 context.
+ */
+public interface GlBackend {
+    // The GLES20 constants the renderer passes, with the same values
+    int GL_DEPTH_BUFFER_BIT = 0x00000100;
+    int GL_COLOR_BUFFER_BIT = 0x00004000;
+    int GL_TRIANGLES = 0x0004;
+    int GL_DEPTH_TEST = 0x0B71;
+    int GL_UNSIGNED_SHORT = 0x1403;
+    int GL_FLOAT = 0x1406;
+    int GL_VERSION = 0x1F02;
+    int GL_FRAGMENT_SHADER = 0x8B30;
+    int GL_VERTEX_SHADER = 0x8B31;
+
+    String glGetString(int name);
+
+    void glClear(int mask);
+
+    void glEnable(int cap);
+
+    void glDisable(int cap);
+
+    void glUseProgram(int program);
+
+    int glGetAttribLocation(int program, String name);
+
+    int glGetUniformLocation(int program, String name);
+
+    void glEnableVertexAttribArray(int index);
+
+    void glDisableVertexAttribArray(int index);
+
+    void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride,
+                               Buffer pointer);
+
+    void glUniform1f(int location, float x);
+
+    void glUniform3fv(int location, int count, float[] v, int offset);
+
+    void glUniform4fv(int location, int count, float[] v, int offset);
+
+    void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value,
+                            int offset);
+
+    void glDrawArrays(int mode, int first, int count);
+
+    void glDrawElements(int mode, int count, int type, Buffer indices);
+
+    void glVertexAttribDivisor(int index, int divisor);
+
+    void glDrawElementsInstanced(int mode, int count, int type, Buffer indices,
+                                 int instanceCount);
+}
@@ -0,0 +1,459 @@
+package com.cardbookvr.cardboardbox;
+
+import java.nio.Buffer;
+import java.util.Arrays;
+
+/**
+ * A {@link GlBackend} that remembers the state it has set and drops calls
+ * that would set it to what it already is: the current program, enabled
+ * capabilities, vertex attribute arrays, pointers and divisors, and
+ * uniform values of each program. Draws, clears and queries always go through.
+ *
+ * Each call is counted as issued or skipped by kind, per frame; the counts
+ * of the last finished frame are kept by {@link #beginFrame}. Nothing is
+ * allocated per call once every uniform has been set once.
+ *
+ * The cache is only right while every call goes through it. When other
+ * code may have touched the context, such as the Cardboard distortion
+ * pass between frames, call {@link #invalidate}; after losing the context,
+ * {@link #reset}. GL thread only.
+ */
+public class GlState implements GlBackend {
+    public static final int CALL_PROGRAM = 0;
+    public static final int CALL_CAPABILITY = 1;
+    public static final int CALL_ATTRIB_ARRAY = 2;
+    public static final int CALL_ATTRIB_POINTER = 3;
+    public static final int CALL_UNIFORM = 4;
+    public static final int CALL_DRAW = 5;
+    public static final int CALL_OTHER = 6;
+    public static final int CALL_KINDS = 7;
+
+    // Vertex attributes tracked; GLES 2.0 guarantees 8
+    private static final int MAX_ATTRIBS = 16;
+    // Capabilities tracked, looked up by value
+    private static final int MAX_CAPABILITIES = 8;
+    // Largest uniform value cached, a 4x4 matrix
+    private static final int UNIFORM_FLOATS = 16;
+    private static final int UNKNOWN = -1;
+    private static final long NO_KEY = Long.MIN_VALUE;
+
+    private final GlBackend backend;
+
+    private int program = UNKNOWN;
+
+    private final int[] capabilities = new int[MAX_CAPABILITIES];
+    // 1 enabled, 0 disabled, UNKNOWN
+    private final int[] capabilityStates = new int[MAX_CAPABILITIES];
+    private int capabilityCount;
+
+    private final int[] attribEnabled = new int[MAX_ATTRIBS];
+    private final Buffer[] attribPointers = new Buffer[MAX_ATTRIBS];
+    private final int[] attribPositions = new int[MAX_ATTRIBS];
+    private final int[] attribSizes = new int[MAX_ATTRIBS];
+    private final int[] attribTypes = new int[MAX_ATTRIBS];
+    private final boolean[] attribNormalized = new boolean[MAX_ATTRIBS];
+    private final int[] attribStrides = new int[MAX_ATTRIBS];
+    private final int[] attribDivisors = new int[MAX_ATTRIBS];
+
+    // Open addressed on (program, location)
+    private long[] uniformKeys;
+    private int[] uniformLengths;
+    private float[] uniformValues;
+    private int uniformCount;
+
+    private final long[] issued = new long[CALL_KINDS];
+    private final long[] skipped = new long[CALL_KINDS];
+    private final long[] frameIssued = new long[CALL_KINDS];
+    private final long[] frameSkipped = new long[CALL_KINDS];
+    private final long[] lastIssued = new long[CALL_KINDS];
+    private final long[] lastSkipped = new long[CALL_KINDS];
+
+    public GlState(GlBackend backend) {
+        this.backend = backend;
+        allocateUniforms(64);
+        invalidate();
+    }
+
+    /**
+     * Forget the context-wide state, which other code may have changed:
+     * the program, capabilities and vertex attributes. Uniform values are
+     * kept, as they belong to programs only this layer sets them on.
+     */
+    public void invalidate() {
+        program = UNKNOWN;
+        Arrays.fill(capabilityStates, UNKNOWN);
+        Arrays.fill(attribEnabled, UNKNOWN);
+        Arrays.fill(attribPointers, null);
+        Arrays.fill(attribDivisors, UNKNOWN);
+    }
+
+    /**
+     * Forget everything, for a new context.
+     */
+    public void reset() {
+        invalidate();
+        capabilityCount = 0;
+        Arrays.fill(uniformKeys, NO_KEY);
+        uniformCount = 0;
+    }
+
+    /**
+     * Start counting a new frame, keeping the counts of the one before.
+     */
+    public void beginFrame() {
+        System.arraycopy(frameIssued, 0, lastIssued, 0, CALL_KINDS);
+        System.arraycopy(frameSkipped, 0, lastSkipped, 0, CALL_KINDS);
+        Arrays.fill(frameIssued, 0);
+        Arrays.fill(frameSkipped, 0);
+    }
+
+    /**
+     * @return calls of a kind passed to the backend in the last finished frame.
+     */
+    public long getFrameIssued(int kind) {
+        return lastIssued[kind];
+    }
+
+    /**
+     * @return calls of a kind dropped in the last finished frame.
+     */
+    public long getFrameSkipped(int kind) {
+        return lastSkipped[kind];
+    }
+
+    public long getFrameIssued() {
+        return sum(lastIssued);
+    }
+
+    public long getFrameSkipped() {
+        return sum(lastSkipped);
+    }
+
+    /**
+     * @return calls of a kind passed to the backend since construction.
+     */
+    public long getIssued(int kind) {
+        return issued[kind];
+    }
+
+    public long getSkipped(int kind) {
+        return skipped[kind];
+    }
+
+    @Override
+    public String toString() {
+        return "GL calls last frame: " + getFrameIssued() + " issued, "
+                + getFrameSkipped() + " skipped";
+    }
+
+    @Override
+    public void glClear(int mask) {
+        issue(CALL_OTHER);
+        backend.glClear(mask);
+    }
+
+    @Override
+    public void glEnable(int cap) {
+        if (setCapability(cap, 1)) {
+            backend.glEnable(cap);
+        }
+    }
+
+    @Override
+    public void glDisable(int cap) {
+        if (setCapability(cap, 0)) {
+            backend.glDisable(cap);
+        }
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        if (program == this.program) {
+            skip(CALL_PROGRAM);
+            return;
+        }
+        issue(CALL_PROGRAM);
+        this.program = program;
+        backend.glUseProgram(program);
+    }
+
+    @Override
+    public String glGetString(int name) {
+        issue(CALL_OTHER);
+        return backend.glGetString(name);
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        issue(CALL_OTHER);
+        return backend.glGetAttribLocation(program, name);
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        issue(CALL_OTHER);
+        return backend.glGetUniformLocation(program, name);
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        if (setAttribArray(index, 1)) {
+            backend.glEnableVertexAttribArray(index);
+        }
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        if (setAttribArray(index, 0)) {
+            backend.glDisableVertexAttribArray(index);
+        }
+    }
+
+    /**
+     * Skipped when the same buffer, at the same position, is already bound
+     * with the same layout. Client side arrays are read at draw time, so
+     * new contents in the same buffer need no new pointer.
+     */
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+                                      int stride, Buffer pointer) {
+        if (index >= 0 && index < MAX_ATTRIBS) {
+            if (attribPointers[index] == pointer && attribPositions[index] == pointer.position()
+                    && attribSizes[index] == size && attribTypes[index] == type
+                    && attribNormalized[index] == normalized && attribStrides[index] == stride) {
+                skip(CALL_ATTRIB_POINTER);
+                return;
+            }
+            attribPointers[index] = pointer;
+            attribPositions[index] = pointer.position();
+            attribSizes[index] = size;
+            attribTypes[index] = type;
+            attribNormalized[index] = normalized;
+            attribStrides[index] = stride;
+        }
+        issue(CALL_ATTRIB_POINTER);
+        backend.glVertexAttribPointer(index, size, type, normalized, stride, pointer);
+    }
+
+    @Override
+    public void glUniform1f(int location, float x) {
+        int slot = uniformSlot(location, 1);
+        if (slot >= 0) {
+            int o = slot * UNIFORM_FLOATS;
+            if (uniformLengths[slot] == 1 && Float.floatToRawIntBits(uniformValues[o])
+                    == Float.floatToRawIntBits(x)) {
+                skip(CALL_UNIFORM);
+                return;
+            }
+            uniformLengths[slot] = 1;
+            uniformValues[o] = x;
+        }
+        issue(CALL_UNIFORM);
+        backend.glUniform1f(location, x);
+    }
+
+    @Override
+    public void glUniform3fv(int location, int count, float[] v, int offset) {
+        if (unchangedUniform(location, v, offset, count * 3)) {
+            skip(CALL_UNIFORM);
+            return;
+        }
+        issue(CALL_UNIFORM);
+        backend.glUniform3fv(location, count, v, offset);
+    }
+
+    @Override
+    public void glUniform4fv(int location, int count, float[] v, int offset) {
+        if (unchangedUniform(location, v, offset, count * 4)) {
+            skip(CALL_UNIFORM);
+            return;
+        }
+        issue(CALL_UNIFORM);
+        backend.glUniform4fv(location, count, v, offset);
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value,
+                                   int offset) {
+        // GLES 2.0 only accepts untransposed matrices
+        if (!transpose && unchangedUniform(location, value, offset, count * 16)) {
+            skip(CALL_UNIFORM);
+            return;
+        }
+        issue(CALL_UNIFORM);
+        backend.glUniformMatrix4fv(location, count, transpose, value, offset);
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count) {
+        issue(CALL_DRAW);
+        backend.glDrawArrays(mode, first, count);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, Buffer indices) {
+        issue(CALL_DRAW);
+        backend.glDrawElements(mode, count, type, indices);
+    }
+
+    @Override
+    public void glVertexAttribDivisor(int index, int divisor) {
+        if (index >= 0 && index < MAX_ATTRIBS) {
+            if (attribDivisors[index] == divisor) {
+                skip(CALL_ATTRIB_ARRAY);
+                return;
+            }
+            attribDivisors[index] = divisor;
+        }
+        issue(CALL_ATTRIB_ARRAY);
+        backend.glVertexAttribDivisor(index, divisor);
+    }
+
+    @Override
+    public void glDrawElementsInstanced(int mode, int count, int type, Buffer indices,
+                                        int instanceCount) {
+        issue(CALL_DRAW);
+        backend.glDrawElementsInstanced(mode, count, type, indices, instanceCount);
+    }
+
+    /**
+     * @return whether the call has to be issued.
+     */
+    private boolean setCapability(int cap, int state) {
+        int i = 0;
+        while (i < capabilityCount && capabilities[i] != cap) {
+            i++;
+        }
+        if (i == capabilityCount) {
+            if (capabilityCount == MAX_CAPABILITIES) {
+                // Untracked, always issued
+                issue(CALL_CAPABILITY);
+                return true;
+            }
+            capabilities[capabilityCount] = cap;
+            capabilityStates[capabilityCount] = UNKNOWN;
+            capabilityCount++;
+        }
+        if (capabilityStates[i] == state) {
+            skip(CALL_CAPABILITY);
+            return false;
+        }
+        capabilityStates[i] = state;
+        issue(CALL_CAPABILITY);
+        return true;
+    }
+
+    private boolean setAttribArray(int index, int state) {
+        if (index >= 0 && index < MAX_ATTRIBS) {
+            if (attribEnabled[index] == state) {
+                skip(CALL_ATTRIB_ARRAY);
+                return false;
+            }
+            attribEnabled[index] = state;
+        }
+        issue(CALL_ATTRIB_ARRAY);
+        return true;
+    }
+
+    /**
+     * Compare a uniform's new value with the cached one and store it.
+     *
+     * @return whether the value is the one already set.
+     */
+    private boolean unchangedUniform(int location, float[] v, int offset, int length) {
+        int slot = uniformSlot(location, length);
+        if (slot < 0) {
+            return false;
+        }
+        int o = slot * UNIFORM_FLOATS;
+        boolean same = uniformLengths[slot] == length;
+        for (int k = 0; same && k < length; k++) {
+            same = Float.floatToRawIntBits(uniformValues[o + k])
+                    == Float.floatToRawIntBits(v[offset + k]);
+        }
+        if (!same) {
+            System.arraycopy(v, offset, uniformValues, o, length);
+            uniformLengths[slot] = length;
+        }
+        return same;
+    }
+
+    /**
+     * @return the cache slot of a uniform of the current program, or -1
+     * if it can't be cached.
+     */
+    private int uniformSlot(int location, int length) {
+        if (program == UNKNOWN || location < 0 || length > UNIFORM_FLOATS) {
+            return -1;
+        }
+        long key = ((long) program << 32) | location;
+        int mask = uniformKeys.length - 1;
+        int slot = hash(key) & mask;
+        while (uniformKeys[slot] != NO_KEY) {
+            if (uniformKeys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (2 * (uniformCount + 1) > uniformKeys.length) {
+            growUniforms();
+            return uniformSlot(location, length);
+        }
+        uniformKeys[slot] = key;
+        // Nothing cached yet
+        uniformLengths[slot] = 0;
+        uniformCount++;
+        return slot;
+    }
+
+    private void allocateUniforms(int capacity) {
+        uniformKeys = new long[capacity];
+        Arrays.fill(uniformKeys, NO_KEY);
+        uniformLengths = new int[capacity];
+        uniformValues = new float[capacity * UNIFORM_FLOATS];
+    }
+
+    private void growUniforms() {
+        long[] keys = uniformKeys;
+        int[] lengths = uniformLengths;
+        float[] values = uniformValues;
+        allocateUniforms(keys.length * 2);
+        int mask = uniformKeys.length - 1;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == NO_KEY) {
+                continue;
+            }
+            int slot = hash(keys[i]) & mask;
+            while (uniformKeys[slot] != NO_KEY) {
+                slot = (slot + 1) & mask;
+            }
+            uniformKeys[slot] = keys[i];
+            uniformLengths[slot] = lengths[i];
+            System.arraycopy(values, i * UNIFORM_FLOATS, uniformValues, slot * UNIFORM_FLOATS,
+                    UNIFORM_FLOATS);
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void issue(int kind) {
+        issued[kind]++;
+        frameIssued[kind]++;
+    }
+
+    private void skip(int kind) {
+        skipped[kind]++;
+        frameSkipped[kind]++;
+    }
+
+    private static long sum(long[] counts) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,104 @@
+package com.cardbookvr.cardboardbox;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import java.nio.Buffer;
+
+/**
+ * {@link GlBackend} on the current GL context.
+ */
+public class GlesBackend implements GlBackend {
+    @Override
+    public String glGetString(int name) {
+        return GLES20.glGetString(name);
+    }
+
+    @Override
+    public void glClear(int mask) {
+        GLES20.glClear(mask);
+    }
+
+    @Override
+    public void glEnable(int cap) {
+        GLES20.glEnable(cap);
+    }
+
+    @Override
+    public void glDisable(int cap) {
+        GLES20.glDisable(cap);
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        GLES20.glUseProgram(program);
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        return GLES20.glGetAttribLocation(program, name);
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        return GLES20.glGetUniformLocation(program, name);
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        GLES20.glEnableVertexAttribArray(index);
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        GLES20.glDisableVertexAttribArray(index);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+                                      int stride, Buffer pointer) {
+        GLES20.glVertexAttribPointer(index, size, type, normalized, stride, pointer);
+    }
+
+    @Override
+    public void glUniform1f(int location, float x) {
+        GLES20.glUniform1f(location, x);
+    }
+
+    @Override
+    public void glUniform3fv(int location, int count, float[] v, int offset) {
+        GLES20.glUniform3fv(location, count, v, offset);
+    }
+
+    @Override
+    public void glUniform4fv(int location, int count, float[] v, int offset) {
+        GLES20.glUniform4fv(location, count, v, offset);
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value,
+                                   int offset) {
+        GLES20.glUniformMatrix4fv(location, count, transpose, value, offset);
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count) {
+        GLES20.glDrawArrays(mode, first, count);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, Buffer indices) {
+        GLES20.glDrawElements(mode, count, type, indices);
+    }
+
+    @Override
+    public void glVertexAttribDivisor(int index, int divisor) {
+        GLES30.glVertexAttribDivisor(index, divisor);
+    }
+
+    @Override
+    public void glDrawElementsInstanced(int mode, int count, int type, Buffer indices,
+                                        int instanceCount) {
+        GLES30.glDrawElementsInstanced(mode, count, type, indices, instanceCount);
+    }
+}
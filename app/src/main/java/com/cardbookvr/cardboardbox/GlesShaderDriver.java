@@ -0,0 +1,119 @@
+package com.cardbookvr.cardboardbox;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * {@link ShaderDriver} on the current GL context. Program binaries need an
+ * OpenGL ES 3.0 context; on ES 2.0 they are simply not cached.
+ */
+public class GlesShaderDriver implements ShaderDriver {
+    private static final String TAG = "GlesShaderDriver";
+
+    private final boolean binariesSupported;
+
+    public GlesShaderDriver() {
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        binariesSupported = version != null && version.startsWith("OpenGL ES 3");
+    }
+
+    @Override
+    public int compileShader(int type, String code) {
+        int shader = GLES20.glCreateShader(type);
+
+        // add the source code to the shader and compile it
+        GLES20.glShaderSource(shader, code);
+        GLES20.glCompileShader(shader);
+
+        int[] status = new int[1];
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0);
+        if (status[0] == 0) {
+            String log = GLES20.glGetShaderInfoLog(shader);
+            GLES20.glDeleteShader(shader);
+            Log.e(TAG, "Error compiling shader: " + log);
+            throw new RuntimeException("Error compiling shader: " + log);
+        }
+        return shader;
+    }
+
+    @Override
+    public int linkProgram(int vertexShader, int fragmentShader) {
+        int program = GLES20.glCreateProgram();
+        GLES20.glAttachShader(program, vertexShader);
+        GLES20.glAttachShader(program, fragmentShader);
+        if (binariesSupported) {
+            GLES30.glProgramParameteri(program, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT,
+                    GLES20.GL_TRUE);
+        }
+        GLES20.glLinkProgram(program);
+        checkLinked(program);
+        // The linked program no longer needs them, so they can be freed
+        // as soon as they are deleted
+        GLES20.glDetachShader(program, vertexShader);
+        GLES20.glDetachShader(program, fragmentShader);
+        return program;
+    }
+
+    @Override
+    public void deleteShader(int shader) {
+        GLES20.glDeleteShader(shader);
+    }
+
+    @Override
+    public ProgramBinaryStore.Binary getProgramBinary(int program) {
+        if (!binariesSupported) {
+            return null;
+        }
+        int[] length = new int[1];
+        GLES20.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, length, 0);
+        if (length[0] <= 0) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(length[0]).order(ByteOrder.nativeOrder());
+        int[] format = new int[1];
+        GLES30.glGetProgramBinary(program, length[0], length, 0, format, 0, buffer);
+        byte[] data = new byte[length[0]];
+        buffer.get(data);
+        return new ProgramBinaryStore.Binary(format[0], data);
+    }
+
+    @Override
+    public int loadProgramBinary(ProgramBinaryStore.Binary binary) {
+        if (!binariesSupported) {
+            return 0;
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(binary.data.length).order(ByteOrder.nativeOrder());
+        buffer.put(binary.data).position(0);
+        int program = GLES20.glCreateProgram();
+        GLES30.glProgramBinary(program, binary.format, buffer, binary.data.length);
+        int[] status = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
+        if (status[0] == 0) {
+            GLES20.glDeleteProgram(program);
+            return 0;
+        }
+        return program;
+    }
+
+    @Override
+    public String getIdentity() {
+        return GLES20.glGetString(GLES20.GL_VENDOR) + "|"
+                + GLES20.glGetString(GLES20.GL_RENDERER) + "|"
+                + GLES20.glGetString(GLES20.GL_VERSION);
+    }
+
+    private static void checkLinked(int program) {
+        int[] status = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
+        if (status[0] == 0) {
+            String log = GLES20.glGetProgramInfoLog(program);
+            GLES20.glDeleteProgram(program);
+            Log.e(TAG, "Error linking program: " + log);
+            throw new RuntimeException("Error linking program: " + log);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.cardbookvr.cardboardbox;
+
+/**
+ * Predicts where the head will be looking when a frame reaches the display.
+ *
+ * Keeps a short history of head orientations and extrapolates the newest
+ * one to a target time. The angular velocity is measured across a window
+ * of recent samples rather than between the last two, which keeps sensor
+ * noise from being amplified. The constant acceleration model also
+ * measures how that velocity is changing, which follows the start and end
+ * of a turn more closely but is noisier when the head is still.
+ *
+ * Every prediction is remembered until samples covering its target time
+ * arrive, and its error is then measured against the actual orientation.
+ * The error of not predicting, showing the newest sample as it is, is
+ * measured alongside for comparison. Nothing is allocated after
+ * construction.
+ */
+public class HeadPosePredictor {
+    public static final int MODEL_NONE = 0;
+    public static final int MODEL_CONSTANT_VELOCITY = 1;
+    public static final int MODEL_CONSTANT_ACCELERATION = 2;
+
+    // Ring sizes, powers of two
+    private static final int HISTORY = 32;
+    private static final int PENDING = 16;
+
+    private int model;
+    private final long windowNanos;
+
+    private final long[] times = new long[HISTORY];
+    private final float[] orientations = new float[HISTORY * 4];
+    private int sampleCount;
+    private int newest = -1;
+
+    // Predictions waiting for the samples around their target time
+    private final long[] pendingTargets = new long[PENDING];
+    private final float[] pendingPredicted = new float[PENDING * 4];
+    private final float[] pendingUnpredicted = new float[PENDING * 4];
+    private int pendingStart;
+    private int pendingCount;
+
+    private long errorCount;
+    private double errorSum;
+    private double errorSquaredSum;
+    private float maxError;
+    private double unpredictedErrorSum;
+
+    private final float[] scratch = new float[8];
+    private final float[] velocity = new float[3];
+    private final float[] acceleration = new float[3];
+
+    /**
+     * @param model - one of the MODEL constants.
+     * @param windowNanos - how much history the velocity is measured over,
+     *                    e.g. 50ms; at least the last two samples are used.
+     */
+    public HeadPosePredictor(int model, long windowNanos) {
+        setModel(model);
+        this.windowNanos = windowNanos;
+    }
+
+    public void setModel(int model) {
+        if (model < MODEL_NONE || model > MODEL_CONSTANT_ACCELERATION) {
+            throw new IllegalArgumentException("unknown model " + model);
+        }
+        this.model = model;
+    }
+
+    public int getModel() {
+        return model;
+    }
+
+    /**
+     * Add the head orientation at a time. Samples that are not newer than
+     * the last one are ignored.
+     *
+     * @param q - unit quaternion x, y, z, w, as HeadTransform.getQuaternion.
+     */
+    public void addSample(long nanos, float[] q, int offset) {
+        if (sampleCount > 0 && nanos <= times[newest]) {
+            return;
+        }
+        int previous = newest;
+        newest = (newest + 1) & (HISTORY - 1);
+        times[newest] = nanos;
+        System.arraycopy(q, offset, orientations, newest * 4, 4);
+        // Keep consecutive samples in the same hemisphere
+        if (previous >= 0 && dot(orientations, newest * 4, orientations, previous * 4) < 0) {
+            for (int k = 0; k < 4; k++) {
+                orientations[newest * 4 + k] = -orientations[newest * 4 + k];
+            }
+        }
+        sampleCount = Math.min(sampleCount + 1, HISTORY);
+        if (previous >= 0) {
+            resolvePending(previous, newest);
+        }
+    }
+
+    /**
+     * Predict the orientation at a time, usually when the frame being
+     * drawn will be displayed.
+     *
+     * @param out - receives the unit quaternion x, y, z, w.
+     */
+    public void predict(long targetNanos, float[] out, int offset) {
+        if (sampleCount == 0) {
+            Quaternions.setIdentity(out, offset);
+            return;
+        }
+        long horizon = targetNanos - times[newest];
+        if (model == MODEL_NONE || sampleCount < 2 || horizon <= 0) {
+            System.arraycopy(orientations, newest * 4, out, offset, 4);
+        } else {
+            extrapolate(horizon / 1e9f, out, offset);
+        }
+        remember(targetNanos, out, offset);
+    }
+
+    /**
+     * Replace the rotation of a head view matrix with the predicted
+     * orientation, keeping its translation. As with HeadTransform, the
+     * head view is the inverse of the head's rotation.
+     */
+    public void predictHeadView(long targetNanos, float[] headView) {
+        predict(targetNanos, scratch, 0);
+        Quaternions.conjugate(scratch, 0);
+        float tx = headView[12], ty = headView[13], tz = headView[14];
+        Quaternions.toRotationM(headView, 0, scratch, 0);
+        headView[12] = tx;
+        headView[13] = ty;
+        headView[14] = tz;
+    }
+
+    /**
+     * Forget all samples and pending predictions, e.g. after a pause.
+     * The error statistics are kept.
+     */
+    public void reset() {
+        sampleCount = 0;
+        newest = -1;
+        pendingCount = 0;
+    }
+
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * @return mean angle between predictions and what happened, in degrees.
+     */
+    public float getMeanError() {
+        return errorCount == 0 ? 0 : (float) (errorSum / errorCount);
+    }
+
+    public float getRmsError() {
+        return errorCount == 0 ? 0 : (float) Math.sqrt(errorSquaredSum / errorCount);
+    }
+
+    public float getMaxError() {
+        return maxError;
+    }
+
+    /**
+     * @return mean error, in degrees, had the newest sample been used as
+     * it was for the same target times.
+     */
+    public float getMeanUnpredictedError() {
+        return errorCount == 0 ? 0 : (float) (unpredictedErrorSum / errorCount);
+    }
+
+    public void resetErrors() {
+        errorCount = 0;
+        errorSum = 0;
+        errorSquaredSum = 0;
+        maxError = 0;
+        unpredictedErrorSum = 0;
+    }
+
+    private void extrapolate(float horizon, float[] out, int offset) {
+        int oldest = oldestInWindow();
+        int span = (newest - oldest) & (HISTORY - 1);
+        float rx, ry, rz;
+        if (model == MODEL_CONSTANT_ACCELERATION && span >= 2) {
+            int middle = (oldest + span / 2) & (HISTORY - 1);
+            // Velocities over the older and newer halves, and when they applied
+            float tOld = rate(oldest, middle, acceleration);
+            float tNew = rate(middle, newest, velocity);
+            float dt = tNew - tOld;
+            for (int k = 0; k < 3; k++) {
+                acceleration[k] = (velocity[k] - acceleration[k]) / dt;
+            }
+            // Velocity at the newest sample, then a constant acceleration from it
+            float lead = (times[newest] - times[middle]) / 2e9f;
+            float h2 = horizon * horizon / 2;
+            rx = (velocity[0] + acceleration[0] * lead) * horizon + acceleration[0] * h2;
+            ry = (velocity[1] + acceleration[1] * lead) * horizon + acceleration[1] * h2;
+            rz = (velocity[2] + acceleration[2] * lead) * horizon + acceleration[2] * h2;
+        } else {
+            rate(oldest, newest, velocity);
+            rx = velocity[0] * horizon;
+            ry = velocity[1] * horizon;
+            rz = velocity[2] * horizon;
+        }
+        Quaternions.fromRotationVector(scratch, 4, rx, ry, rz);
+        Quaternions.multiply(out, offset, scratch, 4, orientations, newest * 4);
+        Quaternions.normalize(out, offset);
+    }
+
+    /**
+     * Set w to the angular velocity, in radians per second, from sample a
+     * to sample b.
+     *
+     * @return the midpoint of the two samples, in seconds after a.
+     */
+    private float rate(int a, int b, float[] w) {
+        Quaternions.multiplyConjugate(scratch, 4, orientations, b * 4, orientations, a * 4);
+        Quaternions.toRotationVector(w, 0, scratch, 4);
+        float dt = (times[b] - times[a]) / 1e9f;
+        w[0] /= dt;
+        w[1] /= dt;
+        w[2] /= dt;
+        // Relative to the newest sample, so the times stay small
+        return (times[a] - times[newest]) / 1e9f + dt / 2;
+    }
+
+    /**
+     * @return the oldest sample within the window, but never the newest.
+     */
+    private int oldestInWindow() {
+        int oldest = (newest - 1) & (HISTORY - 1);
+        for (int i = 2; i < sampleCount; i++) {
+            int candidate = (newest - i) & (HISTORY - 1);
+            if (times[newest] - times[candidate] > windowNanos) {
+                break;
+            }
+            oldest = candidate;
+        }
+        return oldest;
+    }
+
+    private void remember(long target, float[] predicted, int offset) {
+        if (pendingCount == PENDING) {
+            // Drop the oldest
+            pendingStart = (pendingStart + 1) & (PENDING - 1);
+            pendingCount--;
+        }
+        int slot = (pendingStart + pendingCount) & (PENDING - 1);
+        pendingTargets[slot] = target;
+        System.arraycopy(predicted, offset, pendingPredicted, slot * 4, 4);
+        System.arraycopy(orientations, newest * 4, pendingUnpredicted, slot * 4, 4);
+        pendingCount++;
+    }
+
+    /**
+     * Score the predictions whose target falls before the newest sample,
+     * against the orientation interpolated from the two latest samples.
+     */
+    private void resolvePending(int previous, int latest) {
+        long start = times[previous];
+        long end = times[latest];
+        while (pendingCount > 0 && pendingTargets[pendingStart] <= end) {
+            int slot = pendingStart;
+            float t = Math.max(0, (float) (pendingTargets[slot] - start) / (end - start));
+            Quaternions.slerp(scratch, 0, orientations, previous * 4, orientations, latest * 4, t);
+            float error = Quaternions.angle(pendingPredicted, slot * 4, scratch, 0);
+            errorCount++;
+            errorSum += error;
+            errorSquaredSum += (double) error * error;
+            maxError = Math.max(maxError, error);
+            unpredictedErrorSum += Quaternions.angle(pendingUnpredicted, slot * 4, scratch, 0);
+            pendingStart = (pendingStart + 1) & (PENDING - 1);
+            pendingCount--;
+        }
+    }
+
+    private static float dot(float[] a, int aOffset, float[] b, int bOffset) {
+        return a[aOffset] * b[bOffset] + a[aOffset + 1] * b[bOffset + 1]
+                + a[aOffset + 2] * b[bOffset + 2] + a[aOffset + 3] * b[bOffset + 3];
+    }
+}
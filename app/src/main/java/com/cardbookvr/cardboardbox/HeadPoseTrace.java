@@ -0,0 +1,136 @@
+package com.cardbookvr.cardboardbox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Head poses as the renderer was given them, frame by frame, so a session
+ * recorded on a device can be replayed exactly by {@link SceneRenderer}
+ * somewhere else.
+ *
+ * Each frame is its start time in System.nanoTime() units, the head view
+ * matrix and the head quaternion, both as HeadTransform reported them.
+ *
+ * File layout, big-endian so a trace reads the same on any machine:
+ * <pre>
+ *  0  magic            4  version           8  frame count
+ * 12  frames: time as a long, 16 head view floats, 4 quaternion floats
+ * </pre>
+ */
+public class HeadPoseTrace {
+    // Reads as "CBHT"
+    public static final int MAGIC = 0x43424854;
+    public static final int VERSION = 1;
+
+    private static final int FRAME_FLOATS = 20;
+    private static final int QUATERNION_OFFSET = 16;
+
+    private long[] times = new long[64];
+    private float[] poses = new float[64 * FRAME_FLOATS];
+    private int frameCount;
+
+    /**
+     * Append a frame.
+     *
+     * @param headView - HeadTransform.getHeadView(), 16 floats at headViewOffset.
+     * @param quaternion - HeadTransform.getQuaternion(), 4 floats at quaternionOffset.
+     */
+    public void add(long nanos, float[] headView, int headViewOffset, float[] quaternion,
+                    int quaternionOffset) {
+        if (frameCount == times.length) {
+            times = Arrays.copyOf(times, frameCount * 2);
+            poses = Arrays.copyOf(poses, frameCount * 2 * FRAME_FLOATS);
+        }
+        int p = frameCount * FRAME_FLOATS;
+        System.arraycopy(headView, headViewOffset, poses, p, 16);
+        System.arraycopy(quaternion, quaternionOffset, poses, p + QUATERNION_OFFSET, 4);
+        times[frameCount++] = nanos;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public void clear() {
+        frameCount = 0;
+    }
+
+    public long getTime(int frame) {
+        checkFrame(frame);
+        return times[frame];
+    }
+
+    public void getHeadView(int frame, float[] m, int offset) {
+        checkFrame(frame);
+        System.arraycopy(poses, frame * FRAME_FLOATS, m, offset, 16);
+    }
+
+    public void getQuaternion(int frame, float[] q, int offset) {
+        checkFrame(frame);
+        System.arraycopy(poses, frame * FRAME_FLOATS + QUATERNION_OFFSET, q, offset, 4);
+    }
+
+    public void write(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(frameCount);
+            for (int i = 0; i < frameCount; i++) {
+                out.writeLong(times[i]);
+                for (int k = 0; k < FRAME_FLOATS; k++) {
+                    out.writeFloat(poses[i * FRAME_FLOATS + k]);
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    public static HeadPoseTrace read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a head pose trace");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported head pose trace version " + version);
+            }
+            int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("Head pose trace corrupt");
+            }
+            HeadPoseTrace trace = new HeadPoseTrace();
+            float[] frame = new float[FRAME_FLOATS];
+            for (int i = 0; i < count; i++) {
+                long nanos = in.readLong();
+                for (int k = 0; k < FRAME_FLOATS; k++) {
+                    frame[k] = in.readFloat();
+                }
+                trace.add(nanos, frame, 0, frame, QUATERNION_OFFSET);
+            }
+            return trace;
+        } catch (EOFException e) {
+            throw new IOException("Head pose trace truncated", e);
+        } finally {
+            in.close();
+        }
+    }
+
+    private void checkFrame(int frame) {
+        if (frame < 0 || frame >= frameCount) {
+            throw new IndexOutOfBoundsException("no frame " + frame);
+        }
+    }
+}
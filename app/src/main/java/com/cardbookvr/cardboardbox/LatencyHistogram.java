@@ -0,0 +1,120 @@
+package com.cardbookvr.cardboardbox;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size, allocation-free histogram of durations in nanoseconds.
+ *
+ * Buckets are log-linear: 8 linear sub-buckets per power of two, so any
+ * recorded value is reported to within 12.5%. There is a single writer
+ * (the GL thread); {@link #record} only does ordered stores, so any other
+ * thread can take a {@link Snapshot} at any time without locking it.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+    static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record one duration. Only call from the owning thread.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        int bucket = bucketOf(nanos);
+        counts.lazySet(bucket, counts.get(bucket) + 1);
+        if (nanos > max.get()) {
+            max.lazySet(nanos);
+        }
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = counts.get(i);
+            total += copy[i];
+        }
+        return new Snapshot(copy, total, max.get());
+    }
+
+    static int bucketOf(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * @return the largest value that falls in the bucket.
+     */
+    static long upperBoundOf(int bucket) {
+        if (bucket < LINEAR_LIMIT) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long mantissa = (bucket % SUB_BUCKETS) + SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * Point-in-time copy of a histogram, owned by the reading thread.
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * @param percentile - 0 to 100.
+         * @return the value at or below which the given share of samples
+         * falls, rounded up to its bucket.
+         */
+        public long getPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile / 100.0 * count);
+            if (rank < 1) {
+                rank = 1;
+            }
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBoundOf(i), max);
+                }
+            }
+            return max;
+        }
+
+        public long getP50() {
+            return getPercentile(50);
+        }
+
+        public long getP99() {
+            return getPercentile(99);
+        }
+    }
+}
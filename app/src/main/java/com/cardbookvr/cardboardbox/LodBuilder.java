@@ -0,0 +1,80 @@
+package com.cardbookvr.cardboardbox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Builds the levels of detail of a mesh with {@link MeshSimplifier}, one
+ * level per pool thread. Every level is simplified from the full mesh
+ * rather than from the level before, so errors don't add up and the levels
+ * don't wait on each other.
+ */
+public class LodBuilder {
+    /**
+     * One level of detail.
+     */
+    public static class Level {
+        private final ObjReader.Mesh mesh;
+        private final float error;
+
+        Level(ObjReader.Mesh mesh, float error) {
+            this.mesh = mesh;
+            this.error = error;
+        }
+
+        public ObjReader.Mesh getMesh() {
+            return mesh;
+        }
+
+        /**
+         * @return how far the level strays from the full mesh, in model units.
+         */
+        public float getError() {
+            return error;
+        }
+    }
+
+    private final ForkJoinPool pool;
+
+    public LodBuilder(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * @param ratios - triangle count of each level after the first, as a
+     *               fraction of the full mesh's, e.g. 0.5, 0.25, 0.125.
+     * @param maxError - largest error allowed in any level, in model units.
+     * @return the levels, the full mesh first. A level may keep more
+     * triangles than asked for when simplifying further would exceed maxError.
+     */
+    public Level[] build(final ObjReader.Mesh mesh, float[] ratios, final float maxError) {
+        List<Callable<Level>> tasks = new ArrayList<>();
+        for (final float ratio : ratios) {
+            tasks.add(new Callable<Level>() {
+                @Override
+                public Level call() {
+                    MeshSimplifier simplifier = new MeshSimplifier();
+                    int target = (int) (mesh.getIndexCount() / 3 * ratio);
+                    ObjReader.Mesh simplified = simplifier.simplify(mesh, target, maxError);
+                    return new Level(simplified, simplifier.getError());
+                }
+            });
+        }
+
+        Level[] levels = new Level[ratios.length + 1];
+        levels[0] = new Level(mesh, 0);
+        List<Future<Level>> results = pool.invokeAll(tasks);
+        for (int i = 0; i < ratios.length; i++) {
+            try {
+                levels[i + 1] = results.get(i).get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new RuntimeException("Unable to simplify mesh", e);
+            }
+        }
+        return levels;
+    }
+}
@@ -0,0 +1,152 @@
+package com.cardbookvr.cardboardbox;
+
+/**
+ * Picks a level of detail for each object from how large its bounding
+ * sphere appears on screen.
+ *
+ * The screen size is the sphere's projected diameter as a fraction of the
+ * viewport height, which only needs the projection's vertical scale and
+ * the sphere's distance. Level i + 1 is used once the size falls below
+ * thresholds[i]. An object only changes level when its size is past a
+ * threshold by the hysteresis fraction, so one sitting near a threshold
+ * keeps its level instead of flickering between two. Select once per
+ * frame, with the first eye, and draw the other eye with {@link #getLevel}
+ * so both eyes always show the same level. A bias scales every size
+ * before it is compared, to trade detail for speed across the board.
+ */
+public class LodSelector {
+    private final float[] thresholds;
+    private final float hysteresis;
+    // center x, y, z and radius per object
+    private final float[] spheres;
+    private final int[] levelCounts;
+    private final int[] levels;
+    private float bias = 1;
+    private int switchCount;
+
+    /**
+     * @param thresholds - screen sizes, largest first, below which the next
+     *                   coarser level is used.
+     * @param hysteresis - fraction a size must pass a threshold by before
+     *                   the level changes, e.g. 0.1.
+     */
+    public LodSelector(int objectCount, float[] thresholds, float hysteresis) {
+        for (int i = 1; i < thresholds.length; i++) {
+            if (thresholds[i] >= thresholds[i - 1]) {
+                throw new IllegalArgumentException("thresholds must be decreasing");
+            }
+        }
+        this.thresholds = thresholds.clone();
+        this.hysteresis = hysteresis;
+        spheres = new float[objectCount * 4];
+        levelCounts = new int[objectCount];
+        levels = new int[objectCount];
+    }
+
+    /**
+     * Set an object's bounds and how many levels it has. It starts at the
+     * full detail level.
+     *
+     * @param bounds - float[6], min x, y, z then max x, y, z in model space.
+     */
+    public void setObject(int object, float[] bounds, int levelCount) {
+        int s = object * 4;
+        float dx = bounds[3] - bounds[0];
+        float dy = bounds[4] - bounds[1];
+        float dz = bounds[5] - bounds[2];
+        spheres[s] = (bounds[0] + bounds[3]) / 2;
+        spheres[s + 1] = (bounds[1] + bounds[4]) / 2;
+        spheres[s + 2] = (bounds[2] + bounds[5]) / 2;
+        spheres[s + 3] = (float) Math.sqrt(dx * dx + dy * dy + dz * dz) / 2;
+        levelCounts[object] = Math.min(levelCount, thresholds.length + 1);
+        levels[object] = 0;
+    }
+
+    /**
+     * @param modelView - the object's model view matrix.
+     * @param projection - the eye's projection, as from Eye.getPerspective.
+     * @return the object's projected diameter over the viewport height.
+     */
+    public float screenSize(int object, float[] modelView, int modelViewOffset,
+                            float[] projection, int projectionOffset) {
+        int s = object * 4;
+        float[] m = modelView;
+        int o = modelViewOffset;
+        float x = spheres[s], y = spheres[s + 1], z = spheres[s + 2];
+        float vx = m[o] * x + m[o + 4] * y + m[o + 8] * z + m[o + 12];
+        float vy = m[o + 1] * x + m[o + 5] * y + m[o + 9] * z + m[o + 13];
+        float vz = m[o + 2] * x + m[o + 6] * y + m[o + 10] * z + m[o + 14];
+        float distance = (float) Math.sqrt(vx * vx + vy * vy + vz * vz);
+
+        // The model may be scaled; use its largest axis
+        float scale = 0;
+        for (int c = 0; c < 3; c++) {
+            int col = o + c * 4;
+            scale = Math.max(scale, m[col] * m[col] + m[col + 1] * m[col + 1] + m[col + 2] * m[col + 2]);
+        }
+        float radius = spheres[s + 3] * (float) Math.sqrt(scale);
+        if (distance <= radius) {
+            // Inside the sphere, it covers the whole view
+            return Float.POSITIVE_INFINITY;
+        }
+        return radius * projection[projectionOffset + 5] / distance;
+    }
+
+    /**
+     * Update and return an object's level for one eye's view.
+     */
+    public int select(int object, float[] modelView, int modelViewOffset,
+                      float[] projection, int projectionOffset) {
+        return select(object, screenSize(object, modelView, modelViewOffset,
+                projection, projectionOffset));
+    }
+
+    /**
+     * Scale screen sizes by bias before picking levels, from the next select.
+     *
+     * @param bias - 1 as measured, below 1 for coarser levels sooner.
+     */
+    public void setBias(float bias) {
+        if (!(bias > 0)) {
+            throw new IllegalArgumentException("bias must be positive");
+        }
+        this.bias = bias;
+    }
+
+    public float getBias() {
+        return bias;
+    }
+
+    /**
+     * Update and return an object's level for a known screen size.
+     */
+    public int select(int object, float size) {
+        size *= bias;
+        int level = levels[object];
+        int last = levelCounts[object] - 1;
+        // Coarser while clearly below the current level's threshold
+        while (level < last && size < thresholds[level] * (1 - hysteresis)) {
+            level++;
+        }
+        // Finer while clearly above the next finer level's threshold
+        while (level > 0 && size > thresholds[level - 1] * (1 + hysteresis)) {
+            level--;
+        }
+        if (level != levels[object]) {
+            levels[object] = level;
+            switchCount++;
+        }
+        return level;
+    }
+
+    public int getLevel(int object) {
+        return levels[object];
+    }
+
+    /**
+     * @return level changes made so far, across all objects.
+     */
+    public int getSwitchCount() {
+        return switchCount;
+    }
+}
@@ -0,0 +1,163 @@
+package com.cardbookvr.cardboardbox;
+
+/**
+ * Pure Java versions of the android.opengl.Matrix operations used by the
+ * renderer. Matrices are column-major float[16] at an offset, exactly as
+ * android.opengl.Matrix expects, so the two can be mixed freely. Unlike the
+ * framework class these run on a desktop JVM, and multiplyMM is unrolled so
+ * there is no per-call JNI overhead.
+ */
+public class Matrices {
+    private Matrices() {
+    }
+
+    public static void setIdentityM(float[] m, int offset) {
+        for (int i = 0; i < 16; i++) {
+            m[offset + i] = 0;
+        }
+        m[offset] = 1;
+        m[offset + 5] = 1;
+        m[offset + 10] = 1;
+        m[offset + 15] = 1;
+    }
+
+    /**
+     * result = lhs * rhs. The result must not overlap either input.
+     */
+    public static void multiplyMM(float[] result, int resultOffset,
+                                  float[] lhs, int lhsOffset, float[] rhs, int rhsOffset) {
+        float l00 = lhs[lhsOffset], l10 = lhs[lhsOffset + 1], l20 = lhs[lhsOffset + 2], l30 = lhs[lhsOffset + 3];
+        float l01 = lhs[lhsOffset + 4], l11 = lhs[lhsOffset + 5], l21 = lhs[lhsOffset + 6], l31 = lhs[lhsOffset + 7];
+        float l02 = lhs[lhsOffset + 8], l12 = lhs[lhsOffset + 9], l22 = lhs[lhsOffset + 10], l32 = lhs[lhsOffset + 11];
+        float l03 = lhs[lhsOffset + 12], l13 = lhs[lhsOffset + 13], l23 = lhs[lhsOffset + 14], l33 = lhs[lhsOffset + 15];
+        for (int col = 0; col < 16; col += 4) {
+            float r0 = rhs[rhsOffset + col];
+            float r1 = rhs[rhsOffset + col + 1];
+            float r2 = rhs[rhsOffset + col + 2];
+            float r3 = rhs[rhsOffset + col + 3];
+            result[resultOffset + col] = l00 * r0 + l01 * r1 + l02 * r2 + l03 * r3;
+            result[resultOffset + col + 1] = l10 * r0 + l11 * r1 + l12 * r2 + l13 * r3;
+            result[resultOffset + col + 2] = l20 * r0 + l21 * r1 + l22 * r2 + l23 * r3;
+            result[resultOffset + col + 3] = l30 * r0 + l31 * r1 + l32 * r2 + l33 * r3;
+        }
+    }
+
+    /**
+     * resultVec = lhsMat * rhsVec. The result must not overlap either input.
+     */
+    public static void multiplyMV(float[] resultVec, int resultOffset,
+                                  float[] lhsMat, int lhsOffset, float[] rhsVec, int rhsOffset) {
+        float x = rhsVec[rhsOffset], y = rhsVec[rhsOffset + 1];
+        float z = rhsVec[rhsOffset + 2], w = rhsVec[rhsOffset + 3];
+        for (int row = 0; row < 4; row++) {
+            resultVec[resultOffset + row] = lhsMat[lhsOffset + row] * x
+                    + lhsMat[lhsOffset + 4 + row] * y
+                    + lhsMat[lhsOffset + 8 + row] * z
+                    + lhsMat[lhsOffset + 12 + row] * w;
+        }
+    }
+
+    /**
+     * Translate m in place by (x, y, z), as android.opengl.Matrix.translateM.
+     */
+    public static void translateM(float[] m, int offset, float x, float y, float z) {
+        for (int i = 0; i < 4; i++) {
+            m[offset + 12 + i] += m[offset + i] * x + m[offset + 4 + i] * y + m[offset + 8 + i] * z;
+        }
+    }
+
+    /**
+     * Set rm to a rotation of a degrees around the axis (x, y, z).
+     */
+    public static void setRotateM(float[] rm, int offset, float a, float x, float y, float z) {
+        rm[offset + 3] = 0;
+        rm[offset + 7] = 0;
+        rm[offset + 11] = 0;
+        rm[offset + 12] = 0;
+        rm[offset + 13] = 0;
+        rm[offset + 14] = 0;
+        rm[offset + 15] = 1;
+        a *= (float) (Math.PI / 180.0f);
+        float s = (float) Math.sin(a);
+        float c = (float) Math.cos(a);
+        float len = (float) Math.sqrt(x * x + y * y + z * z);
+        if (len != 1.0f) {
+            float recipLen = 1.0f / len;
+            x *= recipLen;
+            y *= recipLen;
+            z *= recipLen;
+        }
+        float nc = 1.0f - c;
+        float xy = x * y, yz = y * z, zx = z * x;
+        float xs = x * s, ys = y * s, zs = z * s;
+        rm[offset] = x * x * nc + c;
+        rm[offset + 4] = xy * nc - zs;
+        rm[offset + 8] = zx * nc + ys;
+        rm[offset + 1] = xy * nc + zs;
+        rm[offset + 5] = y * y * nc + c;
+        rm[offset + 9] = yz * nc - xs;
+        rm[offset + 2] = zx * nc - ys;
+        rm[offset + 6] = yz * nc + xs;
+        rm[offset + 10] = z * z * nc + c;
+    }
+
+    /**
+     * Rotate m in place by a degrees around the axis (x, y, z), as
+     * android.opengl.Matrix.rotateM. The scratch array must hold 32 floats.
+     */
+    public static void rotateM(float[] m, int offset, float a, float x, float y, float z,
+                               float[] scratch) {
+        setRotateM(scratch, 0, a, x, y, z);
+        multiplyMM(scratch, 16, m, offset, scratch, 0);
+        System.arraycopy(scratch, 16, m, offset, 16);
+    }
+
+    /**
+     * Set rm to a viewing transformation, as android.opengl.Matrix.setLookAtM.
+     */
+    public static void setLookAtM(float[] rm, int offset,
+                                  float eyeX, float eyeY, float eyeZ,
+                                  float centerX, float centerY, float centerZ,
+                                  float upX, float upY, float upZ) {
+        float fx = centerX - eyeX;
+        float fy = centerY - eyeY;
+        float fz = centerZ - eyeZ;
+        float rlf = 1.0f / (float) Math.sqrt(fx * fx + fy * fy + fz * fz);
+        fx *= rlf;
+        fy *= rlf;
+        fz *= rlf;
+
+        // s = f x up
+        float sx = fy * upZ - fz * upY;
+        float sy = fz * upX - fx * upZ;
+        float sz = fx * upY - fy * upX;
+        float rls = 1.0f / (float) Math.sqrt(sx * sx + sy * sy + sz * sz);
+        sx *= rls;
+        sy *= rls;
+        sz *= rls;
+
+        // u = s x f
+        float ux = sy * fz - sz * fy;
+        float uy = sz * fx - sx * fz;
+        float uz = sx * fy - sy * fx;
+
+        rm[offset] = sx;
+        rm[offset + 1] = ux;
+        rm[offset + 2] = -fx;
+        rm[offset + 3] = 0.0f;
+        rm[offset + 4] = sy;
+        rm[offset + 5] = uy;
+        rm[offset + 6] = -fy;
+        rm[offset + 7] = 0.0f;
+        rm[offset + 8] = sz;
+        rm[offset + 9] = uz;
+        rm[offset + 10] = -fz;
+        rm[offset + 11] = 0.0f;
+        rm[offset + 12] = 0.0f;
+        rm[offset + 13] = 0.0f;
+        rm[offset + 14] = 0.0f;
+        rm[offset + 15] = 1.0f;
+
+        translateM(rm, offset, -eyeX, -eyeY, -eyeZ);
+    }
+}
@@ -0,0 +1,91 @@
+package com.cardbookvr.cardboardbox;
+
+/**
+ * A fixed number of 4x4 matrices stored structure-of-arrays: element e of
+ * matrix i lives at data[e * capacity + i]. Batch operations walk each
+ * element's run of matrices with a unit-stride loop that has no calls or
+ * branches in its body, which ART and HotSpot can unroll and vectorize.
+ *
+ * Matrices are column-major like android.opengl.Matrix; use {@link #get}
+ * and {@link #set} to move between a batch and a plain float[16].
+ */
+public class MatrixBatch {
+    private final int capacity;
+    private final float[] data;
+
+    public MatrixBatch(int capacity) {
+        this.capacity = capacity;
+        data = new float[capacity * 16];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void set(int index, float[] m, int offset) {
+        for (int e = 0; e < 16; e++) {
+            data[e * capacity + index] = m[offset + e];
+        }
+    }
+
+    public void get(int index, float[] m, int offset) {
+        for (int e = 0; e < 16; e++) {
+            m[offset + e] = data[e * capacity + index];
+        }
+    }
+
+    public float get(int index, int element) {
+        return data[element * capacity + index];
+    }
+
+    /**
+     * dst[i] = lhs * src[i] for i in [0, count). dst may be src.
+     */
+    public static void multiply(float[] lhs, int lhsOffset, MatrixBatch src, MatrixBatch dst,
+                                int count) {
+        float l00 = lhs[lhsOffset], l10 = lhs[lhsOffset + 1], l20 = lhs[lhsOffset + 2], l30 = lhs[lhsOffset + 3];
+        float l01 = lhs[lhsOffset + 4], l11 = lhs[lhsOffset + 5], l21 = lhs[lhsOffset + 6], l31 = lhs[lhsOffset + 7];
+        float l02 = lhs[lhsOffset + 8], l12 = lhs[lhsOffset + 9], l22 = lhs[lhsOffset + 10], l32 = lhs[lhsOffset + 11];
+        float l03 = lhs[lhsOffset + 12], l13 = lhs[lhsOffset + 13], l23 = lhs[lhsOffset + 14], l33 = lhs[lhsOffset + 15];
+        float[] s = src.data;
+        float[] d = dst.data;
+        int sc = src.capacity;
+        int dc = dst.capacity;
+        for (int col = 0; col < 4; col++) {
+            int s0 = (col * 4) * sc, s1 = s0 + sc, s2 = s1 + sc, s3 = s2 + sc;
+            int d0 = (col * 4) * dc, d1 = d0 + dc, d2 = d1 + dc, d3 = d2 + dc;
+            for (int i = 0; i < count; i++) {
+                float r0 = s[s0 + i];
+                float r1 = s[s1 + i];
+                float r2 = s[s2 + i];
+                float r3 = s[s3 + i];
+                d[d0 + i] = l00 * r0 + l01 * r1 + l02 * r2 + l03 * r3;
+                d[d1 + i] = l10 * r0 + l11 * r1 + l12 * r2 + l13 * r3;
+                d[d2 + i] = l20 * r0 + l21 * r1 + l22 * r2 + l23 * r3;
+                d[d3 + i] = l30 * r0 + l31 * r1 + l32 * r2 + l33 * r3;
+            }
+        }
+    }
+
+    /**
+     * dst[i] = translate(x, y, z) * src[i] for i in [0, count). dst may be src.
+     */
+    public static void preTranslate(float x, float y, float z, MatrixBatch src, MatrixBatch dst,
+                                    int count) {
+        float[] s = src.data;
+        float[] d = dst.data;
+        int sc = src.capacity;
+        int dc = dst.capacity;
+        for (int col = 0; col < 4; col++) {
+            int s0 = (col * 4) * sc, s1 = s0 + sc, s2 = s1 + sc, s3 = s2 + sc;
+            int d0 = (col * 4) * dc, d1 = d0 + dc, d2 = d1 + dc, d3 = d2 + dc;
+            for (int i = 0; i < count; i++) {
+                float w = s[s3 + i];
+                d[d0 + i] = s[s0 + i] + x * w;
+                d[d1 + i] = s[s1 + i] + y * w;
+                d[d2 + i] = s[s2 + i] + z * w;
+                d[d3 + i] = w;
+            }
+        }
+    }
+}
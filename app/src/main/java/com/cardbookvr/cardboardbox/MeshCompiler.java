@@ -0,0 +1,112 @@
+package com.cardbookvr.cardboardbox;
+
+import java.util.Arrays;
+
+/**
+ * Turns unindexed per-vertex attribute arrays into a {@link CompiledMesh}:
+ * duplicate vertices are merged, an index buffer is produced and the
+ * attributes are interleaved into one stride-aligned vertex array.
+ */
+public class MeshCompiler {
+    private static final int MAX_VERTICES = 65536;
+
+    private int strideAlignment = 4;
+
+    /**
+     * Pad each vertex to a multiple of the given number of bytes.
+     */
+    public MeshCompiler setStrideAlignment(int bytes) {
+        if (bytes < 4 || (bytes & (bytes - 1)) != 0) {
+            throw new IllegalArgumentException("stride alignment must be a power of two >= 4");
+        }
+        strideAlignment = bytes;
+        return this;
+    }
+
+    /**
+     * Compile unindexed triangle attributes.
+     *
+     * @param positions - x, y, z per vertex.
+     * @param normals - x, y, z per vertex.
+     * @param colors - r, g, b, a per vertex.
+     * @return - Returns the indexed, interleaved mesh.
+     */
+    public CompiledMesh compile(float[] positions, float[] normals, float[] colors) {
+        int count = positions.length / CompiledMesh.POSITION_SIZE;
+        if (normals.length != count * CompiledMesh.NORMAL_SIZE
+                || colors.length != count * CompiledMesh.COLOR_SIZE) {
+            throw new IllegalArgumentException("attribute arrays disagree on vertex count");
+        }
+
+        int vertexFloats = CompiledMesh.POSITION_SIZE + CompiledMesh.NORMAL_SIZE
+                + CompiledMesh.COLOR_SIZE;
+        int alignFloats = strideAlignment / 4;
+        int stride = (vertexFloats + alignFloats - 1) / alignFloats * alignFloats;
+
+        float[] unique = new float[count * stride];
+        short[] indices = new short[count];
+        int uniqueCount = 0;
+
+        // Open addressing table of unique vertex indices, -1 when empty
+        int tableSize = Integer.highestOneBit(Math.max(count, 1) * 2) * 2;
+        int[] table = new int[tableSize];
+        Arrays.fill(table, -1);
+        float[] vertex = new float[stride];
+
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(positions, i * CompiledMesh.POSITION_SIZE, vertex,
+                    CompiledMesh.POSITION_OFFSET, CompiledMesh.POSITION_SIZE);
+            System.arraycopy(normals, i * CompiledMesh.NORMAL_SIZE, vertex,
+                    CompiledMesh.NORMAL_OFFSET, CompiledMesh.NORMAL_SIZE);
+            System.arraycopy(colors, i * CompiledMesh.COLOR_SIZE, vertex,
+                    CompiledMesh.COLOR_OFFSET, CompiledMesh.COLOR_SIZE);
+
+            int slot = hash(vertex) & (tableSize - 1);
+            int index;
+            while (true) {
+                index = table[slot];
+                if (index < 0) {
+                    if (uniqueCount == MAX_VERTICES) {
+                        throw new IllegalArgumentException(
+                                "mesh has more than " + MAX_VERTICES + " unique vertices");
+                    }
+                    index = uniqueCount++;
+                    System.arraycopy(vertex, 0, unique, index * stride, stride);
+                    table[slot] = index;
+                    break;
+                }
+                if (equal(unique, index * stride, vertex)) {
+                    break;
+                }
+                slot = (slot + 1) & (tableSize - 1);
+            }
+            indices[i] = (short) index;
+        }
+
+        float[] vertices = new float[uniqueCount * stride];
+        System.arraycopy(unique, 0, vertices, 0, vertices.length);
+        return new CompiledMesh(vertices, indices, stride, count);
+    }
+
+    private static int hash(float[] vertex) {
+        int h = 0;
+        for (float v : vertex) {
+            h = 31 * h + bits(v);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean equal(float[] array, int offset, float[] vertex) {
+        for (int k = 0; k < vertex.length; k++) {
+            if (bits(array[offset + k]) != bits(vertex[k])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int bits(float v) {
+        // Treat 0.0 and -0.0 as the same value
+        return Float.floatToIntBits(v == 0 ? 0f : v);
+    }
+}
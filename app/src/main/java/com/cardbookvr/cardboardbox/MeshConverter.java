@@ -0,0 +1,204 @@
+package com.cardbookvr.cardboardbox;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Produces .cbmesh assets, from the built-in Cube and Floor arrays or from
+ * OBJ and PLY files. Runs on the desktop, e.g. through the benchmark module:
+ * <pre>
+ * ./gradlew :benchmark:convertMeshes
+ * </pre>
+ * or with "java MeshConverter &lt;cube|floor|model.obj|scan.ply&gt; &lt;out.cbmesh&gt; [lods]".
+ * With a level count, simplified levels of detail are written next to the
+ * output as out.lod1.cbmesh, out.lod2.cbmesh and so on, each with half the
+ * triangles of the one before. Vertices are quantized by
+ * {@link VertexQuantizer} as they are written, so the app maps them and
+ * draws them as they are. Android devices are little-endian, which is
+ * what files are written as.
+ */
+public class MeshConverter {
+    // Levels of detail may stray this far, as a fraction of the mesh's size
+    private static final float LOD_MAX_ERROR = 0.05f;
+
+    private MeshConverter() {
+    }
+
+    public static CompiledMesh compileCube() {
+        return new MeshCompiler().compile(Cube.CUBE_COORDS,
+                Cube.cubeFacesToArray(Cube.CUBE_NORMALS_FACES, 3),
+                Cube.cubeFacesToArray(Cube.CUBE_COLORS_FACES, 4));
+    }
+
+    public static CompiledMesh compileFloor() {
+        return new MeshCompiler().compile(Floor.FLOOR_COORDS, Floor.FLOOR_NORMALS,
+                Floor.FLOOR_COLORS);
+    }
+
+    public static ObjReader.Mesh readObj(File obj) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(obj));
+        try {
+            return new ObjReader().read(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Import a large model with {@link ModelImporter}, using every core.
+     */
+    public static ObjReader.Mesh importModel(File model) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            return toMesh(new ModelImporter(pool).importFile(model));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Simplify a mesh into levelCount - 1 levels of detail, in parallel.
+     *
+     * @return the levels, the full mesh first.
+     */
+    public static LodBuilder.Level[] buildLods(ObjReader.Mesh mesh, int levelCount) {
+        float[] ratios = new float[levelCount - 1];
+        for (int i = 0; i < ratios.length; i++) {
+            ratios[i] = 1f / (2 << i);
+        }
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            return new LodBuilder(pool).build(mesh, ratios, LOD_MAX_ERROR * size(mesh));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Quantize the levels and write them, the first to out and the rest
+     * as out.lod1.cbmesh and onwards. One program draws every level, so if
+     * any level's normals can't be packed within bounds, none are.
+     *
+     * @return each level as written.
+     */
+    public static QuantizedVertices[] writeLevels(File out, ObjReader.Mesh[] levels,
+                                                  MeshFileWriter writer) throws IOException {
+        VertexQuantizer quantizer = new VertexQuantizer();
+        QuantizedVertices[] quantized = new QuantizedVertices[levels.length];
+        for (int i = 0; i < levels.length; i++) {
+            quantized[i] = quantizer.quantize(FloatBuffer.wrap(levels[i].getVertices()),
+                    ObjReader.STRIDE_FLOATS, levels[i].getVertexCount(),
+                    CompiledMesh.POSITION_OFFSET, CompiledMesh.NORMAL_OFFSET,
+                    CompiledMesh.COLOR_OFFSET);
+            if (quantized[i].getNormalEncoding() != quantized[0].getNormalEncoding()) {
+                // Start over with float normals throughout
+                quantizer.setNormalEncoding(VertexQuantizer.NORMAL_FLOAT);
+                i = -1;
+            }
+        }
+        for (int i = 0; i < levels.length; i++) {
+            writer.write(i == 0 ? out : lodFile(out, i), quantized[i], levels[i].getIndices(),
+                    levels[i].getIndexCount());
+        }
+        return quantized;
+    }
+
+    /**
+     * @return where level of detail i of out goes, e.g. cube.lod1.cbmesh.
+     */
+    public static File lodFile(File out, int level) {
+        String name = out.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot < 0 ? name : name.substring(0, dot);
+        return new File(out.getParentFile(), base + ".lod" + level + ".cbmesh");
+    }
+
+    static ObjReader.Mesh toMesh(CompiledMesh compiled) {
+        short[] shortIndices = compiled.getIndices();
+        int[] indices = new int[shortIndices.length];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = shortIndices[i] & 0xffff;
+        }
+        return new ObjReader.Mesh(compiled.getVertices(), compiled.getVertexCount(),
+                indices, indices.length);
+    }
+
+    static ObjReader.Mesh toMesh(ModelImporter.Model model) {
+        FloatBuffer vertexBuffer = model.getVertices().duplicate();
+        vertexBuffer.position(0);
+        float[] vertices = new float[model.getVertexCount() * ModelImporter.STRIDE_FLOATS];
+        vertexBuffer.get(vertices);
+        IntBuffer indexBuffer = model.getIndices().duplicate();
+        indexBuffer.position(0);
+        int[] indices = new int[model.getTriangleCount() * 3];
+        indexBuffer.get(indices);
+        return new ObjReader.Mesh(vertices, model.getVertexCount(), indices, indices.length);
+    }
+
+    /**
+     * @return the diagonal of the mesh's bounding box.
+     */
+    private static float size(ObjReader.Mesh mesh) {
+        float[] vertices = mesh.getVertices();
+        float[] bounds = new float[] {
+                Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+                Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY,
+        };
+        for (int v = 0; v < mesh.getVertexCount(); v++) {
+            for (int k = 0; k < 3; k++) {
+                float p = vertices[v * ObjReader.STRIDE_FLOATS + CompiledMesh.POSITION_OFFSET + k];
+                bounds[k] = Math.min(bounds[k], p);
+                bounds[k + 3] = Math.max(bounds[k + 3], p);
+            }
+        }
+        float dx = bounds[3] - bounds[0], dy = bounds[4] - bounds[1], dz = bounds[5] - bounds[2];
+        return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2 && args.length != 3) {
+            System.err.println("usage: MeshConverter <cube|floor|model.obj|scan.ply> <out.cbmesh> [lods]");
+            System.exit(1);
+        }
+        MeshFileWriter writer = new MeshFileWriter().setByteOrder(ByteOrder.LITTLE_ENDIAN);
+        File out = new File(args[1]);
+        ObjReader.Mesh mesh;
+        if (args[0].equals("cube")) {
+            mesh = toMesh(compileCube());
+        } else if (args[0].equals("floor")) {
+            mesh = toMesh(compileFloor());
+        } else if (args[0].endsWith(".obj")) {
+            mesh = readObj(new File(args[0]));
+        } else {
+            mesh = importModel(new File(args[0]));
+        }
+
+        int levelCount = args.length == 3 ? Integer.parseInt(args[2]) : 1;
+        LodBuilder.Level[] levels = buildLods(mesh, levelCount);
+        ObjReader.Mesh[] meshes = new ObjReader.Mesh[levels.length];
+        for (int i = 0; i < levels.length; i++) {
+            meshes[i] = levels[i].getMesh();
+        }
+        QuantizedVertices[] written = writeLevels(out, meshes, writer);
+        for (int i = 0; i < levels.length; i++) {
+            report(i == 0 ? out : lodFile(out, i), written[i], levels[i].getError());
+        }
+    }
+
+    private static void report(File out, QuantizedVertices quantized, float error)
+            throws IOException {
+        MeshFile mesh = MeshFile.map(out);
+        System.out.println(out + ": " + mesh.getVertexCount() + " vertices, "
+                + mesh.getIndexCount() + " indices, " + mesh.getFileBytes() + " bytes, error "
+                + error);
+        System.out.println("  quantized: " + quantized + ", errors " + quantized.getPositionError()
+                + " position, " + quantized.getNormalError() + " degrees normal, "
+                + quantized.getColorError() + " color");
+    }
+}
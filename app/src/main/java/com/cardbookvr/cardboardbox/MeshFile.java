@@ -0,0 +1,276 @@
+package com.cardbookvr.cardboardbox;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * A mesh in the .cbmesh binary container, viewed in place.
+ *
+ * The file is a small header, one descriptor per vertex attribute, then the
+ * interleaved vertex payload and the index payload, both in the byte order
+ * recorded by the magic number. When that order is the device's native
+ * order the payloads are handed out as views of the mapped file, so they go
+ * to glVertexAttribPointer and glDrawElements without a heap copy.
+ *
+ * Header layout, all 32-bit words:
+ * <pre>
+ *  0  magic            8  vertex count      16  index type
+ *  4  version         12  index count       20  stride in bytes
+ * 24  attribute count 28  vertex offset     32  index offset
+ * 36  bounds: min x, y, z, max x, y, z as floats
+ * 60  attributes: semantic, size, type, normalized, offset
+ * </pre>
+ * Positions stored as normalized integers span the bounds: -1 is the
+ * minimum and 1 the maximum on each axis, restored in the shader as
+ * position * {@link #getPositionScale} + {@link #getPositionOffset}.
+ * Version 1 files only hold float positions. Use {@link MeshFileWriter}
+ * to produce one.
+ */
+public class MeshFile {
+    // Reads as "CBMS" when the file is little-endian
+    public static final int MAGIC = 0x534d4243;
+    public static final int VERSION = 2;
+
+    public static final int SEMANTIC_POSITION = 0;
+    public static final int SEMANTIC_NORMAL = 1;
+    public static final int SEMANTIC_COLOR = 2;
+    public static final int SEMANTIC_TEXCOORD = 3;
+
+    // Same values as the GLES20 enums, so they can be passed straight through
+    public static final int TYPE_BYTE = 0x1400;
+    public static final int TYPE_UNSIGNED_BYTE = 0x1401;
+    public static final int TYPE_SHORT = 0x1402;
+    public static final int TYPE_UNSIGNED_SHORT = 0x1403;
+    public static final int TYPE_UNSIGNED_INT = 0x1405;
+    public static final int TYPE_FLOAT = 0x1406;
+
+    static final int HEADER_BYTES = 60;
+    static final int ATTRIBUTE_BYTES = 20;
+    // Payloads start on a 16 byte boundary
+    static final int PAYLOAD_ALIGNMENT = 16;
+
+    /**
+     * Where one attribute lives within a vertex.
+     */
+    public static class Attribute {
+        public final int semantic;
+        public final int size;
+        public final int type;
+        public final boolean normalized;
+        public final int offset;
+
+        /**
+         * @param semantic - one of the SEMANTIC constants.
+         * @param size - number of components.
+         * @param type - one of the TYPE constants.
+         * @param normalized - whether integer components are normalized.
+         * @param offset - byte offset from the start of the vertex.
+         */
+        public Attribute(int semantic, int size, int type, boolean normalized, int offset) {
+            this.semantic = semantic;
+            this.size = size;
+            this.type = type;
+            this.normalized = normalized;
+            this.offset = offset;
+        }
+    }
+
+    private final ByteBuffer data;
+    private final int vertexCount;
+    private final int indexCount;
+    private final int indexType;
+    private final int stride;
+    private final Attribute[] attributes;
+    private final float[] bounds = new float[6];
+    private final float[] positionScale = { 1, 1, 1 };
+    private final float[] positionOffset = new float[3];
+    private final int vertexOffset;
+    private final int indexOffset;
+
+    private MeshFile(ByteBuffer data) throws IOException {
+        this.data = data;
+        if (data.remaining() < HEADER_BYTES) {
+            throw new IOException("Mesh file truncated");
+        }
+        int magic = data.order(ByteOrder.LITTLE_ENDIAN).getInt(0);
+        if (magic == Integer.reverseBytes(MAGIC)) {
+            data.order(ByteOrder.BIG_ENDIAN);
+        } else if (magic != MAGIC) {
+            throw new IOException("Not a mesh file");
+        }
+        int version = data.getInt(4);
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported mesh file version " + version);
+        }
+        vertexCount = data.getInt(8);
+        indexCount = data.getInt(12);
+        indexType = data.getInt(16);
+        stride = data.getInt(20);
+        int attributeCount = data.getInt(24);
+        vertexOffset = data.getInt(28);
+        indexOffset = data.getInt(32);
+        for (int k = 0; k < 6; k++) {
+            bounds[k] = data.getFloat(36 + k * 4);
+        }
+        if (vertexCount < 0 || indexCount < 0 || stride <= 0 || attributeCount < 0
+                || HEADER_BYTES + (long) attributeCount * ATTRIBUTE_BYTES > vertexOffset
+                || (long) vertexOffset + (long) vertexCount * stride > indexOffset
+                || (long) indexOffset + (long) indexCount * getIndexSize() > data.limit()) {
+            throw new IOException("Mesh file truncated or corrupt");
+        }
+        attributes = new Attribute[attributeCount];
+        for (int i = 0; i < attributes.length; i++) {
+            int o = HEADER_BYTES + i * ATTRIBUTE_BYTES;
+            attributes[i] = new Attribute(data.getInt(o), data.getInt(o + 4), data.getInt(o + 8),
+                    data.getInt(o + 12) != 0, data.getInt(o + 16));
+        }
+        Attribute position = findAttribute(SEMANTIC_POSITION);
+        if (position != null && position.normalized) {
+            // The same arithmetic VertexQuantizer packed them with
+            for (int k = 0; k < 3; k++) {
+                positionOffset[k] = (bounds[k] + bounds[k + 3]) * 0.5f;
+                positionScale[k] = (bounds[k + 3] - bounds[k]) * 0.5f;
+            }
+        }
+    }
+
+    /**
+     * Map a whole mesh file read-only.
+     */
+    public static MeshFile map(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            return map(in.getChannel(), 0, file.length());
+        } finally {
+            // The mapping stays valid after the channel is closed
+            in.close();
+        }
+    }
+
+    /**
+     * Map a mesh stored in part of a file, such as an uncompressed APK asset
+     * from AssetManager.openFd.
+     */
+    public static MeshFile map(FileChannel channel, long offset, long length) throws IOException {
+        return new MeshFile(channel.map(FileChannel.MapMode.READ_ONLY, offset, length));
+    }
+
+    /**
+     * View a mesh already in memory. The buffer's position must be zero.
+     */
+    public static MeshFile wrap(ByteBuffer data) throws IOException {
+        return new MeshFile(data.slice());
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    public int getIndexCount() {
+        return indexCount;
+    }
+
+    /**
+     * @return TYPE_UNSIGNED_SHORT or TYPE_UNSIGNED_INT, for glDrawElements.
+     */
+    public int getIndexType() {
+        return indexType;
+    }
+
+    /**
+     * @return distance between consecutive vertices, in bytes.
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    public int getAttributeCount() {
+        return attributes.length;
+    }
+
+    public Attribute getAttribute(int i) {
+        return attributes[i];
+    }
+
+    /**
+     * @return the attribute with the given semantic, or null if absent.
+     */
+    public Attribute findAttribute(int semantic) {
+        for (Attribute attribute : attributes) {
+            if (attribute.semantic == semantic) {
+                return attribute;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return float[6] holding min x, y, z then max x, y, z of the positions.
+     */
+    public float[] getBounds() {
+        return bounds.clone();
+    }
+
+    /**
+     * @return what to multiply positions by, as read by GL, to get model
+     * units: half the bounds for normalized positions, else 1.
+     */
+    public float[] getPositionScale() {
+        return positionScale.clone();
+    }
+
+    /**
+     * @return what to add to positions after scaling: the middle of the
+     * bounds for normalized positions, else 0.
+     */
+    public float[] getPositionOffset() {
+        return positionOffset.clone();
+    }
+
+    public ByteOrder getByteOrder() {
+        return data.order();
+    }
+
+    /**
+     * @return whether the payloads can be used without conversion.
+     */
+    public boolean isNativeOrder() {
+        return data.order() == ByteOrder.nativeOrder();
+    }
+
+    /**
+     * @return a new view of the interleaved vertices, no data is copied.
+     */
+    public ByteBuffer getVertexData() {
+        return view(vertexOffset, vertexCount * stride);
+    }
+
+    /**
+     * @return a new view of the indices, no data is copied.
+     */
+    public ByteBuffer getIndexData() {
+        return view(indexOffset, indexCount * getIndexSize());
+    }
+
+    /**
+     * @return total size of the container in bytes.
+     */
+    public int getFileBytes() {
+        return data.limit();
+    }
+
+    private int getIndexSize() {
+        return indexType == TYPE_UNSIGNED_INT ? 4 : 2;
+    }
+
+    private ByteBuffer view(int offset, int length) {
+        ByteBuffer view = data.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice().order(data.order());
+    }
+}
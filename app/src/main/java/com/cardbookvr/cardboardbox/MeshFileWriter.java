@@ -0,0 +1,246 @@
+package com.cardbookvr.cardboardbox;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes meshes in the {@link MeshFile} container, as floats or as packed
+ * by {@link VertexQuantizer}. Vertices are streamed through a small
+ * buffer, so writing a large mesh needs no second copy of it in memory.
+ */
+public class MeshFileWriter {
+    private static final int CHUNK_BYTES = 64 * 1024;
+    private static final int MAX_SHORT_INDEXED_VERTICES = 65536;
+
+    private ByteOrder order = ByteOrder.nativeOrder();
+
+    /**
+     * Write payloads in the given order instead of this machine's. Use the
+     * order of the device that will load the file.
+     */
+    public MeshFileWriter setByteOrder(ByteOrder order) {
+        this.order = order;
+        return this;
+    }
+
+    public void write(File file, CompiledMesh mesh) throws IOException {
+        short[] shortIndices = mesh.getIndices();
+        int[] indices = new int[shortIndices.length];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = shortIndices[i] & 0xffff;
+        }
+        write(file, mesh.getVertices(), mesh.getStride() / 4, mesh.getVertexCount(),
+                indices, indices.length, CompiledMesh.getLayout());
+    }
+
+    /**
+     * Write an indexed mesh with float attributes. Indices are stored as
+     * unsigned shorts when the vertex count allows it, else as unsigned ints,
+     * which need OES_element_index_uint on OpenGL ES 2.
+     *
+     * @param vertices - interleaved vertices, strideFloats floats each.
+     * @param attributes - layout of a vertex, must include a float position.
+     */
+    public void write(File file, float[] vertices, int strideFloats, int vertexCount,
+                      int[] indices, int indexCount, MeshFile.Attribute[] attributes)
+            throws IOException {
+        write(file, FloatBuffer.wrap(vertices), strideFloats, vertexCount,
+                IntBuffer.wrap(indices), indexCount, attributes);
+    }
+
+    /**
+     * Write an indexed mesh held in buffers, such as a {@link ModelImporter.Model}.
+     * Reads with absolute gets, so the buffers' positions don't matter.
+     */
+    public void write(File file, FloatBuffer vertices, int strideFloats, int vertexCount,
+                      IntBuffer indices, int indexCount, MeshFile.Attribute[] attributes)
+            throws IOException {
+        MeshFile.Attribute position = null;
+        for (MeshFile.Attribute attribute : attributes) {
+            if (attribute.semantic == MeshFile.SEMANTIC_POSITION) {
+                position = attribute;
+            }
+        }
+        if (position == null || position.type != MeshFile.TYPE_FLOAT) {
+            throw new IllegalArgumentException("mesh needs a float position attribute");
+        }
+        writeMesh(file, vertexCount, strideFloats * 4, attributes,
+                bounds(vertices, strideFloats, vertexCount, position.offset / 4, position.size),
+                vertices, null, indices, indexCount);
+    }
+
+    /**
+     * Write a mesh packed by {@link VertexQuantizer}, so the app can hand
+     * the mapped vertices straight to glVertexAttribPointer. Normalized
+     * positions are stored across the bounds in the header, which is how
+     * {@link MeshFile#getPositionScale} gets them back.
+     */
+    public void write(File file, QuantizedVertices vertices, int[] indices, int indexCount)
+            throws IOException {
+        writeMesh(file, vertices.getVertexCount(), vertices.getStride(), vertices.getLayout(),
+                vertices.getBounds(), null, vertices, IntBuffer.wrap(indices), indexCount);
+    }
+
+    /**
+     * @param floats - the vertices as floats, or null if packed.
+     * @param packed - the vertices as quantized, or null if floats.
+     */
+    private void writeMesh(File file, int vertexCount, int stride,
+                           MeshFile.Attribute[] attributes, float[] bounds, FloatBuffer floats,
+                           QuantizedVertices packed, IntBuffer indices, int indexCount)
+            throws IOException {
+        boolean shortIndices = vertexCount <= MAX_SHORT_INDEXED_VERTICES;
+        int indexSize = shortIndices ? 2 : 4;
+        int vertexOffset = align(MeshFile.HEADER_BYTES
+                + attributes.length * MeshFile.ATTRIBUTE_BYTES);
+        int indexOffset = align(vertexOffset + vertexCount * stride);
+
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(CHUNK_BYTES, vertexOffset)).order(order);
+        buffer.putInt(MeshFile.MAGIC);
+        buffer.putInt(MeshFile.VERSION);
+        buffer.putInt(vertexCount);
+        buffer.putInt(indexCount);
+        buffer.putInt(shortIndices ? MeshFile.TYPE_UNSIGNED_SHORT : MeshFile.TYPE_UNSIGNED_INT);
+        buffer.putInt(stride);
+        buffer.putInt(attributes.length);
+        buffer.putInt(vertexOffset);
+        buffer.putInt(indexOffset);
+        for (float bound : bounds) {
+            buffer.putFloat(bound);
+        }
+        for (MeshFile.Attribute attribute : attributes) {
+            buffer.putInt(attribute.semantic);
+            buffer.putInt(attribute.size);
+            buffer.putInt(attribute.type);
+            buffer.putInt(attribute.normalized ? 1 : 0);
+            buffer.putInt(attribute.offset);
+        }
+
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            FileChannel channel = out.getChannel();
+            pad(buffer, channel, vertexOffset);
+            if (packed != null) {
+                putPacked(buffer, channel, packed.getVertexData(), vertexCount, stride,
+                        attributes);
+            } else {
+                int count = vertexCount * (stride / 4);
+                for (int i = 0; i < count; i++) {
+                    if (buffer.remaining() < 4) {
+                        flush(buffer, channel);
+                    }
+                    buffer.putFloat(floats.get(i));
+                }
+            }
+            pad(buffer, channel, indexOffset);
+            for (int i = 0; i < indexCount; i++) {
+                if (buffer.remaining() < indexSize) {
+                    flush(buffer, channel);
+                }
+                if (shortIndices) {
+                    buffer.putShort((short) indices.get(i));
+                } else {
+                    buffer.putInt(indices.get(i));
+                }
+            }
+            flush(buffer, channel);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Copy packed vertices a component at a time, so each lands in the
+     * file's byte order whatever order they were packed in. Padding
+     * between attributes is written as zeros.
+     */
+    private static void putPacked(ByteBuffer buffer, FileChannel channel, ByteBuffer vertices,
+                                  int vertexCount, int stride, MeshFile.Attribute[] attributes)
+            throws IOException {
+        for (int v = 0; v < vertexCount; v++) {
+            if (buffer.remaining() < stride) {
+                flush(buffer, channel);
+            }
+            int base = buffer.position();
+            for (int b = 0; b < stride; b++) {
+                buffer.put((byte) 0);
+            }
+            for (MeshFile.Attribute attribute : attributes) {
+                int size = componentBytes(attribute.type);
+                for (int c = 0; c < attribute.size; c++) {
+                    int from = v * stride + attribute.offset + c * size;
+                    int to = base + attribute.offset + c * size;
+                    if (size == 1) {
+                        buffer.put(to, vertices.get(from));
+                    } else if (size == 2) {
+                        buffer.putShort(to, vertices.getShort(from));
+                    } else {
+                        buffer.putInt(to, vertices.getInt(from));
+                    }
+                }
+            }
+        }
+    }
+
+    private static int componentBytes(int type) {
+        switch (type) {
+            case MeshFile.TYPE_BYTE:
+            case MeshFile.TYPE_UNSIGNED_BYTE:
+                return 1;
+            case MeshFile.TYPE_SHORT:
+            case MeshFile.TYPE_UNSIGNED_SHORT:
+            case VertexQuantizer.TYPE_HALF_FLOAT:
+                return 2;
+            default:
+                return 4;
+        }
+    }
+
+    private static float[] bounds(FloatBuffer vertices, int strideFloats, int vertexCount,
+                                  int offset, int size) {
+        float[] bounds = new float[] {
+                Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+                Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY,
+        };
+        for (int v = 0; v < vertexCount; v++) {
+            int o = v * strideFloats + offset;
+            for (int k = 0; k < Math.min(size, 3); k++) {
+                bounds[k] = Math.min(bounds[k], vertices.get(o + k));
+                bounds[k + 3] = Math.max(bounds[k + 3], vertices.get(o + k));
+            }
+        }
+        return bounds;
+    }
+
+    private static int align(int offset) {
+        int a = MeshFile.PAYLOAD_ALIGNMENT;
+        return (offset + a - 1) / a * a;
+    }
+
+    /**
+     * Write zeros until the file reaches the given offset.
+     */
+    private static void pad(ByteBuffer buffer, FileChannel channel, long offset)
+            throws IOException {
+        while (channel.position() + buffer.position() < offset) {
+            if (!buffer.hasRemaining()) {
+                flush(buffer, channel);
+            }
+            buffer.put((byte) 0);
+        }
+    }
+
+    private static void flush(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
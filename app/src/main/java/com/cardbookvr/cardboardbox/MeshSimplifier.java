@@ -0,0 +1,466 @@
+package com.cardbookvr.cardboardbox;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * Reduces the triangle count of an indexed mesh in the {@link CompiledMesh}
+ * layout by quadric error edge collapse (Garland and Heckbert).
+ *
+ * Every vertex accumulates the planes of the triangles around it, weighted
+ * by area; the cost of collapsing an edge is the mean squared distance
+ * from the merged vertex to those planes, so flat and gently curved areas
+ * go first. Edges used by a
+ * single triangle, which are open borders or seams where normals or colors
+ * are split, get extra planes at right angles to the surface and stay in
+ * place. Collapses that would flip a triangle over are refused. The merged
+ * vertex goes to whichever of the edge's ends or midpoint costs least, and
+ * takes that point's attributes.
+ *
+ * Use a new simplifier for each mesh.
+ */
+public class MeshSimplifier {
+    private static final int STRIDE = ObjReader.STRIDE_FLOATS;
+    // Quadric coefficients, then the area they were summed over
+    private static final int QUADRIC = 11;
+    // Border planes count this much more than surface planes
+    private static final double BORDER_WEIGHT = 100;
+    // Collapses may turn a triangle's normal by up to about 78 degrees
+    private static final double MIN_NORMAL_COSINE = 0.2;
+
+    private static class Collapse implements Comparable<Collapse> {
+        final double cost;
+        final int a;
+        final int b;
+        final int versionA;
+        final int versionB;
+        // 0 keeps a's position, 1 takes b's, 2 the midpoint
+        final int placement;
+
+        Collapse(double cost, int a, int b, int versionA, int versionB, int placement) {
+            this.cost = cost;
+            this.a = a;
+            this.b = b;
+            this.versionA = versionA;
+            this.versionB = versionB;
+            this.placement = placement;
+        }
+
+        @Override
+        public int compareTo(Collapse other) {
+            return Double.compare(cost, other.cost);
+        }
+    }
+
+    private float[] vertices;
+    private int vertexCount;
+    private int[] indices;
+    private int triangleCount;
+
+    private double[] quadrics;
+    private boolean[] removed;
+    private int[] versions;
+    // Triangles around each vertex, possibly including dead ones
+    private int[][] vertexTriangles;
+    private int[] vertexTriangleCounts;
+    private boolean[] deadTriangles;
+    private int liveTriangles;
+    private int[] marks;
+    private int mark;
+    private final PriorityQueue<Collapse> queue = new PriorityQueue<>();
+    private final double[] plane = new double[4];
+    private final float[] target = new float[3];
+    private final float[] corners = new float[9];
+    private double maxCost;
+
+    /**
+     * Collapse edges until the mesh has at most targetTriangles triangles,
+     * or until the next collapse would move the surface further than
+     * maxError. The source arrays are not modified.
+     *
+     * @param maxError - largest allowed error, in model units.
+     * @return the simplified mesh, with unused vertices removed.
+     */
+    public ObjReader.Mesh simplify(ObjReader.Mesh source, int targetTriangles, float maxError) {
+        vertexCount = source.getVertexCount();
+        vertices = Arrays.copyOf(source.getVertices(), vertexCount * STRIDE);
+        triangleCount = source.getIndexCount() / 3;
+        indices = Arrays.copyOf(source.getIndices(), triangleCount * 3);
+
+        quadrics = new double[vertexCount * QUADRIC];
+        removed = new boolean[vertexCount];
+        versions = new int[vertexCount];
+        deadTriangles = new boolean[triangleCount];
+        liveTriangles = triangleCount;
+        marks = new int[vertexCount];
+        buildAdjacency();
+        addSurfaceQuadrics();
+        addBorderQuadrics();
+
+        for (int t = 0; t < triangleCount; t++) {
+            for (int k = 0; k < 3; k++) {
+                int a = indices[t * 3 + k];
+                int b = indices[t * 3 + (k + 1) % 3];
+                // Every interior edge is seen twice, queue it once
+                if (a < b || isBorder(a, b)) {
+                    queue.add(evaluate(a, b));
+                }
+            }
+        }
+
+        double maxCostAllowed = (double) maxError * maxError;
+        while (liveTriangles > targetTriangles && !queue.isEmpty()) {
+            Collapse collapse = queue.poll();
+            if (removed[collapse.a] || removed[collapse.b]
+                    || versions[collapse.a] != collapse.versionA
+                    || versions[collapse.b] != collapse.versionB) {
+                continue;
+            }
+            if (collapse.cost > maxCostAllowed) {
+                break;
+            }
+            if (flips(collapse)) {
+                continue;
+            }
+            apply(collapse);
+        }
+        queue.clear();
+        return compact();
+    }
+
+    /**
+     * @return the largest error of any collapse made, as a root mean square
+     * distance in model units.
+     */
+    public float getError() {
+        return (float) Math.sqrt(maxCost);
+    }
+
+    private void buildAdjacency() {
+        vertexTriangleCounts = new int[vertexCount];
+        for (int i = 0; i < triangleCount * 3; i++) {
+            vertexTriangleCounts[indices[i]]++;
+        }
+        vertexTriangles = new int[vertexCount][];
+        for (int v = 0; v < vertexCount; v++) {
+            vertexTriangles[v] = new int[Math.max(vertexTriangleCounts[v], 1)];
+            vertexTriangleCounts[v] = 0;
+        }
+        for (int t = 0; t < triangleCount; t++) {
+            for (int k = 0; k < 3; k++) {
+                int v = indices[t * 3 + k];
+                vertexTriangles[v][vertexTriangleCounts[v]++] = t;
+            }
+        }
+    }
+
+    private void addSurfaceQuadrics() {
+        for (int t = 0; t < triangleCount; t++) {
+            double area = trianglePlane(t);
+            if (area > 0) {
+                for (int k = 0; k < 3; k++) {
+                    int v = indices[t * 3 + k];
+                    addPlane(v, plane, area);
+                    quadrics[v * QUADRIC + 10] += area;
+                }
+            }
+        }
+    }
+
+    private void addBorderQuadrics() {
+        for (int t = 0; t < triangleCount; t++) {
+            if (trianglePlane(t) == 0) {
+                continue;
+            }
+            double nx = plane[0], ny = plane[1], nz = plane[2];
+            for (int k = 0; k < 3; k++) {
+                int a = indices[t * 3 + k];
+                int b = indices[t * 3 + (k + 1) % 3];
+                if (!isBorder(a, b)) {
+                    continue;
+                }
+                int pa = a * STRIDE, pb = b * STRIDE;
+                double ex = vertices[pb] - vertices[pa];
+                double ey = vertices[pb + 1] - vertices[pa + 1];
+                double ez = vertices[pb + 2] - vertices[pa + 2];
+                // A plane through the edge, at right angles to the triangle
+                double px = ey * nz - ez * ny;
+                double py = ez * nx - ex * nz;
+                double pz = ex * ny - ey * nx;
+                double length = Math.sqrt(px * px + py * py + pz * pz);
+                if (length == 0) {
+                    continue;
+                }
+                double[] border = new double[] { px / length, py / length, pz / length, 0 };
+                border[3] = -(border[0] * vertices[pa] + border[1] * vertices[pa + 1]
+                        + border[2] * vertices[pa + 2]);
+                // Weighted by the edge's length squared, so in area units
+                double weight = BORDER_WEIGHT * (ex * ex + ey * ey + ez * ez);
+                addPlane(a, border, weight);
+                addPlane(b, border, weight);
+            }
+        }
+    }
+
+    /**
+     * @return whether no other live triangle uses the edge from a to b.
+     */
+    private boolean isBorder(int a, int b) {
+        int count = 0;
+        for (int i = 0; i < vertexTriangleCounts[a]; i++) {
+            int t = vertexTriangles[a][i];
+            if (!deadTriangles[t] && contains(t, b)) {
+                count++;
+            }
+        }
+        return count == 1;
+    }
+
+    /**
+     * Set plane to the unit normal and offset of triangle t.
+     *
+     * @return the triangle's area.
+     */
+    private double trianglePlane(int t) {
+        int a = indices[t * 3] * STRIDE;
+        int b = indices[t * 3 + 1] * STRIDE;
+        int c = indices[t * 3 + 2] * STRIDE;
+        double ux = vertices[b] - vertices[a], uy = vertices[b + 1] - vertices[a + 1];
+        double uz = vertices[b + 2] - vertices[a + 2];
+        double vx = vertices[c] - vertices[a], vy = vertices[c + 1] - vertices[a + 1];
+        double vz = vertices[c + 2] - vertices[a + 2];
+        double nx = uy * vz - uz * vy;
+        double ny = uz * vx - ux * vz;
+        double nz = ux * vy - uy * vx;
+        double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if (length == 0) {
+            return 0;
+        }
+        plane[0] = nx / length;
+        plane[1] = ny / length;
+        plane[2] = nz / length;
+        plane[3] = -(plane[0] * vertices[a] + plane[1] * vertices[a + 1] + plane[2] * vertices[a + 2]);
+        return length / 2;
+    }
+
+    /**
+     * Add the plane's quadric, the upper triangle of p * p^T, to vertex v.
+     */
+    private void addPlane(int v, double[] p, double weight) {
+        int q = v * QUADRIC;
+        quadrics[q] += weight * p[0] * p[0];
+        quadrics[q + 1] += weight * p[0] * p[1];
+        quadrics[q + 2] += weight * p[0] * p[2];
+        quadrics[q + 3] += weight * p[0] * p[3];
+        quadrics[q + 4] += weight * p[1] * p[1];
+        quadrics[q + 5] += weight * p[1] * p[2];
+        quadrics[q + 6] += weight * p[1] * p[3];
+        quadrics[q + 7] += weight * p[2] * p[2];
+        quadrics[q + 8] += weight * p[2] * p[3];
+        quadrics[q + 9] += weight * p[3] * p[3];
+    }
+
+    /**
+     * @return the mean squared distance of (x, y, z) to the planes of a and b.
+     */
+    private double cost(int a, int b, double x, double y, double z) {
+        double[] q = quadrics;
+        int i = a * QUADRIC, j = b * QUADRIC;
+        double q0 = q[i] + q[j], q1 = q[i + 1] + q[j + 1], q2 = q[i + 2] + q[j + 2];
+        double q3 = q[i + 3] + q[j + 3], q4 = q[i + 4] + q[j + 4], q5 = q[i + 5] + q[j + 5];
+        double q6 = q[i + 6] + q[j + 6], q7 = q[i + 7] + q[j + 7], q8 = q[i + 8] + q[j + 8];
+        double q9 = q[i + 9] + q[j + 9];
+        double area = q[i + 10] + q[j + 10];
+        double error = q0 * x * x + 2 * q1 * x * y + 2 * q2 * x * z + 2 * q3 * x
+                + q4 * y * y + 2 * q5 * y * z + 2 * q6 * y
+                + q7 * z * z + 2 * q8 * z + q9;
+        return Math.max(0, area > 0 ? error / area : error);
+    }
+
+    private Collapse evaluate(int a, int b) {
+        int pa = a * STRIDE, pb = b * STRIDE;
+        double ax = vertices[pa], ay = vertices[pa + 1], az = vertices[pa + 2];
+        double bx = vertices[pb], by = vertices[pb + 1], bz = vertices[pb + 2];
+        double costA = cost(a, b, ax, ay, az);
+        double costB = cost(a, b, bx, by, bz);
+        double costMid = cost(a, b, (ax + bx) / 2, (ay + by) / 2, (az + bz) / 2);
+        int placement = 0;
+        double best = costA;
+        if (costB < best) {
+            placement = 1;
+            best = costB;
+        }
+        if (costMid < best) {
+            placement = 2;
+            best = costMid;
+        }
+        return new Collapse(best, a, b, versions[a], versions[b], placement);
+    }
+
+    private void target(Collapse collapse, float[] out) {
+        int pa = collapse.a * STRIDE, pb = collapse.b * STRIDE;
+        for (int k = 0; k < 3; k++) {
+            switch (collapse.placement) {
+                case 0:
+                    out[k] = vertices[pa + k];
+                    break;
+                case 1:
+                    out[k] = vertices[pb + k];
+                    break;
+                default:
+                    out[k] = (vertices[pa + k] + vertices[pb + k]) / 2;
+                    break;
+            }
+        }
+    }
+
+    /**
+     * @return whether moving a and b to the collapse target would turn any
+     * surviving triangle around them over or squash it flat.
+     */
+    private boolean flips(Collapse collapse) {
+        target(collapse, target);
+        return flips(collapse.a, collapse.b, target) || flips(collapse.b, collapse.a, target);
+    }
+
+    private boolean flips(int moved, int other, float[] target) {
+        for (int i = 0; i < vertexTriangleCounts[moved]; i++) {
+            int t = vertexTriangles[moved][i];
+            if (deadTriangles[t] || contains(t, other)) {
+                continue;
+            }
+            if (trianglePlane(t) == 0) {
+                continue;
+            }
+            double nx = plane[0], ny = plane[1], nz = plane[2];
+            // The triangle's corners after the move, in order
+            float[] p = corners;
+            for (int k = 0; k < 3; k++) {
+                int v = indices[t * 3 + k];
+                for (int c = 0; c < 3; c++) {
+                    p[k * 3 + c] = v == moved ? target[c] : vertices[v * STRIDE + c];
+                }
+            }
+            double ux = p[3] - p[0], uy = p[4] - p[1], uz = p[5] - p[2];
+            double vx = p[6] - p[0], vy = p[7] - p[1], vz = p[8] - p[2];
+            double mx = uy * vz - uz * vy;
+            double my = uz * vx - ux * vz;
+            double mz = ux * vy - uy * vx;
+            double length = Math.sqrt(mx * mx + my * my + mz * mz);
+            if (length == 0 || (mx * nx + my * ny + mz * nz) / length < MIN_NORMAL_COSINE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void apply(Collapse collapse) {
+        int a = collapse.a, b = collapse.b;
+        int pa = a * STRIDE, pb = b * STRIDE;
+        if (collapse.placement == 1) {
+            System.arraycopy(vertices, pb, vertices, pa, STRIDE);
+        } else if (collapse.placement == 2) {
+            for (int k = 0; k < STRIDE; k++) {
+                vertices[pa + k] = (vertices[pa + k] + vertices[pb + k]) / 2;
+            }
+            normalize(pa + CompiledMesh.NORMAL_OFFSET);
+        }
+        for (int k = 0; k < QUADRIC; k++) {
+            quadrics[a * QUADRIC + k] += quadrics[b * QUADRIC + k];
+        }
+        maxCost = Math.max(maxCost, collapse.cost);
+        removed[b] = true;
+        versions[a]++;
+
+        // Move b's triangles to a, dropping the ones that had both
+        for (int i = 0; i < vertexTriangleCounts[b]; i++) {
+            int t = vertexTriangles[b][i];
+            if (deadTriangles[t]) {
+                continue;
+            }
+            if (contains(t, a)) {
+                deadTriangles[t] = true;
+                liveTriangles--;
+                continue;
+            }
+            for (int k = 0; k < 3; k++) {
+                if (indices[t * 3 + k] == b) {
+                    indices[t * 3 + k] = a;
+                }
+            }
+            addTriangle(a, t);
+        }
+        pruneTriangles(a);
+
+        // Queued edges of a and b are now stale; queue a's edges again.
+        // Other edges keep their cost, and flips are checked when popped.
+        mark++;
+        marks[a] = mark;
+        for (int i = 0; i < vertexTriangleCounts[a]; i++) {
+            int t = vertexTriangles[a][i];
+            for (int k = 0; k < 3; k++) {
+                int w = indices[t * 3 + k];
+                if (marks[w] != mark) {
+                    marks[w] = mark;
+                    queue.add(evaluate(a, w));
+                }
+            }
+        }
+    }
+
+    private void addTriangle(int v, int t) {
+        if (vertexTriangleCounts[v] == vertexTriangles[v].length) {
+            vertexTriangles[v] = Arrays.copyOf(vertexTriangles[v], vertexTriangles[v].length * 2);
+        }
+        vertexTriangles[v][vertexTriangleCounts[v]++] = t;
+    }
+
+    private void pruneTriangles(int v) {
+        int count = 0;
+        for (int i = 0; i < vertexTriangleCounts[v]; i++) {
+            int t = vertexTriangles[v][i];
+            if (!deadTriangles[t]) {
+                vertexTriangles[v][count++] = t;
+            }
+        }
+        vertexTriangleCounts[v] = count;
+    }
+
+    private boolean contains(int t, int v) {
+        return indices[t * 3] == v || indices[t * 3 + 1] == v || indices[t * 3 + 2] == v;
+    }
+
+    private void normalize(int o) {
+        float length = (float) Math.sqrt(vertices[o] * vertices[o]
+                + vertices[o + 1] * vertices[o + 1] + vertices[o + 2] * vertices[o + 2]);
+        if (length > 0) {
+            vertices[o] /= length;
+            vertices[o + 1] /= length;
+            vertices[o + 2] /= length;
+        }
+    }
+
+    private ObjReader.Mesh compact() {
+        int[] remap = new int[vertexCount];
+        Arrays.fill(remap, -1);
+        int[] outIndices = new int[liveTriangles * 3];
+        float[] outVertices = new float[vertexCount * STRIDE];
+        int outVertexCount = 0;
+        int o = 0;
+        for (int t = 0; t < triangleCount; t++) {
+            if (deadTriangles[t]) {
+                continue;
+            }
+            for (int k = 0; k < 3; k++) {
+                int v = indices[t * 3 + k];
+                if (remap[v] < 0) {
+                    System.arraycopy(vertices, v * STRIDE, outVertices, outVertexCount * STRIDE, STRIDE);
+                    remap[v] = outVertexCount++;
+                }
+                outIndices[o++] = remap[v];
+            }
+        }
+        return new ObjReader.Mesh(Arrays.copyOf(outVertices, outVertexCount * STRIDE),
+                outVertexCount, outIndices, o);
+    }
+}
@@ -0,0 +1,888 @@
+package com.cardbookvr.cardboardbox;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Imports large OBJ and ASCII PLY models on a ForkJoin pool.
+ *
+ * The file is memory-mapped and cut into chunks at line boundaries. A
+ * counting pass over every chunk in parallel finds how many vertices and
+ * triangles each one holds, prefix sums turn those into output offsets, and
+ * a parsing pass then writes every chunk's vertices and indices straight
+ * into direct, native-order buffers. Numbers are parsed from the bytes in
+ * place, so no Strings or boxed values are made per line and heap use does
+ * not grow with the model.
+ *
+ * Vertices use the {@link CompiledMesh} layout. OBJ vertices are the file's
+ * positions, and a face corner's normal is attached to its position. That
+ * is exact for scans and smooth meshes, but normals at hard edges are
+ * shared (use {@link ObjReader} to split those). Normals are generated,
+ * single threaded, when the file has none.
+ */
+public class ModelImporter {
+    public static final int STRIDE_FLOATS = CompiledMesh.POSITION_SIZE + CompiledMesh.NORMAL_SIZE
+            + CompiledMesh.COLOR_SIZE;
+
+    private static final int DEFAULT_CHUNK_BYTES = 1024 * 1024;
+    private static final int MAX_VERTICES = Integer.MAX_VALUE / (STRIDE_FLOATS * 4);
+
+    private static final int PASS_COUNT = 0;
+    private static final int PASS_COUNT_FACES = 1;
+    private static final int PASS_PARSE = 2;
+    private static final int PASS_NORMALS = 3;
+
+    private static final double[] POW10 = new double[23];
+
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    /**
+     * An imported model, ready for glVertexAttribPointer and glDrawElements
+     * with GL_UNSIGNED_INT indices.
+     */
+    public static class Model {
+        private final FloatBuffer vertices;
+        private final IntBuffer indices;
+        private final int vertexCount;
+        private final int triangleCount;
+        private final float[] bounds;
+
+        Model(FloatBuffer vertices, IntBuffer indices, int vertexCount, int triangleCount,
+              float[] bounds) {
+            this.vertices = vertices;
+            this.indices = indices;
+            this.vertexCount = vertexCount;
+            this.triangleCount = triangleCount;
+            this.bounds = bounds;
+        }
+
+        /**
+         * @return interleaved position, normal and color, STRIDE_FLOATS per vertex.
+         */
+        public FloatBuffer getVertices() {
+            return vertices;
+        }
+
+        /**
+         * @return three indices per triangle.
+         */
+        public IntBuffer getIndices() {
+            return indices;
+        }
+
+        public int getVertexCount() {
+            return vertexCount;
+        }
+
+        public int getTriangleCount() {
+            return triangleCount;
+        }
+
+        /**
+         * @return float[6] holding min x, y, z then max x, y, z.
+         */
+        public float[] getBounds() {
+            return bounds.clone();
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final int chunkBytes;
+
+    public ModelImporter(ForkJoinPool pool) {
+        this(pool, DEFAULT_CHUNK_BYTES);
+    }
+
+    ModelImporter(ForkJoinPool pool, int chunkBytes) {
+        this.pool = pool;
+        this.chunkBytes = chunkBytes;
+    }
+
+    /**
+     * Import a .obj or .ply file.
+     */
+    public Model importFile(File file) throws IOException {
+        if (file.length() > Integer.MAX_VALUE) {
+            throw new IOException(file + " is too large to map");
+        }
+        ByteBuffer data;
+        FileInputStream in = new FileInputStream(file);
+        try {
+            data = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        } finally {
+            in.close();
+        }
+        String name = file.getName().toLowerCase();
+        if (name.endsWith(".obj")) {
+            return importObj(data);
+        } else if (name.endsWith(".ply")) {
+            return importPly(data);
+        }
+        throw new IOException("Unknown model format: " + file);
+    }
+
+    public Model importObj(ByteBuffer data) throws IOException {
+        int[] starts = split(data, 0);
+        ObjChunk[] chunks = new ObjChunk[starts.length - 1];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = new ObjChunk(data, starts[i], starts[i + 1]);
+        }
+        run(chunks, PASS_COUNT);
+
+        int positions = 0, normals = 0, triangles = 0;
+        for (ObjChunk chunk : chunks) {
+            chunk.positionBase = positions;
+            chunk.normalBase = normals;
+            chunk.triangleBase = triangles;
+            positions += chunk.positions;
+            normals += chunk.normals;
+            triangles = addChecked(triangles, chunk.triangles);
+        }
+        checkVertexCount(positions);
+
+        FloatBuffer vertices = allocateFloats(positions * STRIDE_FLOATS);
+        IntBuffer indices = allocateInts(triangles * 3);
+        FloatBuffer normalData = normals > 0 ? allocateFloats(normals * 3) : null;
+        IntBuffer normalRefs = normals > 0 ? allocateInts(triangles * 3) : null;
+        for (ObjChunk chunk : chunks) {
+            chunk.vertices = vertices;
+            chunk.indices = indices;
+            chunk.normalData = normalData;
+            chunk.normalRefs = normalRefs;
+            chunk.positionCount = positions;
+            chunk.normalCount = normals;
+        }
+        run(chunks, PASS_PARSE);
+        if (normals > 0) {
+            run(chunks, PASS_NORMALS);
+        } else {
+            generateNormals(vertices, indices, triangles);
+        }
+        return new Model(vertices, indices, positions, triangles, reduceBounds(chunks));
+    }
+
+    public Model importPly(ByteBuffer data) throws IOException {
+        PlyHeader header = new PlyHeader(data);
+        checkVertexCount(header.vertexCount);
+
+        int[] starts = split(data, header.bodyStart);
+        PlyChunk[] chunks = new PlyChunk[starts.length - 1];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = new PlyChunk(data, starts[i], starts[i + 1], header);
+        }
+        run(chunks, PASS_COUNT);
+        int lines = 0;
+        for (PlyChunk chunk : chunks) {
+            chunk.lineBase = lines;
+            lines += chunk.lines;
+        }
+        if (lines < Math.max(header.faceLineStart + header.faceCount,
+                header.vertexLineStart + header.vertexCount)) {
+            throw new IOException("PLY body has " + lines + " lines, header promises more");
+        }
+        run(chunks, PASS_COUNT_FACES);
+        int triangles = 0;
+        for (PlyChunk chunk : chunks) {
+            chunk.triangleBase = triangles;
+            triangles = addChecked(triangles, chunk.triangles);
+        }
+
+        FloatBuffer vertices = allocateFloats(header.vertexCount * STRIDE_FLOATS);
+        IntBuffer indices = allocateInts(triangles * 3);
+        for (PlyChunk chunk : chunks) {
+            chunk.vertices = vertices;
+            chunk.indices = indices;
+        }
+        run(chunks, PASS_PARSE);
+        if (!header.hasNormals) {
+            generateNormals(vertices, indices, triangles);
+        }
+        return new Model(vertices, indices, header.vertexCount, triangles, reduceBounds(chunks));
+    }
+
+    /**
+     * @return chunk start offsets at line boundaries, ending with the limit.
+     */
+    private int[] split(ByteBuffer data, int from) {
+        int limit = data.limit();
+        int count = Math.max(1, (int) (((long) limit - from + chunkBytes - 1) / chunkBytes));
+        int[] starts = new int[count + 1];
+        starts[0] = from;
+        for (int i = 1; i < count; i++) {
+            int pos = Math.max(from + i * chunkBytes, starts[i - 1]);
+            while (pos < limit && data.get(pos - 1) != '\n') {
+                pos++;
+            }
+            starts[i] = pos;
+        }
+        starts[count] = limit;
+        return starts;
+    }
+
+    private void run(Chunk[] chunks, int pass) throws IOException {
+        try {
+            pool.invoke(new Pass(chunks, pass, 0, chunks.length));
+        } catch (FormatException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    private static int addChecked(int a, int b) throws IOException {
+        long sum = (long) a + b;
+        // Three 4 byte indices per triangle have to fit one buffer
+        if (sum > Integer.MAX_VALUE / 12) {
+            throw new IOException("Model has too many triangles");
+        }
+        return (int) sum;
+    }
+
+    private static void checkVertexCount(int vertices) throws IOException {
+        if (vertices > MAX_VERTICES) {
+            throw new IOException("Model has too many vertices: " + vertices);
+        }
+    }
+
+    private static FloatBuffer allocateFloats(int count) {
+        return ByteBuffer.allocateDirect(count * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    private static IntBuffer allocateInts(int count) {
+        return ByteBuffer.allocateDirect(count * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    private static float[] reduceBounds(Chunk[] chunks) {
+        float[] bounds = new float[] {
+                Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+                Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY,
+        };
+        for (Chunk chunk : chunks) {
+            for (int k = 0; k < 3; k++) {
+                bounds[k] = Math.min(bounds[k], chunk.bounds[k]);
+                bounds[k + 3] = Math.max(bounds[k + 3], chunk.bounds[k + 3]);
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Area weighted vertex normals from the triangles.
+     */
+    private static void generateNormals(FloatBuffer v, IntBuffer indices, int triangles) {
+        int n = CompiledMesh.NORMAL_OFFSET;
+        for (int t = 0; t < triangles; t++) {
+            int a = indices.get(t * 3) * STRIDE_FLOATS;
+            int b = indices.get(t * 3 + 1) * STRIDE_FLOATS;
+            int c = indices.get(t * 3 + 2) * STRIDE_FLOATS;
+            float ux = v.get(b) - v.get(a), uy = v.get(b + 1) - v.get(a + 1);
+            float uz = v.get(b + 2) - v.get(a + 2);
+            float wx = v.get(c) - v.get(a), wy = v.get(c + 1) - v.get(a + 1);
+            float wz = v.get(c + 2) - v.get(a + 2);
+            float nx = uy * wz - uz * wy;
+            float ny = uz * wx - ux * wz;
+            float nz = ux * wy - uy * wx;
+            addNormal(v, a + n, nx, ny, nz);
+            addNormal(v, b + n, nx, ny, nz);
+            addNormal(v, c + n, nx, ny, nz);
+        }
+        int count = v.capacity() / STRIDE_FLOATS;
+        for (int i = 0; i < count; i++) {
+            int o = i * STRIDE_FLOATS + n;
+            float x = v.get(o), y = v.get(o + 1), z = v.get(o + 2);
+            float length = (float) Math.sqrt(x * x + y * y + z * z);
+            if (length > 0) {
+                v.put(o, x / length);
+                v.put(o + 1, y / length);
+                v.put(o + 2, z / length);
+            }
+        }
+    }
+
+    private static void addNormal(FloatBuffer v, int o, float nx, float ny, float nz) {
+        v.put(o, v.get(o) + nx);
+        v.put(o + 1, v.get(o + 1) + ny);
+        v.put(o + 2, v.get(o + 2) + nz);
+    }
+
+    private static class FormatException extends RuntimeException {
+        FormatException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Runs one pass over a range of chunks, splitting it in half until each
+     * task has a single chunk.
+     */
+    private static class Pass extends RecursiveAction {
+        private final Chunk[] chunks;
+        private final int pass;
+        private final int lo;
+        private final int hi;
+
+        Pass(Chunk[] chunks, int pass, int lo, int hi) {
+            this.chunks = chunks;
+            this.pass = pass;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo == 1) {
+                chunks[lo].run(pass);
+            } else {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new Pass(chunks, pass, lo, mid), new Pass(chunks, pass, mid, hi));
+            }
+        }
+    }
+
+    /**
+     * A run of whole lines, with a cursor and number parsing over the bytes.
+     */
+    private abstract static class Chunk {
+        final ByteBuffer data;
+        final int start;
+        final int end;
+        int pos;
+        final float[] bounds = new float[] {
+                Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+                Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY,
+        };
+
+        Chunk(ByteBuffer data, int start, int end) {
+            this.data = data;
+            this.start = start;
+            this.end = end;
+        }
+
+        abstract void run(int pass);
+
+        byte peek() {
+            return pos < end ? data.get(pos) : (byte) '\n';
+        }
+
+        boolean atLineEnd() {
+            byte b = peek();
+            return b == '\n' || b == '\r' || b == '#';
+        }
+
+        void skipBlanks() {
+            while (pos < end) {
+                byte b = data.get(pos);
+                if (b != ' ' && b != '\t') {
+                    break;
+                }
+                pos++;
+            }
+        }
+
+        void nextLine() {
+            while (pos < end && data.get(pos) != '\n') {
+                pos++;
+            }
+            pos++;
+        }
+
+        /**
+         * Skip to the next blank or line end, returning the token length.
+         */
+        int skipToken() {
+            int from = pos;
+            while (pos < end) {
+                byte b = data.get(pos);
+                if (b == ' ' || b == '\t' || b == '\n' || b == '\r') {
+                    break;
+                }
+                pos++;
+            }
+            return pos - from;
+        }
+
+        int parseInt() {
+            skipBlanks();
+            boolean negative = false;
+            byte b = peek();
+            if (b == '-' || b == '+') {
+                negative = b == '-';
+                pos++;
+            }
+            long value = 0;
+            int digits = 0;
+            while (pos < end) {
+                int d = data.get(pos) - '0';
+                if (d < 0 || d > 9) {
+                    break;
+                }
+                value = value * 10 + d;
+                if (value > Integer.MAX_VALUE) {
+                    throw error("integer overflow");
+                }
+                digits++;
+                pos++;
+            }
+            if (digits == 0) {
+                throw error("expected an integer");
+            }
+            return (int) (negative ? -value : value);
+        }
+
+        float parseFloat() {
+            skipBlanks();
+            boolean negative = false;
+            byte b = peek();
+            if (b == '-' || b == '+') {
+                negative = b == '-';
+                pos++;
+            }
+            // Up to 18 significant digits fit a long exactly
+            long mantissa = 0;
+            int significant = 0;
+            int exponent = 0;
+            int digits = 0;
+            boolean fraction = false;
+            while (pos < end) {
+                b = data.get(pos);
+                if (b == '.' && !fraction) {
+                    fraction = true;
+                    pos++;
+                    continue;
+                }
+                int d = b - '0';
+                if (d < 0 || d > 9) {
+                    break;
+                }
+                digits++;
+                if (significant < 18) {
+                    mantissa = mantissa * 10 + d;
+                    if (mantissa != 0) {
+                        significant++;
+                    }
+                    if (fraction) {
+                        exponent--;
+                    }
+                } else if (!fraction) {
+                    exponent++;
+                }
+                pos++;
+            }
+            if (digits == 0) {
+                throw error("expected a number");
+            }
+            b = peek();
+            if (b == 'e' || b == 'E') {
+                pos++;
+                exponent += parseInt();
+            }
+            double value = mantissa;
+            if (exponent < 0) {
+                value = -exponent < POW10.length ? value / POW10[-exponent]
+                        : value / Math.pow(10, -exponent);
+            } else if (exponent > 0) {
+                value = exponent < POW10.length ? value * POW10[exponent]
+                        : value * Math.pow(10, exponent);
+            }
+            return (float) (negative ? -value : value);
+        }
+
+        void includeInBounds(float x, float y, float z) {
+            bounds[0] = Math.min(bounds[0], x);
+            bounds[1] = Math.min(bounds[1], y);
+            bounds[2] = Math.min(bounds[2], z);
+            bounds[3] = Math.max(bounds[3], x);
+            bounds[4] = Math.max(bounds[4], y);
+            bounds[5] = Math.max(bounds[5], z);
+        }
+
+        FormatException error(String message) {
+            return new FormatException("Malformed model: " + message + " at byte " + pos);
+        }
+    }
+
+    private static class ObjChunk extends Chunk {
+        // Counted in PASS_COUNT
+        int positions;
+        int normals;
+        int triangles;
+
+        // Set before PASS_PARSE
+        int positionBase;
+        int normalBase;
+        int triangleBase;
+        int positionCount;
+        int normalCount;
+        FloatBuffer vertices;
+        IntBuffer indices;
+        FloatBuffer normalData;
+        IntBuffer normalRefs;
+
+        ObjChunk(ByteBuffer data, int start, int end) {
+            super(data, start, end);
+        }
+
+        @Override
+        void run(int pass) {
+            if (pass == PASS_NORMALS) {
+                attachNormals();
+                return;
+            }
+            int p = 0, n = 0, t = 0;
+            pos = start;
+            while (pos < end) {
+                skipBlanks();
+                byte first = peek();
+                byte second = pos + 1 < end ? data.get(pos + 1) : (byte) '\n';
+                if (first == 'v' && (second == ' ' || second == '\t')) {
+                    if (pass == PASS_PARSE) {
+                        pos++;
+                        parseVertex(positionBase + p);
+                    }
+                    p++;
+                } else if (first == 'v' && second == 'n') {
+                    if (pass == PASS_PARSE) {
+                        pos += 2;
+                        int o = (normalBase + n) * 3;
+                        normalData.put(o, parseFloat());
+                        normalData.put(o + 1, parseFloat());
+                        normalData.put(o + 2, parseFloat());
+                    }
+                    n++;
+                } else if (first == 'f' && (second == ' ' || second == '\t')) {
+                    pos++;
+                    if (pass == PASS_PARSE) {
+                        t += parseFace(triangleBase + t, positionBase + p, normalBase + n);
+                    } else {
+                        int corners = 0;
+                        skipBlanks();
+                        while (!atLineEnd()) {
+                            skipToken();
+                            corners++;
+                            skipBlanks();
+                        }
+                        if (corners < 3) {
+                            throw error("face with fewer than 3 vertices");
+                        }
+                        t += corners - 2;
+                    }
+                }
+                nextLine();
+            }
+            if (pass == PASS_COUNT) {
+                positions = p;
+                normals = n;
+                triangles = t;
+            }
+        }
+
+        private void parseVertex(int index) {
+            int o = index * STRIDE_FLOATS;
+            float x = parseFloat();
+            float y = parseFloat();
+            float z = parseFloat();
+            vertices.put(o + CompiledMesh.POSITION_OFFSET, x);
+            vertices.put(o + CompiledMesh.POSITION_OFFSET + 1, y);
+            vertices.put(o + CompiledMesh.POSITION_OFFSET + 2, z);
+            includeInBounds(x, y, z);
+            // Either nothing, a w we don't use, or an r g b color
+            float r = 1.0f, g = 1.0f, b = 1.0f;
+            skipBlanks();
+            if (!atLineEnd()) {
+                float w = parseFloat();
+                skipBlanks();
+                if (!atLineEnd()) {
+                    r = w;
+                    g = parseFloat();
+                    b = parseFloat();
+                }
+            }
+            int c = o + CompiledMesh.COLOR_OFFSET;
+            vertices.put(c, r);
+            vertices.put(c + 1, g);
+            vertices.put(c + 2, b);
+            vertices.put(c + 3, 1.0f);
+        }
+
+        /**
+         * Parse a face as a fan of triangles.
+         *
+         * @return the number of triangles written.
+         */
+        private int parseFace(int triangle, int positionsSoFar, int normalsSoFar) {
+            int firstVertex = -1, firstNormal = -1;
+            int lastVertex = -1, lastNormal = -1;
+            int corners = 0;
+            skipBlanks();
+            while (!atLineEnd()) {
+                int vertex = resolve(parseInt(), positionsSoFar, positionCount);
+                int normal = -1;
+                if (peek() == '/') {
+                    pos++;
+                    if (peek() != '/' && peek() != ' ' && peek() != '\t' && !atLineEnd()) {
+                        parseInt(); // texture coordinate, unused
+                    }
+                    if (peek() == '/') {
+                        pos++;
+                        normal = resolve(parseInt(), normalsSoFar, normalCount);
+                    }
+                }
+                if (corners == 0) {
+                    firstVertex = vertex;
+                    firstNormal = normal;
+                } else if (corners >= 2) {
+                    int o = (triangle + corners - 2) * 3;
+                    indices.put(o, firstVertex);
+                    indices.put(o + 1, lastVertex);
+                    indices.put(o + 2, vertex);
+                    if (normalRefs != null) {
+                        normalRefs.put(o, firstNormal);
+                        normalRefs.put(o + 1, lastNormal);
+                        normalRefs.put(o + 2, normal);
+                    }
+                }
+                lastVertex = vertex;
+                lastNormal = normal;
+                corners++;
+                skipBlanks();
+            }
+            return corners - 2;
+        }
+
+        /**
+         * OBJ references are 1-based, negative ones count back from the
+         * last element defined before the face.
+         */
+        private int resolve(int reference, int soFar, int total) {
+            int index = reference < 0 ? soFar + reference : reference - 1;
+            if (index < 0 || index >= total) {
+                throw error("reference " + reference + " out of range");
+            }
+            return index;
+        }
+
+        private void attachNormals() {
+            for (int i = triangleBase * 3; i < (triangleBase + triangles) * 3; i++) {
+                int normal = normalRefs.get(i);
+                if (normal >= 0) {
+                    int o = indices.get(i) * STRIDE_FLOATS + CompiledMesh.NORMAL_OFFSET;
+                    vertices.put(o, normalData.get(normal * 3));
+                    vertices.put(o + 1, normalData.get(normal * 3 + 1));
+                    vertices.put(o + 2, normalData.get(normal * 3 + 2));
+                }
+            }
+        }
+    }
+
+    /**
+     * The parts of an ASCII PLY header the importer uses.
+     */
+    private static class PlyHeader {
+        // Vertex slots for x, y, z, nx, ny, nz, red, green, blue, alpha
+        private static final String[] NAMES = {
+                "x", "y", "z", "nx", "ny", "nz", "red", "green", "blue", "alpha",
+        };
+        private static final int[] SLOTS = {
+                CompiledMesh.POSITION_OFFSET, CompiledMesh.POSITION_OFFSET + 1,
+                CompiledMesh.POSITION_OFFSET + 2,
+                CompiledMesh.NORMAL_OFFSET, CompiledMesh.NORMAL_OFFSET + 1,
+                CompiledMesh.NORMAL_OFFSET + 2,
+                CompiledMesh.COLOR_OFFSET, CompiledMesh.COLOR_OFFSET + 1,
+                CompiledMesh.COLOR_OFFSET + 2, CompiledMesh.COLOR_OFFSET + 3,
+        };
+
+        int bodyStart;
+        int vertexCount;
+        int vertexLineStart = -1;
+        int faceCount;
+        int faceLineStart = -1;
+        boolean hasNormals;
+        // Per vertex property: slot in the vertex or -1, and divisor
+        int[] propertySlots;
+        float[] propertyScales;
+
+        PlyHeader(ByteBuffer data) throws IOException {
+            List<String> lines = new ArrayList<>();
+            StringBuilder line = new StringBuilder();
+            int pos = 0;
+            while (true) {
+                if (pos >= data.limit()) {
+                    throw new IOException("PLY header has no end_header");
+                }
+                char c = (char) (data.get(pos++) & 0xff);
+                if (c == '\n') {
+                    String text = line.toString().trim();
+                    line.setLength(0);
+                    if (text.equals("end_header")) {
+                        break;
+                    }
+                    lines.add(text);
+                } else {
+                    line.append(c);
+                }
+            }
+            bodyStart = pos;
+            if (lines.isEmpty() || !lines.get(0).equals("ply")) {
+                throw new IOException("Not a PLY file");
+            }
+
+            List<Integer> slots = new ArrayList<>();
+            List<Float> scales = new ArrayList<>();
+            String element = null;
+            int lineCount = 0;
+            for (String text : lines) {
+                String[] tokens = text.split("\\s+");
+                if (tokens[0].equals("format")) {
+                    if (!tokens[1].equals("ascii")) {
+                        throw new IOException("Only ASCII PLY is supported, not " + tokens[1]);
+                    }
+                } else if (tokens[0].equals("element")) {
+                    element = tokens[1];
+                    int count = Integer.parseInt(tokens[2]);
+                    if (element.equals("vertex")) {
+                        vertexCount = count;
+                        vertexLineStart = lineCount;
+                    } else if (element.equals("face")) {
+                        faceCount = count;
+                        faceLineStart = lineCount;
+                    }
+                    lineCount += count;
+                } else if (tokens[0].equals("property") && "vertex".equals(element)) {
+                    String name = tokens[tokens.length - 1];
+                    int slot = -1;
+                    for (int i = 0; i < NAMES.length; i++) {
+                        if (NAMES[i].equals(name)) {
+                            slot = SLOTS[i];
+                        }
+                    }
+                    if (name.equals("nx")) {
+                        hasNormals = true;
+                    }
+                    slots.add(slot);
+                    // Integer colors are 0-255
+                    boolean isColor = slot >= CompiledMesh.COLOR_OFFSET;
+                    scales.add(isColor && !tokens[1].startsWith("float") ? 255.0f : 1.0f);
+                }
+            }
+            if (vertexLineStart < 0 || faceLineStart < 0) {
+                throw new IOException("PLY file needs vertex and face elements");
+            }
+            propertySlots = new int[slots.size()];
+            propertyScales = new float[scales.size()];
+            for (int i = 0; i < propertySlots.length; i++) {
+                propertySlots[i] = slots.get(i);
+                propertyScales[i] = scales.get(i);
+            }
+        }
+    }
+
+    private static class PlyChunk extends Chunk {
+        private final PlyHeader header;
+
+        int lines;
+        int lineBase;
+        int triangles;
+        int triangleBase;
+        FloatBuffer vertices;
+        IntBuffer indices;
+
+        PlyChunk(ByteBuffer data, int start, int end, PlyHeader header) {
+            super(data, start, end);
+            this.header = header;
+        }
+
+        @Override
+        void run(int pass) {
+            if (pass == PASS_COUNT) {
+                for (int i = start; i < end; i++) {
+                    if (data.get(i) == '\n') {
+                        lines++;
+                    }
+                }
+                if (end == data.limit() && end > start && data.get(end - 1) != '\n') {
+                    lines++;
+                }
+                return;
+            }
+            int faceStart = header.faceLineStart;
+            int faceEnd = faceStart + header.faceCount;
+            int vertexStart = header.vertexLineStart;
+            int vertexEnd = vertexStart + header.vertexCount;
+            if (lineBase + lines <= Math.min(faceStart, vertexStart)
+                    || lineBase >= Math.max(faceEnd, vertexEnd)) {
+                return;
+            }
+            int t = 0;
+            pos = start;
+            for (int line = lineBase; line < lineBase + lines; line++) {
+                if (line >= faceStart && line < faceEnd) {
+                    int corners = parseInt();
+                    if (corners < 3) {
+                        throw error("face with fewer than 3 vertices");
+                    }
+                    if (pass == PASS_PARSE) {
+                        parseFace(triangleBase + t, corners);
+                    }
+                    t += corners - 2;
+                } else if (line >= vertexStart && line < vertexEnd && pass == PASS_PARSE) {
+                    parseVertex(line - vertexStart);
+                }
+                nextLine();
+            }
+            if (pass == PASS_COUNT_FACES) {
+                triangles = t;
+            }
+        }
+
+        private void parseVertex(int index) {
+            int o = index * STRIDE_FLOATS;
+            int c = o + CompiledMesh.COLOR_OFFSET;
+            vertices.put(c, 1.0f);
+            vertices.put(c + 1, 1.0f);
+            vertices.put(c + 2, 1.0f);
+            vertices.put(c + 3, 1.0f);
+            int[] slots = header.propertySlots;
+            for (int i = 0; i < slots.length; i++) {
+                float value = parseFloat();
+                if (slots[i] >= 0) {
+                    vertices.put(o + slots[i], value / header.propertyScales[i]);
+                }
+            }
+            includeInBounds(vertices.get(o), vertices.get(o + 1), vertices.get(o + 2));
+        }
+
+        private void parseFace(int triangle, int corners) {
+            int first = vertexIndex();
+            int last = vertexIndex();
+            for (int i = 2; i < corners; i++) {
+                int vertex = vertexIndex();
+                int o = (triangle + i - 2) * 3;
+                indices.put(o, first);
+                indices.put(o + 1, last);
+                indices.put(o + 2, vertex);
+                last = vertex;
+            }
+        }
+
+        private int vertexIndex() {
+            int index = parseInt();
+            if (index < 0 || index >= header.vertexCount) {
+                throw error("vertex index " + index + " out of range");
+            }
+            return index;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.cardbookvr.cardboardbox;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads Wavefront OBJ geometry into an indexed mesh with the
+ * {@link CompiledMesh} vertex layout. Faces are triangulated as fans,
+ * vertices are shared between faces that use the same v//vn pair, and
+ * smooth normals are generated when the file has none. Per-vertex colors
+ * written as "v x y z r g b" are kept; everything else defaults to white.
+ * Use a new reader for each file.
+ */
+public class ObjReader {
+    public static final int STRIDE_FLOATS = CompiledMesh.POSITION_SIZE + CompiledMesh.NORMAL_SIZE
+            + CompiledMesh.COLOR_SIZE;
+
+    /**
+     * Indexed, interleaved result of {@link #read}.
+     */
+    public static class Mesh {
+        private final float[] vertices;
+        private final int vertexCount;
+        private final int[] indices;
+        private final int indexCount;
+
+        Mesh(float[] vertices, int vertexCount, int[] indices, int indexCount) {
+            this.vertices = vertices;
+            this.vertexCount = vertexCount;
+            this.indices = indices;
+            this.indexCount = indexCount;
+        }
+
+        /**
+         * @return position, normal and color per vertex; may be longer than needed.
+         */
+        public float[] getVertices() {
+            return vertices;
+        }
+
+        public int getVertexCount() {
+            return vertexCount;
+        }
+
+        /**
+         * @return triangle list indices; may be longer than needed.
+         */
+        public int[] getIndices() {
+            return indices;
+        }
+
+        public int getIndexCount() {
+            return indexCount;
+        }
+    }
+
+    private float[] positions = new float[3 * 1024];
+    private float[] colors = new float[4 * 1024];
+    private int positionCount;
+    private float[] normals = new float[3 * 1024];
+    private int normalCount;
+
+    private float[] vertices = new float[STRIDE_FLOATS * 1024];
+    private int vertexCount;
+    private int[] indices = new int[3 * 1024];
+    private int indexCount;
+    private final Map<Long, Integer> vertexIds = new HashMap<>();
+    private boolean missingNormals;
+
+    public Mesh read(BufferedReader reader) throws IOException {
+        String line;
+        int lineNumber = 0;
+        int[] face = new int[16];
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            String[] tokens = line.trim().split("\\s+");
+            try {
+                if (tokens[0].equals("v")) {
+                    addPosition(tokens);
+                } else if (tokens[0].equals("vn")) {
+                    normals = grow(normals, normalCount * 3 + 3);
+                    for (int k = 0; k < 3; k++) {
+                        normals[normalCount * 3 + k] = Float.parseFloat(tokens[1 + k]);
+                    }
+                    normalCount++;
+                } else if (tokens[0].equals("f")) {
+                    int corners = tokens.length - 1;
+                    if (corners < 3) {
+                        throw new IOException("Face with fewer than 3 vertices");
+                    }
+                    if (face.length < corners) {
+                        face = new int[corners];
+                    }
+                    for (int i = 0; i < corners; i++) {
+                        face[i] = vertexFor(tokens[1 + i]);
+                    }
+                    for (int i = 1; i + 1 < corners; i++) {
+                        indices = grow(indices, indexCount + 3);
+                        indices[indexCount++] = face[0];
+                        indices[indexCount++] = face[i];
+                        indices[indexCount++] = face[i + 1];
+                    }
+                }
+                // Texture coordinates, groups and materials are not used yet
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                throw new IOException("Malformed OBJ at line " + lineNumber + ": " + line, e);
+            }
+        }
+        if (missingNormals) {
+            generateNormals();
+        }
+        return new Mesh(vertices, vertexCount, indices, indexCount);
+    }
+
+    private void addPosition(String[] tokens) {
+        positions = grow(positions, positionCount * 3 + 3);
+        colors = grow(colors, positionCount * 4 + 4);
+        for (int k = 0; k < 3; k++) {
+            positions[positionCount * 3 + k] = Float.parseFloat(tokens[1 + k]);
+        }
+        boolean colored = tokens.length >= 7;
+        for (int k = 0; k < 3; k++) {
+            colors[positionCount * 4 + k] = colored ? Float.parseFloat(tokens[4 + k]) : 1.0f;
+        }
+        colors[positionCount * 4 + 3] = 1.0f;
+        positionCount++;
+    }
+
+    /**
+     * @return the vertex id for a face corner "v", "v/vt", "v//vn" or "v/vt/vn".
+     */
+    private int vertexFor(String corner) {
+        String[] refs = corner.split("/");
+        int p = resolve(Integer.parseInt(refs[0]), positionCount);
+        int n = -1;
+        if (refs.length == 3 && !refs[2].isEmpty()) {
+            n = resolve(Integer.parseInt(refs[2]), normalCount);
+        }
+        Long key = ((long) p << 32) | (n & 0xffffffffL);
+        Integer id = vertexIds.get(key);
+        if (id != null) {
+            return id;
+        }
+
+        vertices = grow(vertices, (vertexCount + 1) * STRIDE_FLOATS);
+        int o = vertexCount * STRIDE_FLOATS;
+        System.arraycopy(positions, p * 3, vertices, o + CompiledMesh.POSITION_OFFSET, 3);
+        if (n >= 0) {
+            System.arraycopy(normals, n * 3, vertices, o + CompiledMesh.NORMAL_OFFSET, 3);
+        } else {
+            missingNormals = true;
+        }
+        System.arraycopy(colors, p * 4, vertices, o + CompiledMesh.COLOR_OFFSET, 4);
+        vertexIds.put(key, vertexCount);
+        return vertexCount++;
+    }
+
+    /**
+     * OBJ indices are 1-based, negative ones count back from the end.
+     */
+    private static int resolve(int index, int count) {
+        int resolved = index < 0 ? count + index : index - 1;
+        if (resolved < 0 || resolved >= count) {
+            throw new IndexOutOfBoundsException("reference " + index + " out of range");
+        }
+        return resolved;
+    }
+
+    /**
+     * Area weighted face normals summed at each vertex that has no normal.
+     */
+    private void generateNormals() {
+        boolean[] generated = new boolean[vertexCount];
+        for (int v = 0; v < vertexCount; v++) {
+            int o = v * STRIDE_FLOATS + CompiledMesh.NORMAL_OFFSET;
+            generated[v] = vertices[o] == 0 && vertices[o + 1] == 0 && vertices[o + 2] == 0;
+        }
+        for (int i = 0; i + 2 < indexCount; i += 3) {
+            int a = indices[i] * STRIDE_FLOATS;
+            int b = indices[i + 1] * STRIDE_FLOATS;
+            int c = indices[i + 2] * STRIDE_FLOATS;
+            float ux = vertices[b] - vertices[a], uy = vertices[b + 1] - vertices[a + 1];
+            float uz = vertices[b + 2] - vertices[a + 2];
+            float vx = vertices[c] - vertices[a], vy = vertices[c + 1] - vertices[a + 1];
+            float vz = vertices[c + 2] - vertices[a + 2];
+            float nx = uy * vz - uz * vy;
+            float ny = uz * vx - ux * vz;
+            float nz = ux * vy - uy * vx;
+            for (int k = 0; k < 3; k++) {
+                int v = indices[i + k];
+                if (generated[v]) {
+                    int o = v * STRIDE_FLOATS + CompiledMesh.NORMAL_OFFSET;
+                    vertices[o] += nx;
+                    vertices[o + 1] += ny;
+                    vertices[o + 2] += nz;
+                }
+            }
+        }
+        for (int v = 0; v < vertexCount; v++) {
+            if (generated[v]) {
+                int o = v * STRIDE_FLOATS + CompiledMesh.NORMAL_OFFSET;
+                float length = (float) Math.sqrt(vertices[o] * vertices[o]
+                        + vertices[o + 1] * vertices[o + 1] + vertices[o + 2] * vertices[o + 2]);
+                if (length > 0) {
+                    vertices[o] /= length;
+                    vertices[o + 1] /= length;
+                    vertices[o + 2] /= length;
+                }
+            }
+        }
+    }
+
+    private static float[] grow(float[] array, int needed) {
+        return needed <= array.length ? array : Arrays.copyOf(array, Math.max(needed, array.length * 2));
+    }
+
+    private static int[] grow(int[] array, int needed) {
+        return needed <= array.length ? array : Arrays.copyOf(array, Math.max(needed, array.length * 2));
+    }
+}
@@ -0,0 +1,411 @@
+package com.cardbookvr.cardboardbox;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Hides objects behind large occluders before they reach GL, with a small
+ * depth buffer rasterized on the CPU.
+ *
+ * A frame begins with a view-projection, a few occluders are added as
+ * triangles, then {@link #rasterize} draws them into the buffer. The
+ * buffer is split into square tiles, and each triangle is binned into the
+ * tiles its screen rectangle touches, so tiles can be rasterized
+ * independently, across a ForkJoinPool when there is enough to do. Each
+ * tile also keeps its farthest depth, which settles most queries without
+ * reading a pixel.
+ *
+ * {@link #isOccluded} projects a world-space box and reports it hidden
+ * only if every pixel its screen rectangle touches, and one more on each
+ * side, holds something nearer than the box's nearest point. Occluders
+ * cover the pixels whose centres they cover, as GL does, so a pixel an
+ * edge only partly covers is still marked; the pixel beyond it is not,
+ * and the extra ring keeps a box seen only past an occluder's very edge
+ * from being hidden. Occluder triangles crossing the near plane are left
+ * out, and boxes crossing it are never hidden.
+ *
+ * Nothing is allocated per frame once the arrays have grown, except a
+ * task per slice of tiles when rasterizing in parallel.
+ */
+public class OcclusionCuller {
+    // Triangle tile pairs needed before rasterizing in parallel
+    public static final int PARALLEL_THRESHOLD = 256;
+    // Tiles in the smallest slice rasterized by one task
+    private static final int TILES_PER_TASK = 4;
+    // Screen x, y and depth of three corners
+    private static final int TRIANGLE_FLOATS = 9;
+    private static final float FAR = 1;
+
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final int tilesX;
+    private final int tilesY;
+    private final ForkJoinPool pool;
+
+    private final float[] depth;
+    private final float[] tileMax;
+    private final int[][] tileTriangles;
+    private final int[] tileCounts;
+    private int binned;
+
+    private float[] triangles = new float[64 * TRIANGLE_FLOATS];
+    private int triangleCount;
+
+    private final float[] viewProjection = new float[16];
+    private final float[] mvp = new float[16];
+    private final float[] clip = new float[12];
+    private boolean begun;
+
+    private int tested;
+    private int occluded;
+
+    /**
+     * @param width - buffer width in pixels.
+     * @param height - buffer height in pixels.
+     * @param tileSize - tile width and height in pixels.
+     * @param pool - rasterizes tiles in parallel, or null to rasterize on
+     *             the calling thread only.
+     */
+    public OcclusionCuller(int width, int height, int tileSize, ForkJoinPool pool) {
+        if (width <= 0 || height <= 0 || tileSize <= 0) {
+            throw new IllegalArgumentException("buffer and tile sizes must be positive");
+        }
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.pool = pool;
+        tilesX = (width + tileSize - 1) / tileSize;
+        tilesY = (height + tileSize - 1) / tileSize;
+        depth = new float[width * height];
+        tileMax = new float[tilesX * tilesY];
+        tileTriangles = new int[tilesX * tilesY][];
+        tileCounts = new int[tilesX * tilesY];
+        for (int t = 0; t < tileTriangles.length; t++) {
+            tileTriangles[t] = new int[8];
+        }
+        Arrays.fill(depth, FAR);
+        Arrays.fill(tileMax, FAR);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Clear the buffer and occluders for a new view.
+     *
+     * @param viewProjection - projection times view, 16 floats at offset.
+     */
+    public void begin(float[] viewProjection, int offset) {
+        System.arraycopy(viewProjection, offset, this.viewProjection, 0, 16);
+        Arrays.fill(depth, FAR);
+        Arrays.fill(tileMax, FAR);
+        Arrays.fill(tileCounts, 0);
+        binned = 0;
+        triangleCount = 0;
+        begun = true;
+    }
+
+    /**
+     * Add an occluder drawn as a list of triangles.
+     *
+     * @param positions - x, y, z per vertex, three vertices per triangle,
+     *                  from offset.
+     * @param vertexCount - a multiple of three.
+     * @param transforms - holds the model's world transform at
+     *                   transformOffset.
+     */
+    public void addOccluder(float[] positions, int offset, int vertexCount,
+                            float[] transforms, int transformOffset) {
+        checkBegun();
+        if (vertexCount % 3 != 0) {
+            throw new IllegalArgumentException("occluders are lists of triangles");
+        }
+        Matrices.multiplyMM(mvp, 0, viewProjection, 0, transforms, transformOffset);
+        for (int v = 0; v < vertexCount; v += 3) {
+            boolean crossesNear = false;
+            for (int corner = 0; corner < 3; corner++) {
+                int p = offset + (v + corner) * 3;
+                transform(mvp, positions[p], positions[p + 1], positions[p + 2], clip,
+                        corner * 4);
+                // In front of the near plane; clipping is left to GL
+                if (clip[corner * 4 + 2] < -clip[corner * 4 + 3] || clip[corner * 4 + 3] <= 0) {
+                    crossesNear = true;
+                }
+            }
+            if (!crossesNear) {
+                addTriangle();
+            }
+        }
+    }
+
+    public int getTriangleCount() {
+        return triangleCount;
+    }
+
+    /**
+     * Draw the occluders added since {@link #begin} into the buffer.
+     */
+    public void rasterize() {
+        checkBegun();
+        if (pool != null && binned >= PARALLEL_THRESHOLD) {
+            pool.invoke(new RasterTask(0, tileCounts.length));
+        } else {
+            rasterizeTiles(0, tileCounts.length);
+        }
+    }
+
+    /**
+     * @param bounds - world-space min x, y, z then max x, y, z at offset.
+     * @return whether the rasterized occluders hide all of the box.
+     */
+    public boolean isOccluded(float[] bounds, int offset) {
+        checkBegun();
+        tested++;
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, minDepth = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        float[] m = viewProjection;
+        for (int corner = 0; corner < 8; corner++) {
+            float x = bounds[offset + ((corner & 1) == 0 ? 0 : 3)];
+            float y = bounds[offset + ((corner & 2) == 0 ? 1 : 4)];
+            float z = bounds[offset + ((corner & 4) == 0 ? 2 : 5)];
+            float cx = m[0] * x + m[4] * y + m[8] * z + m[12];
+            float cy = m[1] * x + m[5] * y + m[9] * z + m[13];
+            float cz = m[2] * x + m[6] * y + m[10] * z + m[14];
+            float cw = m[3] * x + m[7] * y + m[11] * z + m[15];
+            if (cz < -cw || cw <= 0) {
+                return false;
+            }
+            float sx = (cx / cw * 0.5f + 0.5f) * width;
+            float sy = (cy / cw * 0.5f + 0.5f) * height;
+            minX = Math.min(minX, sx);
+            maxX = Math.max(maxX, sx);
+            minY = Math.min(minY, sy);
+            maxY = Math.max(maxY, sy);
+            minDepth = Math.min(minDepth, cz / cw * 0.5f + 0.5f);
+        }
+
+        // Every pixel the rectangle touches
+        int x0 = (int) Math.floor(minX);
+        int y0 = (int) Math.floor(minY);
+        int x1 = (int) Math.ceil(maxX);
+        int y1 = (int) Math.ceil(maxY);
+        if (x1 <= 0 || x0 >= width || y1 <= 0 || y0 >= height) {
+            // Off screen: for the frustum culler to drop, not hidden
+            return false;
+        }
+        // Grown by a pixel, past any partly covered pixel at an edge
+        x0 = Math.max(x0 - 1, 0);
+        y0 = Math.max(y0 - 1, 0);
+        x1 = Math.min(x1 + 1, width);
+        y1 = Math.min(y1 + 1, height);
+        for (int ty = y0 / tileSize; ty <= (y1 - 1) / tileSize; ty++) {
+            for (int tx = x0 / tileSize; tx <= (x1 - 1) / tileSize; tx++) {
+                if (tileMax[ty * tilesX + tx] < minDepth) {
+                    continue;
+                }
+                int px1 = Math.min(x1, (tx + 1) * tileSize);
+                int py1 = Math.min(y1, (ty + 1) * tileSize);
+                for (int py = Math.max(y0, ty * tileSize); py < py1; py++) {
+                    int row = py * width;
+                    for (int px = Math.max(x0, tx * tileSize); px < px1; px++) {
+                        if (depth[row + px] >= minDepth) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+        occluded++;
+        return true;
+    }
+
+    /**
+     * @return the nearest occluder depth at a pixel, 0 at the near plane
+     * to 1 at the far plane; row 0 is the bottom of the view.
+     */
+    public float getDepth(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            throw new IndexOutOfBoundsException("no pixel " + x + ", " + y);
+        }
+        return depth[y * width + x];
+    }
+
+    /**
+     * @return boxes tested and found hidden since the last
+     * {@link #resetCounts}.
+     */
+    public int getTestedCount() {
+        return tested;
+    }
+
+    public int getOccludedCount() {
+        return occluded;
+    }
+
+    public void resetCounts() {
+        tested = 0;
+        occluded = 0;
+    }
+
+    private void checkBegun() {
+        if (!begun) {
+            throw new IllegalStateException("begin must be called first");
+        }
+    }
+
+    private static void transform(float[] m, float x, float y, float z, float[] result,
+                                  int offset) {
+        result[offset] = m[0] * x + m[4] * y + m[8] * z + m[12];
+        result[offset + 1] = m[1] * x + m[5] * y + m[9] * z + m[13];
+        result[offset + 2] = m[2] * x + m[6] * y + m[10] * z + m[14];
+        result[offset + 3] = m[3] * x + m[7] * y + m[11] * z + m[15];
+    }
+
+    /**
+     * Store the triangle in clip, in screen space, and bin it.
+     */
+    private void addTriangle() {
+        if ((triangleCount + 1) * TRIANGLE_FLOATS > triangles.length) {
+            triangles = Arrays.copyOf(triangles, triangles.length * 2);
+        }
+        int t = triangleCount * TRIANGLE_FLOATS;
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (int corner = 0; corner < 3; corner++) {
+            int c = corner * 4;
+            float w = clip[c + 3];
+            float sx = (clip[c] / w * 0.5f + 0.5f) * width;
+            float sy = (clip[c + 1] / w * 0.5f + 0.5f) * height;
+            triangles[t + corner * 3] = sx;
+            triangles[t + corner * 3 + 1] = sy;
+            triangles[t + corner * 3 + 2] = clip[c + 2] / w * 0.5f + 0.5f;
+            minX = Math.min(minX, sx);
+            maxX = Math.max(maxX, sx);
+            minY = Math.min(minY, sy);
+            maxY = Math.max(maxY, sy);
+        }
+        // Pixel centres are at half coordinates
+        int x0 = Math.max((int) Math.floor(minX - 0.5f) + 1, 0);
+        int y0 = Math.max((int) Math.floor(minY - 0.5f) + 1, 0);
+        int x1 = Math.min((int) Math.floor(maxX - 0.5f), width - 1);
+        int y1 = Math.min((int) Math.floor(maxY - 0.5f), height - 1);
+        if (x0 > x1 || y0 > y1) {
+            return;
+        }
+        for (int ty = y0 / tileSize; ty <= y1 / tileSize; ty++) {
+            for (int tx = x0 / tileSize; tx <= x1 / tileSize; tx++) {
+                int tile = ty * tilesX + tx;
+                int[] list = tileTriangles[tile];
+                if (tileCounts[tile] == list.length) {
+                    list = Arrays.copyOf(list, list.length * 2);
+                    tileTriangles[tile] = list;
+                }
+                list[tileCounts[tile]++] = triangleCount;
+                binned++;
+            }
+        }
+        triangleCount++;
+    }
+
+    private void rasterizeTiles(int from, int to) {
+        for (int tile = from; tile < to; tile++) {
+            if (tileCounts[tile] > 0) {
+                rasterizeTile(tile);
+            }
+        }
+    }
+
+    /**
+     * Draw a tile's triangles with edge functions at pixel centres, keeping
+     * the nearest depth. Tiles share no pixels, so tiles can be drawn at
+     * the same time.
+     */
+    private void rasterizeTile(int tile) {
+        int tx0 = (tile % tilesX) * tileSize;
+        int ty0 = (tile / tilesX) * tileSize;
+        int tx1 = Math.min(tx0 + tileSize, width);
+        int ty1 = Math.min(ty0 + tileSize, height);
+        int[] list = tileTriangles[tile];
+        float[] tr = triangles;
+        for (int i = 0; i < tileCounts[tile]; i++) {
+            int t = list[i] * TRIANGLE_FLOATS;
+            float ax = tr[t], ay = tr[t + 1], ad = tr[t + 2];
+            float bx = tr[t + 3], by = tr[t + 4], bd = tr[t + 5];
+            float cx = tr[t + 6], cy = tr[t + 7], cd = tr[t + 8];
+            float area = (bx - ax) * (cy - ay) - (cx - ax) * (by - ay);
+            if (area == 0) {
+                continue;
+            }
+            // Either winding: occluders are seen from both sides
+            if (area < 0) {
+                float x = bx, y = by, d = bd;
+                bx = cx;
+                by = cy;
+                bd = cd;
+                cx = x;
+                cy = y;
+                cd = d;
+                area = -area;
+            }
+            int x0 = Math.max((int) Math.floor(Math.min(ax, Math.min(bx, cx)) - 0.5f) + 1, tx0);
+            int y0 = Math.max((int) Math.floor(Math.min(ay, Math.min(by, cy)) - 0.5f) + 1, ty0);
+            int x1 = Math.min((int) Math.floor(Math.max(ax, Math.max(bx, cx)) - 0.5f) + 1, tx1);
+            int y1 = Math.min((int) Math.floor(Math.max(ay, Math.max(by, cy)) - 0.5f) + 1, ty1);
+            // Depth is linear in screen space
+            float dbx = (bd - ad) / area;
+            float dcx = (cd - ad) / area;
+            for (int py = y0; py < y1; py++) {
+                float y = py + 0.5f;
+                int row = py * width;
+                for (int px = x0; px < x1; px++) {
+                    float x = px + 0.5f;
+                    float wa = (cx - bx) * (y - by) - (cy - by) * (x - bx);
+                    float wb = (ax - cx) * (y - cy) - (ay - cy) * (x - cx);
+                    float wc = (bx - ax) * (y - ay) - (by - ay) * (x - ax);
+                    if (wa < 0 || wb < 0 || wc < 0) {
+                        continue;
+                    }
+                    float d = ad + dbx * wb + dcx * wc;
+                    if (d < depth[row + px]) {
+                        depth[row + px] = d;
+                    }
+                }
+            }
+        }
+        float max = 0;
+        for (int py = ty0; py < ty1; py++) {
+            int row = py * width;
+            for (int px = tx0; px < tx1; px++) {
+                max = Math.max(max, depth[row + px]);
+            }
+        }
+        tileMax[tile] = max;
+    }
+
+    private final class RasterTask extends RecursiveAction {
+        private final int from;
+        private final int to;
+
+        RasterTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= TILES_PER_TASK) {
+                rasterizeTiles(from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RasterTask(from, middle), new RasterTask(middle, to));
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.cardbookvr.cardboardbox;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Persistent cache of linked program binaries.
+ *
+ * Each binary is stored in its own file named after its program key. A text
+ * index records the driver identity and each entry's format and size, in
+ * least recently used order. The whole cache is dropped when the driver
+ * identity changes, and old entries are evicted to stay under a byte budget.
+ * Loads only reorder the index in memory; it is written by save, remove
+ * and {@link #flush}. The cache is best effort: I/O errors just mean a
+ * cache miss.
+ */
+public class ProgramBinaryStore {
+    private static final String INDEX_FILE = "index";
+    private static final String HEADER = "cardboardbox-programs 1";
+    private static final String SUFFIX = ".bin";
+
+    /**
+     * A driver-specific program binary and its format enum.
+     */
+    public static class Binary {
+        public final int format;
+        public final byte[] data;
+
+        public Binary(int format, byte[] data) {
+            this.format = format;
+            this.data = data;
+        }
+    }
+
+    private static class Entry {
+        final int format;
+        final int length;
+
+        Entry(int format, int length) {
+            this.format = format;
+            this.length = length;
+        }
+    }
+
+    private final File directory;
+    private final long maxBytes;
+
+    // Access ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private String identity;
+    private long totalBytes;
+    // Loads have reordered entries since the index was written
+    private boolean orderChanged;
+
+    public ProgramBinaryStore(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Read the index. Everything is discarded if it was written for a
+     * different driver or can't be parsed.
+     */
+    public void open(String driverIdentity) {
+        identity = ShaderSource.hash(driverIdentity);
+        entries.clear();
+        totalBytes = 0;
+        directory.mkdirs();
+
+        File index = new File(directory, INDEX_FILE);
+        boolean valid = false;
+        if (index.exists()) {
+            try {
+                BufferedReader reader = new BufferedReader(new FileReader(index));
+                try {
+                    valid = HEADER.equals(reader.readLine()) && identity.equals(reader.readLine());
+                    String line;
+                    while (valid && (line = reader.readLine()) != null) {
+                        String[] fields = line.split(" ");
+                        Entry entry = new Entry(Integer.parseInt(fields[1]), Integer.parseInt(fields[2]));
+                        if (new File(directory, fields[0] + SUFFIX).length() == entry.length) {
+                            entries.put(fields[0], entry);
+                            totalBytes += entry.length;
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+            } catch (IOException | RuntimeException e) {
+                valid = false;
+            }
+        }
+        if (!valid) {
+            clear();
+        }
+    }
+
+    public Binary load(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        byte[] data = new byte[entry.length];
+        try {
+            InputStream in = new FileInputStream(new File(directory, key + SUFFIX));
+            try {
+                int read = 0;
+                while (read < data.length) {
+                    int n = in.read(data, read, data.length - read);
+                    if (n < 0) {
+                        throw new IOException("Truncated program binary " + key);
+                    }
+                    read += n;
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            remove(key);
+            return null;
+        }
+        // The map is access ordered; flush() writes the new order
+        orderChanged = true;
+        return new Binary(entry.format, data);
+    }
+
+    public void save(String key, Binary binary) {
+        File file = new File(directory, key + SUFFIX);
+        File temp = new File(directory, key + ".tmp");
+        try {
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(binary.data);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not write " + file);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            temp.delete();
+            return;
+        }
+        Entry old = entries.put(key, new Entry(binary.format, binary.data.length));
+        if (old != null) {
+            totalBytes -= old.length;
+        }
+        totalBytes += binary.data.length;
+        evict();
+        writeIndex();
+    }
+
+    public void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            totalBytes -= entry.length;
+            new File(directory, key + SUFFIX).delete();
+            writeIndex();
+        }
+    }
+
+    /**
+     * Write the access order loads have changed, once a batch of them is
+     * done.
+     */
+    public void flush() {
+        if (orderChanged) {
+            writeIndex();
+        }
+    }
+
+    public boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    public int getEntryCount() {
+        return entries.size();
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Entry> oldest = it.next();
+            totalBytes -= oldest.getValue().length;
+            new File(directory, oldest.getKey() + SUFFIX).delete();
+            it.remove();
+        }
+    }
+
+    private void clear() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        entries.clear();
+        totalBytes = 0;
+        writeIndex();
+    }
+
+    private void writeIndex() {
+        orderChanged = false;
+        File index = new File(directory, INDEX_FILE);
+        File temp = new File(directory, INDEX_FILE + ".tmp");
+        try {
+            Writer writer = new FileWriter(temp);
+            try {
+                writer.write(HEADER + "\n" + identity + "\n");
+                for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                    writer.write(e.getKey() + " " + e.getValue().format + " "
+                            + e.getValue().length + "\n");
+                }
+            } finally {
+                writer.close();
+            }
+            if (!temp.renameTo(index)) {
+                throw new IOException("Could not write " + index);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.cardbookvr.cardboardbox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compiles each distinct shader and links each distinct program only once,
+ * keyed by content hash, and keeps linked program binaries on disk so the
+ * next start can skip compilation entirely.
+ *
+ * Every program also gets a dense index as it is linked or loaded, small
+ * enough for a {@link RenderQueue} sort key, where GL handles need not be.
+ *
+ * Handles are only valid for the GL context they were created in; make a
+ * new cache in every onSurfaceCreated, and {@link #finish} it once every
+ * program is made.
+ */
+public class ProgramCache {
+    private final ShaderDriver driver;
+    private final ProgramBinaryStore store;
+
+    private final Map<String, Integer> shaders = new HashMap<>();
+    private final Map<String, Integer> programs = new HashMap<>();
+    // Handle to index, in the order programs were first made
+    private final Map<Integer, Integer> indices = new HashMap<>();
+
+    private int compiles;
+    private int links;
+    private int binaryLoads;
+
+    /**
+     * @param store - persistent binaries, or null to keep nothing on disk.
+     */
+    public ProgramCache(ShaderDriver driver, ProgramBinaryStore store) {
+        this.driver = driver;
+        this.store = store;
+        if (store != null) {
+            store.open(driver.getIdentity());
+        }
+    }
+
+    public int getProgram(ShaderSource vertex, ShaderSource fragment) {
+        String key = programKey(vertex, fragment);
+        Integer program = programs.get(key);
+        if (program != null) {
+            return program;
+        }
+
+        int handle = 0;
+        if (store != null) {
+            ProgramBinaryStore.Binary binary = store.load(key);
+            if (binary != null) {
+                handle = driver.loadProgramBinary(binary);
+                if (handle != 0) {
+                    binaryLoads++;
+                } else {
+                    // Stale or corrupt, fall back to compiling
+                    store.remove(key);
+                }
+            }
+        }
+
+        if (handle == 0) {
+            handle = driver.linkProgram(getShader(vertex), getShader(fragment));
+            links++;
+            if (store != null) {
+                ProgramBinaryStore.Binary binary = driver.getProgramBinary(handle);
+                if (binary != null) {
+                    store.save(key, binary);
+                }
+            }
+        }
+        programs.put(key, handle);
+        indices.put(handle, indices.size());
+        return handle;
+    }
+
+    /**
+     * @param program - a handle from {@link #getProgram}.
+     * @return the program's index, from 0 up in the order programs were
+     *         first asked for.
+     */
+    public int getProgramIndex(int program) {
+        Integer index = indices.get(program);
+        if (index == null) {
+            throw new IllegalArgumentException("program " + program + " is not from this cache");
+        }
+        return index;
+    }
+
+    /**
+     * Delete the compiled shaders, which the linked programs don't need,
+     * and write out the store's index once for all the loads. Programs
+     * asked for later compile their shaders again.
+     */
+    public void finish() {
+        for (int shader : shaders.values()) {
+            driver.deleteShader(shader);
+        }
+        shaders.clear();
+        if (store != null) {
+            store.flush();
+        }
+    }
+
+    private int getShader(ShaderSource source) {
+        Integer shader = shaders.get(source.getHash());
+        if (shader == null) {
+            shader = driver.compileShader(source.getType(), source.getCode());
+            compiles++;
+            shaders.put(source.getHash(), shader);
+        }
+        return shader;
+    }
+
+    static String programKey(ShaderSource vertex, ShaderSource fragment) {
+        return ShaderSource.hash(vertex.getHash() + fragment.getHash());
+    }
+
+    public int getCompileCount() {
+        return compiles;
+    }
+
+    public int getLinkCount() {
+        return links;
+    }
+
+    public int getBinaryLoadCount() {
+        return binaryLoads;
+    }
+}
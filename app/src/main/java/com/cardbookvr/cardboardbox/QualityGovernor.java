@@ -0,0 +1,193 @@
+package com.cardbookvr.cardboardbox;
+
+/**
+ * Picks a render quality level from recent frame times, stepping down
+ * quickly when frames get close to the budget and back up slowly once
+ * they have room again. Level 0 is full quality; what each level turns
+ * down is up to the caller.
+ *
+ * A frame is at risk when it takes more than RISK_LOAD of the budget.
+ * Once a quarter of a full window of frames is at risk, the level steps
+ * down, so a lone spike such as a garbage collection doesn't count. A
+ * step up takes recoverFrames frames in a row without one at risk, with
+ * the window averaging under HEADROOM_LOAD of the budget. If a step up is
+ * undone before it has lasted that long, the next step up waits twice as
+ * long, up to MAX_BACKOFF times, so a load right between two levels
+ * settles on the cheaper one instead of oscillating. After any change the
+ * window starts empty, so each decision only sees frames of the current
+ * level.
+ *
+ * Nothing is allocated per frame. One thread at a time.
+ */
+public class QualityGovernor {
+    // Fraction of the budget above which a frame is at risk
+    public static final float RISK_LOAD = 0.9f;
+    // Average fraction of the budget below which there is room to step up
+    public static final float HEADROOM_LOAD = 0.6f;
+    // Fraction of the window at risk that steps down
+    private static final float DOWN_FRACTION = 0.25f;
+    // Most the wait to step up grows after failed attempts
+    private static final int MAX_BACKOFF = 8;
+
+    private final int levelCount;
+    private final long budgetNanos;
+    private final long riskNanos;
+    private final int recoverFrames;
+    private final int downCount;
+
+    private final long[] window;
+    private int head;
+    private int filled;
+    private long sum;
+    private int atRisk;
+
+    private int level;
+    // Frames in a row not at risk
+    private int calmFrames;
+    // Calm frames a step up currently waits for
+    private int hold;
+    private boolean steppedUp;
+    private int sinceStepUp;
+
+    private int stepDowns;
+    private int stepUps;
+
+    /**
+     * @param levelCount - quality levels, at least 1.
+     * @param budgetNanos - time a frame may take, e.g. 16666667 for 60Hz.
+     * @param windowFrames - frames a step down looks back over.
+     * @param recoverFrames - calm frames before stepping up, at least windowFrames.
+     */
+    public QualityGovernor(int levelCount, long budgetNanos, int windowFrames,
+                           int recoverFrames) {
+        if (levelCount < 1) {
+            throw new IllegalArgumentException("levelCount must be at least 1");
+        }
+        if (budgetNanos <= 0) {
+            throw new IllegalArgumentException("budgetNanos must be positive");
+        }
+        if (windowFrames < 1) {
+            throw new IllegalArgumentException("windowFrames must be positive");
+        }
+        if (recoverFrames < windowFrames) {
+            throw new IllegalArgumentException("recoverFrames must be at least windowFrames");
+        }
+        this.levelCount = levelCount;
+        this.budgetNanos = budgetNanos;
+        this.recoverFrames = recoverFrames;
+        riskNanos = (long) (budgetNanos * (double) RISK_LOAD);
+        downCount = Math.max(1, (int) Math.ceil(windowFrames * DOWN_FRACTION));
+        window = new long[windowFrames];
+        hold = recoverFrames;
+    }
+
+    /**
+     * Account for a finished frame.
+     *
+     * @param nanos - how long it took.
+     * @return whether the level changed.
+     */
+    public boolean addFrame(long nanos) {
+        if (nanos < 0) {
+            throw new IllegalArgumentException("frame time must not be negative");
+        }
+        if (filled == window.length) {
+            long old = window[head];
+            sum -= old;
+            if (old > riskNanos) {
+                atRisk--;
+            }
+        } else {
+            filled++;
+        }
+        window[head] = nanos;
+        head = head + 1 == window.length ? 0 : head + 1;
+        sum += nanos;
+        if (nanos > riskNanos) {
+            atRisk++;
+            calmFrames = 0;
+        } else if (calmFrames < Integer.MAX_VALUE) {
+            calmFrames++;
+        }
+        if (sinceStepUp < Integer.MAX_VALUE) {
+            sinceStepUp++;
+        }
+
+        if (filled < window.length) {
+            return false;
+        }
+        if (atRisk >= downCount && level < levelCount - 1) {
+            // Undoing a recent step up: wait longer before the next one
+            hold = steppedUp && sinceStepUp <= hold
+                    ? Math.min(hold * 2, recoverFrames * MAX_BACKOFF) : recoverFrames;
+            steppedUp = false;
+            level++;
+            stepDowns++;
+            reset();
+            return true;
+        }
+        if (level > 0 && calmFrames >= hold
+                && sum < (long) (budgetNanos * (double) HEADROOM_LOAD) * filled) {
+            steppedUp = true;
+            sinceStepUp = 0;
+            level--;
+            stepUps++;
+            reset();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the current level, 0 for full quality.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Force a level, as if it had just been stepped to.
+     */
+    public void setLevel(int level) {
+        if (level < 0 || level >= levelCount) {
+            throw new IndexOutOfBoundsException("level " + level + " out of range");
+        }
+        this.level = level;
+        steppedUp = false;
+        hold = recoverFrames;
+        reset();
+    }
+
+    public int getLevelCount() {
+        return levelCount;
+    }
+
+    /**
+     * Forget the frames seen so far, such as after a pause or a new
+     * surface, keeping the level. The next decision waits for a full window.
+     */
+    public void reset() {
+        head = 0;
+        filled = 0;
+        sum = 0;
+        atRisk = 0;
+        calmFrames = 0;
+    }
+
+    /**
+     * @return how many times the level went down, over all time.
+     */
+    public int getStepDownCount() {
+        return stepDowns;
+    }
+
+    public int getStepUpCount() {
+        return stepUps;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("level %d of %d, %d steps down, %d up, %d calm frames to step up",
+                level, levelCount - 1, stepDowns, stepUps, hold);
+    }
+}
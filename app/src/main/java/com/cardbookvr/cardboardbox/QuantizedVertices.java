@@ -0,0 +1,358 @@
+package com.cardbookvr.cardboardbox;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Interleaved vertices packed by {@link VertexQuantizer}, in this device's
+ * byte order, with the attribute layout to bind them with.
+ * {@link MeshFileWriter} stores them in a .cbmesh as they are.
+ *
+ * Quantized positions are read as -1 to 1 across the mesh's bounding box;
+ * the shader restores them as position * scale + offset, from
+ * {@link #getPositionScale} and {@link #getPositionOffset}. For float and
+ * half float positions the scale is 1 and the offset 0.
+ */
+public class QuantizedVertices {
+    private final int vertexCount;
+    private final int sourceStride;
+    private final int stride;
+    private final int positionEncoding;
+    private final int normalEncoding;
+    private final int colorEncoding;
+    private final float[] positionScale;
+    private final float[] positionOffset;
+    private final float[] bounds;
+    private final float positionError;
+    private final float normalError;
+    private final float colorError;
+    private final MeshFile.Attribute[] layout;
+    private final ByteBuffer data;
+
+    private QuantizedVertices(Builder builder, int stride, MeshFile.Attribute[] layout,
+                              ByteBuffer data) {
+        vertexCount = builder.vertexCount;
+        sourceStride = builder.sourceStride;
+        this.stride = stride;
+        positionEncoding = builder.positionEncoding;
+        normalEncoding = builder.normalEncoding;
+        colorEncoding = builder.colorEncoding;
+        positionScale = builder.positionScale;
+        positionOffset = builder.positionOffset;
+        bounds = builder.bounds;
+        positionError = builder.positionError;
+        normalError = builder.normalError;
+        colorError = builder.colorError;
+        this.layout = layout;
+        this.data = data;
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    /**
+     * @return distance between consecutive vertices, in bytes.
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * @return VertexQuantizer.POSITION_SNORM16, POSITION_HALF or POSITION_FLOAT.
+     */
+    public int getPositionEncoding() {
+        return positionEncoding;
+    }
+
+    /**
+     * @return VertexQuantizer.NORMAL_OCT16 or NORMAL_FLOAT.
+     */
+    public int getNormalEncoding() {
+        return normalEncoding;
+    }
+
+    /**
+     * @return VertexQuantizer.COLOR_UNORM8 or COLOR_FLOAT.
+     */
+    public int getColorEncoding() {
+        return colorEncoding;
+    }
+
+    public float[] getPositionScale() {
+        return positionScale.clone();
+    }
+
+    public float[] getPositionOffset() {
+        return positionOffset.clone();
+    }
+
+    /**
+     * @return float[6] holding min x, y, z then max x, y, z of the source
+     * positions; normalized positions span exactly this box.
+     */
+    public float[] getBounds() {
+        return bounds.clone();
+    }
+
+    /**
+     * @return the largest error in any position coordinate, in model units.
+     */
+    public float getPositionError() {
+        return positionError;
+    }
+
+    /**
+     * @return the largest angle between a normal and its encoding, in degrees.
+     */
+    public float getNormalError() {
+        return normalError;
+    }
+
+    /**
+     * @return the largest error in any color channel.
+     */
+    public float getColorError() {
+        return colorError;
+    }
+
+    /**
+     * @return the vertex layout, for glVertexAttribPointer.
+     */
+    public MeshFile.Attribute[] getLayout() {
+        return layout.clone();
+    }
+
+    /**
+     * @return the attribute with the given semantic, or null if absent.
+     */
+    public MeshFile.Attribute findAttribute(int semantic) {
+        for (MeshFile.Attribute attribute : layout) {
+            if (attribute.semantic == semantic) {
+                return attribute;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return bytes the float vertices took.
+     */
+    public int getSourceBytes() {
+        return vertexCount * sourceStride;
+    }
+
+    public int getVertexBytes() {
+        return vertexCount * stride;
+    }
+
+    public int getSavedBytes() {
+        return getSourceBytes() - getVertexBytes();
+    }
+
+    /**
+     * @return a new view of the vertices, no data is copied.
+     */
+    public ByteBuffer getVertexData() {
+        return data.duplicate().order(data.order());
+    }
+
+    /**
+     * Copy the vertices into a direct buffer for glVertexAttribPointer.
+     */
+    public ByteBuffer createVertexBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(getVertexBytes())
+                .order(ByteOrder.nativeOrder());
+        buffer.put(getVertexData());
+        buffer.position(0);
+        return buffer;
+    }
+
+    /**
+     * Read a vertex back as the GPU will see it.
+     *
+     * @param out - receives position x, y, z, normal x, y, z and color
+     *            r, g, b, a at offset.
+     */
+    public void decode(int vertex, float[] out, int offset) {
+        if (vertex < 0 || vertex >= vertexCount) {
+            throw new IndexOutOfBoundsException("no vertex " + vertex);
+        }
+        int base = vertex * stride;
+        MeshFile.Attribute position = layout[0];
+        for (int k = 0; k < 3; k++) {
+            int at = base + position.offset;
+            float value;
+            if (positionEncoding == VertexQuantizer.POSITION_FLOAT) {
+                value = data.getFloat(at + k * 4);
+            } else if (positionEncoding == VertexQuantizer.POSITION_HALF) {
+                value = VertexQuantizer.fromHalf(data.getShort(at + k * 2));
+            } else {
+                value = VertexQuantizer.decodeSnorm16(data.getShort(at + k * 2));
+            }
+            out[offset + k] = value * positionScale[k] + positionOffset[k];
+        }
+        int normal = base + layout[1].offset;
+        if (normalEncoding == VertexQuantizer.NORMAL_OCT16) {
+            VertexQuantizer.decodeOctahedral(data.getShort(normal), data.getShort(normal + 2),
+                    out, offset + 3);
+        } else {
+            for (int k = 0; k < 3; k++) {
+                out[offset + 3 + k] = data.getFloat(normal + k * 4);
+            }
+        }
+        int color = base + layout[2].offset;
+        for (int k = 0; k < 4; k++) {
+            out[offset + 6 + k] = colorEncoding == VertexQuantizer.COLOR_UNORM8
+                    ? (data.get(color + k) & 0xff) / 255f : data.getFloat(color + k * 4);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d vertices, %d -> %d bytes (stride %d -> %d), %d saved",
+                vertexCount, getSourceBytes(), getVertexBytes(), sourceStride, stride,
+                getSavedBytes());
+    }
+
+    /**
+     * Collects each attribute's encoding, then interleaves them.
+     */
+    static final class Builder {
+        private final int vertexCount;
+        private final int sourceStride;
+
+        private int positionEncoding;
+        private short[] shortPositions;
+        private float[] floatPositions;
+        private float[] positionScale = { 1, 1, 1 };
+        private float[] positionOffset = { 0, 0, 0 };
+        private float[] bounds = new float[6];
+        private float positionError;
+
+        private int normalEncoding;
+        private short[] octahedralNormals;
+        private float[] floatNormals;
+        private float normalError;
+
+        private int colorEncoding;
+        private byte[] byteColors;
+        private float[] floatColors;
+        private float colorError;
+
+        Builder(int vertexCount, int sourceStride) {
+            this.vertexCount = vertexCount;
+            this.sourceStride = sourceStride;
+        }
+
+        /**
+         * @param scale - null for half floats.
+         * @param offset - null for half floats.
+         */
+        void setPositions(int encoding, short[] positions, float[] scale, float[] offset,
+                          float error) {
+            positionEncoding = encoding;
+            shortPositions = positions;
+            if (scale != null) {
+                positionScale = scale;
+                positionOffset = offset;
+            }
+            positionError = error;
+        }
+
+        void setBounds(float[] bounds) {
+            this.bounds = bounds;
+        }
+
+        void setFloatPositions(float[] positions) {
+            positionEncoding = VertexQuantizer.POSITION_FLOAT;
+            floatPositions = positions;
+            positionError = 0;
+        }
+
+        void setOctahedralNormals(short[] normals, float error) {
+            normalEncoding = VertexQuantizer.NORMAL_OCT16;
+            octahedralNormals = normals;
+            normalError = error;
+        }
+
+        void setFloatNormals(float[] normals) {
+            normalEncoding = VertexQuantizer.NORMAL_FLOAT;
+            floatNormals = normals;
+            normalError = 0;
+        }
+
+        void setUnorm8Colors(byte[] colors, float error) {
+            colorEncoding = VertexQuantizer.COLOR_UNORM8;
+            byteColors = colors;
+            colorError = error;
+        }
+
+        void setFloatColors(float[] colors) {
+            colorEncoding = VertexQuantizer.COLOR_FLOAT;
+            floatColors = colors;
+            colorError = 0;
+        }
+
+        QuantizedVertices build() {
+            // Three shorts are padded to four, keeping every attribute on a
+            // 4-byte boundary
+            int positionBytes = floatPositions != null ? 12 : 8;
+            int normalBytes = octahedralNormals != null ? 4 : 12;
+            int colorBytes = byteColors != null ? 4 : 16;
+            int stride = positionBytes + normalBytes + colorBytes;
+            int normalOffset = positionBytes;
+            int colorOffset = positionBytes + normalBytes;
+
+            MeshFile.Attribute[] layout = {
+                    floatPositions != null
+                            ? new MeshFile.Attribute(MeshFile.SEMANTIC_POSITION, 3,
+                                    MeshFile.TYPE_FLOAT, false, 0)
+                            : positionEncoding == VertexQuantizer.POSITION_HALF
+                            ? new MeshFile.Attribute(MeshFile.SEMANTIC_POSITION, 3,
+                                    VertexQuantizer.TYPE_HALF_FLOAT, false, 0)
+                            : new MeshFile.Attribute(MeshFile.SEMANTIC_POSITION, 3,
+                                    MeshFile.TYPE_SHORT, true, 0),
+                    octahedralNormals != null
+                            ? new MeshFile.Attribute(MeshFile.SEMANTIC_NORMAL, 2,
+                                    MeshFile.TYPE_SHORT, true, normalOffset)
+                            : new MeshFile.Attribute(MeshFile.SEMANTIC_NORMAL, 3,
+                                    MeshFile.TYPE_FLOAT, false, normalOffset),
+                    byteColors != null
+                            ? new MeshFile.Attribute(MeshFile.SEMANTIC_COLOR, 4,
+                                    MeshFile.TYPE_UNSIGNED_BYTE, true, colorOffset)
+                            : new MeshFile.Attribute(MeshFile.SEMANTIC_COLOR, 4,
+                                    MeshFile.TYPE_FLOAT, false, colorOffset),
+            };
+
+            ByteBuffer data = ByteBuffer.allocate(vertexCount * stride)
+                    .order(ByteOrder.nativeOrder());
+            for (int v = 0; v < vertexCount; v++) {
+                int base = v * stride;
+                for (int k = 0; k < 3; k++) {
+                    if (floatPositions != null) {
+                        data.putFloat(base + k * 4, floatPositions[v * 3 + k]);
+                    } else {
+                        data.putShort(base + k * 2, shortPositions[v * 3 + k]);
+                    }
+                }
+                if (octahedralNormals != null) {
+                    data.putShort(base + normalOffset, octahedralNormals[v * 2]);
+                    data.putShort(base + normalOffset + 2, octahedralNormals[v * 2 + 1]);
+                } else {
+                    for (int k = 0; k < 3; k++) {
+                        data.putFloat(base + normalOffset + k * 4, floatNormals[v * 3 + k]);
+                    }
+                }
+                for (int k = 0; k < 4; k++) {
+                    if (byteColors != null) {
+                        data.put(base + colorOffset + k, byteColors[v * 4 + k]);
+                    } else {
+                        data.putFloat(base + colorOffset + k * 4, floatColors[v * 4 + k]);
+                    }
+                }
+            }
+            return new QuantizedVertices(this, stride, layout, data);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.cardbookvr.cardboardbox;
+
+/**
+ * Rotation quaternions stored as x, y, z, w floats at an offset, the same
+ * order as HeadTransform.getQuaternion. Products compose like matrices:
+ * the matrix of a * b is the matrix of a times the matrix of b.
+ */
+public class Quaternions {
+    private Quaternions() {
+    }
+
+    public static void setIdentity(float[] q, int offset) {
+        q[offset] = 0;
+        q[offset + 1] = 0;
+        q[offset + 2] = 0;
+        q[offset + 3] = 1;
+    }
+
+    /**
+     * Set q to a rotation of a degrees around the axis (x, y, z), as
+     * {@link Matrices#setRotateM}.
+     */
+    public static void setAxisAngle(float[] q, int offset, float a, float x, float y, float z) {
+        float half = a * (float) (Math.PI / 360.0);
+        float len = (float) Math.sqrt(x * x + y * y + z * z);
+        float s = (float) Math.sin(half) / len;
+        q[offset] = x * s;
+        q[offset + 1] = y * s;
+        q[offset + 2] = z * s;
+        q[offset + 3] = (float) Math.cos(half);
+    }
+
+    /**
+     * Invert q in place. For a unit quaternion the conjugate is the
+     * inverse rotation, and its matrix the transpose.
+     */
+    public static void conjugate(float[] q, int offset) {
+        q[offset] = -q[offset];
+        q[offset + 1] = -q[offset + 1];
+        q[offset + 2] = -q[offset + 2];
+    }
+
+    /**
+     * result = lhs * rhs. The result may overlap either input.
+     */
+    public static void multiply(float[] result, int resultOffset,
+                                float[] lhs, int lhsOffset, float[] rhs, int rhsOffset) {
+        float ax = lhs[lhsOffset], ay = lhs[lhsOffset + 1];
+        float az = lhs[lhsOffset + 2], aw = lhs[lhsOffset + 3];
+        float bx = rhs[rhsOffset], by = rhs[rhsOffset + 1];
+        float bz = rhs[rhsOffset + 2], bw = rhs[rhsOffset + 3];
+        result[resultOffset] = aw * bx + ax * bw + ay * bz - az * by;
+        result[resultOffset + 1] = aw * by - ax * bz + ay * bw + az * bx;
+        result[resultOffset + 2] = aw * bz + ax * by - ay * bx + az * bw;
+        result[resultOffset + 3] = aw * bw - ax * bx - ay * by - az * bz;
+    }
+
+    /**
+     * result = lhs * conjugate(rhs), the rotation from rhs to lhs. The
+     * result may overlap either input.
+     */
+    public static void multiplyConjugate(float[] result, int resultOffset,
+                                         float[] lhs, int lhsOffset, float[] rhs, int rhsOffset) {
+        float ax = lhs[lhsOffset], ay = lhs[lhsOffset + 1];
+        float az = lhs[lhsOffset + 2], aw = lhs[lhsOffset + 3];
+        float bx = -rhs[rhsOffset], by = -rhs[rhsOffset + 1];
+        float bz = -rhs[rhsOffset + 2], bw = rhs[rhsOffset + 3];
+        result[resultOffset] = aw * bx + ax * bw + ay * bz - az * by;
+        result[resultOffset + 1] = aw * by - ax * bz + ay * bw + az * bx;
+        result[resultOffset + 2] = aw * bz + ax * by - ay * bx + az * bw;
+        result[resultOffset + 3] = aw * bw - ax * bx - ay * by - az * bz;
+    }
+
+    /**
+     * Set v to the rotation vector of q: its axis scaled by its angle in
+     * radians, taking the short way round.
+     */
+    public static void toRotationVector(float[] v, int vOffset, float[] q, int qOffset) {
+        float x = q[qOffset], y = q[qOffset + 1], z = q[qOffset + 2], w = q[qOffset + 3];
+        if (w < 0) {
+            x = -x;
+            y = -y;
+            z = -z;
+            w = -w;
+        }
+        float sin = (float) Math.sqrt(x * x + y * y + z * z);
+        // angle / sin(angle / 2), which tends to 2 for small angles
+        float scale = sin < 1e-6f ? 2 : 2 * (float) Math.atan2(sin, w) / sin;
+        v[vOffset] = x * scale;
+        v[vOffset + 1] = y * scale;
+        v[vOffset + 2] = z * scale;
+    }
+
+    /**
+     * Set q to the rotation of the rotation vector (x, y, z).
+     */
+    public static void fromRotationVector(float[] q, int offset, float x, float y, float z) {
+        float angle = (float) Math.sqrt(x * x + y * y + z * z);
+        if (angle < 1e-6f) {
+            q[offset] = x / 2;
+            q[offset + 1] = y / 2;
+            q[offset + 2] = z / 2;
+            q[offset + 3] = 1;
+            normalize(q, offset);
+            return;
+        }
+        float s = (float) Math.sin(angle / 2) / angle;
+        q[offset] = x * s;
+        q[offset + 1] = y * s;
+        q[offset + 2] = z * s;
+        q[offset + 3] = (float) Math.cos(angle / 2);
+    }
+
+    /**
+     * @return the angle between two orientations, in degrees.
+     */
+    public static float angle(float[] a, int aOffset, float[] b, int bOffset) {
+        float dot = a[aOffset] * b[bOffset] + a[aOffset + 1] * b[bOffset + 1]
+                + a[aOffset + 2] * b[bOffset + 2] + a[aOffset + 3] * b[bOffset + 3];
+        return (float) Math.toDegrees(2 * Math.acos(Math.min(1, Math.abs(dot))));
+    }
+
+    public static void normalize(float[] q, int offset) {
+        float x = q[offset], y = q[offset + 1], z = q[offset + 2], w = q[offset + 3];
+        float len = (float) Math.sqrt(x * x + y * y + z * z + w * w);
+        if (len > 0) {
+            q[offset] = x / len;
+            q[offset + 1] = y / len;
+            q[offset + 2] = z / len;
+            q[offset + 3] = w / len;
+        }
+    }
+
+    /**
+     * Spherical interpolation from a (t = 0) to b (t = 1) the short way
+     * round. The result may overlap either input.
+     */
+    public static void slerp(float[] result, int resultOffset,
+                             float[] a, int aOffset, float[] b, int bOffset, float t) {
+        float ax = a[aOffset], ay = a[aOffset + 1], az = a[aOffset + 2], aw = a[aOffset + 3];
+        float bx = b[bOffset], by = b[bOffset + 1], bz = b[bOffset + 2], bw = b[bOffset + 3];
+        float cos = ax * bx + ay * by + az * bz + aw * bw;
+        if (cos < 0) {
+            cos = -cos;
+            bx = -bx;
+            by = -by;
+            bz = -bz;
+            bw = -bw;
+        }
+        float wa, wb;
+        if (cos > 0.9995f) {
+            // Nearly parallel, a normalized lerp is as good and stays finite
+            wa = 1 - t;
+            wb = t;
+        } else {
+            float angle = (float) Math.acos(cos);
+            float sin = (float) Math.sin(angle);
+            wa = (float) Math.sin((1 - t) * angle) / sin;
+            wb = (float) Math.sin(t * angle) / sin;
+        }
+        result[resultOffset] = wa * ax + wb * bx;
+        result[resultOffset + 1] = wa * ay + wb * by;
+        result[resultOffset + 2] = wa * az + wb * bz;
+        result[resultOffset + 3] = wa * aw + wb * bw;
+        normalize(result, resultOffset);
+    }
+
+    /**
+     * Set m to the rotation q describes, as {@link #setAxisAngle} and
+     * {@link Matrices#setRotateM} agree, with a zero translation column.
+     * q must be unit length. HeadTransform's head view rotates the world
+     * the other way, the transpose of this for its quaternion, so build
+     * one from the {@link #conjugate}.
+     */
+    public static void toRotationM(float[] m, int offset, float[] q, int qOffset) {
+        float x = q[qOffset], y = q[qOffset + 1], z = q[qOffset + 2], w = q[qOffset + 3];
+        float xx = x * x, yy = y * y, zz = z * z;
+        float xy = x * y, xz = x * z, yz = y * z;
+        float wx = w * x, wy = w * y, wz = w * z;
+        m[offset] = 1 - 2 * (yy + zz);
+        m[offset + 1] = 2 * (xy + wz);
+        m[offset + 2] = 2 * (xz - wy);
+        m[offset + 3] = 0;
+        m[offset + 4] = 2 * (xy - wz);
+        m[offset + 5] = 1 - 2 * (xx + zz);
+        m[offset + 6] = 2 * (yz + wx);
+        m[offset + 7] = 0;
+        m[offset + 8] = 2 * (xz + wy);
+        m[offset + 9] = 2 * (yz - wx);
+        m[offset + 10] = 1 - 2 * (xx + yy);
+        m[offset + 11] = 0;
+        m[offset + 12] = 0;
+        m[offset + 13] = 0;
+        m[offset + 14] = 0;
+        m[offset + 15] = 1;
+    }
+}
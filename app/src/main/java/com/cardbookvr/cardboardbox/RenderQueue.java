@@ -0,0 +1,177 @@
+package com.cardbookvr.cardboardbox;
+
+import java.util.Arrays;
+
+/**
+ * Draws collected for one eye, ordered by a 64-bit sort key before they
+ * are submitted.
+ *
+ * Keys compare as unsigned numbers. {@link #opaqueKey} puts the layer
+ * first, then the program and vertex layout, so draws sharing state end up
+ * next to each other, then depth front to back, so nearer objects fill the
+ * depth buffer first and hide what is behind them from the fragment
+ * shader. {@link #translucentKey} sorts by depth back to front before
+ * state, as blending needs. The lowest 16 bits are free for the caller.
+ *
+ * Sorting is a least significant digit radix sort, a byte at a time,
+ * into preallocated arrays: it is stable, linear in the number of draws,
+ * skips bytes every key shares, and allocates nothing unless the queue
+ * has to grow.
+ */
+public class RenderQueue {
+    public static final int MAX_LAYER = 15;
+    public static final int MAX_PROGRAM = 4095;
+    public static final int MAX_LAYOUT = 255;
+    public static final int MAX_USER = 0xFFFF;
+
+    // Distance quantized to 24 bits
+    private static final int DEPTH_BITS = 24;
+    private static final int DEPTH_MAX = (1 << DEPTH_BITS) - 1;
+    private static final int RADIX = 256;
+    private static final int PASSES = 8;
+
+    private long[] keys;
+    private int[] items;
+    private long[] sortedKeys;
+    private int[] sortedItems;
+    private final int[] counts = new int[PASSES * RADIX];
+    private int size;
+
+    public RenderQueue(int capacity) {
+        capacity = Math.max(capacity, 1);
+        keys = new long[capacity];
+        items = new int[capacity];
+        sortedKeys = new long[capacity];
+        sortedItems = new int[capacity];
+    }
+
+    /**
+     * Key for an opaque draw: layer, program, vertex layout, then depth
+     * front to back.
+     *
+     * @param layer - drawn in increasing order, up to MAX_LAYER.
+     * @param program - the same for draws sharing a program, up to MAX_PROGRAM,
+     *                such as ProgramCache.getProgramIndex; GL handles can
+     *                be larger.
+     * @param layout - the same for draws sharing a vertex format, up to MAX_LAYOUT.
+     * @param depth - 0 at the near plane to 1 at the far plane; clamped.
+     * @param user - anything up to MAX_USER, compared last.
+     */
+    public static long opaqueKey(int layer, int program, int layout, float depth, int user) {
+        check(layer, program, layout, user);
+        return (long) layer << 60 | (long) program << 48 | (long) layout << 40
+                | (long) quantize(depth) << 16 | user;
+    }
+
+    /**
+     * Key for a blended draw: layer, then depth back to front, then program
+     * and vertex layout among draws at the same depth.
+     */
+    public static long translucentKey(int layer, int program, int layout, float depth, int user) {
+        check(layer, program, layout, user);
+        return (long) layer << 60 | (long) (DEPTH_MAX - quantize(depth)) << 36
+                | (long) program << 24 | (long) layout << 16 | user;
+    }
+
+    public static int getLayer(long key) {
+        return (int) (key >>> 60);
+    }
+
+    public static int getUser(long key) {
+        return (int) (key & MAX_USER);
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Queue a draw.
+     *
+     * @param item - whatever identifies the draw to the submitter, such as
+     *             an object id.
+     */
+    public void add(long key, int item) {
+        if (size == keys.length) {
+            int capacity = size * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            items = Arrays.copyOf(items, capacity);
+            sortedKeys = new long[capacity];
+            sortedItems = new int[capacity];
+        }
+        keys[size] = key;
+        items[size] = item;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getKey(int i) {
+        return keys[i];
+    }
+
+    public int getItem(int i) {
+        return items[i];
+    }
+
+    /**
+     * Order the queued draws by key, keeping the order they were added in
+     * among equal keys.
+     */
+    public void sort() {
+        if (size < 2) {
+            return;
+        }
+        // One read of the keys builds the histograms of every byte
+        Arrays.fill(counts, 0);
+        for (int i = 0; i < size; i++) {
+            long key = keys[i];
+            for (int pass = 0; pass < PASSES; pass++) {
+                counts[pass * RADIX + (int) (key >>> (pass * 8) & 0xFF)]++;
+            }
+        }
+
+        for (int pass = 0; pass < PASSES; pass++) {
+            int base = pass * RADIX;
+            int shift = pass * 8;
+            // All keys share this byte: nothing to reorder
+            if (counts[base + (int) (keys[0] >>> shift & 0xFF)] == size) {
+                continue;
+            }
+            int offset = 0;
+            for (int b = 0; b < RADIX; b++) {
+                int count = counts[base + b];
+                counts[base + b] = offset;
+                offset += count;
+            }
+            for (int i = 0; i < size; i++) {
+                long key = keys[i];
+                int slot = counts[base + (int) (key >>> shift & 0xFF)]++;
+                sortedKeys[slot] = key;
+                sortedItems[slot] = items[i];
+            }
+            long[] k = keys;
+            keys = sortedKeys;
+            sortedKeys = k;
+            int[] v = items;
+            items = sortedItems;
+            sortedItems = v;
+        }
+    }
+
+    private static int quantize(float depth) {
+        if (!(depth > 0)) {
+            return 0;
+        }
+        return depth >= 1 ? DEPTH_MAX : (int) (depth * DEPTH_MAX);
+    }
+
+    private static void check(int layer, int program, int layout, int user) {
+        if (layer < 0 || layer > MAX_LAYER || program < 0 || program > MAX_PROGRAM
+                || layout < 0 || layout > MAX_LAYOUT || user < 0 || user > MAX_USER) {
+            throw new IllegalArgumentException("sort key field out of range");
+        }
+    }
+}
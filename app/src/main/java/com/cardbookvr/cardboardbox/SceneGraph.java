@@ -0,0 +1,341 @@
+package com.cardbookvr.cardboardbox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A transform hierarchy. Node n's local and world matrices are the 16
+ * floats at n * 16 of two flat arrays, and the tree is kept as parent,
+ * first child and next sibling indices, so nothing is allocated per node
+ * and a whole scene's matrices can be handed to a batch at once.
+ *
+ * Changing a local matrix only queues the node. {@link #update} then
+ * recomputes the world matrices of the queued nodes and everything below
+ * them, once, however many of them changed; static parts of the scene cost
+ * nothing. Subtrees of at least {@link #PARALLEL_THRESHOLD} nodes are
+ * split across a ForkJoinPool, when one is given, since siblings never
+ * share a matrix.
+ *
+ * Nodes are numbered from 0 in the order they are added and live as long
+ * as the graph. Not thread safe, apart from update's own parallelism.
+ */
+public class SceneGraph {
+    public static final int NO_PARENT = -1;
+    public static final int PARALLEL_THRESHOLD = 1024;
+
+    private final ForkJoinPool pool;
+
+    private int count;
+    private float[] local;
+    private float[] world;
+    private int[] parent;
+    private int[] firstChild;
+    private int[] lastChild;
+    private int[] nextSibling;
+    // Nodes in the subtree, the node included
+    private int[] subtreeSize;
+    private boolean[] dirty;
+    // The update that last recomputed each node's world matrix
+    private int[] updated;
+    private int updateCount;
+
+    private int[] queue;
+    private int queued;
+    private int[] roots;
+
+    private final AtomicInteger recomputed = new AtomicInteger();
+
+    /**
+     * @param capacity - nodes to make room for; the graph grows past it.
+     * @param pool - splits large updates, or null to update on the calling
+     *             thread only.
+     */
+    public SceneGraph(int capacity, ForkJoinPool pool) {
+        this.pool = pool;
+        capacity = Math.max(capacity, 1);
+        local = new float[capacity * 16];
+        world = new float[capacity * 16];
+        parent = new int[capacity];
+        firstChild = new int[capacity];
+        lastChild = new int[capacity];
+        nextSibling = new int[capacity];
+        subtreeSize = new int[capacity];
+        dirty = new boolean[capacity];
+        updated = new int[capacity];
+        queue = new int[capacity];
+        roots = new int[capacity];
+    }
+
+    /**
+     * Add a node with an identity transform.
+     *
+     * @param parentNode - an existing node, or NO_PARENT for a top level node.
+     * @return the new node.
+     */
+    public int addNode(int parentNode) {
+        if (parentNode != NO_PARENT) {
+            checkNode(parentNode);
+        }
+        if (count == parent.length) {
+            grow(count * 2);
+        }
+        int node = count++;
+        Matrices.setIdentityM(local, node * 16);
+        Matrices.setIdentityM(world, node * 16);
+        parent[node] = parentNode;
+        firstChild[node] = NO_PARENT;
+        lastChild[node] = NO_PARENT;
+        nextSibling[node] = NO_PARENT;
+        subtreeSize[node] = 1;
+        updated[node] = updateCount - 1;
+        dirty[node] = false;
+        if (parentNode != NO_PARENT) {
+            if (firstChild[parentNode] == NO_PARENT) {
+                firstChild[parentNode] = node;
+            } else {
+                nextSibling[lastChild[parentNode]] = node;
+            }
+            lastChild[parentNode] = node;
+            for (int p = parentNode; p != NO_PARENT; p = parent[p]) {
+                subtreeSize[p]++;
+            }
+        }
+        // Picks up the parent's world matrix on the next update
+        invalidate(node);
+        return node;
+    }
+
+    public int getNodeCount() {
+        return count;
+    }
+
+    public int getParent(int node) {
+        checkNode(node);
+        return parent[node];
+    }
+
+    /**
+     * Set a node's transform relative to its parent.
+     */
+    public void setLocal(int node, float[] m, int offset) {
+        checkNode(node);
+        System.arraycopy(m, offset, local, node * 16, 16);
+        invalidate(node);
+    }
+
+    public void getLocal(int node, float[] m, int offset) {
+        checkNode(node);
+        System.arraycopy(local, node * 16, m, offset, 16);
+    }
+
+    /**
+     * @return every local matrix, node n's at n * 16. Call
+     * {@link #invalidate} for nodes changed through it.
+     */
+    public float[] getLocalMatrices() {
+        return local;
+    }
+
+    /**
+     * Queue a node whose local matrix was written in place.
+     */
+    public void invalidate(int node) {
+        checkNode(node);
+        if (!dirty[node]) {
+            dirty[node] = true;
+            if (queued == queue.length) {
+                queue = Arrays.copyOf(queue, queued * 2);
+            }
+            queue[queued++] = node;
+        }
+    }
+
+    /**
+     * Copy a node's world matrix as of the last update.
+     */
+    public void getWorld(int node, float[] m, int offset) {
+        checkNode(node);
+        System.arraycopy(world, node * 16, m, offset, 16);
+    }
+
+    /**
+     * @return every world matrix, node n's at n * 16, as of the last
+     * update. Read only.
+     */
+    public float[] getWorldMatrices() {
+        return world;
+    }
+
+    /**
+     * @return whether the last update recomputed the node's world matrix.
+     */
+    public boolean isWorldChanged(int node) {
+        checkNode(node);
+        return updated[node] == updateCount;
+    }
+
+    /**
+     * Recompute the world matrices of queued nodes and their descendants.
+     *
+     * @return world matrices recomputed.
+     */
+    public int update() {
+        updateCount++;
+        recomputed.set(0);
+        // A queued node under another queued node is covered by it
+        int rootCount = 0;
+        int work = 0;
+        for (int i = 0; i < queued; i++) {
+            int node = queue[i];
+            if (dirty[node] && !hasDirtyAncestor(node)) {
+                roots[rootCount++] = node;
+                work += subtreeSize[node];
+            }
+        }
+        queued = 0;
+        if (rootCount == 0) {
+            return 0;
+        }
+
+        if (pool != null && work >= PARALLEL_THRESHOLD) {
+            pool.invoke(new RootsTask(rootCount));
+        } else {
+            for (int i = 0; i < rootCount; i++) {
+                recomputed.addAndGet(updateSubtree(roots[i], false, null));
+            }
+        }
+        return recomputed.get();
+    }
+
+    private boolean hasDirtyAncestor(int node) {
+        for (int p = parent[node]; p != NO_PARENT; p = parent[p]) {
+            if (dirty[p]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Recompute a subtree in depth first order, climbing back up through
+     * parent links instead of keeping a stack.
+     *
+     * @param split - leave large child subtrees out and add them to forks.
+     * @return world matrices recomputed.
+     */
+    private int updateSubtree(int top, boolean split, List<Integer> forks) {
+        int done = 0;
+        int node = top;
+        while (true) {
+            recompute(node);
+            done++;
+            int next = firstChild[node];
+            while (next != NO_PARENT && split && subtreeSize[next] >= PARALLEL_THRESHOLD) {
+                forks.add(next);
+                next = nextSibling[next];
+            }
+            if (next == NO_PARENT) {
+                // Up until a sibling is left to visit
+                while (node != top) {
+                    next = nextSibling[node];
+                    while (next != NO_PARENT && split
+                            && subtreeSize[next] >= PARALLEL_THRESHOLD) {
+                        forks.add(next);
+                        next = nextSibling[next];
+                    }
+                    if (next != NO_PARENT) {
+                        break;
+                    }
+                    node = parent[node];
+                }
+                if (next == NO_PARENT) {
+                    return done;
+                }
+            }
+            node = next;
+        }
+    }
+
+    private void recompute(int node) {
+        int p = parent[node];
+        if (p == NO_PARENT) {
+            System.arraycopy(local, node * 16, world, node * 16, 16);
+        } else {
+            Matrices.multiplyMM(world, node * 16, world, p * 16, local, node * 16);
+        }
+        dirty[node] = false;
+        updated[node] = updateCount;
+    }
+
+    private void checkNode(int node) {
+        if (node < 0 || node >= count) {
+            throw new IndexOutOfBoundsException("node " + node + " out of range");
+        }
+    }
+
+    private void grow(int capacity) {
+        local = Arrays.copyOf(local, capacity * 16);
+        world = Arrays.copyOf(world, capacity * 16);
+        parent = Arrays.copyOf(parent, capacity);
+        firstChild = Arrays.copyOf(firstChild, capacity);
+        lastChild = Arrays.copyOf(lastChild, capacity);
+        nextSibling = Arrays.copyOf(nextSibling, capacity);
+        subtreeSize = Arrays.copyOf(subtreeSize, capacity);
+        dirty = Arrays.copyOf(dirty, capacity);
+        updated = Arrays.copyOf(updated, capacity);
+        roots = Arrays.copyOf(roots, capacity);
+    }
+
+    /**
+     * Updates every root found by {@link #update}, each on its own task.
+     */
+    private final class RootsTask extends RecursiveAction {
+        private final int rootCount;
+
+        RootsTask(int rootCount) {
+            this.rootCount = rootCount;
+        }
+
+        @Override
+        protected void compute() {
+            List<SubtreeTask> tasks = new ArrayList<>();
+            int small = 0;
+            for (int i = 0; i < rootCount; i++) {
+                if (subtreeSize[roots[i]] >= PARALLEL_THRESHOLD) {
+                    tasks.add(new SubtreeTask(roots[i]));
+                } else {
+                    small += updateSubtree(roots[i], false, null);
+                }
+            }
+            recomputed.addAndGet(small);
+            invokeAll(tasks);
+        }
+    }
+
+    /**
+     * Updates a subtree, forking its large child subtrees once the node
+     * above them is done.
+     */
+    private final class SubtreeTask extends RecursiveAction {
+        private final int top;
+
+        SubtreeTask(int top) {
+            this.top = top;
+        }
+
+        @Override
+        protected void compute() {
+            List<Integer> forks = new ArrayList<>();
+            recomputed.addAndGet(updateSubtree(top, true, forks));
+            List<SubtreeTask> tasks = new ArrayList<>(forks.size());
+            for (int node : forks) {
+                tasks.add(new SubtreeTask(node));
+            }
+            invokeAll(tasks);
+        }
+    }
+}
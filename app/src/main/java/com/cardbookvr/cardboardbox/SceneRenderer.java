@@ -0,0 +1,1403 @@
+package com.cardbookvr.cardboardbox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Draws the scene for each eye: everything MainActivity did under
+ * CardboardView, with the platform left out. The frame time, head pose and
+ * eye matrices come in as arrays, GL calls go to a {@link GlBackend} and
+ * assets come from a {@link Host}, so the same frames can be replayed on
+ * a desktop JVM.
+ *
+ * The simulation runs on its own thread between {@link #start} and
+ * {@link #stop}, or is stepped with {@link #advanceSimulation} when
+ * frames must come out the same every run. Once both eyes have been drawn,
+ * onNewFrame records each eye's draws into a {@link CommandList} on the
+ * workers, both at once, and onDrawEye only replays them. The left eye is
+ * waited for straight away, so only the right eye's recording overlaps
+ * work on the GL thread; nothing is recorded a frame ahead. GL thread
+ * only, apart from those and {@link #getFrameMetrics}.
+ */
+public class SceneRenderer {
+    /**
+     * What the renderer needs from the platform it runs on.
+     */
+    public interface Host {
+        /**
+         * @param name - mesh name without the .cbmesh extension.
+         * @return the mesh and whichever levels of detail it has, full detail first.
+         */
+        MeshFile[] loadMeshLods(String name);
+
+        /**
+         * @return the shader's text, or null if there is none by that name.
+         * Called on a background thread.
+         */
+        String loadShader(String name) throws IOException;
+
+        /**
+         * @return the driver to build programs with, on the GL thread.
+         */
+        ShaderDriver createShaderDriver();
+
+        /**
+         * @return where linked programs are kept between runs, or null.
+         */
+        ProgramBinaryStore createProgramStore();
+
+        /**
+         * Scale the resolution the eyes are drawn at, 1 for full; lower
+         * fills fewer pixels and looks softer. Called on the GL thread.
+         */
+        void setRenderScale(float scale);
+
+        void log(String message);
+    }
+
+    // Scene variables
+    // light positioned just above the user
+    private static final float[] LIGHT_POS_IN_WORLD_SPACE = new float[]{0.0f, 2.0f, 0.0f, 1.0f };
+
+    // Model variables
+    private static final int COORDS_PER_VERTEX = 3;
+    private static float triCoords[] = {
+            // in counter-clockwise order
+            0.0f,  0.6f, -1.0f, // top
+            -0.5f, -0.3f, -1.0f, // bottom left
+            0.5f, -0.3f, -1.0f  // bottom right
+    };
+
+    private final int triVertexCount = triCoords.length / COORDS_PER_VERTEX;
+    // yellow-ish color
+    private float triColor[] = { 0.8f, 0.6f, 0.2f, 0.0f };
+    private BufferArena.Block triVertices;
+
+    // Levels of detail, full detail first, quantized by MeshConverter and
+    // drawn straight from the mapped files
+    private MeshFile[] cubeLods;
+    private float[][] cubePositionScales;
+    private float[][] cubePositionOffsets;
+    private float cubeColor[] = { 0.8f, 0.6f, 0.2f, 0.0f }; // yellow-ish
+    private float cubeDistance = 5f;
+
+    private ChunkedFloor floor;
+    private float[] floorBounds;
+    private float floorDepth = 20f;
+
+    // Ground tiles: 11x11 chunks of 20 units reach past Z_FAR
+    private static final float FLOOR_CHUNK_SIZE = 20f;
+    private static final int FLOOR_CHUNK_RESOLUTION = 16;
+    private static final int FLOOR_RADIUS = 5;
+    private static final int FLOOR_MAX_RESIDENT = 2 * (2 * FLOOR_RADIUS + 1) * (2 * FLOOR_RADIUS + 1);
+
+    // Props: small cubes scattered around the viewer, which never move and
+    // are batched into a draw per grid cell when the surface is created
+    private static final int PROP_GRID = 12;
+    private static final float PROP_SPACING = 3f;
+    private static final float PROP_SCALE = 0.25f;
+    private static final float PROP_HEIGHT = -3f;
+    private static final float PROP_CELL_SIZE = 12f;
+    // Copies of a mesh in one cell from which they are instanced, where
+    // the context supports it
+    private static final int PROP_INSTANCE_THRESHOLD = 8;
+
+    private CompiledMesh propMesh;
+    private float[] propTransforms;
+    private float[] propBounds;
+    private List<StaticBatcher.Batch> propBatches;
+
+    // Viewing variables
+    public static final float Z_NEAR = 0.1f;
+    public static final float Z_FAR = 100.0f;
+    private static final float CAMERA_Z = 0.01f;
+
+    private float[] camera;
+    // Every object's transform, one node per object id
+    private SceneGraph scene;
+    private float[] modelView;
+
+    // Simulation variables
+    private static final long SIMULATION_STEP_NANOS = 1000000000L / 120;
+    private static final float CUBE_SPIN_DEGREES_PER_SECOND = 18f;
+
+    private SimulationLoop simulation;
+
+    private float[] headView;
+
+    // Head pose prediction: draw for where the head will be when the
+    // frame is displayed, about one frame after onNewFrame
+    private static final long POSE_PREDICTION_NANOS = 1000000000L / 60;
+    private static final long POSE_WINDOW_NANOS = 50000000L;
+
+    private HeadPosePredictor posePredictor;
+
+    private StereoFramePlan framePlan;
+
+    // Instrumentation
+    private static final long FRAME_BUDGET_NANOS = 1000000000L / 60;
+    private FrameMetrics frameMetrics;
+
+    // Quality levels, stepped through as frames near the budget: coarser
+    // cube levels, then the ground without its grid, then a shorter draw
+    // distance for the ground and props, then fewer pixels
+    private static final float[] QUALITY_LOD_BIAS = { 1f, 0.5f, 0.5f, 0.5f, 0.5f, 0.5f };
+    private static final boolean[] QUALITY_FLOOR_GRID = {
+            true, true, false, false, false, false };
+    private static final float[] QUALITY_DRAW_DISTANCE = { Z_FAR, Z_FAR, Z_FAR, 60f, 35f, 35f };
+    private static final float[] QUALITY_RENDER_SCALE = { 1f, 1f, 1f, 1f, 1f, 0.75f };
+    private static final int QUALITY_WINDOW_FRAMES = 30;
+    private static final int QUALITY_RECOVER_FRAMES = 180;
+    // Longer gaps mean the renderer was paused
+    private static final long PAUSE_NANOS = 1000000000L;
+
+    private QualityGovernor qualityGovernor;
+    private boolean adaptiveQuality = true;
+    private boolean floorGrid = true;
+    private float drawDistance = Z_FAR;
+    private float renderScale = 1;
+    private long frameStart;
+    private long frameInterval;
+
+    // Gaze variables
+    private static final int TRIANGLE_ID = 0;
+    private static final int CUBE_ID = 1;
+    private static final int FLOOR_ID = 2;
+    private static final int PROPS_ID = 3;
+    private static final int OBJECT_COUNT = 4;
+
+    // Draw order variables
+    // Objects first, then the ground, so the depth test rejects the ground
+    // wherever something stands on it
+    private static final int LAYER_OBJECTS = 0;
+    private static final int LAYER_GROUND = 1;
+    private static final int[] OBJECT_LAYERS = { LAYER_OBJECTS, LAYER_OBJECTS, LAYER_GROUND,
+            LAYER_OBJECTS };
+    // Vertex formats: bare positions, MeshFile interleaved, floor chunk
+    // interleaved, batched props, then instanced props
+    private static final int[] OBJECT_LAYOUTS = { 0, 1, 2, 3 };
+    private static final int PROP_INSTANCES_LAYOUT = 4;
+
+    // Dense program indices for sort keys, from the ProgramCache
+    private int[] objectProgramIndices;
+    private int propProgramIndex;
+
+    // Only the cube reacts to gaze. It is picked as the largest sphere
+    // inside it, so a highlighted cube is always being looked at, whatever
+    // its spin
+    private GazePicker gazePicker;
+    private float[] cubeBounds;
+    private float cubePickRadius;
+    private int gazedObject = GazePicker.NO_HIT;
+
+    // Both eyes are culled together once their projections are known;
+    // prop batches follow the objects, at OBJECT_COUNT + batch
+    private FrustumCuller culler;
+    private float[] eyeViewProjections;
+    private boolean culled;
+
+    // The cube hides what is behind it; a small depth buffer drawn on the
+    // CPU finds what, for each eye
+    private static final int OCCLUSION_SIZE = 64;
+    private static final int OCCLUSION_TILE = 16;
+
+    // Each eye's transforms, visibility and draw order are worked out into
+    // a command list by its own recorder, indexed by eye type
+    private ForkJoinPool eyeWorkers;
+    private EyeRecorder[] eyeRecorders;
+
+    // Level of detail variables
+    // Screen sizes, as a fraction of the view height, below which the
+    // next coarser level is drawn
+    private static final float[] LOD_SCREEN_SIZES = { 0.25f, 0.12f, 0.05f };
+    private static final float LOD_HYSTERESIS = 0.15f;
+
+    private LodSelector lodSelector;
+    // The left eye's, to pick the cube's level before either eye is recorded
+    private float[] lodPerspective;
+
+
+    // Shader variables
+    // Indices into the preprocessed sources
+    private static final int MVP_VERTEX = 0;
+    private static final int SIMPLE_FRAGMENT = 1;
+    private static final int LIGHT_VERTEX = 2;
+    private static final int PASSTHROUGH_FRAGMENT = 3;
+    private static final int GRID_FRAGMENT = 4;
+    private static final int LIGHT_INSTANCED_VERTEX = 5;
+    private static final int LIGHT_QUANTIZED_VERTEX = 6;
+
+    private Future<ShaderSource[]> shaderSources;
+
+    private final Host host;
+
+    // Rendering variables
+    // Every GL call goes through here, which drops the redundant ones
+    private GlState gl;
+
+    // Static vertex data shares a few large native buffers
+    private static final int GEOMETRY_SLAB_BYTES = 64 * 1024;
+    private static final int GEOMETRY_ALIGNMENT = 16;
+    private BufferArena geometry;
+
+    private int triProgram;
+    private int triPositionParam;
+    private int triColorParam;
+    private int triMVPMatrixParam;
+
+    private ByteBuffer[] cubeVerticesBuffers;
+    private ByteBuffer[] cubeIndicesBuffers;
+
+    private int cubeProgram;
+    private int cubePositionParam;
+    private int cubeColorParam;
+    private int cubeMVPMatrixParam;
+
+    private int cubeNormalParam;
+    private int cubeModelViewParam;
+    private int cubeLightPosParam;
+    private int cubeHighlightParam;
+    private int cubeHighlightColorParam;
+    private int cubePositionScaleParam;
+    private int cubePositionOffsetParam;
+
+    // Merged props, in world space floats
+    private int batchProgram;
+    private int batchPositionParam;
+    private int batchNormalParam;
+    private int batchColorParam;
+    private int batchModelViewParam;
+    private int batchMVPMatrixParam;
+    private int batchLightPosParam;
+    private int batchHighlightParam;
+
+    private int floorProgram;
+    private int floorPositionParam;
+    private int floorColorParam;
+    private int floorMVPMatrixParam;
+    private int floorNormalParam;
+    private int floorModelParam;
+    private int floorModelViewParam;
+    private int floorLightPosParam;
+    private int floorHighlightParam;
+
+    // Instanced props, with an OpenGL ES 3.0 context only
+    private boolean instancing;
+    private int propProgram;
+    private int propPositionParam;
+    private int propNormalParam;
+    private int propColorParam;
+    private int[] propModelParams;
+    private int propModelViewParam;
+    private int propMVPMatrixParam;
+    private int propLightPosParam;
+    private int propHighlightParam;
+
+    /**
+     * @param backend - the context to draw with, all calls go through a
+     *                GlState in front of it.
+     * @param floorWorkers - generates ground chunks; one that runs them on
+     *                     the calling thread makes the ground deterministic.
+     * @param eyeWorkers - records both eyes' draws and rasterizes their
+     *                   occlusion buffers, or null to do it on the GL thread.
+     */
+    public SceneRenderer(Host host, GlBackend backend, Executor floorWorkers,
+                         ForkJoinPool eyeWorkers) {
+        this.host = host;
+
+        camera = new float[16];
+        modelView = new float[16];
+
+        // Nodes are numbered in the order they are added, the same as the ids
+        scene = new SceneGraph(OBJECT_COUNT, null);
+        for (int i = 0; i < OBJECT_COUNT; i++) {
+            scene.addNode(SceneGraph.NO_PARENT);
+        }
+
+        // The cube spins on the simulation thread, at the same speed
+        // whatever the frame rate
+        float[] poses = new float[OBJECT_COUNT * SimulationLoop.POSE_FLOATS];
+        for (int i = 0; i < OBJECT_COUNT; i++) {
+            Quaternions.setIdentity(poses, i * SimulationLoop.POSE_FLOATS + 3);
+        }
+        int cube = CUBE_ID * SimulationLoop.POSE_FLOATS;
+        poses[cube + 2] = -cubeDistance;
+        Quaternions.setAxisAngle(poses, cube + 3, 30, 1, 1, 0);
+        simulation = new SimulationLoop(new CubeSpin(CUBE_SPIN_DEGREES_PER_SECOND
+                * SIMULATION_STEP_NANOS / 1e9f), poses, SIMULATION_STEP_NANOS);
+
+        headView = new float[16];
+        posePredictor = new HeadPosePredictor(HeadPosePredictor.MODEL_CONSTANT_VELOCITY,
+                POSE_WINDOW_NANOS);
+        framePlan = new StereoFramePlan(OBJECT_COUNT);
+        frameMetrics = new FrameMetrics(FRAME_BUDGET_NANOS);
+        qualityGovernor = new QualityGovernor(QUALITY_LOD_BIAS.length, FRAME_BUDGET_NANOS,
+                QUALITY_WINDOW_FRAMES, QUALITY_RECOVER_FRAMES);
+        gl = new GlState(backend);
+        objectProgramIndices = new int[OBJECT_COUNT];
+
+        // Mapping is cheap, pages are only read in when GL touches them
+        cubeLods = host.loadMeshLods("cube");
+        cubePositionScales = new float[cubeLods.length][];
+        cubePositionOffsets = new float[cubeLods.length][];
+        for (int i = 0; i < cubeLods.length; i++) {
+            if (cubeLods[i].findAttribute(MeshFile.SEMANTIC_NORMAL).size
+                    != cubeLods[0].findAttribute(MeshFile.SEMANTIC_NORMAL).size) {
+                // One program draws every level
+                throw new IllegalArgumentException(
+                        "cube levels of detail pack normals differently");
+            }
+            cubePositionScales[i] = cubeLods[i].getPositionScale();
+            cubePositionOffsets[i] = cubeLods[i].getPositionOffset();
+        }
+
+        // Ground chunks are generated in the background as the viewer moves
+        FloorChunkGenerator generator = new FloorChunkGenerator(new Terrain(1, 2f, 40f),
+                FLOOR_CHUNK_SIZE, FLOOR_CHUNK_RESOLUTION, Floor.FLOOR_COLORS);
+        floor = new ChunkedFloor(generator, floorWorkers, FLOOR_RADIUS, FLOOR_MAX_RESIDENT);
+        floorBounds = new float[6];
+
+        geometry = new BufferArena(GEOMETRY_SLAB_BYTES, GEOMETRY_ALIGNMENT);
+
+        propMesh = new MeshCompiler().setStrideAlignment(GEOMETRY_ALIGNMENT).compile(
+                Cube.CUBE_COORDS, Cube.cubeFacesToArray(Cube.CUBE_NORMALS_FACES, 3),
+                Cube.cubeFacesToArray(Cube.CUBE_COLORS_FACES, 4));
+        propTransforms = createPropTransforms();
+        propBounds = new float[6];
+
+        gazePicker = new GazePicker(OBJECT_COUNT);
+        cubeBounds = cubeLods[0].getBounds();
+        cubePickRadius = Math.min(cubeBounds[3] - cubeBounds[0],
+                Math.min(cubeBounds[4] - cubeBounds[1], cubeBounds[5] - cubeBounds[2])) / 2;
+
+        culler = new FrustumCuller(OBJECT_COUNT, null);
+        eyeViewProjections = new float[32];
+
+        this.eyeWorkers = eyeWorkers;
+        eyeRecorders = new EyeRecorder[StereoFramePlan.EYE_RIGHT + 1];
+        for (int eye = 0; eye < eyeRecorders.length; eye++) {
+            eyeRecorders[eye] = new EyeRecorder(eye, new OcclusionCuller(OCCLUSION_SIZE,
+                    OCCLUSION_SIZE, OCCLUSION_TILE, eyeWorkers));
+        }
+
+        lodSelector = new LodSelector(OBJECT_COUNT, LOD_SCREEN_SIZES, LOD_HYSTERESIS);
+        lodSelector.setObject(CUBE_ID, cubeBounds, cubeLods.length);
+        lodPerspective = new float[16];
+
+        // Read and preprocess shaders while the surface is being created
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        shaderSources = executor.submit(new Callable<ShaderSource[]>() {
+            @Override
+            public ShaderSource[] call() throws IOException {
+                return preprocessShaders();
+            }
+        });
+        executor.shutdown();
+    }
+
+    /**
+     * Start stepping the simulation on its own thread.
+     */
+    public void start() {
+        simulation.start();
+    }
+
+    public void stop() {
+        simulation.stop();
+    }
+
+    /**
+     * Run the simulation up to a frame time on the calling thread, when it
+     * isn't started.
+     */
+    public void advanceSimulation(long nanos) {
+        simulation.advanceTo(nanos);
+    }
+
+    /**
+     * Log how prediction, state caching and culling did since the last
+     * time, and start counting again. GL thread only.
+     */
+    public void logStats() {
+        host.log(String.format("Head pose prediction error: mean %.2f, rms %.2f,"
+                        + " max %.2f degrees over %d frames, %.2f without prediction",
+                posePredictor.getMeanError(), posePredictor.getRmsError(),
+                posePredictor.getMaxError(), posePredictor.getErrorCount(),
+                posePredictor.getMeanUnpredictedError()));
+        posePredictor.reset();
+        posePredictor.resetErrors();
+        host.log(gl.toString());
+        host.log(String.format("Culling: %d of %d visible to the left eye,"
+                        + " %d to the right, %d tested per eye",
+                culler.getVisibleCount(FrustumCuller.EYE_LEFT),
+                culler.getObjectCount(),
+                culler.getVisibleCount(FrustumCuller.EYE_RIGHT),
+                culler.getEdgeCount()));
+        int occluded = 0;
+        int tested = 0;
+        for (EyeRecorder recorder : eyeRecorders) {
+            // Not while a worker is still counting
+            recorder.finish();
+            occluded += recorder.occlusion.getOccludedCount();
+            tested += recorder.occlusion.getTestedCount();
+            recorder.occlusion.resetCounts();
+        }
+        host.log(String.format("Occlusion: %d of %d tested draws hidden", occluded, tested));
+        host.log("Quality: " + qualityGovernor);
+    }
+
+    /**
+     * Let the quality level follow frame times, or keep it where it is, as
+     * replays need; adaptive by default.
+     */
+    public void setAdaptiveQuality(boolean adaptive) {
+        adaptiveQuality = adaptive;
+        qualityGovernor.reset();
+    }
+
+    /**
+     * @param level - 0 for full quality, up to getQualityLevelCount() - 1.
+     */
+    public void setQualityLevel(int level) {
+        qualityGovernor.setLevel(level);
+        applyQuality();
+    }
+
+    public int getQualityLevel() {
+        return qualityGovernor.getLevel();
+    }
+
+    public int getQualityLevelCount() {
+        return qualityGovernor.getLevelCount();
+    }
+
+    /**
+     * @return frame timings, readable from any thread.
+     */
+    public FrameMetrics getFrameMetrics() {
+        return frameMetrics;
+    }
+
+    /**
+     * Get everything both eyes share ready.
+     *
+     * @param nanos - when the frame starts, in System.nanoTime() units.
+     * @param headView - HeadTransform.getHeadView().
+     * @param headQuaternion - HeadTransform.getQuaternion().
+     */
+    public void onNewFrame(long nanos, float[] headView, float[] headQuaternion) {
+        long start = frameMetrics.begin();
+        frameMetrics.frameStarted(start);
+        frameInterval = frameStart == 0 ? 0 : start - frameStart;
+        frameStart = start;
+        // Everything below changes what the recorders read, and an eye not
+        // drawn last frame may still have one running
+        finishRecording();
+        // Cardboard's distortion pass runs its own program and attributes
+        // after each frame; what it doesn't restore has to be set again
+        gl.beginFrame();
+        gl.invalidate();
+        gl.glEnable(GlBackend.GL_DEPTH_TEST);
+
+        // Build the camera matrix and apply it to the ModelView.
+        Matrices.setLookAtM(camera, 0, 0.0f, 0.0f, CAMERA_Z, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f);
+
+        // Newest cube pose from the simulation thread; only the nodes that
+        // moved get new world matrices
+        simulation.sample(nanos);
+        simulation.getTransform(CUBE_ID, scene.getLocalMatrices(), CUBE_ID * 16);
+        scene.invalidate(CUBE_ID);
+        scene.update();
+        float[] worlds = scene.getWorldMatrices();
+
+        System.arraycopy(headView, 0, this.headView, 0, 16);
+        headView = this.headView;
+
+        // Look where the head is headed, for picking and for both eyes
+        posePredictor.addSample(nanos, headQuaternion, 0);
+        posePredictor.predictHeadView(nanos + POSE_PREDICTION_NANOS, headView);
+
+        // Pick up finished ground chunks and request new ones around the
+        // viewer; the floor is only translated, so its x and z are the world's
+        Matrices.multiplyMM(modelView, 0, headView, 0, camera, 0);
+        floor.update(modelView);
+        floor.getBounds(floorBounds);
+
+        // Pick once per frame, shared by both eyes
+        setCubePick(worlds);
+        gazePicker.refit();
+        gazedObject = gazePicker.pick(headView);
+
+        // Compute the matrices for both eyes in one go
+        for (int id = 0; id < OBJECT_COUNT; id++) {
+            if (scene.isWorldChanged(id)) {
+                framePlan.setModel(id, worlds, id * 16);
+            }
+        }
+        framePlan.build(headView, camera, LIGHT_POS_IN_WORLD_SPACE);
+
+        // Objects well inside both eyes' combined frustum skip the per-eye
+        // tests; until each eye has been drawn once, everything is drawn
+        culler.setBounds(CUBE_ID, cubeBounds, worlds, CUBE_ID * 16);
+        culler.setBounds(FLOOR_ID, floorBounds, worlds, FLOOR_ID * 16);
+        culled = framePlan.getViewProjection(StereoFramePlan.EYE_LEFT, eyeViewProjections, 0)
+                && framePlan.getViewProjection(StereoFramePlan.EYE_RIGHT, eyeViewProjections, 16);
+        if (culled) {
+            culler.setFrustum(FrustumCuller.EYE_LEFT, eyeViewProjections, 0);
+            culler.setFrustum(FrustumCuller.EYE_RIGHT, eyeViewProjections, 16);
+            culler.cull();
+        }
+
+        // Both eyes known and drawn last frame: record them now, in
+        // parallel, for onDrawEye to replay; the left eye's is waited for
+        // first thing there. The left eye picks the cube's level first, so
+        // they match. Eyes that were not drawn, such as both in monocular
+        // mode, are left alone
+        boolean left = eyeRecorders[StereoFramePlan.EYE_LEFT].takeDrawn();
+        boolean right = eyeRecorders[StereoFramePlan.EYE_RIGHT].takeDrawn();
+        eyeRecorders[StereoFramePlan.EYE_MONOCULAR].takeDrawn();
+        if (culled && left && right) {
+            StereoFramePlan.EyeDraws draws = framePlan.getEyeDraws(StereoFramePlan.EYE_LEFT);
+            draws.getModelView(CUBE_ID, modelView, 0);
+            draws.getPerspective(lodPerspective, 0);
+            lodSelector.select(CUBE_ID, modelView, 0, lodPerspective, 0);
+            startRecording(StereoFramePlan.EYE_LEFT);
+            startRecording(StereoFramePlan.EYE_RIGHT);
+        }
+
+        frameMetrics.end(FrameMetrics.STAGE_NEW_FRAME, start);
+    }
+
+    /**
+     * Replay the eye's draws, recorded in onNewFrame, or record them now
+     * if the eye wasn't known then or has changed since.
+     *
+     * @param eyeType - Eye.getType(), one of StereoFramePlan's eye types.
+     * @param eyeView - Eye.getEyeView().
+     * @param perspective - Eye.getPerspective(Z_NEAR, Z_FAR).
+     */
+    public void onDrawEye(int eyeType, float[] eyeView, float[] perspective) {
+        long start = frameMetrics.begin();
+        EyeRecorder recorder = eyeRecorders[eyeType];
+        recorder.finish();
+        if (!recorder.recorded || !framePlan.matches(eyeType, eyeView, perspective)) {
+            // Recording here picks levels and prepares the eye, which the
+            // other eye's recorder may be reading
+            finishRecording();
+            // The first eye drawn picks the cube's level, the right eye reuses it
+            recorder.begin(framePlan.prepareEye(eyeType, eyeView, perspective),
+                    eyeType == StereoFramePlan.EYE_RIGHT ? null : perspective);
+            recorder.record();
+            recorder.recorded = true;
+        }
+        recorder.drawn = true;
+        recorder.getCommands().replay(gl);
+        frameMetrics.end(FrameMetrics.eyeStage(eyeType), start);
+    }
+
+    public void onFinishFrame() {
+        long start = frameMetrics.begin();
+        if (adaptiveQuality) {
+            adaptQuality(start);
+        }
+        frameMetrics.end(FrameMetrics.STAGE_FINISH_FRAME, start);
+    }
+
+    /**
+     * A new surface may cost more or less to fill, so judge the quality
+     * level from its frames alone.
+     */
+    public void onSurfaceChanged(int width, int height) {
+        qualityGovernor.reset();
+    }
+
+    /**
+     * Set up a new context: programs, vertex data and the scene.
+     */
+    public void onSurfaceCreated() {
+        long start = frameMetrics.begin();
+
+        // Nothing cached applies to a new context
+        gl.reset();
+
+        instancing = supportsInstancing(gl.glGetString(GlBackend.GL_VERSION));
+
+        compileShaders();
+        prepareRenderingTriangle();
+        prepareRenderingCube();
+        prepareRenderingFloor();
+        prepareRenderingProps();
+        initializeScene();
+        host.log("Geometry: " + geometry);
+
+        frameMetrics.end(FrameMetrics.STAGE_SURFACE_CREATED, start);
+    }
+
+    /**
+     * Record an eye on the workers, or right here without them, from what
+     * onNewFrame has set up.
+     */
+    private void startRecording(int eyeType) {
+        EyeRecorder recorder = eyeRecorders[eyeType];
+        recorder.begin(framePlan.getEyeDraws(eyeType), null);
+        recorder.recorded = true;
+        recorder.reinitialize();
+        if (eyeWorkers != null) {
+            recorder.pending = true;
+            eyeWorkers.execute(recorder);
+        } else {
+            recorder.invoke();
+        }
+    }
+
+    /**
+     * Wait for every recorder still running, so what they read can change.
+     */
+    private void finishRecording() {
+        for (EyeRecorder recorder : eyeRecorders) {
+            recorder.finish();
+        }
+    }
+
+    /**
+     * Give the governor the frame's time, from the start of onNewFrame.
+     */
+    private void adaptQuality(long now) {
+        if (frameInterval > PAUSE_NANOS) {
+            // Frames from before a pause say nothing about now
+            qualityGovernor.reset();
+            return;
+        }
+        // A dropped frame counts whole, even when the time went to the GPU
+        // outside these callbacks
+        long frameTime = now - frameStart;
+        if (frameInterval > FRAME_BUDGET_NANOS * 3 / 2) {
+            frameTime = Math.max(frameTime, frameInterval);
+        }
+        if (qualityGovernor.addFrame(frameTime)) {
+            applyQuality();
+            host.log("Quality: " + qualityGovernor);
+        }
+    }
+
+    private void applyQuality() {
+        // The recorders read these
+        finishRecording();
+        int level = qualityGovernor.getLevel();
+        lodSelector.setBias(QUALITY_LOD_BIAS[level]);
+        floorGrid = QUALITY_FLOOR_GRID[level];
+        drawDistance = QUALITY_DRAW_DISTANCE[level];
+        if (renderScale != QUALITY_RENDER_SCALE[level]) {
+            renderScale = QUALITY_RENDER_SCALE[level];
+            host.setRenderScale(renderScale);
+        }
+    }
+
+    /**
+     * @param eyeType - one of StereoFramePlan's eye types.
+     * @return the culler's eye to skip hidden draws for, or -1 to draw everything.
+     */
+    private int cullEye(int eyeType) {
+        return !culled ? -1 : eyeType == StereoFramePlan.EYE_LEFT ? FrustumCuller.EYE_LEFT
+                : eyeType == StereoFramePlan.EYE_RIGHT ? FrustumCuller.EYE_RIGHT : -1;
+    }
+
+    /**
+     * Move the cube's pick sphere to its centre.
+     */
+    private void setCubePick(float[] worlds) {
+        float x = (cubeBounds[0] + cubeBounds[3]) / 2;
+        float y = (cubeBounds[1] + cubeBounds[4]) / 2;
+        float z = (cubeBounds[2] + cubeBounds[5]) / 2;
+        int o = CUBE_ID * 16;
+        gazePicker.setSphere(CUBE_ID,
+                worlds[o] * x + worlds[o + 4] * y + worlds[o + 8] * z + worlds[o + 12],
+                worlds[o + 1] * x + worlds[o + 5] * y + worlds[o + 9] * z + worlds[o + 13],
+                worlds[o + 2] * x + worlds[o + 6] * y + worlds[o + 10] * z + worlds[o + 14],
+                cubePickRadius);
+    }
+
+    /**
+     * @param eyeZ - eye-space z, negative in front of the viewer.
+     * @return 0 at the near plane to 1 at the far plane.
+     */
+    private static float queueDepth(float eyeZ) {
+        return (-eyeZ - Z_NEAR) / (Z_FAR - Z_NEAR);
+    }
+
+    private void initializeScene() {
+        float[] transform = new float[16];
+
+        // Position the triangle
+        Matrices.setIdentityM(transform, 0);
+        Matrices.translateM(transform, 0, 5, 0, -5);
+        scene.setLocal(TRIANGLE_ID, transform, 0);
+
+        // Position the cube where the simulation has it
+        simulation.sample(System.nanoTime());
+        simulation.getTransform(CUBE_ID, transform, 0);
+        scene.setLocal(CUBE_ID, transform, 0);
+
+        // Position the floor
+        Matrices.setIdentityM(transform, 0);
+        Matrices.translateM(transform, 0, 0, -floorDepth, 0);
+        scene.setLocal(FLOOR_ID, transform, 0);
+
+        // The props are batched in world space
+        Matrices.setIdentityM(transform, 0);
+        scene.setLocal(PROPS_ID, transform, 0);
+
+        scene.update();
+        float[] worlds = scene.getWorldMatrices();
+
+        // Register the cube with the gaze picker
+        setCubePick(worlds);
+        gazePicker.build();
+
+        // And everything with the culler, the prop batches after the objects
+        float[] triBounds = GazePicker.computeLocalBounds(triCoords);
+        floor.getBounds(floorBounds);
+        culler.setBounds(TRIANGLE_ID, triBounds, worlds, TRIANGLE_ID * 16);
+        culler.setBounds(CUBE_ID, cubeBounds, worlds, CUBE_ID * 16);
+        culler.setBounds(FLOOR_ID, floorBounds, worlds, FLOOR_ID * 16);
+        culler.setBounds(PROPS_ID, propBounds, worlds, PROPS_ID * 16);
+        for (int b = 0; b < propBatches.size(); b++) {
+            culler.setBounds(OBJECT_COUNT + b, propBatches.get(b).getBounds(), 0);
+        }
+
+        for (int id = 0; id < OBJECT_COUNT; id++) {
+            framePlan.setModel(id, worlds, id * 16);
+        }
+    }
+
+    private ShaderSource[] preprocessShaders() throws IOException {
+        ShaderPreprocessor preprocessor = new ShaderPreprocessor(new ShaderPreprocessor.Loader() {
+            @Override
+            public String load(String name) throws IOException {
+                return host.loadShader(name);
+            }
+        });
+        ShaderSource[] sources = new ShaderSource[7];
+        sources[MVP_VERTEX] = preprocessor.preprocess("mvp_vertex", GlBackend.GL_VERTEX_SHADER);
+        sources[SIMPLE_FRAGMENT] = preprocessor.preprocess("simple_fragment", GlBackend.GL_FRAGMENT_SHADER);
+        sources[LIGHT_VERTEX] = preprocessor.preprocess("light_vertex", GlBackend.GL_VERTEX_SHADER);
+        sources[PASSTHROUGH_FRAGMENT] = preprocessor.preprocess("passthrough_fragment", GlBackend.GL_FRAGMENT_SHADER);
+        sources[GRID_FRAGMENT] = preprocessor.preprocess("grid_fragment", GlBackend.GL_FRAGMENT_SHADER);
+        sources[LIGHT_INSTANCED_VERTEX] = preprocessor.preprocess("light_vertex",
+                GlBackend.GL_VERTEX_SHADER, "INSTANCED");
+        // Every cube level packs normals the same way, two components
+        // when they are octahedral, see MeshConverter.writeLevels
+        sources[LIGHT_QUANTIZED_VERTEX] =
+                cubeLods[0].findAttribute(MeshFile.SEMANTIC_NORMAL).size == 2
+                ? preprocessor.preprocess("light_vertex", GlBackend.GL_VERTEX_SHADER, "QUANTIZED",
+                        "OCTAHEDRAL_NORMALS")
+                : preprocessor.preprocess("light_vertex", GlBackend.GL_VERTEX_SHADER, "QUANTIZED");
+        return sources;
+    }
+
+    private void compileShaders() {
+        ShaderSource[] sources;
+        try {
+            sources = shaderSources.get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Unable to load shaders", e);
+        }
+
+        // Programs sharing a shader compile it once, and linked programs
+        // come from the on-disk cache when the driver supports it
+        ProgramCache programs = new ProgramCache(host.createShaderDriver(),
+                host.createProgramStore());
+        triProgram = programs.getProgram(sources[MVP_VERTEX], sources[SIMPLE_FRAGMENT]);
+        cubeProgram = programs.getProgram(sources[LIGHT_QUANTIZED_VERTEX],
+                sources[PASSTHROUGH_FRAGMENT]);
+        batchProgram = programs.getProgram(sources[LIGHT_VERTEX], sources[PASSTHROUGH_FRAGMENT]);
+        floorProgram = programs.getProgram(sources[LIGHT_VERTEX], sources[GRID_FRAGMENT]);
+        objectProgramIndices[TRIANGLE_ID] = programs.getProgramIndex(triProgram);
+        objectProgramIndices[CUBE_ID] = programs.getProgramIndex(cubeProgram);
+        objectProgramIndices[FLOOR_ID] = programs.getProgramIndex(floorProgram);
+        objectProgramIndices[PROPS_ID] = programs.getProgramIndex(batchProgram);
+        if (instancing) {
+            propProgram = programs.getProgram(sources[LIGHT_INSTANCED_VERTEX],
+                    sources[PASSTHROUGH_FRAGMENT]);
+            propProgramIndex = programs.getProgramIndex(propProgram);
+        }
+        programs.finish();
+        host.log("Shaders compiled: " + programs.getCompileCount()
+                + ", programs linked: " + programs.getLinkCount()
+                + ", loaded from cache: " + programs.getBinaryLoadCount());
+    }
+
+    private void prepareRenderingTriangle() {
+        // Take space for shape coordinates (4 bytes per float) from the
+        // arena, giving back the old space if the surface was recreated
+        if (triVertices != null) {
+            geometry.free(triVertices);
+        }
+        triVertices = geometry.allocate(triCoords.length * 4);
+        FloatBuffer vertices = triVertices.getFloatBuffer();
+        // add the coordinates to the FloatBuffer
+        vertices.put(triCoords);
+        // set the buffer to read the first coordinate
+        vertices.position(0);
+
+        // set program as current
+        gl.glUseProgram(triProgram);
+
+        // Get shader params
+        // get handle to vertex shader's a_Position member
+        triPositionParam = gl.glGetAttribLocation(triProgram, "a_Position");
+        // enable a handle to the triangle vertices
+        gl.glEnableVertexAttribArray(triPositionParam);
+        // get handle to fragment shader's u_Color member
+        triColorParam = gl.glGetUniformLocation(triProgram, "u_Color");
+        // get handle to shape's transformation matrix
+        triMVPMatrixParam = gl.glGetUniformLocation(triProgram, "u_MVP");
+    }
+
+    private void prepareRenderingCube() {
+        // Views of the mapped files, nothing is copied
+        cubeVerticesBuffers = new ByteBuffer[cubeLods.length];
+        cubeIndicesBuffers = new ByteBuffer[cubeLods.length];
+        for (int i = 0; i < cubeLods.length; i++) {
+            cubeVerticesBuffers[i] = cubeLods[i].getVertexData();
+            cubeIndicesBuffers[i] = cubeLods[i].getIndexData();
+            host.log("Cube level " + i + ": " + cubeLods[i].getVertexCount()
+                    + " vertices, stride " + cubeLods[i].getStride() + ", "
+                    + cubeLods[i].getFileBytes() + " bytes mapped");
+        }
+
+        gl.glUseProgram(cubeProgram);
+
+        // Get shader params
+        cubeModelViewParam = gl.glGetUniformLocation(cubeProgram, "u_MVMatrix");
+        cubeMVPMatrixParam = gl.glGetUniformLocation(cubeProgram, "u_MVP");
+        cubeLightPosParam = gl.glGetUniformLocation(cubeProgram, "u_LightPos");
+        cubeHighlightParam = gl.glGetUniformLocation(cubeProgram, "u_Highlight");
+        cubeHighlightColorParam = gl.glGetUniformLocation(cubeProgram, "u_HighlightColor");
+        cubePositionScaleParam = gl.glGetUniformLocation(cubeProgram, "u_PositionScale");
+        cubePositionOffsetParam = gl.glGetUniformLocation(cubeProgram, "u_PositionOffset");
+
+        cubePositionParam = gl.glGetAttribLocation(cubeProgram, "a_Position");
+        cubeNormalParam = gl.glGetAttribLocation(cubeProgram, "a_Normal");
+        cubeColorParam = gl.glGetAttribLocation(cubeProgram, "a_Color");
+
+        // The highlight color never changes, only whether it is used
+        gl.glUniform4fv(cubeHighlightColorParam, 1, Cube.CUBE_FOUND_COLOR, 0);
+
+        // Enable arrays
+        gl.glEnableVertexAttribArray(cubePositionParam);
+        gl.glEnableVertexAttribArray(cubeNormalParam);
+        gl.glEnableVertexAttribArray(cubeColorParam);
+    }
+
+    private void prepareRenderingFloor() {
+        gl.glUseProgram(floorProgram);
+
+        // Get shader params
+        floorPositionParam = gl.glGetAttribLocation(floorProgram, "a_Position");
+        floorNormalParam = gl.glGetAttribLocation(floorProgram, "a_Normal");
+        floorColorParam = gl.glGetAttribLocation(floorProgram, "a_Color");
+
+        floorModelParam = gl.glGetUniformLocation(floorProgram, "u_Model");
+        floorModelViewParam = gl.glGetUniformLocation(floorProgram, "u_MVMatrix");
+        floorMVPMatrixParam = gl.glGetUniformLocation(floorProgram, "u_MVP");
+        floorLightPosParam = gl.glGetUniformLocation(floorProgram, "u_LightPos");
+        floorHighlightParam = gl.glGetUniformLocation(floorProgram, "u_Highlight");
+
+        // The floor shares the lighting shader but is never highlighted
+        gl.glUniform1f(floorHighlightParam, 0.0f);
+
+        // Enable arrays
+        gl.glEnableVertexAttribArray(floorPositionParam);
+        gl.glEnableVertexAttribArray(floorNormalParam);
+        gl.glEnableVertexAttribArray(floorColorParam);
+    }
+
+    private void prepareRenderingProps() {
+        // Merge the props per cell, instancing them where the context can,
+        // giving back the old batches if the surface was recreated
+        if (propBatches != null) {
+            for (StaticBatcher.Batch batch : propBatches) {
+                batch.free(geometry);
+            }
+        }
+        StaticBatcher batcher = new StaticBatcher(PROP_CELL_SIZE,
+                instancing ? PROP_INSTANCE_THRESHOLD : 0);
+        for (int i = 0; i < propTransforms.length / 16; i++) {
+            batcher.add(propMesh, propTransforms, i * 16, batchProgram);
+        }
+        propBatches = batcher.build(geometry);
+        host.log("Props: " + batcher);
+
+        // One box around them all for the gaze picker
+        for (int k = 0; k < 3; k++) {
+            propBounds[k] = Float.POSITIVE_INFINITY;
+            propBounds[k + 3] = Float.NEGATIVE_INFINITY;
+        }
+        for (StaticBatcher.Batch batch : propBatches) {
+            float[] bounds = batch.getBounds();
+            for (int k = 0; k < 3; k++) {
+                propBounds[k] = Math.min(propBounds[k], bounds[k]);
+                propBounds[k + 3] = Math.max(propBounds[k + 3], bounds[k + 3]);
+            }
+        }
+
+        gl.glUseProgram(batchProgram);
+
+        // Get shader params
+        batchModelViewParam = gl.glGetUniformLocation(batchProgram, "u_MVMatrix");
+        batchMVPMatrixParam = gl.glGetUniformLocation(batchProgram, "u_MVP");
+        batchLightPosParam = gl.glGetUniformLocation(batchProgram, "u_LightPos");
+        batchHighlightParam = gl.glGetUniformLocation(batchProgram, "u_Highlight");
+
+        batchPositionParam = gl.glGetAttribLocation(batchProgram, "a_Position");
+        batchNormalParam = gl.glGetAttribLocation(batchProgram, "a_Normal");
+        batchColorParam = gl.glGetAttribLocation(batchProgram, "a_Color");
+
+        // Props are never highlighted
+        gl.glUniform1f(batchHighlightParam, 0.0f);
+
+        // Enable arrays
+        gl.glEnableVertexAttribArray(batchPositionParam);
+        gl.glEnableVertexAttribArray(batchNormalParam);
+        gl.glEnableVertexAttribArray(batchColorParam);
+
+        if (!instancing) {
+            return;
+        }
+        gl.glUseProgram(propProgram);
+
+        // Get shader params
+        propModelViewParam = gl.glGetUniformLocation(propProgram, "u_MVMatrix");
+        propMVPMatrixParam = gl.glGetUniformLocation(propProgram, "u_MVP");
+        propLightPosParam = gl.glGetUniformLocation(propProgram, "u_LightPos");
+        propHighlightParam = gl.glGetUniformLocation(propProgram, "u_Highlight");
+
+        propPositionParam = gl.glGetAttribLocation(propProgram, "a_Position");
+        propNormalParam = gl.glGetAttribLocation(propProgram, "a_Normal");
+        propColorParam = gl.glGetAttribLocation(propProgram, "a_Color");
+        propModelParams = new int[4];
+        for (int column = 0; column < 4; column++) {
+            propModelParams[column] = gl.glGetAttribLocation(propProgram, "a_Model" + column);
+        }
+
+        // Props are never highlighted
+        gl.glUniform1f(propHighlightParam, 0.0f);
+
+        // Enable arrays
+        gl.glEnableVertexAttribArray(propPositionParam);
+        gl.glEnableVertexAttribArray(propNormalParam);
+        gl.glEnableVertexAttribArray(propColorParam);
+        for (int column = 0; column < 4; column++) {
+            gl.glEnableVertexAttribArray(propModelParams[column]);
+        }
+    }
+
+    /**
+     * @param version - the context's GL_VERSION string.
+     * @return whether the context is OpenGL ES 3.0 or later, which instancing needs.
+     */
+    private static boolean supportsInstancing(String version) {
+        String prefix = "OpenGL ES ";
+        return version != null && version.startsWith(prefix) && version.length() > prefix.length()
+                && version.charAt(prefix.length()) >= '3';
+    }
+
+    /**
+     * Scatter the props on a grid around the viewer, each turned at random.
+     *
+     * @return - Returns a world matrix per prop, 16 floats each.
+     */
+    private static float[] createPropTransforms() {
+        float[] transforms = new float[PROP_GRID * PROP_GRID * 16];
+        float[] scratch = new float[32];
+        Random random = new Random(1);
+        float start = -(PROP_GRID - 1) * PROP_SPACING * 0.5f;
+        for (int i = 0; i < PROP_GRID * PROP_GRID; i++) {
+            int o = i * 16;
+            Matrices.setIdentityM(transforms, o);
+            Matrices.translateM(transforms, o, start + (i % PROP_GRID) * PROP_SPACING,
+                    PROP_HEIGHT, start + (i / PROP_GRID) * PROP_SPACING);
+            Matrices.rotateM(transforms, o, random.nextFloat() * 360, 0, 1, 0, scratch);
+            for (int k = 0; k < 11; k++) {
+                if (k % 4 != 3) {
+                    transforms[o + k] *= PROP_SCALE;
+                }
+            }
+        }
+        return transforms;
+    }
+
+    /**
+     * Works out one eye's frame into a command list: the occlusion buffer,
+     * which draws are visible, their order, and every call with its
+     * matrices. Runs on a worker when started from onNewFrame, or on the
+     * GL thread through {@link #record}. Only reads what onNewFrame set up,
+     * and never touches GL or the position of a shared buffer, so both eyes
+     * can be recorded at once, and the right eye while the GL thread
+     * replays the left.
+     *
+     * Recording starts at the end of onNewFrame and is joined before the
+     * next one, so a frame is never recorded while the one before it is
+     * still being drawn. The list is replayed before it is next cleared,
+     * and one is enough.
+     */
+    private final class EyeRecorder extends RecursiveAction {
+        private final int eyeType;
+        private final OcclusionCuller occlusion;
+        private final RenderQueue queue = new RenderQueue(OBJECT_COUNT);
+        private final CommandList commands = new CommandList();
+
+        private final float[] modelView = new float[16];
+        private final float[] modelViewProjection = new float[16];
+        private final float[] viewProjection = new float[16];
+        private final float[] occludeeBounds = new float[6];
+
+        private StereoFramePlan.EyeDraws draws;
+        private int cullEye;
+        // Set to pick the cube's level, or null to draw the level last picked
+        private float[] perspective;
+        // Started on the workers and not joined yet
+        private boolean pending;
+        // The list holds this frame's draws, recorded from onNewFrame's setup
+        private boolean recorded;
+        // Replayed since the last onNewFrame
+        private boolean drawn;
+
+        EyeRecorder(int eyeType, OcclusionCuller occlusion) {
+            this.eyeType = eyeType;
+            this.occlusion = occlusion;
+        }
+
+        void begin(StereoFramePlan.EyeDraws draws, float[] perspective) {
+            this.draws = draws;
+            this.perspective = perspective;
+            cullEye = cullEye(eyeType);
+            commands.clear();
+        }
+
+        /**
+         * Wait for the recording running on the workers, if there is one.
+         */
+        void finish() {
+            if (pending) {
+                pending = false;
+                join();
+            }
+        }
+
+        /**
+         * Start a new frame: whatever was recorded is stale.
+         *
+         * @return whether the eye was drawn since the last call.
+         */
+        boolean takeDrawn() {
+            boolean wasDrawn = drawn;
+            drawn = false;
+            recorded = false;
+            return wasDrawn;
+        }
+
+        CommandList getCommands() {
+            return commands;
+        }
+
+        @Override
+        protected void compute() {
+            record();
+        }
+
+        void record() {
+            commands.glClear(GlBackend.GL_COLOR_BUFFER_BIT | GlBackend.GL_DEPTH_BUFFER_BIT);
+
+            // Draw the cube into the occlusion buffer, to test the rest against
+            framePlan.getViewProjection(eyeType, viewProjection, 0);
+            occlusion.begin(viewProjection, 0);
+            occlusion.addOccluder(Cube.CUBE_COORDS, 0, Cube.CUBE_COORDS.length / 3,
+                    scene.getWorldMatrices(), CUBE_ID * 16);
+            occlusion.rasterize();
+
+            // Group draws by program and vertex format, nearest first
+            queue.clear();
+            for (int i = 0; i < draws.getDrawCount(); i++) {
+                int id = draws.getObject(i);
+                if (cullEye >= 0 && !culler.isVisible(id, cullEye)
+                        || id != CUBE_ID && isOccluded(id)) {
+                    continue;
+                }
+                draws.getModelView(id, modelView, 0);
+                if (id == PROPS_ID) {
+                    queuePropBatches();
+                    continue;
+                }
+                queue.add(RenderQueue.opaqueKey(OBJECT_LAYERS[id], objectProgramIndices[id],
+                        OBJECT_LAYOUTS[id], queueDepth(modelView[14]), 0), id);
+            }
+            queue.sort();
+
+            for (int i = 0; i < queue.size(); i++) {
+                int item = queue.getItem(i);
+                switch (item) {
+                    case TRIANGLE_ID:
+                        drawTriangle();
+                        break;
+                    case CUBE_ID:
+                        drawCube();
+                        break;
+                    case FLOOR_ID:
+                        drawFloor();
+                        break;
+                    default:
+                        drawPropBatch(propBatches.get(item - OBJECT_COUNT));
+                        break;
+                }
+            }
+        }
+
+        private void drawTriangle() {
+            // Add program to OpenGL ES environment
+            commands.glUseProgram(triProgram);
+
+            // Pass the MVP transformation to the shader
+            draws.getModelViewProjection(TRIANGLE_ID, modelViewProjection, 0);
+            commands.glUniformMatrix4fv(triMVPMatrixParam, 1, false, modelViewProjection, 0);
+
+            // Prepare the coordinate data
+            commands.glVertexAttribPointer(triPositionParam, COORDS_PER_VERTEX,
+                    GlBackend.GL_FLOAT, false, 0, triVertices.getFloatBuffer(), 0);
+
+            // Set color for drawing
+            commands.glUniform4fv(triColorParam, 1, triColor, 0);
+
+            // Draw the model
+            commands.glDrawArrays(GlBackend.GL_TRIANGLES, 0, triVertexCount);
+        }
+
+        private void drawCube() {
+            commands.glUseProgram(cubeProgram);
+
+            // Set the light position in the shader
+            commands.glUniform3fv(cubeLightPosParam, 1, draws.getLightPos(), 0);
+
+            // Set the ModelView in the shader, used to calculate lighting
+            draws.getModelView(CUBE_ID, modelView, 0);
+            commands.glUniformMatrix4fv(cubeModelViewParam, 1, false, modelView, 0);
+
+            draws.getModelViewProjection(CUBE_ID, modelViewProjection, 0);
+            commands.glUniformMatrix4fv(cubeMVPMatrixParam, 1, false, modelViewProjection, 0);
+
+            // Fewer vertices the smaller the cube is on screen
+            int level = perspective == null ? lodSelector.getLevel(CUBE_ID)
+                    : lodSelector.select(CUBE_ID, modelView, 0, perspective, 0);
+            MeshFile mesh = cubeLods[level];
+            ByteBuffer vertices = cubeVerticesBuffers[level];
+
+            // Each level is quantized across its own bounds
+            commands.glUniform3fv(cubePositionScaleParam, 1, cubePositionScales[level], 0);
+            commands.glUniform3fv(cubePositionOffsetParam, 1, cubePositionOffsets[level], 0);
+
+            // All attributes come from the one interleaved buffer
+            bindAttribute(cubePositionParam, mesh, MeshFile.SEMANTIC_POSITION, vertices);
+            bindAttribute(cubeNormalParam, mesh, MeshFile.SEMANTIC_NORMAL, vertices);
+            bindAttribute(cubeColorParam, mesh, MeshFile.SEMANTIC_COLOR, vertices);
+
+            // Swap to the highlight color when the user is looking at the cube
+            commands.glUniform1f(cubeHighlightParam, gazedObject == CUBE_ID ? 1.0f : 0.0f);
+
+            commands.glDrawElements(GlBackend.GL_TRIANGLES, mesh.getIndexCount(),
+                    mesh.getIndexType(), cubeIndicesBuffers[level], 0);
+        }
+
+        private void drawFloor() {
+            draws.getModelView(FLOOR_ID, modelView, 0);
+            draws.getModelViewProjection(FLOOR_ID, modelViewProjection, 0);
+            int positionParam = floorPositionParam;
+            int normalParam = floorNormalParam;
+            int colorParam = floorColorParam;
+            if (floorGrid) {
+                commands.glUseProgram(floorProgram);
+                commands.glUniform3fv(floorLightPosParam, 1,
+                        draws.getLightPos(), 0);
+                commands.glUniformMatrix4fv(floorModelParam, 1, false,
+                        scene.getWorldMatrices(), FLOOR_ID * 16);
+                commands.glUniformMatrix4fv(floorModelViewParam, 1, false,
+                        modelView, 0);
+                commands.glUniformMatrix4fv(floorMVPMatrixParam, 1, false,
+                        modelViewProjection, 0);
+            } else {
+                // Plain vertex colors, lit like the props, skip the grid's fragment work
+                commands.glUseProgram(batchProgram);
+                commands.glUniform3fv(batchLightPosParam, 1, draws.getLightPos(), 0);
+                commands.glUniformMatrix4fv(batchModelViewParam, 1, false, modelView, 0);
+                commands.glUniformMatrix4fv(batchMVPMatrixParam, 1, false, modelViewProjection, 0);
+                positionParam = batchPositionParam;
+                normalParam = batchNormalParam;
+                colorParam = batchColorParam;
+            }
+            // Chunks are centred on the floor's x and z; leave out those
+            // wholly past the draw distance
+            float reach = drawDistance + FLOOR_CHUNK_SIZE * (float) Math.sqrt(0.5);
+            // Every chunk shares the indices, only the vertices change
+            for (int i = 0; i < floor.getVisibleCount(); i++) {
+                FloorChunk chunk = floor.getVisibleChunk(i);
+                float x = (chunk.getChunkX() + 0.5f) * FLOOR_CHUNK_SIZE;
+                float z = (chunk.getChunkZ() + 0.5f) * FLOOR_CHUNK_SIZE;
+                if (drawDistance < Z_FAR
+                        && -(modelView[2] * x + modelView[10] * z + modelView[14]) > reach) {
+                    continue;
+                }
+                FloatBuffer vertices = chunk.getVertices();
+                bindAttribute(positionParam, CompiledMesh.POSITION_SIZE,
+                        CompiledMesh.POSITION_OFFSET, floor.getStride(), vertices);
+                bindAttribute(normalParam, CompiledMesh.NORMAL_SIZE,
+                        CompiledMesh.NORMAL_OFFSET, floor.getStride(), vertices);
+                bindAttribute(colorParam, CompiledMesh.COLOR_SIZE,
+                        CompiledMesh.COLOR_OFFSET, floor.getStride(), vertices);
+                commands.glDrawElements(GlBackend.GL_TRIANGLES, floor.getIndexCount(),
+                        GlBackend.GL_UNSIGNED_SHORT, floor.getIndexBuffer(), 0);
+            }
+        }
+
+        /**
+         * Queue every prop batch, each at the depth of its centre. The props
+         * are in world space, so modelView holds the view matrix.
+         */
+        private void queuePropBatches() {
+            for (int b = 0; b < propBatches.size(); b++) {
+                if (cullEye >= 0 && !culler.isVisible(OBJECT_COUNT + b, cullEye)
+                        || isOccluded(OBJECT_COUNT + b)) {
+                    continue;
+                }
+                StaticBatcher.Batch batch = propBatches.get(b);
+                float[] bounds = batch.getBounds();
+                float x = (bounds[0] + bounds[3]) * 0.5f;
+                float y = (bounds[1] + bounds[4]) * 0.5f;
+                float z = (bounds[2] + bounds[5]) * 0.5f;
+                float eyeZ = modelView[2] * x + modelView[6] * y + modelView[10] * z
+                        + modelView[14];
+                if (drawDistance < Z_FAR && -eyeZ - radius(bounds) > drawDistance) {
+                    continue;
+                }
+                int item = OBJECT_COUNT + b;
+                if (batch.isInstanced()) {
+                    queue.add(RenderQueue.opaqueKey(OBJECT_LAYERS[PROPS_ID], propProgramIndex,
+                            PROP_INSTANCES_LAYOUT, queueDepth(eyeZ), 0), item);
+                } else {
+                    queue.add(RenderQueue.opaqueKey(OBJECT_LAYERS[PROPS_ID],
+                            objectProgramIndices[PROPS_ID], OBJECT_LAYOUTS[PROPS_ID],
+                            queueDepth(eyeZ), 0), item);
+                }
+            }
+        }
+
+        /**
+         * @param bounds - float[6], min x, y, z then max x, y, z.
+         * @return half the box's diagonal.
+         */
+        private float radius(float[] bounds) {
+            float dx = bounds[3] - bounds[0];
+            float dy = bounds[4] - bounds[1];
+            float dz = bounds[5] - bounds[2];
+            return 0.5f * (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        }
+
+        /**
+         * @param id - an object or prop batch known to the frustum culler.
+         * @return whether the cube hides it from this eye.
+         */
+        private boolean isOccluded(int id) {
+            culler.getBounds(id, occludeeBounds, 0);
+            return occlusion.isOccluded(occludeeBounds, 0);
+        }
+
+        private void drawPropBatch(StaticBatcher.Batch batch) {
+            // The props' node is the identity, so these are the view matrices
+            draws.getModelView(PROPS_ID, modelView, 0);
+            draws.getModelViewProjection(PROPS_ID, modelViewProjection, 0);
+            FloatBuffer vertices = batch.getVertices();
+
+            if (!batch.isInstanced()) {
+                // Already in world space
+                commands.glUseProgram(batchProgram);
+                commands.glUniform3fv(batchLightPosParam, 1, draws.getLightPos(), 0);
+                commands.glUniformMatrix4fv(batchModelViewParam, 1, false, modelView, 0);
+                commands.glUniformMatrix4fv(batchMVPMatrixParam, 1, false, modelViewProjection, 0);
+                bindAttribute(batchPositionParam, CompiledMesh.POSITION_SIZE,
+                        CompiledMesh.POSITION_OFFSET, batch.getStride(), vertices);
+                bindAttribute(batchNormalParam, CompiledMesh.NORMAL_SIZE,
+                        CompiledMesh.NORMAL_OFFSET, batch.getStride(), vertices);
+                bindAttribute(batchColorParam, CompiledMesh.COLOR_SIZE,
+                        CompiledMesh.COLOR_OFFSET, batch.getStride(), vertices);
+                commands.glDrawElements(GlBackend.GL_TRIANGLES, batch.getIndexCount(),
+                        GlBackend.GL_UNSIGNED_SHORT, batch.getIndices(), 0);
+                return;
+            }
+
+            commands.glUseProgram(propProgram);
+            commands.glUniform3fv(propLightPosParam, 1, draws.getLightPos(), 0);
+            commands.glUniformMatrix4fv(propModelViewParam, 1, false, modelView, 0);
+            commands.glUniformMatrix4fv(propMVPMatrixParam, 1, false, modelViewProjection, 0);
+            bindAttribute(propPositionParam, CompiledMesh.POSITION_SIZE,
+                    CompiledMesh.POSITION_OFFSET, batch.getStride(), vertices);
+            bindAttribute(propNormalParam, CompiledMesh.NORMAL_SIZE,
+                    CompiledMesh.NORMAL_OFFSET, batch.getStride(), vertices);
+            bindAttribute(propColorParam, CompiledMesh.COLOR_SIZE,
+                    CompiledMesh.COLOR_OFFSET, batch.getStride(), vertices);
+            // A model matrix column per attribute, advancing once per instance
+            FloatBuffer instances = batch.getInstances();
+            for (int column = 0; column < 4; column++) {
+                bindAttribute(propModelParams[column], 4, column * 4,
+                        StaticBatcher.INSTANCE_FLOATS * 4, instances);
+                commands.glVertexAttribDivisor(propModelParams[column], 1);
+            }
+            commands.glDrawElementsInstanced(GlBackend.GL_TRIANGLES, batch.getIndexCount(),
+                    GlBackend.GL_UNSIGNED_SHORT, batch.getIndices(), 0, batch.getInstanceCount());
+            // Other programs, and the distortion pass, read these slots per vertex
+            for (int column = 0; column < 4; column++) {
+                commands.glVertexAttribDivisor(propModelParams[column], 0);
+            }
+        }
+
+        private void bindAttribute(int param, MeshFile mesh, int semantic,
+                                   ByteBuffer vertices) {
+            MeshFile.Attribute attribute = mesh.findAttribute(semantic);
+            commands.glVertexAttribPointer(param, attribute.size, attribute.type,
+                    attribute.normalized, mesh.getStride(), vertices, attribute.offset);
+        }
+
+        private void bindAttribute(int param, int size, int offsetFloats, int stride,
+                                   FloatBuffer vertices) {
+            commands.glVertexAttribPointer(param, size, GlBackend.GL_FLOAT, false, stride,
+                    vertices, offsetFloats);
+        }
+    }
+
+    /**
+     * Turns the cube a fixed angle every simulation step.
+     */
+    private static class CubeSpin implements Simulation {
+        private final float[] spin = new float[4];
+
+        CubeSpin(float degreesPerStep) {
+            Quaternions.setAxisAngle(spin, 0, degreesPerStep, 0.5f, 0.5f, 1.0f);
+        }
+
+        @Override
+        public void step(float[] poses, float dt) {
+            int q = CUBE_ID * SimulationLoop.POSE_FLOATS + 3;
+            Quaternions.multiply(poses, q, poses, q, spin, 0);
+            Quaternions.normalize(poses, q);
+        }
+    }
+}
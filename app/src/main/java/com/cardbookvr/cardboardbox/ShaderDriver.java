@@ -0,0 +1,38 @@
+package com.cardbookvr.cardboardbox;
+
+/**
+ * The GL calls {@link ProgramCache} needs, so the caching logic can be
+ * exercised on the JVM with a stub in place of the real driver.
+ */
+public interface ShaderDriver {
+    /**
+     * @return a compiled shader handle. Throws if compilation fails.
+     */
+    int compileShader(int type, String code);
+
+    /**
+     * @return a linked program handle. Throws if linking fails.
+     */
+    int linkProgram(int vertexShader, int fragmentShader);
+
+    /**
+     * Free a shader once no more programs will be linked with it.
+     */
+    void deleteShader(int shader);
+
+    /**
+     * @return the program binary, or null if the driver can't provide one.
+     */
+    ProgramBinaryStore.Binary getProgramBinary(int program);
+
+    /**
+     * @return a program handle, or 0 if the driver rejected the binary.
+     */
+    int loadProgramBinary(ProgramBinaryStore.Binary binary);
+
+    /**
+     * @return a string identifying the driver build. Binaries are only
+     * valid for the identity they were created with.
+     */
+    String getIdentity();
+}
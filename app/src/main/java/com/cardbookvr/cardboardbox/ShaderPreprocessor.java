@@ -0,0 +1,94 @@
+package com.cardbookvr.cardboardbox;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Expands #include "name" directives and injects #define variants into
+ * shader sources. Runs without a GL context, so it can work on a
+ * background thread while the surface is still being created.
+ */
+public class ShaderPreprocessor {
+    private static final String INCLUDE = "#include";
+    private static final int MAX_INCLUDE_DEPTH = 16;
+
+    /**
+     * Reads raw shader text by name.
+     */
+    public interface Loader {
+        String load(String name) throws IOException;
+    }
+
+    private final Loader loader;
+
+    public ShaderPreprocessor(Loader loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Load and preprocess a shader.
+     *
+     * @param name - name of the top level source, passed to the loader.
+     * @param type - GL_VERTEX_SHADER or GL_FRAGMENT_SHADER.
+     * @param defines - "NAME" or "NAME VALUE" entries to #define, may be empty.
+     */
+    public ShaderSource preprocess(String name, int type, String... defines) throws IOException {
+        StringBuilder body = new StringBuilder();
+        expand(name, body, new ArrayList<String>(), 0);
+
+        // #version has to stay the first line, so defines go after it
+        String code = body.toString();
+        int insertAt = 0;
+        if (code.startsWith("#version")) {
+            insertAt = code.indexOf('\n') + 1;
+        }
+        StringBuilder sb = new StringBuilder(code.length() + defines.length * 32);
+        sb.append(code, 0, insertAt);
+        for (String define : defines) {
+            sb.append("#define ").append(define).append('\n');
+        }
+        sb.append(code, insertAt, code.length());
+        return new ShaderSource(name, type, sb.toString());
+    }
+
+    private void expand(String name, StringBuilder out, List<String> stack, int depth)
+            throws IOException {
+        if (stack.contains(name)) {
+            throw new IOException("Recursive #include of " + name + " via " + stack);
+        }
+        if (depth > MAX_INCLUDE_DEPTH) {
+            throw new IOException("#include nested too deeply at " + name);
+        }
+        String text = loader.load(name);
+        if (text == null) {
+            throw new IOException("Shader source " + name + " not found");
+        }
+        stack.add(name);
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end < 0) {
+                end = text.length();
+            }
+            String line = text.substring(start, end);
+            String trimmed = line.trim();
+            if (trimmed.startsWith(INCLUDE)) {
+                expand(includeName(trimmed, name), out, stack, depth + 1);
+            } else {
+                out.append(line).append('\n');
+            }
+            start = end + 1;
+        }
+        stack.remove(stack.size() - 1);
+    }
+
+    private static String includeName(String directive, String from) throws IOException {
+        int open = directive.indexOf('"');
+        int close = directive.lastIndexOf('"');
+        if (open < 0 || close <= open) {
+            throw new IOException("Malformed " + directive + " in " + from);
+        }
+        return directive.substring(open + 1, close);
+    }
+}
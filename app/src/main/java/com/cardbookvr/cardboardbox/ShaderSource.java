@@ -0,0 +1,68 @@
+package com.cardbookvr.cardboardbox;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Preprocessed shader source keyed by a hash of its type and content, so
+ * identical shaders can be recognised whatever file they came from.
+ */
+public class ShaderSource {
+    private final String name;
+    private final int type;
+    private final String code;
+    private final String hash;
+
+    /**
+     * @param name - for error messages only.
+     * @param type - GL_VERTEX_SHADER or GL_FRAGMENT_SHADER.
+     * @param code - the fully preprocessed source.
+     */
+    public ShaderSource(String name, int type, String code) {
+        this.name = name;
+        this.type = type;
+        this.code = code;
+        this.hash = hash(type + "\n" + code);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    /**
+     * @return hex SHA-1 of the UTF-8 bytes of text.
+     */
+    public static String hash(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] bytes = digest.digest(text.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            // Both are guaranteed to exist on every Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + hash.substring(0, 8) + ")";
+    }
+}
@@ -0,0 +1,16 @@
+package com.cardbookvr.cardboardbox;
+
+/**
+ * Scene logic run by a {@link SimulationLoop} at a fixed rate.
+ */
+public interface Simulation {
+    /**
+     * Advance the scene by one step. Called on the simulation thread.
+     *
+     * @param poses - every object's pose, {@link SimulationLoop#POSE_FLOATS}
+     *              floats each: position x, y, z then orientation quaternion
+     *              x, y, z, w. Update in place.
+     * @param dt - step length in seconds, always the same.
+     */
+    void step(float[] poses, float dt);
+}
@@ -0,0 +1,203 @@
+package com.cardbookvr.cardboardbox;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a {@link Simulation} at a fixed timestep on its own thread and
+ * publishes object poses to the renderer through a {@link TripleBuffer}.
+ *
+ * Each published snapshot holds the poses before and after the last step.
+ * The renderer shows the scene one step in the past, interpolating
+ * between the two by how far the frame time is into that step, so motion
+ * is smooth at any frame rate and its speed doesn't depend on it. If the
+ * simulation falls behind, at most {@link #MAX_CATCH_UP_STEPS} steps are
+ * run at once and the rest of the lost time is dropped.
+ *
+ * {@link #sample} and {@link #getTransform} are for the render thread;
+ * they never block or allocate.
+ */
+public class SimulationLoop implements Runnable {
+    public static final int POSE_FLOATS = 7;
+    public static final int MAX_CATCH_UP_STEPS = 8;
+
+    /**
+     * Poses around one step, as handed to the renderer.
+     */
+    static class Snapshot {
+        final float[] previous;
+        final float[] current;
+        // Simulation time of current, in System.nanoTime() units
+        long time;
+        long tick;
+
+        Snapshot(float[] poses) {
+            previous = poses.clone();
+            current = poses.clone();
+        }
+    }
+
+    private final Simulation simulation;
+    private final long stepNanos;
+    private final float stepSeconds;
+    private final TripleBuffer<Snapshot> snapshots;
+
+    // Simulation thread only
+    private final float[] previous;
+    private final float[] current;
+    private long time;
+    private long tick;
+    private boolean started;
+    private long droppedNanos;
+
+    // Render thread only
+    private Snapshot sampled;
+    private float alpha;
+    private final float[] rotation = new float[4];
+
+    private volatile boolean running;
+    private Thread thread;
+
+    /**
+     * @param poses - every object's starting pose, POSE_FLOATS floats each.
+     * @param stepNanos - simulation step, e.g. 1000000000L / 120.
+     */
+    public SimulationLoop(Simulation simulation, float[] poses, long stepNanos) {
+        this.simulation = simulation;
+        this.stepNanos = stepNanos;
+        stepSeconds = stepNanos / 1e9f;
+        previous = poses.clone();
+        current = poses.clone();
+        snapshots = new TripleBuffer<>(new Snapshot(poses), new Snapshot(poses),
+                new Snapshot(poses));
+        sampled = snapshots.acquire();
+    }
+
+    /**
+     * Run every step due by the given time and publish the result. Called
+     * by the simulation thread, or directly when there is none.
+     */
+    public void advanceTo(long nanos) {
+        if (!started) {
+            time = nanos;
+            started = true;
+            publish();
+            return;
+        }
+        int steps = 0;
+        while (nanos - time >= stepNanos) {
+            if (steps == MAX_CATCH_UP_STEPS) {
+                long behind = (nanos - time) / stepNanos * stepNanos;
+                time += behind;
+                droppedNanos += behind;
+                break;
+            }
+            System.arraycopy(current, 0, previous, 0, current.length);
+            simulation.step(current, stepSeconds);
+            time += stepNanos;
+            tick++;
+            steps++;
+        }
+        if (steps > 0) {
+            publish();
+        }
+    }
+
+    private void publish() {
+        Snapshot snapshot = snapshots.getWriteBuffer();
+        System.arraycopy(previous, 0, snapshot.previous, 0, previous.length);
+        System.arraycopy(current, 0, snapshot.current, 0, current.length);
+        snapshot.time = time;
+        snapshot.tick = tick;
+        snapshots.publish();
+    }
+
+    /**
+     * Start stepping on a new thread.
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "Simulation");
+        thread.start();
+    }
+
+    /**
+     * Stop the thread and wait for it to finish. A later start carries on
+     * from where the simulation left off, without catching up.
+     */
+    public synchronized void stop() {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+        started = false;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            advanceTo(System.nanoTime());
+            long wait = time + stepNanos - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+    }
+
+    /**
+     * Pick up the newest snapshot for a frame shown at the given time.
+     * Render thread only.
+     */
+    public void sample(long nanos) {
+        sampled = snapshots.acquire();
+        // One step behind: previous at the start of the step, current at its end
+        float t = (float) (nanos - sampled.time) / stepNanos;
+        alpha = Math.max(0, Math.min(1, t));
+    }
+
+    /**
+     * Write an object's interpolated pose as a model matrix. Render thread
+     * only, after {@link #sample}.
+     */
+    public void getTransform(int object, float[] m, int offset) {
+        int p = object * POSE_FLOATS;
+        float[] a = sampled.previous;
+        float[] b = sampled.current;
+        Quaternions.slerp(rotation, 0, a, p + 3, b, p + 3, alpha);
+        Quaternions.toRotationM(m, offset, rotation, 0);
+        m[offset + 12] = a[p] + (b[p] - a[p]) * alpha;
+        m[offset + 13] = a[p + 1] + (b[p + 1] - a[p + 1]) * alpha;
+        m[offset + 14] = a[p + 2] + (b[p + 2] - a[p + 2]) * alpha;
+    }
+
+    /**
+     * @return the step count of the sampled snapshot.
+     */
+    public long getSampledTick() {
+        return sampled.tick;
+    }
+
+    /**
+     * @return how far between the sampled snapshot's poses frames are drawn, 0 to 1.
+     */
+    public float getAlpha() {
+        return alpha;
+    }
+
+    /**
+     * @return simulation time skipped because steps fell behind. Simulation
+     * thread only.
+     */
+    public long getDroppedNanos() {
+        return droppedNanos;
+    }
+}
@@ -0,0 +1,520 @@
+package com.cardbookvr.cardboardbox;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges meshes that never move into a few large draws, once, at scene
+ * load.
+ *
+ * Meshes are grouped by program, vertex stride and the cell of a uniform
+ * grid their centre falls in, so a batch covers a bounded part of the
+ * world and can still be culled as a whole. Within a group the vertices
+ * are transformed to world space and appended to one vertex array, and
+ * the indices rebased onto it, starting a new batch whenever the next mesh
+ * would take it past what 16-bit indices reach.
+ *
+ * A mesh added at least instanceThreshold times to the same group is
+ * drawn instanced instead: its vertices are stored once, untransformed,
+ * next to a model matrix per copy, to be fed as per-instance attributes
+ * with glVertexAttribDivisor. That keeps memory flat for heavily repeated
+ * props, but needs an OpenGL ES 3.0 context; with a threshold of 0
+ * everything is merged.
+ *
+ * Batch data lives in a {@link BufferArena}. Not thread safe.
+ */
+public class StaticBatcher {
+    // 16-bit indices
+    public static final int MAX_BATCH_VERTICES = 65536;
+    // A column-major model matrix per instance
+    public static final int INSTANCE_FLOATS = 16;
+
+    /**
+     * One draw: merged meshes, or instances of one mesh.
+     */
+    public static final class Batch {
+        private final int program;
+        private final int cellX;
+        private final int cellY;
+        private final int cellZ;
+        private final int strideFloats;
+        private final int vertexCount;
+        private final int indexCount;
+        private final int meshCount;
+        private final boolean instanced;
+        private final float[] bounds = new float[6];
+        private BufferArena.Block vertices;
+        private BufferArena.Block indices;
+        private BufferArena.Block instances;
+
+        private Batch(Entry first, int vertexCount, int indexCount, int meshCount,
+                      boolean instanced) {
+            program = first.program;
+            cellX = first.cellX;
+            cellY = first.cellY;
+            cellZ = first.cellZ;
+            strideFloats = first.strideFloats;
+            this.vertexCount = vertexCount;
+            this.indexCount = indexCount;
+            this.meshCount = meshCount;
+            this.instanced = instanced;
+            emptyBounds(bounds);
+        }
+
+        public int getProgram() {
+            return program;
+        }
+
+        public int getCellX() {
+            return cellX;
+        }
+
+        public int getCellY() {
+            return cellY;
+        }
+
+        public int getCellZ() {
+            return cellZ;
+        }
+
+        /**
+         * @return world-space box of everything in the batch: min x, y, z
+         * then max x, y, z. Read only.
+         */
+        public float[] getBounds() {
+            return bounds;
+        }
+
+        /**
+         * @return interleaved vertices in the {@link CompiledMesh} layout;
+         * world space unless instanced.
+         */
+        public FloatBuffer getVertices() {
+            return vertices.getFloatBuffer();
+        }
+
+        public ShortBuffer getIndices() {
+            return indices.getShortBuffer();
+        }
+
+        /**
+         * @return a model matrix per instance, or null if the batch is merged.
+         */
+        public FloatBuffer getInstances() {
+            return instanced ? instances.getFloatBuffer() : null;
+        }
+
+        public boolean isInstanced() {
+            return instanced;
+        }
+
+        /**
+         * @return instances to draw, 1 if merged.
+         */
+        public int getInstanceCount() {
+            return instanced ? meshCount : 1;
+        }
+
+        /**
+         * @return meshes the batch draws, the draw calls it replaces.
+         */
+        public int getMeshCount() {
+            return meshCount;
+        }
+
+        /**
+         * @return distance between consecutive vertices, in bytes.
+         */
+        public int getStride() {
+            return strideFloats * 4;
+        }
+
+        public int getVertexCount() {
+            return vertexCount;
+        }
+
+        public int getIndexCount() {
+            return indexCount;
+        }
+
+        /**
+         * Give the batch's memory back to the arena it was built in.
+         */
+        public void free(BufferArena arena) {
+            if (vertices == null) {
+                return;
+            }
+            arena.free(vertices);
+            arena.free(indices);
+            if (instances != null) {
+                arena.free(instances);
+            }
+            vertices = null;
+            indices = null;
+            instances = null;
+        }
+    }
+
+    private static final class Entry {
+        final CompiledMesh mesh;
+        // Order of the mesh's first add, so copies sort together
+        final int meshOrder;
+        final float[] model = new float[16];
+        final int program;
+        final int strideFloats;
+        final float[] bounds = new float[6];
+        int cellX;
+        int cellY;
+        int cellZ;
+
+        Entry(CompiledMesh mesh, int meshOrder, float[] model, int offset, int program) {
+            this.mesh = mesh;
+            this.meshOrder = meshOrder;
+            System.arraycopy(model, offset, this.model, 0, 16);
+            this.program = program;
+            strideFloats = mesh.getStride() / 4;
+        }
+    }
+
+    private static final Comparator<Entry> GROUP_ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            int c = Integer.compare(a.program, b.program);
+            if (c == 0) {
+                c = Integer.compare(a.strideFloats, b.strideFloats);
+            }
+            if (c == 0) {
+                c = Integer.compare(a.cellX, b.cellX);
+            }
+            if (c == 0) {
+                c = Integer.compare(a.cellY, b.cellY);
+            }
+            if (c == 0) {
+                c = Integer.compare(a.cellZ, b.cellZ);
+            }
+            if (c == 0) {
+                c = Integer.compare(a.meshOrder, b.meshOrder);
+            }
+            return c;
+        }
+    };
+
+    private final float cellSize;
+    private final int instanceThreshold;
+
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<CompiledMesh, Integer> meshOrders = new IdentityHashMap<>();
+    // Local bounds of each mesh, by first add
+    private final List<float[]> meshBounds = new ArrayList<>();
+
+    private int sourceDraws;
+    private int draws;
+    private int instancedDraws;
+    private long vertexBytes;
+
+    /**
+     * @param cellSize - edge of the grid cells batches are confined to,
+     *                 in world units.
+     * @param instanceThreshold - copies of a mesh in one cell from which
+     *                          they are instanced instead of merged, or 0
+     *                          to always merge.
+     */
+    public StaticBatcher(float cellSize, int instanceThreshold) {
+        if (!(cellSize > 0)) {
+            throw new IllegalArgumentException("cellSize must be positive");
+        }
+        if (instanceThreshold < 0) {
+            throw new IllegalArgumentException("instanceThreshold must not be negative");
+        }
+        this.cellSize = cellSize;
+        this.instanceThreshold = instanceThreshold;
+    }
+
+    /**
+     * Queue a mesh for the next {@link #build}.
+     *
+     * @param model - the mesh's world transform, 16 floats at offset.
+     * @param program - the program it is drawn with; only meshes sharing
+     *                one are batched together.
+     */
+    public void add(CompiledMesh mesh, float[] model, int offset, int program) {
+        if (mesh.getIndexCount() == 0) {
+            throw new IllegalArgumentException("mesh has no triangles");
+        }
+        Integer order = meshOrders.get(mesh);
+        if (order == null) {
+            order = meshOrders.size();
+            meshOrders.put(mesh, order);
+            meshBounds.add(computeLocalBounds(mesh));
+        }
+        Entry entry = new Entry(mesh, order, model, offset, program);
+        transformBounds(meshBounds.get(order), entry.model, entry.bounds);
+        entry.cellX = cell(entry.bounds[0] + entry.bounds[3]);
+        entry.cellY = cell(entry.bounds[1] + entry.bounds[4]);
+        entry.cellZ = cell(entry.bounds[2] + entry.bounds[5]);
+        entries.add(entry);
+    }
+
+    /**
+     * @return meshes queued since the last build.
+     */
+    public int getPendingCount() {
+        return entries.size();
+    }
+
+    /**
+     * Batch everything queued, and empty the queue.
+     *
+     * @param arena - where the batches' vertices, indices and instances go.
+     * @return the batches, grouped by program.
+     */
+    public List<Batch> build(BufferArena arena) {
+        Collections.sort(entries, GROUP_ORDER);
+        List<Batch> batches = new ArrayList<>();
+        List<Entry> merged = new ArrayList<>();
+        int start = 0;
+        while (start < entries.size()) {
+            int end = start + 1;
+            while (end < entries.size() && sameGroup(entries.get(start), entries.get(end))) {
+                end++;
+            }
+            // Runs of one mesh, which sort together within a group
+            merged.clear();
+            int run = start;
+            while (run < end) {
+                int runEnd = run + 1;
+                while (runEnd < end && entries.get(runEnd).mesh == entries.get(run).mesh) {
+                    runEnd++;
+                }
+                if (instanceThreshold > 0 && runEnd - run >= instanceThreshold) {
+                    batches.add(buildInstanced(arena, run, runEnd));
+                } else {
+                    merged.addAll(entries.subList(run, runEnd));
+                }
+                run = runEnd;
+            }
+            buildMerged(arena, merged, batches);
+            start = end;
+        }
+
+        sourceDraws += entries.size();
+        for (Batch batch : batches) {
+            draws++;
+            if (batch.instanced) {
+                instancedDraws++;
+            }
+            vertexBytes += (long) batch.vertexCount * batch.getStride();
+        }
+        entries.clear();
+        meshOrders.clear();
+        meshBounds.clear();
+        return batches;
+    }
+
+    /**
+     * @return meshes built into batches so far, one draw call each unbatched.
+     */
+    public int getSourceDrawCount() {
+        return sourceDraws;
+    }
+
+    /**
+     * @return batches built so far, one draw call each.
+     */
+    public int getDrawCount() {
+        return draws;
+    }
+
+    public int getInstancedDrawCount() {
+        return instancedDraws;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d meshes in %d draws (%d instanced), %d vertex bytes",
+                sourceDraws, draws, instancedDraws, vertexBytes);
+    }
+
+    private int cell(float twiceCentre) {
+        return (int) Math.floor(twiceCentre * 0.5f / cellSize);
+    }
+
+    private static boolean sameGroup(Entry a, Entry b) {
+        return a.program == b.program && a.strideFloats == b.strideFloats
+                && a.cellX == b.cellX && a.cellY == b.cellY && a.cellZ == b.cellZ;
+    }
+
+    private Batch buildInstanced(BufferArena arena, int start, int end) {
+        List<Entry> copies = entries.subList(start, end);
+        Entry first = copies.get(0);
+        CompiledMesh mesh = first.mesh;
+        Batch batch = new Batch(first, mesh.getVertexCount(), mesh.getIndexCount(),
+                copies.size(), true);
+        batch.vertices = arena.allocate(mesh.getVertexBytes());
+        batch.indices = arena.allocate(mesh.getIndexBytes());
+        batch.instances = arena.allocate(copies.size() * INSTANCE_FLOATS * 4);
+        batch.getVertices().put(mesh.getVertices()).position(0);
+        batch.getIndices().put(mesh.getIndices()).position(0);
+        FloatBuffer instances = batch.getInstances();
+        for (Entry copy : copies) {
+            instances.put(copy.model);
+            union(batch.bounds, copy.bounds);
+        }
+        instances.position(0);
+        return batch;
+    }
+
+    /**
+     * Append meshes of one group to as few batches as 16-bit indices allow.
+     */
+    private static void buildMerged(BufferArena arena, List<Entry> meshes, List<Batch> batches) {
+        int start = 0;
+        while (start < meshes.size()) {
+            int vertexCount = 0;
+            int indexCount = 0;
+            int end = start;
+            while (end < meshes.size() && vertexCount + meshes.get(end).mesh.getVertexCount()
+                    <= MAX_BATCH_VERTICES) {
+                vertexCount += meshes.get(end).mesh.getVertexCount();
+                indexCount += meshes.get(end).mesh.getIndexCount();
+                end++;
+            }
+            Entry first = meshes.get(start);
+            Batch batch = new Batch(first, vertexCount, indexCount, end - start, false);
+            batch.vertices = arena.allocate(vertexCount * first.strideFloats * 4);
+            batch.indices = arena.allocate(indexCount * 2);
+            FloatBuffer vertices = batch.getVertices();
+            ShortBuffer indices = batch.getIndices();
+            float[] vertex = new float[first.strideFloats];
+            float[] normalMatrix = new float[9];
+            int base = 0;
+            for (Entry entry : meshes.subList(start, end)) {
+                appendTransformed(entry, vertices, vertex, normalMatrix, batch.bounds);
+                for (short index : entry.mesh.getIndices()) {
+                    indices.put((short) ((index & 0xFFFF) + base));
+                }
+                base += entry.mesh.getVertexCount();
+            }
+            vertices.position(0);
+            indices.position(0);
+            batches.add(batch);
+            start = end;
+        }
+    }
+
+    /**
+     * Write a mesh's vertices in world space: positions by the model
+     * matrix, normals by its inverse transpose, everything else as is.
+     */
+    private static void appendTransformed(Entry entry, FloatBuffer out, float[] vertex,
+                                          float[] normalMatrix, float[] bounds) {
+        float[] m = entry.model;
+        normalMatrix(m, normalMatrix);
+        float[] source = entry.mesh.getVertices();
+        int stride = entry.strideFloats;
+        for (int v = 0; v < source.length; v += stride) {
+            System.arraycopy(source, v, vertex, 0, stride);
+            int p = v + CompiledMesh.POSITION_OFFSET;
+            float x = source[p], y = source[p + 1], z = source[p + 2];
+            for (int k = 0; k < 3; k++) {
+                float w = m[k] * x + m[4 + k] * y + m[8 + k] * z + m[12 + k];
+                vertex[CompiledMesh.POSITION_OFFSET + k] = w;
+                bounds[k] = Math.min(bounds[k], w);
+                bounds[k + 3] = Math.max(bounds[k + 3], w);
+            }
+            int n = v + CompiledMesh.NORMAL_OFFSET;
+            float nx = source[n], ny = source[n + 1], nz = source[n + 2];
+            float tx = normalMatrix[0] * nx + normalMatrix[1] * ny + normalMatrix[2] * nz;
+            float ty = normalMatrix[3] * nx + normalMatrix[4] * ny + normalMatrix[5] * nz;
+            float tz = normalMatrix[6] * nx + normalMatrix[7] * ny + normalMatrix[8] * nz;
+            float length = (float) Math.sqrt(tx * tx + ty * ty + tz * tz);
+            if (length > 0) {
+                tx /= length;
+                ty /= length;
+                tz /= length;
+            }
+            vertex[CompiledMesh.NORMAL_OFFSET] = tx;
+            vertex[CompiledMesh.NORMAL_OFFSET + 1] = ty;
+            vertex[CompiledMesh.NORMAL_OFFSET + 2] = tz;
+            out.put(vertex);
+        }
+    }
+
+    /**
+     * The cofactor matrix of m's upper 3x3, row major: its inverse
+     * transpose up to scale, which is all normals need, as they are
+     * normalized afterwards. The sign is kept so mirroring still flips them.
+     */
+    private static void normalMatrix(float[] m, float[] n) {
+        float a00 = m[0], a10 = m[1], a20 = m[2];
+        float a01 = m[4], a11 = m[5], a21 = m[6];
+        float a02 = m[8], a12 = m[9], a22 = m[10];
+        n[0] = a11 * a22 - a12 * a21;
+        n[1] = a12 * a20 - a10 * a22;
+        n[2] = a10 * a21 - a11 * a20;
+        n[3] = a02 * a21 - a01 * a22;
+        n[4] = a00 * a22 - a02 * a20;
+        n[5] = a01 * a20 - a00 * a21;
+        n[6] = a01 * a12 - a02 * a11;
+        n[7] = a02 * a10 - a00 * a12;
+        n[8] = a00 * a11 - a01 * a10;
+        if (a00 * n[0] + a01 * n[1] + a02 * n[2] < 0) {
+            for (int i = 0; i < 9; i++) {
+                n[i] = -n[i];
+            }
+        }
+    }
+
+    private static float[] computeLocalBounds(CompiledMesh mesh) {
+        float[] bounds = new float[6];
+        emptyBounds(bounds);
+        float[] vertices = mesh.getVertices();
+        int stride = mesh.getStride() / 4;
+        for (int v = CompiledMesh.POSITION_OFFSET; v < vertices.length; v += stride) {
+            for (int k = 0; k < 3; k++) {
+                bounds[k] = Math.min(bounds[k], vertices[v + k]);
+                bounds[k + 3] = Math.max(bounds[k + 3], vertices[v + k]);
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * World box of a transformed local box, from the matrix's translation
+     * plus the extremes of each rotated axis, as in {@link GazePicker}.
+     */
+    private static void transformBounds(float[] local, float[] m, float[] out) {
+        for (int k = 0; k < 3; k++) {
+            float min = m[12 + k];
+            float max = m[12 + k];
+            for (int axis = 0; axis < 3; axis++) {
+                float a = m[axis * 4 + k] * local[axis];
+                float b = m[axis * 4 + k] * local[axis + 3];
+                min += Math.min(a, b);
+                max += Math.max(a, b);
+            }
+            out[k] = min;
+            out[k + 3] = max;
+        }
+    }
+
+    private static void emptyBounds(float[] bounds) {
+        for (int k = 0; k < 3; k++) {
+            bounds[k] = Float.POSITIVE_INFINITY;
+            bounds[k + 3] = Float.NEGATIVE_INFINITY;
+        }
+    }
+
+    private static void union(float[] bounds, float[] other) {
+        for (int k = 0; k < 3; k++) {
+            bounds[k] = Math.min(bounds[k], other[k]);
+            bounds[k + 3] = Math.max(bounds[k + 3], other[k + 3]);
+        }
+    }
+}
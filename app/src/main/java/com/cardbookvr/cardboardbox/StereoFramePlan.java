@@ -0,0 +1,277 @@
+package com.cardbookvr.cardboardbox;
+
+/**
+ * Per-frame transform work shared by both eyes.
+ *
+ * {@link #build} runs once in onNewFrame and computes everything that does
+ * not depend on the eye: the head-centred view, the light and every visible
+ * object's model-view. Each eye's view only differs from the head view by a
+ * translation, so the per-eye model-view and model-view-projection matrices
+ * for both eyes are then derived in one batched pass over {@link MatrixBatch}
+ * storage. onDrawEye just picks
+ * up the ready-made {@link EyeDraws} for its eye.
+ *
+ * Eye offsets and projections are learned from the first onDrawEye calls and
+ * reused, since they only change when the viewer is reconfigured.
+ */
+public class StereoFramePlan {
+    // Eye.Type's values, for code that runs without the Cardboard SDK
+    public static final int EYE_MONOCULAR = 0;
+    public static final int EYE_LEFT = 1;
+    public static final int EYE_RIGHT = 2;
+
+    // Indexed by eye type
+    private static final int EYE_SLOTS = 3;
+    private static final float OFFSET_EPSILON = 1e-5f;
+
+    private final int capacity;
+    private int objectCount;
+    private final MatrixBatch models;
+    private final boolean[] visible;
+
+    private final float[] headView = new float[16];
+    private final float[] centerView = new float[16];
+    private final MatrixBatch centerModelViews;
+    private final float[] lightInCenter = new float[4];
+
+    private final int[] drawList;
+    private int drawCount;
+
+    private final EyeDraws[] eyes = new EyeDraws[EYE_SLOTS];
+
+    public StereoFramePlan(int capacity) {
+        this.capacity = capacity;
+        models = new MatrixBatch(capacity);
+        visible = new boolean[capacity];
+        centerModelViews = new MatrixBatch(capacity);
+        drawList = new int[capacity];
+        for (int i = 0; i < EYE_SLOTS; i++) {
+            eyes[i] = new EyeDraws(capacity);
+        }
+    }
+
+    /**
+     * Set the world transform of an object. Objects are visible once set.
+     */
+    public void setModel(int id, float[] transform) {
+        setModel(id, transform, 0);
+    }
+
+    /**
+     * Set the world transform of an object from the 16 floats at offset,
+     * e.g. a node of {@link SceneGraph#getWorldMatrices}.
+     */
+    public void setModel(int id, float[] transforms, int offset) {
+        if (id < 0 || id >= capacity) {
+            throw new IndexOutOfBoundsException("object id " + id + " out of range");
+        }
+        models.set(id, transforms, offset);
+        if (id >= objectCount) {
+            for (int i = objectCount; i < id; i++) {
+                visible[i] = false;
+            }
+            objectCount = id + 1;
+            visible[id] = true;
+        }
+    }
+
+    public void setVisible(int id, boolean isVisible) {
+        visible[id] = isVisible;
+    }
+
+    /**
+     * Copy the world transform of an object into m.
+     */
+    public void getModel(int id, float[] m, int offset) {
+        models.get(id, m, offset);
+    }
+
+    /**
+     * Compute the eye-independent part of the frame, then both eyes.
+     *
+     * @param head - headView from HeadTransform.getHeadView.
+     * @param camera - camera matrix applied after the head transform.
+     * @param lightInWorld - homogeneous light position.
+     */
+    public void build(float[] head, float[] camera, float[] lightInWorld) {
+        System.arraycopy(head, 0, headView, 0, 16);
+        Matrices.multiplyMM(centerView, 0, headView, 0, camera, 0);
+        Matrices.multiplyMV(lightInCenter, 0, centerView, 0, lightInWorld, 0);
+
+        drawCount = 0;
+        for (int id = 0; id < objectCount; id++) {
+            if (visible[id]) {
+                drawList[drawCount++] = id;
+            }
+        }
+        // Cheaper to run the batch over hidden objects too than to gather
+        MatrixBatch.multiply(centerView, 0, models, centerModelViews, objectCount);
+
+        for (EyeDraws eye : eyes) {
+            if (eye.known) {
+                derive(eye);
+            }
+        }
+    }
+
+    /**
+     * Get the draws for an eye, called from onDrawEye.
+     *
+     * @param eyeType - Eye.getType().
+     * @param eyeView - Eye.getEyeView(), used to learn the eye offset.
+     * @param perspective - Eye.getPerspective().
+     */
+    public EyeDraws prepareEye(int eyeType, float[] eyeView, float[] perspective) {
+        EyeDraws eye = eyes[eyeType];
+        // The eye view is the head view followed by a translation
+        float tx = eyeView[12] - headView[12];
+        float ty = eyeView[13] - headView[13];
+        float tz = eyeView[14] - headView[14];
+        if (!eye.known || !eye.matches(tx, ty, tz, perspective)) {
+            eye.offset[0] = tx;
+            eye.offset[1] = ty;
+            eye.offset[2] = tz;
+            System.arraycopy(perspective, 0, eye.perspective, 0, 16);
+            eye.known = true;
+            derive(eye);
+        }
+        return eye;
+    }
+
+    /**
+     * Get an eye's draws as of the last build, for work done before the
+     * eye is drawn.
+     *
+     * @param eyeType - Eye.getType().
+     * @return null until the eye has been drawn once and its offset and
+     * projection are known.
+     */
+    public EyeDraws getEyeDraws(int eyeType) {
+        EyeDraws eye = eyes[eyeType];
+        return eye.known ? eye : null;
+    }
+
+    /**
+     * @return whether the eye's learned offset and projection are still
+     * these, so draws got from {@link #getEyeDraws} are right for it and
+     * {@link #prepareEye} would change nothing.
+     */
+    public boolean matches(int eyeType, float[] eyeView, float[] perspective) {
+        EyeDraws eye = eyes[eyeType];
+        return eye.known && eye.matches(eyeView[12] - headView[12], eyeView[13] - headView[13],
+                eyeView[14] - headView[14], perspective);
+    }
+
+    /**
+     * Copy an eye's view-projection as of the last build, for culling
+     * before the eye is drawn.
+     *
+     * @param eyeType - Eye.getType().
+     * @return false, leaving m alone, until the eye has been drawn once and
+     * its offset and projection are known.
+     */
+    public boolean getViewProjection(int eyeType, float[] m, int offset) {
+        EyeDraws eye = eyes[eyeType];
+        if (!eye.known) {
+            return false;
+        }
+        // The eye's translation, after the centre view
+        float[] view = eye.view;
+        System.arraycopy(centerView, 0, view, 0, 16);
+        for (int k = 0; k < 3; k++) {
+            for (int col = 0; col < 16; col += 4) {
+                view[col + k] += eye.offset[k] * view[col + 3];
+            }
+        }
+        Matrices.multiplyMM(m, offset, eye.perspective, 0, view, 0);
+        return true;
+    }
+
+    private void derive(EyeDraws eye) {
+        float tx = eye.offset[0], ty = eye.offset[1], tz = eye.offset[2];
+        MatrixBatch.preTranslate(tx, ty, tz, centerModelViews, eye.modelViews, objectCount);
+        MatrixBatch.multiply(eye.perspective, 0, eye.modelViews, eye.modelViewProjections,
+                objectCount);
+        float w = lightInCenter[3];
+        eye.lightPos[0] = lightInCenter[0] + tx * w;
+        eye.lightPos[1] = lightInCenter[1] + ty * w;
+        eye.lightPos[2] = lightInCenter[2] + tz * w;
+        eye.lightPos[3] = w;
+        eye.drawList = drawList;
+        eye.drawCount = drawCount;
+    }
+
+    /**
+     * Ready-made draws for one eye, with matrices looked up by object id.
+     */
+    public static class EyeDraws {
+        private final float[] offset = new float[3];
+        private final float[] perspective = new float[16];
+        private final float[] view = new float[16];
+        private boolean known;
+
+        private final MatrixBatch modelViews;
+        private final MatrixBatch modelViewProjections;
+        private final float[] lightPos = new float[4];
+        private int[] drawList;
+        private int drawCount;
+
+        EyeDraws(int capacity) {
+            modelViews = new MatrixBatch(capacity);
+            modelViewProjections = new MatrixBatch(capacity);
+        }
+
+        public int getDrawCount() {
+            return drawCount;
+        }
+
+        /**
+         * @return the object id of the i-th draw.
+         */
+        public int getObject(int i) {
+            return drawList[i];
+        }
+
+        /**
+         * Copy an object's model-view into m, ready for glUniformMatrix4fv.
+         */
+        public void getModelView(int id, float[] m, int offset) {
+            modelViews.get(id, m, offset);
+        }
+
+        /**
+         * Copy an object's model-view-projection into m.
+         */
+        public void getModelViewProjection(int id, float[] m, int offset) {
+            modelViewProjections.get(id, m, offset);
+        }
+
+        /**
+         * Copy the eye's projection into m.
+         */
+        public void getPerspective(float[] m, int offset) {
+            System.arraycopy(perspective, 0, m, offset, 16);
+        }
+
+        /**
+         * @return the light position in this eye's space.
+         */
+        public float[] getLightPos() {
+            return lightPos;
+        }
+
+        private boolean matches(float tx, float ty, float tz, float[] p) {
+            if (Math.abs(offset[0] - tx) > OFFSET_EPSILON
+                    || Math.abs(offset[1] - ty) > OFFSET_EPSILON
+                    || Math.abs(offset[2] - tz) > OFFSET_EPSILON) {
+                return false;
+            }
+            for (int i = 0; i < 16; i++) {
+                if (perspective[i] != p[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
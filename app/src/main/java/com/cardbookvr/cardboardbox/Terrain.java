@@ -0,0 +1,77 @@
+package com.cardbookvr.cardboardbox;
+
+/**
+ * A deterministic height field made of a few octaves of value noise. The
+ * same seed gives the same ground everywhere, so chunks can be generated
+ * independently, in any order, on any thread.
+ */
+public class Terrain {
+    private static final int OCTAVES = 3;
+
+    private final long seed;
+    private final float amplitude;
+    private final float wavelength;
+
+    /**
+     * @param amplitude - largest distance of the ground from height 0.
+     * @param wavelength - size of the largest features, in world units.
+     */
+    public Terrain(long seed, float amplitude, float wavelength) {
+        this.seed = seed;
+        this.amplitude = amplitude;
+        this.wavelength = wavelength;
+    }
+
+    public float getAmplitude() {
+        return amplitude;
+    }
+
+    /**
+     * @return the ground height at (x, z), within +/- amplitude.
+     */
+    public float height(float x, float z) {
+        float sum = 0;
+        float scale = 1.0f / wavelength;
+        float weight = 0.5f;
+        float total = 0;
+        for (int octave = 0; octave < OCTAVES; octave++) {
+            sum += weight * noise(x * scale, z * scale, octave);
+            total += weight;
+            scale *= 2;
+            weight *= 0.5f;
+        }
+        return amplitude * sum / total;
+    }
+
+    /**
+     * Smoothly interpolated lattice noise in [-1, 1].
+     */
+    private float noise(float x, float z, int octave) {
+        int x0 = (int) Math.floor(x);
+        int z0 = (int) Math.floor(z);
+        float fx = smooth(x - x0);
+        float fz = smooth(z - z0);
+        float a = lattice(x0, z0, octave);
+        float b = lattice(x0 + 1, z0, octave);
+        float c = lattice(x0, z0 + 1, octave);
+        float d = lattice(x0 + 1, z0 + 1, octave);
+        float top = a + (b - a) * fx;
+        float bottom = c + (d - c) * fx;
+        return top + (bottom - top) * fz;
+    }
+
+    private static float smooth(float t) {
+        return t * t * (3 - 2 * t);
+    }
+
+    private float lattice(int x, int z, int octave) {
+        long h = seed + octave * 0x9E3779B97F4A7C15L;
+        h ^= x * 0xC2B2AE3D27D4EB4FL;
+        h ^= z * 0x165667B19E3779F9L;
+        // splitmix64 finalizer
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        h ^= h >>> 31;
+        return (h >>> 40) / (float) (1 << 23) - 1.0f;
+    }
+}
@@ -0,0 +1,62 @@
+package com.cardbookvr.cardboardbox;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands the newest of a stream of values from one writer thread to one
+ * reader thread without locks, copies or allocation.
+ *
+ * There are three preallocated buffers: the writer fills its back buffer,
+ * the reader reads its front buffer, and the third is the newest complete
+ * one waiting to be picked up. Publishing and acquiring each swap a buffer
+ * with the waiting one in a single atomic exchange, so neither side ever
+ * waits for the other, and a buffer is never written while it is read.
+ * Values the reader doesn't get to before the next publish are skipped.
+ */
+public class TripleBuffer<T> {
+    // Set in the state when the waiting buffer hasn't been read yet
+    private static final int FRESH = 4;
+
+    private final Object[] buffers;
+    // Index of the waiting buffer, plus FRESH
+    private final AtomicInteger state = new AtomicInteger(1);
+    // Writer thread only
+    private int back = 2;
+    // Reader thread only
+    private int front = 0;
+
+    /**
+     * @param a - the buffer the reader starts with.
+     */
+    public TripleBuffer(T a, T b, T c) {
+        buffers = new Object[] { a, b, c };
+    }
+
+    /**
+     * @return the buffer to fill before the next {@link #publish}. Writer only.
+     */
+    @SuppressWarnings("unchecked")
+    public T getWriteBuffer() {
+        return (T) buffers[back];
+    }
+
+    /**
+     * Make the write buffer the newest value. Writer only.
+     */
+    public void publish() {
+        back = state.getAndSet(back | FRESH) & ~FRESH;
+    }
+
+    /**
+     * @return the newest published value, or the one acquired last if
+     * nothing was published since. Reader only; the value stays valid until
+     * the next acquire.
+     */
+    @SuppressWarnings("unchecked")
+    public T acquire() {
+        if ((state.get() & FRESH) != 0) {
+            front = state.getAndSet(front) & ~FRESH;
+        }
+        return (T) buffers[front];
+    }
+}
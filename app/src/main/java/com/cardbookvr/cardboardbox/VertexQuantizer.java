@@ -0,0 +1,423 @@
+package com.cardbookvr.cardboardbox;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Packs float vertices into {@link QuantizedVertices}: positions as
+ * normalized shorts across the mesh's bounding box, or as half floats;
+ * normals as two normalized shorts on an octahedron; colors as four
+ * unsigned bytes. A vertex of position, normal and color shrinks from 40
+ * bytes to 16.
+ *
+ * Each attribute has an error bound. When an encoding would exceed it the
+ * attribute falls back to the next wider one, down to plain floats, so
+ * the result is never further from the source than the bounds allow. The
+ * errors actually reached are reported with the result.
+ *
+ * Normalized shorts and bytes are OpenGL ES 2.0 vertex formats. Half
+ * float positions need OpenGL ES 3.0, or OES_vertex_half_float with its
+ * own type constant.
+ */
+public class VertexQuantizer {
+    public static final int POSITION_FLOAT = 0;
+    public static final int POSITION_HALF = 1;
+    public static final int POSITION_SNORM16 = 2;
+
+    public static final int NORMAL_FLOAT = 0;
+    public static final int NORMAL_OCT16 = 1;
+
+    public static final int COLOR_FLOAT = 0;
+    public static final int COLOR_UNORM8 = 1;
+
+    // GL_HALF_FLOAT, core in OpenGL ES 3.0
+    public static final int TYPE_HALF_FLOAT = 0x140B;
+
+    private static final float SNORM16_MAX = 32767;
+    private static final float UNORM8_MAX = 255;
+
+    private int positionEncoding = POSITION_SNORM16;
+    private int normalEncoding = NORMAL_OCT16;
+    private int colorEncoding = COLOR_UNORM8;
+    private float maxPositionError = 1e-4f;
+    private float maxNormalError = 0.1f;
+    private float maxColorError = 1 / UNORM8_MAX;
+
+    /**
+     * @param encoding - POSITION_SNORM16, the default, POSITION_HALF or
+     *                 POSITION_FLOAT. Half floats fall back to normalized
+     *                 shorts, and those to floats.
+     */
+    public VertexQuantizer setPositionEncoding(int encoding) {
+        if (encoding < POSITION_FLOAT || encoding > POSITION_SNORM16) {
+            throw new IllegalArgumentException("unknown position encoding " + encoding);
+        }
+        positionEncoding = encoding;
+        return this;
+    }
+
+    /**
+     * @param encoding - NORMAL_OCT16, the default, or NORMAL_FLOAT.
+     */
+    public VertexQuantizer setNormalEncoding(int encoding) {
+        if (encoding != NORMAL_FLOAT && encoding != NORMAL_OCT16) {
+            throw new IllegalArgumentException("unknown normal encoding " + encoding);
+        }
+        normalEncoding = encoding;
+        return this;
+    }
+
+    /**
+     * @param encoding - COLOR_UNORM8, the default, or COLOR_FLOAT.
+     */
+    public VertexQuantizer setColorEncoding(int encoding) {
+        if (encoding != COLOR_FLOAT && encoding != COLOR_UNORM8) {
+            throw new IllegalArgumentException("unknown color encoding " + encoding);
+        }
+        colorEncoding = encoding;
+        return this;
+    }
+
+    /**
+     * @param fraction - largest error in any coordinate, as a fraction of
+     *                 the diagonal of the mesh's bounding box.
+     */
+    public VertexQuantizer setMaxPositionError(float fraction) {
+        maxPositionError = checkBound(fraction);
+        return this;
+    }
+
+    /**
+     * @param degrees - largest angle between a normal and its encoding.
+     */
+    public VertexQuantizer setMaxNormalError(float degrees) {
+        maxNormalError = checkBound(degrees);
+        return this;
+    }
+
+    /**
+     * @param error - largest error in any color channel, 0 to 1.
+     */
+    public VertexQuantizer setMaxColorError(float error) {
+        maxColorError = checkBound(error);
+        return this;
+    }
+
+    public QuantizedVertices quantize(CompiledMesh mesh) {
+        return quantize(FloatBuffer.wrap(mesh.getVertices()), mesh.getStride() / 4,
+                mesh.getVertexCount(), CompiledMesh.POSITION_OFFSET, CompiledMesh.NORMAL_OFFSET,
+                CompiledMesh.COLOR_OFFSET);
+    }
+
+    /**
+     * Quantize a mesh file's vertices. It has to have float positions,
+     * normals and colors.
+     */
+    public QuantizedVertices quantize(MeshFile mesh) {
+        MeshFile.Attribute position = floatAttribute(mesh, MeshFile.SEMANTIC_POSITION,
+                CompiledMesh.POSITION_SIZE);
+        MeshFile.Attribute normal = floatAttribute(mesh, MeshFile.SEMANTIC_NORMAL,
+                CompiledMesh.NORMAL_SIZE);
+        MeshFile.Attribute color = floatAttribute(mesh, MeshFile.SEMANTIC_COLOR,
+                CompiledMesh.COLOR_SIZE);
+        if (mesh.getStride() % 4 != 0) {
+            throw new IllegalArgumentException("mesh stride is not a whole number of floats");
+        }
+        FloatBuffer vertices = mesh.getVertexData().order(mesh.getByteOrder()).asFloatBuffer();
+        return quantize(vertices, mesh.getStride() / 4, mesh.getVertexCount(),
+                position.offset / 4, normal.offset / 4, color.offset / 4);
+    }
+
+    /**
+     * Quantize interleaved float vertices. Reads with absolute gets, so the
+     * buffer's position doesn't matter.
+     *
+     * @param strideFloats - floats from one vertex to the next.
+     * @param positionOffset - floats from the start of a vertex to x, y, z.
+     * @param normalOffset - floats to the normal's x, y, z.
+     * @param colorOffset - floats to r, g, b, a.
+     */
+    public QuantizedVertices quantize(FloatBuffer vertices, int strideFloats, int vertexCount,
+                                      int positionOffset, int normalOffset, int colorOffset) {
+        float[] positions = new float[vertexCount * 3];
+        float[] normals = new float[vertexCount * 3];
+        float[] colors = new float[vertexCount * 4];
+        for (int v = 0; v < vertexCount; v++) {
+            int o = v * strideFloats;
+            for (int k = 0; k < 3; k++) {
+                positions[v * 3 + k] = vertices.get(o + positionOffset + k);
+                normals[v * 3 + k] = vertices.get(o + normalOffset + k);
+            }
+            for (int k = 0; k < 4; k++) {
+                colors[v * 4 + k] = vertices.get(o + colorOffset + k);
+            }
+        }
+
+        QuantizedVertices.Builder result = new QuantizedVertices.Builder(vertexCount,
+                strideFloats * 4);
+        encodePositions(positions, vertexCount, result);
+        encodeNormals(normals, vertexCount, result);
+        encodeColors(colors, vertexCount, result);
+        return result.build();
+    }
+
+    private void encodePositions(float[] positions, int count, QuantizedVertices.Builder result) {
+        float[] bounds = bounds(positions, count);
+        result.setBounds(bounds);
+        float dx = bounds[3] - bounds[0], dy = bounds[4] - bounds[1], dz = bounds[5] - bounds[2];
+        float limit = maxPositionError * (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        float[] scale = new float[3];
+        float[] offset = new float[3];
+        short[] encoded = new short[count * 3];
+
+        if (positionEncoding == POSITION_HALF) {
+            float error = 0;
+            for (int i = 0; i < count * 3; i++) {
+                encoded[i] = toHalf(positions[i]);
+                error = Math.max(error, Math.abs(fromHalf(encoded[i]) - positions[i]));
+            }
+            if (error <= limit) {
+                result.setPositions(POSITION_HALF, encoded, null, null, error);
+                return;
+            }
+        }
+        if (positionEncoding != POSITION_FLOAT) {
+            for (int k = 0; k < 3; k++) {
+                offset[k] = (bounds[k] + bounds[k + 3]) * 0.5f;
+                scale[k] = (bounds[k + 3] - bounds[k]) * 0.5f;
+            }
+            float error = 0;
+            for (int i = 0; i < count * 3; i++) {
+                int k = i % 3;
+                float unit = scale[k] == 0 ? 0 : (positions[i] - offset[k]) / scale[k];
+                encoded[i] = (short) Math.round(Math.max(-1, Math.min(1, unit)) * SNORM16_MAX);
+                float decoded = offset[k] + scale[k] * decodeSnorm16(encoded[i]);
+                // OpenGL ES 2.0 maps shorts to (2c + 1) / 65535, up to half
+                // a step away from what is decoded here
+                float es2 = scale[k] / (2 * SNORM16_MAX);
+                error = Math.max(error, Math.abs(decoded - positions[i]) + es2);
+            }
+            if (error <= limit) {
+                result.setPositions(POSITION_SNORM16, encoded, scale, offset, error);
+                return;
+            }
+        }
+        result.setFloatPositions(positions);
+    }
+
+    private void encodeNormals(float[] normals, int count, QuantizedVertices.Builder result) {
+        if (normalEncoding == NORMAL_OCT16) {
+            short[] encoded = new short[count * 2];
+            float[] decoded = new float[3];
+            float error = 0;
+            for (int v = 0; v < count; v++) {
+                float x = normals[v * 3], y = normals[v * 3 + 1], z = normals[v * 3 + 2];
+                encodeOctahedral(x, y, z, encoded, v * 2);
+                decodeOctahedral(encoded[v * 2], encoded[v * 2 + 1], decoded, 0);
+                error = Math.max(error, angle(x, y, z, decoded));
+            }
+            if (error <= maxNormalError) {
+                result.setOctahedralNormals(encoded, error);
+                return;
+            }
+        }
+        result.setFloatNormals(normals);
+    }
+
+    private void encodeColors(float[] colors, int count, QuantizedVertices.Builder result) {
+        if (colorEncoding == COLOR_UNORM8) {
+            byte[] encoded = new byte[count * 4];
+            float error = 0;
+            for (int i = 0; i < count * 4; i++) {
+                int value = Math.round(Math.max(0, Math.min(1, colors[i])) * UNORM8_MAX);
+                encoded[i] = (byte) value;
+                error = Math.max(error, Math.abs(value / UNORM8_MAX - colors[i]));
+            }
+            if (error <= maxColorError) {
+                result.setUnorm8Colors(encoded, error);
+                return;
+            }
+        }
+        result.setFloatColors(colors);
+    }
+
+    /**
+     * Round a float to the nearest half float, ties to even. Values past
+     * the half range become infinite.
+     */
+    public static short toHalf(float value) {
+        int bits = Float.floatToIntBits(value);
+        int sign = bits >>> 16 & 0x8000;
+        int exponent = (bits >>> 23 & 0xff) - 127 + 15;
+        int mantissa = bits & 0x7fffff;
+        if ((bits & 0x7fffffff) >= 0x7f800000) {
+            // Infinity, or NaN kept a NaN
+            return (short) (sign | 0x7c00 | (mantissa != 0 ? 0x200 : 0));
+        }
+        if (exponent >= 31) {
+            return (short) (sign | 0x7c00);
+        }
+        if (exponent <= 0) {
+            if (exponent < -10) {
+                return (short) sign;
+            }
+            // Subnormal: the implicit bit shifted into the mantissa
+            mantissa |= 0x800000;
+            int shift = 14 - exponent;
+            int half = mantissa >> shift;
+            int rest = mantissa & ((1 << shift) - 1);
+            int halfway = 1 << (shift - 1);
+            if (rest > halfway || rest == halfway && (half & 1) != 0) {
+                half++;
+            }
+            return (short) (sign | half);
+        }
+        int half = exponent << 10 | mantissa >> 13;
+        int rest = mantissa & 0x1fff;
+        // A carry out of the mantissa correctly bumps the exponent
+        if (rest > 0x1000 || rest == 0x1000 && (half & 1) != 0) {
+            half++;
+        }
+        return (short) (sign | half);
+    }
+
+    public static float fromHalf(short half) {
+        int bits = half & 0xffff;
+        int sign = (bits & 0x8000) << 16;
+        int exponent = bits >>> 10 & 0x1f;
+        int mantissa = bits & 0x3ff;
+        if (exponent == 0) {
+            float value = mantissa / (float) (1 << 24);
+            return sign != 0 ? -value : value;
+        }
+        if (exponent == 31) {
+            return Float.intBitsToFloat(sign | 0x7f800000 | mantissa << 13);
+        }
+        return Float.intBitsToFloat(sign | (exponent + 112) << 23 | mantissa << 13);
+    }
+
+    /**
+     * @return a normalized short as OpenGL ES 3.0 reads it, -1 to 1.
+     */
+    public static float decodeSnorm16(short value) {
+        return Math.max(value / SNORM16_MAX, -1);
+    }
+
+    /**
+     * Project a direction onto the octahedron |x| + |y| + |z| = 1, fold the
+     * lower half over the upper, and store the result as two normalized
+     * shorts. Of the four nearest codes, the one that decodes closest to the
+     * direction is kept.
+     *
+     * @param encoded - receives two shorts at offset.
+     */
+    public static void encodeOctahedral(float x, float y, float z, short[] encoded, int offset) {
+        float length = (float) Math.sqrt(x * x + y * y + z * z);
+        if (length == 0) {
+            encoded[offset] = 0;
+            encoded[offset + 1] = 0;
+            return;
+        }
+        x /= length;
+        y /= length;
+        z /= length;
+        float l1 = Math.abs(x) + Math.abs(y) + Math.abs(z);
+        float u = x / l1;
+        float v = y / l1;
+        if (z < 0) {
+            float fu = (1 - Math.abs(v)) * signNotZero(u);
+            float fv = (1 - Math.abs(u)) * signNotZero(v);
+            u = fu;
+            v = fv;
+        }
+        int u0 = (int) Math.floor(u * SNORM16_MAX);
+        int v0 = (int) Math.floor(v * SNORM16_MAX);
+        float[] decoded = new float[3];
+        float best = -2;
+        for (int i = 0; i < 4; i++) {
+            short cu = (short) Math.max(-SNORM16_MAX, Math.min(SNORM16_MAX, u0 + (i & 1)));
+            short cv = (short) Math.max(-SNORM16_MAX, Math.min(SNORM16_MAX, v0 + (i >> 1)));
+            decodeOctahedral(cu, cv, decoded, 0);
+            float dot = decoded[0] * x + decoded[1] * y + decoded[2] * z;
+            if (dot > best) {
+                best = dot;
+                encoded[offset] = cu;
+                encoded[offset + 1] = cv;
+            }
+        }
+    }
+
+    /**
+     * Unfold two normalized shorts back into a unit direction, as the
+     * quantized vertex shader does.
+     *
+     * @param decoded - receives x, y, z at offset.
+     */
+    public static void decodeOctahedral(short eu, short ev, float[] decoded, int offset) {
+        float u = decodeSnorm16(eu);
+        float v = decodeSnorm16(ev);
+        float z = 1 - Math.abs(u) - Math.abs(v);
+        if (z < 0) {
+            float fu = (1 - Math.abs(v)) * signNotZero(u);
+            float fv = (1 - Math.abs(u)) * signNotZero(v);
+            u = fu;
+            v = fv;
+        }
+        float length = (float) Math.sqrt(u * u + v * v + z * z);
+        decoded[offset] = u / length;
+        decoded[offset + 1] = v / length;
+        decoded[offset + 2] = z / length;
+    }
+
+    private static float signNotZero(float value) {
+        return value < 0 ? -1 : 1;
+    }
+
+    /**
+     * @return degrees between a source direction and a unit one.
+     */
+    private static float angle(float x, float y, float z, float[] unit) {
+        if (x == 0 && y == 0 && z == 0) {
+            return 0;
+        }
+        // From the cross and dot products, which stay accurate at small
+        // angles where acos doesn't
+        double cx = (double) y * unit[2] - (double) z * unit[1];
+        double cy = (double) z * unit[0] - (double) x * unit[2];
+        double cz = (double) x * unit[1] - (double) y * unit[0];
+        double dot = (double) x * unit[0] + (double) y * unit[1] + (double) z * unit[2];
+        return (float) Math.toDegrees(Math.atan2(Math.sqrt(cx * cx + cy * cy + cz * cz), dot));
+    }
+
+    private static float[] bounds(float[] positions, int count) {
+        float[] bounds = new float[] {
+                Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+                Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY,
+        };
+        if (count == 0) {
+            return new float[6];
+        }
+        for (int i = 0; i < count * 3; i++) {
+            int k = i % 3;
+            bounds[k] = Math.min(bounds[k], positions[i]);
+            bounds[k + 3] = Math.max(bounds[k + 3], positions[i]);
+        }
+        return bounds;
+    }
+
+    private static MeshFile.Attribute floatAttribute(MeshFile mesh, int semantic, int size) {
+        MeshFile.Attribute attribute = mesh.findAttribute(semantic);
+        if (attribute == null || attribute.type != MeshFile.TYPE_FLOAT || attribute.size != size
+                || attribute.offset % 4 != 0) {
+            throw new IllegalArgumentException("mesh needs " + size
+                    + " aligned floats of attribute " + semantic);
+        }
+        return attribute;
+    }
+
+    private static float checkBound(float bound) {
+        if (!(bound >= 0)) {
+            throw new IllegalArgumentException("error bounds must be at least 0");
+        }
+        return bound;
+    }
+}
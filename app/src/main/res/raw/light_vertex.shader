@@ -2,10 +2,32 @@ uniform mat4 u_Model;
 uniform mat4 u_MVP;
 uniform mat4 u_MVMatrix;
 uniform vec3 u_LightPos;
+uniform vec4 u_HighlightColor;
+uniform float u_Highlight;
+
+#ifdef QUANTIZED
+// Positions arrive as -1 to 1 across the mesh's bounding box
+uniform vec3 u_PositionScale;
+uniform vec3 u_PositionOffset;
+#endif
 
 attribute vec4 a_Position;
 attribute vec4 a_Color;
+#ifdef OCTAHEDRAL_NORMALS
+// Folded onto an octahedron, as VertexQuantizer packs them
+attribute vec2 a_Normal;
+#else
 attribute vec3 a_Normal;
+#endif
+
+#ifdef INSTANCED
+// Columns of each instance's model matrix, which the uniform matrices
+// then leave out
+attribute vec4 a_Model0;
+attribute vec4 a_Model1;
+attribute vec4 a_Model2;
+attribute vec4 a_Model3;
+#endif
 
 varying vec4 v_Color;
 varying vec3 v_Grid;
@@ -13,17 +35,44 @@ varying vec3 v_Grid;
 const float ONE = 1.0;
 const float COEFF = 0.00001;
 
+#ifdef OCTAHEDRAL_NORMALS
+vec3 decodeNormal(vec2 e) {
+   vec3 n = vec3(e, ONE - abs(e.x) - abs(e.y));
+   if (n.z < 0.0) {
+      n.xy = (ONE - abs(n.yx)) * sign(n.xy);
+   }
+   return normalize(n);
+}
+#endif
+
 void main() {
-   v_Grid = vec3(u_Model * a_Position);
+#ifdef QUANTIZED
+   vec4 position = vec4(a_Position.xyz * u_PositionScale + u_PositionOffset, ONE);
+#else
+   vec4 position = a_Position;
+#endif
+#ifdef OCTAHEDRAL_NORMALS
+   vec3 normal = decodeNormal(a_Normal);
+#else
+   vec3 normal = a_Normal;
+#endif
+#ifdef INSTANCED
+   mat4 model = mat4(a_Model0, a_Model1, a_Model2, a_Model3);
+   position = model * position;
+   // Instances are only rotated and uniformly scaled
+   normal = normalize(vec3(model * vec4(normal, 0.0)));
+#endif
+
+   v_Grid = vec3(u_Model * position);
 
-   vec3 modelViewVertex = vec3(u_MVMatrix * a_Position);
-   vec3 modelViewNormal = vec3(u_MVMatrix * vec4(a_Normal, 0.0));
+   vec3 modelViewVertex = vec3(u_MVMatrix * position);
+   vec3 modelViewNormal = vec3(u_MVMatrix * vec4(normal, 0.0));
 
    float distance = length(u_LightPos - modelViewVertex);
    vec3 lightVector = normalize(u_LightPos - modelViewVertex);
    float diffuse = max(dot(modelViewNormal, lightVector), 0.5);
 
    diffuse = diffuse * (ONE / (ONE + (COEFF * distance * distance)));
-   v_Color = a_Color * diffuse;
-   gl_Position = u_MVP * a_Position;
+   v_Color = mix(a_Color, u_HighlightColor, u_Highlight) * diffuse;
+   gl_Position = u_MVP * position;
 }
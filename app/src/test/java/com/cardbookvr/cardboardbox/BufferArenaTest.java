@@ -0,0 +1,193 @@
+package com.cardbookvr.cardboardbox;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BufferArenaTest {
+    @Test
+    public void blocksAreAlignedSlicesOfOneSlab() {
+        BufferArena arena = new BufferArena(1024, 16);
+        BufferArena.Block a = arena.allocate(12);
+        BufferArena.Block b = arena.allocate(100);
+        assertEquals(16, a.getSize());
+        assertEquals(112, b.getSize());
+        assertEquals(1, arena.getSlabCount());
+        assertEquals(1024, arena.getResidentBytes());
+        assertEquals(128, arena.getUsedBytes());
+        assertEquals(2, arena.getBlockCount());
+
+        // Each block sees only its own bytes
+        a.getFloatBuffer().put(new float[] { 1, 2, 3, 4 });
+        b.getFloatBuffer().put(0, 5);
+        assertEquals(4, a.getFloatBuffer().capacity());
+        assertEquals(4f, a.getFloatBuffer().get(3), 0f);
+        assertEquals(5f, b.getFloatBuffer().get(0), 0f);
+    }
+
+    @Test
+    public void freedSpaceIsReusedAndMerged() {
+        BufferArena arena = new BufferArena(1024, 16);
+        BufferArena.Block a = arena.allocate(256);
+        BufferArena.Block b = arena.allocate(256);
+        BufferArena.Block c = arena.allocate(256);
+        arena.free(a);
+        arena.free(c);
+        // Two holes: 256 at the start, 512 at the end
+        assertEquals(768, arena.getFreeBytes());
+        assertEquals(512, arena.getLargestFreeBlock());
+        assertEquals(1f / 3, arena.getFragmentation(), 1e-6f);
+
+        arena.free(b);
+        assertEquals(1024, arena.getLargestFreeBlock());
+        assertEquals(0f, arena.getFragmentation(), 0f);
+        assertEquals(0, arena.getBlockCount());
+
+        arena.allocate(1024);
+        assertEquals(1, arena.getSlabsAllocated());
+    }
+
+    @Test
+    public void fullArenaAddsSlabs() {
+        BufferArena arena = new BufferArena(1024, 16);
+        arena.allocate(1000);
+        arena.allocate(1000);
+        assertEquals(2, arena.getSlabCount());
+        assertEquals(2048, arena.getResidentBytes());
+    }
+
+    @Test
+    public void oversizedBlocksGetTheirOwnSlab() {
+        BufferArena arena = new BufferArena(1024, 16);
+        arena.allocate(100);
+        BufferArena.Block big = arena.allocate(5000);
+        assertEquals(5008, big.getSize());
+        assertEquals(1024 + 5008, arena.getResidentBytes());
+        arena.free(big);
+        assertEquals(1024, arena.getResidentBytes());
+        assertEquals(1, arena.getSlabCount());
+    }
+
+    @Test
+    public void defragmentPacksBlocksAndKeepsTheirData() {
+        BufferArena arena = new BufferArena(1024, 16);
+        List<BufferArena.Block> kept = new ArrayList<>();
+        List<BufferArena.Block> dropped = new ArrayList<>();
+        for (int i = 0; i < 24; i++) {
+            BufferArena.Block block = arena.allocate(160);
+            block.getFloatBuffer().put(0, i);
+            block.getFloatBuffer().put(39, -i);
+            (i % 3 == 0 ? kept : dropped).add(block);
+        }
+        for (BufferArena.Block block : dropped) {
+            arena.free(block);
+        }
+        // Every third block survives, scattered over 4 slabs
+        assertEquals(4, arena.getSlabCount());
+        assertTrue(arena.getFragmentation() > 0.5f);
+        int generation = arena.getGeneration();
+
+        long moved = arena.defragment();
+        assertTrue(moved > 0);
+        assertNotEquals(generation, arena.getGeneration());
+        assertEquals(2, arena.getSlabCount());
+        assertEquals(2048, arena.getResidentBytes());
+        // Six blocks fill the first slab but for 64 bytes, two start the second
+        assertEquals(1024 - 320, arena.getLargestFreeBlock());
+        assertEquals(64f / (2048 - 1280), arena.getFragmentation(), 1e-6f);
+        for (int i = 0; i < kept.size(); i++) {
+            FloatBuffer floats = kept.get(i).getFloatBuffer();
+            assertEquals(i * 3, floats.get(0), 0f);
+            assertEquals(-i * 3, floats.get(39), 0f);
+        }
+
+        // Already packed
+        assertEquals(0, arena.defragment());
+    }
+
+    @Test
+    public void defragmentReleasesAllButOneEmptySlab() {
+        BufferArena arena = new BufferArena(1024, 16);
+        List<BufferArena.Block> blocks = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            blocks.add(arena.allocate(1024));
+        }
+        for (BufferArena.Block block : blocks) {
+            arena.free(block);
+        }
+        arena.defragment();
+        assertEquals(1, arena.getSlabCount());
+        assertEquals(1024, arena.getLargestFreeBlock());
+    }
+
+    @Test
+    public void randomChurnKeepsEveryBlocksData() {
+        Random random = new Random(7);
+        BufferArena arena = new BufferArena(4096, 4);
+        List<BufferArena.Block> live = new ArrayList<>();
+        List<Integer> tags = new ArrayList<>();
+        for (int round = 0; round < 2000; round++) {
+            if (live.isEmpty() || random.nextInt(3) > 0) {
+                BufferArena.Block block = arena.allocate(4 + random.nextInt(2000));
+                int tag = random.nextInt();
+                fill(block, tag);
+                live.add(block);
+                tags.add(tag);
+            } else {
+                int i = random.nextInt(live.size());
+                arena.free(live.remove(i));
+                tags.remove(i);
+            }
+            if (round % 250 == 0) {
+                arena.defragment();
+            }
+        }
+        long used = 0;
+        for (int i = 0; i < live.size(); i++) {
+            check(live.get(i), tags.get(i));
+            used += live.get(i).getSize();
+        }
+        assertEquals(used, arena.getUsedBytes());
+        assertEquals(live.size(), arena.getBlockCount());
+        assertEquals(arena.getResidentBytes() - used, arena.getFreeBytes());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void freedBlocksCannotBeUsed() {
+        BufferArena arena = new BufferArena(1024, 16);
+        BufferArena.Block block = arena.allocate(16);
+        arena.free(block);
+        assertTrue(block.isFreed());
+        block.getByteBuffer();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void blocksCannotBeFreedTwice() {
+        BufferArena arena = new BufferArena(1024, 16);
+        BufferArena.Block block = arena.allocate(16);
+        arena.free(block);
+        arena.free(block);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAlignmentThatIsNotAPowerOfTwo() {
+        new BufferArena(1200, 12);
+    }
+
+    private static void fill(BufferArena.Block block, int tag) {
+        for (int i = 0; i < block.getSize(); i += 4) {
+            block.getByteBuffer().putInt(i, tag + i);
+        }
+    }
+
+    private static void check(BufferArena.Block block, int tag) {
+        for (int i = 0; i < block.getSize(); i += 4) {
+            assertEquals(tag + i, block.getByteBuffer().getInt(i));
+        }
+    }
+}
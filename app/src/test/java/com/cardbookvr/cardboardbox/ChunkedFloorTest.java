@@ -0,0 +1,192 @@
+package com.cardbookvr.cardboardbox;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class ChunkedFloorTest {
+    private static final float SIZE = 10f;
+    private static final int RESOLUTION = 8;
+    private static final float[] COLOR = { 0.0f, 0.34f, 0.90f, 1.0f };
+
+    /**
+     * Holds tasks until the test runs them, standing in for the workers.
+     */
+    private static class QueuedExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        int runAll() {
+            int count = tasks.size();
+            for (Runnable task : tasks) {
+                task.run();
+            }
+            tasks.clear();
+            return count;
+        }
+    }
+
+    private static FloorChunkGenerator generator() {
+        return new FloorChunkGenerator(new Terrain(7, 2f, 25f), SIZE, RESOLUTION, COLOR);
+    }
+
+    @Test
+    public void requestsEveryChunkAroundTheViewer() {
+        QueuedExecutor executor = new QueuedExecutor();
+        ChunkedFloor floor = new ChunkedFloor(generator(), executor, 1, 9);
+        floor.update(5f, 5f);
+        assertEquals(9, executor.tasks.size());
+        assertEquals(9, floor.getPendingCount());
+        assertEquals(0, floor.getVisibleCount());
+
+        // Nothing is requested twice while it is being generated
+        floor.update(6f, 4f);
+        assertEquals(9, executor.tasks.size());
+
+        executor.runAll();
+        floor.update(6f, 4f);
+        assertEquals(0, floor.getPendingCount());
+        assertEquals(9, floor.getResidentCount());
+        assertEquals(9, floor.getVisibleCount());
+        FloorChunk center = floor.getVisibleChunk(0);
+        assertEquals(0, center.getChunkX());
+        assertEquals(0, center.getChunkZ());
+        for (int z = -1; z <= 1; z++) {
+            for (int x = -1; x <= 1; x++) {
+                assertTrue(floor.isResident(x, z));
+            }
+        }
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedChunks() {
+        QueuedExecutor executor = new QueuedExecutor();
+        ChunkedFloor floor = new ChunkedFloor(generator(), executor, 1, 12);
+        floor.update(5f, 5f);
+        executor.runAll();
+        floor.update(5f, 5f);
+
+        // One chunk east brings in x = 2 and leaves x = -1 behind
+        floor.update(15f, 5f);
+        assertEquals(3, executor.runAll());
+        floor.update(15f, 5f);
+        assertEquals(12, floor.getResidentCount());
+        assertEquals(0, floor.getEvictionCount());
+
+        // Another chunk east evicts the column that went out of view first
+        floor.update(25f, 5f);
+        executor.runAll();
+        floor.update(25f, 5f);
+        assertEquals(12, floor.getResidentCount());
+        assertEquals(3, floor.getEvictionCount());
+        for (int z = -1; z <= 1; z++) {
+            assertFalse(floor.isResident(-1, z));
+            assertTrue(floor.isResident(0, z));
+            assertTrue(floor.isResident(3, z));
+        }
+    }
+
+    @Test
+    public void neverEvictsVisibleChunks() {
+        QueuedExecutor executor = new QueuedExecutor();
+        ChunkedFloor floor = new ChunkedFloor(generator(), executor, 2, 25);
+        // Wander around, including back over old ground
+        float[] path = { 0, 0, 30, 0, 30, 30, -20, 30, -20, -40, 0, 0, 55, 5 };
+        for (int i = 0; i < path.length; i += 2) {
+            floor.update(path[i], path[i + 1]);
+            executor.runAll();
+            floor.update(path[i], path[i + 1]);
+            assertTrue(floor.getResidentCount() <= 25);
+            assertEquals(25, floor.getVisibleCount());
+            int cx = (int) Math.floor(path[i] / SIZE);
+            int cz = (int) Math.floor(path[i + 1] / SIZE);
+            for (int z = cz - 2; z <= cz + 2; z++) {
+                for (int x = cx - 2; x <= cx + 2; x++) {
+                    assertTrue(floor.isResident(x, z));
+                }
+            }
+        }
+        assertTrue(floor.getEvictionCount() > 0);
+    }
+
+    @Test
+    public void reusesEvictedBuffers() {
+        QueuedExecutor executor = new QueuedExecutor();
+        ChunkedFloor floor = new ChunkedFloor(generator(), executor, 1, 9);
+        for (int step = 0; step < 20; step++) {
+            float x = step * SIZE + 5f;
+            floor.update(x, 5f);
+            executor.runAll();
+            floor.update(x, 5f);
+        }
+        // 9 to start with, then each step's 3 new chunks fill the
+        // buffers of the 3 evicted by the step before
+        assertEquals(9 + 19 * 3, floor.getGeneratedCount());
+        assertEquals(12, floor.getBuffersAllocated());
+    }
+
+    @Test
+    public void followsTheEyeOfAViewMatrix() {
+        QueuedExecutor executor = new QueuedExecutor();
+        ChunkedFloor floor = new ChunkedFloor(generator(), executor, 0, 1);
+        float[] view = new float[16];
+        Matrices.setLookAtM(view, 0, 35f, 1f, -12f, 35f, 1f, -20f, 0f, 1f, 0f);
+        floor.update(view);
+        executor.runAll();
+        floor.update(view);
+        assertEquals(1, floor.getVisibleCount());
+        assertEquals(3, floor.getVisibleChunk(0).getChunkX());
+        assertEquals(-2, floor.getVisibleChunk(0).getChunkZ());
+
+        float[] bounds = new float[6];
+        floor.getBounds(bounds);
+        assertArrayEquals(new float[] { 30f, -2f, -20f, 40f, 2f, -10f }, bounds, 0f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTooSmallACache() {
+        new ChunkedFloor(generator(), new QueuedExecutor(), 1, 8);
+    }
+
+    @Test
+    public void neighbouringChunksShareTheirEdge() {
+        FloorChunkGenerator generator = generator();
+        FloatBuffer west = generator.allocateVertexBuffer();
+        FloatBuffer east = generator.allocateVertexBuffer();
+        generator.generate(-1, 3, west);
+        generator.generate(0, 3, east);
+        int row = RESOLUTION + 1;
+        int stride = FloorChunkGenerator.STRIDE_FLOATS;
+        for (int z = 0; z < row; z++) {
+            int w = (z * row + RESOLUTION) * stride;
+            int e = z * row * stride;
+            for (int k = 0; k < 6; k++) {
+                assertEquals(west.get(w + k), east.get(e + k), 1e-5f);
+            }
+        }
+    }
+
+    @Test
+    public void normalsAreUnitLengthAndPointUp() {
+        FloorChunkGenerator generator = generator();
+        FloatBuffer vertices = generator.allocateVertexBuffer();
+        generator.generate(2, -5, vertices);
+        for (int v = 0; v < generator.getVertexCount(); v++) {
+            int o = v * FloorChunkGenerator.STRIDE_FLOATS + CompiledMesh.NORMAL_OFFSET;
+            float x = vertices.get(o), y = vertices.get(o + 1), z = vertices.get(o + 2);
+            assertEquals(1f, x * x + y * y + z * z, 1e-4f);
+            assertTrue(y > 0);
+            float height = vertices.get(v * FloorChunkGenerator.STRIDE_FLOATS + 1);
+            assertTrue(Math.abs(height) <= 2f);
+        }
+    }
+}
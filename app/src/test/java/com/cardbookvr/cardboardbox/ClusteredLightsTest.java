@@ -0,0 +1,200 @@
+package com.cardbookvr.cardboardbox;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class ClusteredLightsTest {
+    private static final float NEAR = 0.1f;
+    private static final float FAR = 100;
+
+    private static final float[] IDENTITY = {
+            1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1,
+    };
+
+    @Test
+    public void build_putsALightInTheClusterAtItsCentre() {
+        ClusteredLights lights = new ClusteredLights(8, 4, 16, 32, null);
+        int id = lights.addLight(1, -0.5f, -5, 0.25f, 1, 1, 1);
+        lights.build(IDENTITY, 0, FrustumCullerTest.perspective(90, 1, NEAR, FAR), 0, NEAR, FAR);
+
+        int cluster = lights.findCluster(1, -0.5f, -5);
+        assertTrue(cluster >= 0);
+        assertEquals(1, lights.getClusterLightCount(cluster));
+        assertEquals(id, lights.getClusterLight(cluster, 0));
+        // A small light touches a handful of clusters, not the frustum
+        assertTrue(lights.getAssignmentCount() < 20);
+        assertEquals(lights.getAssignmentCount(), lights.getOccupiedClusterCount());
+    }
+
+    @Test
+    public void build_neverMissesALitPoint() {
+        Random random = new Random(1);
+        float[] projection = offCentre();
+        float[] view = new float[16];
+        Matrices.setLookAtM(view, 0, 0.3f, 1.5f, 2, 0, 0, -10, 0, 1, 0);
+        ClusteredLights lights = new ClusteredLights(16, 8, 24,
+                ClusteredLights.MAX_LIGHTS_PER_CLUSTER, null);
+        for (int i = 0; i < 300; i++) {
+            lights.addLight((random.nextFloat() - 0.5f) * 40, (random.nextFloat() - 0.5f) * 20,
+                    -random.nextFloat() * 60, 0.2f + random.nextFloat() * 3, 1, 1, 1);
+        }
+        lights.build(view, 0, projection, 0, NEAR, FAR);
+        assertEquals(0, lights.getOverflowCount());
+
+        float[] eye = new float[3];
+        for (int sample = 0; sample < 20000; sample++) {
+            int id = random.nextInt(lights.getLightCount());
+            float[] centre = viewLight(lights, id);
+            float r = centre[3];
+            // A random point inside the light's sphere
+            float dx, dy, dz;
+            do {
+                dx = random.nextFloat() * 2 - 1;
+                dy = random.nextFloat() * 2 - 1;
+                dz = random.nextFloat() * 2 - 1;
+            } while (dx * dx + dy * dy + dz * dz > 1);
+            eye[0] = centre[0] + dx * r;
+            eye[1] = centre[1] + dy * r;
+            eye[2] = centre[2] + dz * r;
+            int cluster = lights.findCluster(eye[0], eye[1], eye[2]);
+            if (cluster < 0) {
+                continue;
+            }
+            assertTrue("light " + id + " missing from cluster " + cluster,
+                    contains(lights, cluster, id));
+        }
+    }
+
+    @Test
+    public void build_leavesOutLightsPastTheFrustum() {
+        ClusteredLights lights = new ClusteredLights(4, 4, 8, 16, null);
+        lights.addLight(0, 0, 5, 1, 1, 1, 1);
+        lights.addLight(0, 0, -200, 1, 1, 1, 1);
+        lights.addLight(50, 0, -5, 1, 1, 1, 1);
+        lights.build(IDENTITY, 0, FrustumCullerTest.perspective(90, 1, NEAR, FAR), 0, NEAR, FAR);
+        assertEquals(0, lights.getAssignmentCount());
+        assertEquals(0, lights.getOccupiedClusterCount());
+    }
+
+    @Test
+    public void build_lightsEveryClusterFromInsideALight() {
+        ClusteredLights lights = new ClusteredLights(4, 2, 6, 16, null);
+        lights.addLight(0, 0, 0, 2 * FAR, 1, 1, 1);
+        lights.build(IDENTITY, 0, FrustumCullerTest.perspective(90, 1, NEAR, FAR), 0, NEAR, FAR);
+        assertEquals(lights.getClusterCount(), lights.getOccupiedClusterCount());
+    }
+
+    @Test
+    public void build_countsLightsLeftOutOfFullClusters() {
+        ClusteredLights lights = new ClusteredLights(1, 1, 1, 2, null);
+        for (int i = 0; i < 5; i++) {
+            lights.addLight(0, 0, -5, 1, 1, 1, 1);
+        }
+        lights.build(IDENTITY, 0, FrustumCullerTest.perspective(90, 1, NEAR, FAR), 0, NEAR, FAR);
+        assertEquals(2, lights.getClusterLightCount(0));
+        assertEquals(0, lights.getClusterLight(0, 0));
+        assertEquals(1, lights.getClusterLight(0, 1));
+        assertEquals(2, lights.getAssignmentCount());
+        assertEquals(3, lights.getOverflowCount());
+    }
+
+    @Test
+    public void getPackedIndices_matchesTheClusterLists() {
+        ClusteredLights lights = randomLights(null, 200);
+        ByteBuffer packed = lights.getPackedIndices();
+        int clusters = lights.getClusterCount();
+        assertEquals(clusters * 4 + lights.getAssignmentCount() * 2, packed.remaining());
+        assertEquals(lights.getPackedBytes(), packed.remaining());
+
+        int expectedOffset = 0;
+        for (int c = 0; c < clusters; c++) {
+            int header = packed.getInt(c * 4);
+            int count = header & 0xff;
+            int offset = header >>> 8;
+            assertEquals(lights.getClusterLightCount(c), count);
+            assertEquals(expectedOffset, offset);
+            for (int i = 0; i < count; i++) {
+                int light = packed.getShort(clusters * 4 + (offset + i) * 2) & 0xffff;
+                assertEquals(lights.getClusterLight(c, i), light);
+            }
+            expectedOffset += count;
+        }
+        assertEquals(200 * ClusteredLights.LIGHT_FLOATS, lights.getPackedLights().remaining());
+    }
+
+    @Test
+    public void build_parallelMatchesSequential() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ClusteredLights sequential = randomLights(null, 500);
+            ClusteredLights parallel = randomLights(pool, 500);
+            assertEquals(sequential.getAssignmentCount(), parallel.getAssignmentCount());
+            assertEquals(sequential.getOverflowCount(), parallel.getOverflowCount());
+            assertEquals(sequential.getPackedIndices(), parallel.getPackedIndices());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsTooManyLightsPerCluster() {
+        new ClusteredLights(4, 4, 4, ClusteredLights.MAX_LIGHTS_PER_CLUSTER + 1, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void build_rejectsABadDepthRange() {
+        ClusteredLights lights = new ClusteredLights(4, 4, 4, 16, null);
+        lights.build(IDENTITY, 0, FrustumCullerTest.perspective(90, 1, NEAR, FAR), 0, FAR, NEAR);
+    }
+
+    private static ClusteredLights randomLights(ForkJoinPool pool, int count) {
+        Random random = new Random(7);
+        ClusteredLights lights = new ClusteredLights(16, 8, 24, 32, pool);
+        for (int i = 0; i < count; i++) {
+            lights.addLight((random.nextFloat() - 0.5f) * 40, (random.nextFloat() - 0.5f) * 20,
+                    -random.nextFloat() * 60, 0.5f + random.nextFloat() * 4,
+                    random.nextFloat(), random.nextFloat(), random.nextFloat());
+        }
+        lights.build(IDENTITY, 0, offCentre(), 0, NEAR, FAR);
+        return lights;
+    }
+
+    /**
+     * A Cardboard-like eye: wider towards the nose than away from it.
+     */
+    private static float[] offCentre() {
+        float left = -0.06f, right = 0.1f, bottom = -0.08f, top = 0.08f;
+        float[] m = new float[16];
+        m[0] = 2 * NEAR / (right - left);
+        m[5] = 2 * NEAR / (top - bottom);
+        m[8] = (right + left) / (right - left);
+        m[9] = (top + bottom) / (top - bottom);
+        m[10] = (FAR + NEAR) / (NEAR - FAR);
+        m[11] = -1;
+        m[14] = 2 * FAR * NEAR / (NEAR - FAR);
+        return m;
+    }
+
+    private static float[] viewLight(ClusteredLights lights, int id) {
+        float[] light = new float[ClusteredLights.LIGHT_FLOATS];
+        FloatBuffer packed = lights.getPackedLights();
+        packed.position(id * ClusteredLights.LIGHT_FLOATS);
+        packed.get(light);
+        return light;
+    }
+
+    private static boolean contains(ClusteredLights lights, int cluster, int id) {
+        for (int i = 0; i < lights.getClusterLightCount(cluster); i++) {
+            if (lights.getClusterLight(cluster, i) == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,111 @@
+package com.cardbookvr.cardboardbox;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class CommandListTest {
+    @Test
+    public void replay_makesTheCallsInOrder() {
+        CommandList commands = new CommandList();
+        FloatBuffer vertices = FloatBuffer.allocate(64);
+        ShortBuffer indices = ShortBuffer.allocate(36);
+        commands.glClear(GlBackend.GL_COLOR_BUFFER_BIT);
+        commands.glUseProgram(3);
+        commands.glUniform1f(5, 0.5f);
+        commands.glVertexAttribPointer(1, 3, GlBackend.GL_FLOAT, false, 40, vertices, 0);
+        commands.glVertexAttribPointer(2, 4, GlBackend.GL_FLOAT, false, 40, vertices, 6);
+        commands.glDrawElements(GlBackend.GL_TRIANGLES, 36, GlBackend.GL_UNSIGNED_SHORT,
+                indices, 0);
+        commands.glVertexAttribDivisor(2, 1);
+        commands.glDrawElementsInstanced(GlBackend.GL_TRIANGLES, 36,
+                GlBackend.GL_UNSIGNED_SHORT, indices, 0, 8);
+        commands.glDrawArrays(GlBackend.GL_TRIANGLES, 0, 3);
+        assertEquals(9, commands.size());
+
+        RecordingGlBackend gl = new RecordingGlBackend();
+        commands.replay(gl);
+        assertEquals(Arrays.asList("clear " + GlBackend.GL_COLOR_BUFFER_BIT, "useProgram 3",
+                "uniform1f 5 0.5", "vertexAttribPointer 1 3 40 @0",
+                "vertexAttribPointer 2 4 40 @6", "drawElements 36", "vertexAttribDivisor 2 1",
+                "drawElementsInstanced 36 x8", "drawArrays 3"), gl.take());
+
+        // Kept until cleared
+        commands.replay(gl);
+        assertEquals(9, gl.take().size());
+        commands.clear();
+        commands.replay(gl);
+        assertEquals(0, commands.size());
+        assertTrue(gl.take().isEmpty());
+    }
+
+    @Test
+    public void record_leavesBufferPositionsAlone() {
+        CommandList commands = new CommandList();
+        FloatBuffer vertices = FloatBuffer.allocate(64);
+        vertices.position(10);
+        commands.glVertexAttribPointer(1, 3, GlBackend.GL_FLOAT, false, 40, vertices, 4);
+        assertEquals(10, vertices.position());
+
+        RecordingGlBackend gl = new RecordingGlBackend();
+        commands.replay(gl);
+        assertEquals(Arrays.asList("vertexAttribPointer 1 3 40 @4"), gl.take());
+    }
+
+    @Test
+    public void record_copiesUniformValues() {
+        final float[][] seen = new float[2][];
+        RecordingGlBackend gl = new RecordingGlBackend() {
+            @Override
+            public void glUniform3fv(int location, int count, float[] v, int offset) {
+                seen[0] = Arrays.copyOfRange(v, offset, offset + count * 3);
+            }
+
+            @Override
+            public void glUniformMatrix4fv(int location, int count, boolean transpose,
+                                           float[] value, int offset) {
+                assertTrue(transpose);
+                seen[1] = Arrays.copyOfRange(value, offset, offset + count * 16);
+            }
+        };
+        CommandList commands = new CommandList(1);
+        float[] light = { 1, 2, 3 };
+        float[] matrix = new float[20];
+        Matrices.setIdentityM(matrix, 4);
+        commands.glUniform3fv(7, 1, light, 0);
+        commands.glUniformMatrix4fv(8, 1, true, matrix, 4);
+        light[0] = 9;
+        matrix[4] = 9;
+
+        commands.replay(gl);
+        assertArrayEquals(new float[] { 1, 2, 3 }, seen[0], 0);
+        float[] identity = new float[16];
+        Matrices.setIdentityM(identity, 0);
+        assertArrayEquals(identity, seen[1], 0);
+    }
+
+    @Test
+    public void record_growsPastTheInitialSize() {
+        CommandList commands = new CommandList(1);
+        float[] matrix = new float[16];
+        FloatBuffer vertices = FloatBuffer.allocate(4);
+        for (int i = 0; i < 100; i++) {
+            commands.glUniformMatrix4fv(i, 1, false, matrix, 0);
+            commands.glVertexAttribPointer(0, 4, GlBackend.GL_FLOAT, false, 0, vertices, i % 4);
+        }
+        assertEquals(200, commands.size());
+
+        RecordingGlBackend gl = new RecordingGlBackend();
+        commands.replay(gl);
+        assertEquals(200, gl.take().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsEmptyStorage() {
+        new CommandList(0);
+    }
+}
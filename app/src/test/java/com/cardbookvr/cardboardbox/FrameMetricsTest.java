@@ -0,0 +1,54 @@
+package com.cardbookvr.cardboardbox;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameMetricsTest {
+    private static final long BUDGET = 16666667L;
+
+    @Test
+    public void frameStarted_countsSkippedVsyncs() throws Exception {
+        FrameMetrics metrics = new FrameMetrics(BUDGET);
+        long now = 1000;
+        metrics.frameStarted(now);
+        now += BUDGET;
+        metrics.frameStarted(now);
+        now += BUDGET + BUDGET / 3;
+        metrics.frameStarted(now);
+        assertEquals(0, metrics.getDroppedFrames());
+
+        // Two and three budgets mean one and two missed vsyncs
+        now += 2 * BUDGET;
+        metrics.frameStarted(now);
+        now += 3 * BUDGET;
+        metrics.frameStarted(now);
+
+        assertEquals(5, metrics.getFrameCount());
+        assertEquals(3, metrics.getDroppedFrames());
+        assertEquals(4, metrics.snapshot(FrameMetrics.STAGE_FRAME_INTERVAL).getCount());
+    }
+
+    @Test
+    public void frameStarted_ignoresPauses() throws Exception {
+        FrameMetrics metrics = new FrameMetrics(BUDGET);
+        metrics.frameStarted(1000);
+        metrics.frameStarted(1000 + 5000000000L);
+
+        assertEquals(0, metrics.getDroppedFrames());
+    }
+
+    @Test
+    public void end_recordsIntoStage() throws Exception {
+        FrameMetrics metrics = new FrameMetrics(BUDGET);
+        long start = metrics.begin();
+        metrics.end(FrameMetrics.eyeStage(2), start);
+        metrics.record(FrameMetrics.STAGE_NEW_FRAME, 12345);
+
+        assertEquals(1, metrics.snapshot(FrameMetrics.eyeStage(2)).getCount());
+        assertEquals(0, metrics.snapshot(FrameMetrics.eyeStage(1)).getCount());
+        assertEquals(12345, metrics.snapshot(FrameMetrics.STAGE_NEW_FRAME).getMax());
+        assertEquals("onDrawEye(right)", FrameMetrics.getStageName(FrameMetrics.eyeStage(2)));
+        assertTrue(metrics.toString().contains("onNewFrame"));
+    }
+}
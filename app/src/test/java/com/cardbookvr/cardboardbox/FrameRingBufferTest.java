@@ -0,0 +1,53 @@
+package com.cardbookvr.cardboardbox;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameRingBufferTest {
+    @Test
+    public void allocatesAlignedSpaceWithinTheFramesRegion() {
+        FrameRingBuffer ring = new FrameRingBuffer(256, 3, 16);
+        ring.beginFrame(0);
+        assertEquals(0, ring.allocate(10));
+        assertEquals(16, ring.allocate(64));
+        assertEquals(80, ring.getUsedBytes());
+
+        ring.beginFrame(1);
+        assertEquals(256, ring.allocate(4));
+        ring.beginFrame(5);
+        assertEquals(512, ring.allocate(4));
+        assertEquals(768, ring.getResidentBytes());
+    }
+
+    @Test
+    public void framesInFlightKeepTheirData() {
+        FrameRingBuffer ring = new FrameRingBuffer(64, 2, 4);
+        ring.beginFrame(0);
+        int first = ring.allocate(4);
+        ring.getFloatBuffer().put(first / 4, 1);
+        ring.beginFrame(1);
+        int second = ring.allocate(4);
+        ring.getFloatBuffer().put(second / 4, 2);
+        assertEquals(1f, ring.getFloatBuffer().get(first / 4), 0f);
+
+        // Frame 2 reuses frame 0's region
+        ring.beginFrame(2);
+        assertEquals(first, ring.allocate(4));
+    }
+
+    @Test
+    public void reportsOverflowInsteadOfSpilling() {
+        FrameRingBuffer ring = new FrameRingBuffer(64, 2, 4);
+        ring.beginFrame(0);
+        assertEquals(0, ring.allocate(48));
+        assertEquals(-1, ring.allocate(20));
+        assertEquals(1, ring.getOverflowCount());
+        assertEquals(48, ring.allocate(16));
+        assertEquals(64, ring.getPeakBytes());
+
+        ring.beginFrame(1);
+        assertEquals(0, ring.getUsedBytes());
+        assertEquals(64, ring.getPeakBytes());
+    }
+}
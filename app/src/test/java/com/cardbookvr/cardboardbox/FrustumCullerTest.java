@@ -0,0 +1,223 @@
+package com.cardbookvr.cardboardbox;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class FrustumCullerTest {
+    private static final float EPSILON = 1e-4f;
+
+    @Test
+    public void extractPlanes_measuresDistanceInsideTheFrustum() {
+        float[] planes = new float[FrustumCuller.PLANE_FLOATS];
+        FrustumCuller.extractPlanes(perspective(90, 1, 0.1f, 100), 0, planes, 0);
+
+        for (int p = 0; p < FrustumCuller.PLANE_FLOATS; p += 4) {
+            assertEquals(1, planes[p] * planes[p] + planes[p + 1] * planes[p + 1]
+                    + planes[p + 2] * planes[p + 2], EPSILON);
+            assertTrue(distance(planes, p, 0, 0, -5) > 0);
+        }
+        // Near and far
+        assertEquals(4.9f, distance(planes, 16, 0, 0, -5), EPSILON);
+        assertEquals(95f, distance(planes, 20, 0, 0, -5), 1e-2f);
+        // 45 degrees either side: left and right meet x = +-5 at z = -5
+        assertEquals(0, distance(planes, 0, -5, 0, -5), EPSILON);
+        assertTrue(distance(planes, 0, -6, 0, -5) < 0);
+        assertTrue(distance(planes, 4, 6, 0, -5) < 0);
+        assertTrue(distance(planes, 12, 0, 6, -5) < 0);
+    }
+
+    @Test
+    public void cull_dropsWhatNeitherEyeSees() {
+        FrustumCuller culler = stereo(new FrustumCuller(4, null), 0.064f, 0, 0);
+        culler.setBounds(0, box(0, 0, -5, 0.5f), 0);
+        culler.setBounds(1, box(0, 0, 5, 0.5f), 0);
+        culler.setBounds(2, box(0, 0, -150, 0.5f), 0);
+        culler.setBounds(3, box(-40, 0, -5, 0.5f), 0);
+
+        assertEquals(1, culler.cull());
+        assertEquals(FrustumCuller.VISIBLE_BOTH, culler.getVisibility(0));
+        assertEquals(FrustumCuller.VISIBLE_NONE, culler.getVisibility(1));
+        assertEquals(FrustumCuller.VISIBLE_NONE, culler.getVisibility(2));
+        assertEquals(FrustumCuller.VISIBLE_NONE, culler.getVisibility(3));
+        assertEquals(0, culler.getEdgeCount());
+    }
+
+    @Test
+    public void cull_testsEachEyeAtTheEdges() {
+        // Eyes 2 apart: at z = -5 the left one sees x in [-6, 4], the right
+        // [-4, 6], and the union [-6, 6]
+        FrustumCuller culler = stereo(new FrustumCuller(3, null), 2, 0, 0);
+        culler.setBounds(0, box(-6, 0, -5, 0.1f), 0);
+        culler.setBounds(1, box(6, 0, -5, 0.1f), 0);
+        // Well inside the union counts for both, though only the left eye sees it
+        culler.setBounds(2, box(-5.5f, 0, -5, 0.1f), 0);
+
+        assertEquals(3, culler.cull());
+        assertEquals(FrustumCuller.VISIBLE_LEFT, culler.getVisibility(0));
+        assertEquals(FrustumCuller.VISIBLE_RIGHT, culler.getVisibility(1));
+        assertEquals(FrustumCuller.VISIBLE_BOTH, culler.getVisibility(2));
+        assertTrue(culler.isVisible(0, FrustumCuller.EYE_LEFT));
+        assertFalse(culler.isVisible(0, FrustumCuller.EYE_RIGHT));
+        assertEquals(2, culler.getVisibleCount(FrustumCuller.EYE_LEFT));
+        assertEquals(2, culler.getEdgeCount());
+    }
+
+    @Test
+    public void cull_neverMissesWhatAnEyeSees() {
+        Random random = new Random(3);
+        FrustumCuller culler = stereo(new FrustumCuller(16, null), 0.064f, 0.7f, -0.3f);
+        float[][] eyes = eyePlanes(0.064f, 0.7f, -0.3f);
+        float[][] boxes = randomBoxes(random, 5000);
+        for (int i = 0; i < boxes.length; i++) {
+            culler.setBounds(i, boxes[i], 0);
+        }
+        int visible = culler.cull();
+
+        int expectedLeft = 0;
+        int exact = 0;
+        for (int i = 0; i < boxes.length; i++) {
+            int mask = (FrustumCuller.intersectsBox(eyes[0], 0, boxes[i], 0) ? 1 : 0)
+                    | (FrustumCuller.intersectsBox(eyes[1], 0, boxes[i], 0) ? 2 : 0);
+            assertEquals("object " + i, 0, mask & ~culler.getVisibility(i));
+            expectedLeft += culler.getVisibility(i) & FrustumCuller.VISIBLE_LEFT;
+            exact += mask != 0 ? 1 : 0;
+        }
+        assertEquals(expectedLeft, culler.getVisibleCount(FrustumCuller.EYE_LEFT));
+        // Conservative, but not by much, and most settled by the union alone
+        assertTrue(visible >= exact && visible < exact * 1.2f);
+        assertTrue(culler.getEdgeCount() < boxes.length / 5);
+    }
+
+    @Test
+    public void unionPlanesContainBothFrusta() {
+        Random random = new Random(4);
+        FrustumCuller culler = stereo(new FrustumCuller(1, null), 0.5f, -0.4f, 0.2f);
+        culler.setBounds(0, box(0, 0, 0, 1), 0);
+        culler.cull();
+        float[] union = new float[FrustumCuller.PLANE_FLOATS];
+        culler.getUnionPlanes(union, 0);
+        float[][] eyes = eyePlanes(0.5f, -0.4f, 0.2f);
+
+        for (int i = 0; i < 100000; i++) {
+            float x = random.nextFloat() * 200 - 100;
+            float y = random.nextFloat() * 200 - 100;
+            float z = random.nextFloat() * 200 - 100;
+            if (inside(eyes[0], x, y, z) || inside(eyes[1], x, y, z)) {
+                for (int p = 0; p < FrustumCuller.PLANE_FLOATS; p += 4) {
+                    assertTrue(distance(union, p, x, y, z) > -EPSILON * 100);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void parallelCullMatchesSequential() {
+        Random random = new Random(5);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            FrustumCuller sequential = stereo(new FrustumCuller(16, null), 0.064f, 2, 0.1f);
+            FrustumCuller parallel = stereo(new FrustumCuller(16, pool), 0.064f, 2, 0.1f);
+            float[][] boxes = randomBoxes(random, 5 * FrustumCuller.PARALLEL_THRESHOLD);
+            for (int i = 0; i < boxes.length; i++) {
+                sequential.setBounds(i, boxes[i], 0);
+                parallel.setBounds(i, boxes[i], 0);
+            }
+            assertEquals(sequential.cull(), parallel.cull());
+            for (int i = 0; i < boxes.length; i++) {
+                assertEquals(sequential.getVisibility(i), parallel.getVisibility(i));
+            }
+            assertEquals(sequential.getEdgeCount(), parallel.getEdgeCount());
+            assertEquals(sequential.getVisibleCount(FrustumCuller.EYE_RIGHT),
+                    parallel.getVisibleCount(FrustumCuller.EYE_RIGHT));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void setBounds_transformsTheLocalBox() {
+        FrustumCuller culler = new FrustumCuller(1, null);
+        float[] r = new float[16];
+        Matrices.setRotateM(r, 0, 90, 0, 1, 0);
+        float[] model = MatricesTest.multiply(GazePickerTest.translation(10, 0, 0), r);
+        culler.setBounds(2, new float[] { -1, -2, -3, 1, 2, 5 }, model, 0);
+
+        float[] bounds = new float[6];
+        culler.getBounds(2, bounds, 0);
+        assertArrayEquals(new float[] { 7, -2, -1, 15, 2, 1 }, bounds, EPSILON);
+        assertEquals(3, culler.getObjectCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void cull_needsBothEyes() {
+        FrustumCuller culler = new FrustumCuller(1, null);
+        culler.setFrustum(FrustumCuller.EYE_LEFT, perspective(90, 1, 0.1f, 100), 0);
+        culler.cull();
+    }
+
+    /**
+     * Set both eyes of a head turned by yaw and pitch, the eyes ipd apart.
+     */
+    private static FrustumCuller stereo(FrustumCuller culler, float ipd, float yaw,
+                                        float pitch) {
+        float[] head = GazePickerTest.headView(yaw, pitch);
+        float[] projection = perspective(90, 1, 0.1f, 100);
+        culler.setFrustum(FrustumCuller.EYE_LEFT, MatricesTest.multiply(projection,
+                MatricesTest.multiply(GazePickerTest.translation(ipd / 2, 0, 0), head)), 0);
+        culler.setFrustum(FrustumCuller.EYE_RIGHT, MatricesTest.multiply(projection,
+                MatricesTest.multiply(GazePickerTest.translation(-ipd / 2, 0, 0), head)), 0);
+        return culler;
+    }
+
+    private static float[][] eyePlanes(float ipd, float yaw, float pitch) {
+        float[] head = GazePickerTest.headView(yaw, pitch);
+        float[] projection = perspective(90, 1, 0.1f, 100);
+        float[][] planes = new float[2][FrustumCuller.PLANE_FLOATS];
+        FrustumCuller.extractPlanes(MatricesTest.multiply(projection, MatricesTest.multiply(
+                GazePickerTest.translation(ipd / 2, 0, 0), head)), 0, planes[0], 0);
+        FrustumCuller.extractPlanes(MatricesTest.multiply(projection, MatricesTest.multiply(
+                GazePickerTest.translation(-ipd / 2, 0, 0), head)), 0, planes[1], 0);
+        return planes;
+    }
+
+    private static float[][] randomBoxes(Random random, int count) {
+        float[][] boxes = new float[count][];
+        for (int i = 0; i < count; i++) {
+            boxes[i] = box(random.nextFloat() * 240 - 120, random.nextFloat() * 240 - 120,
+                    random.nextFloat() * 240 - 120, random.nextFloat() * 3);
+        }
+        return boxes;
+    }
+
+    private static float[] box(float x, float y, float z, float half) {
+        return new float[] { x - half, y - half, z - half, x + half, y + half, z + half };
+    }
+
+    private static boolean inside(float[] planes, float x, float y, float z) {
+        for (int p = 0; p < FrustumCuller.PLANE_FLOATS; p += 4) {
+            if (distance(planes, p, x, y, z) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static float distance(float[] planes, int p, float x, float y, float z) {
+        return planes[p] * x + planes[p + 1] * y + planes[p + 2] * z + planes[p + 3];
+    }
+
+    static float[] perspective(float fovy, float aspect, float near, float far) {
+        float f = 1 / (float) Math.tan(Math.toRadians(fovy) / 2);
+        float[] m = new float[16];
+        m[0] = f / aspect;
+        m[5] = f;
+        m[10] = (far + near) / (near - far);
+        m[11] = -1;
+        m[14] = 2 * far * near / (near - far);
+        return m;
+    }
+}
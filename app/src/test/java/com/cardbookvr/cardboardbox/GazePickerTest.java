@@ -0,0 +1,210 @@
+package com.cardbookvr.cardboardbox;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class GazePickerTest {
+    private static final float YAW_LIMIT = 0.12f;
+    private static final float PITCH_LIMIT = 0.12f;
+
+    @Test
+    public void pick_returnsNearestHit() throws Exception {
+        GazePicker picker = new GazePicker(2);
+        picker.setBounds(0, -1, -1, -11, 1, 1, -9);
+        picker.setBounds(1, -1, -1, -6, 1, 1, -4);
+        picker.build();
+
+        assertEquals(1, picker.pick(headView(0, 0)));
+        assertEquals(4f, picker.getHitDistance(), 1e-5f);
+    }
+
+    @Test
+    public void pick_missReturnsNoHit() throws Exception {
+        GazePicker picker = new GazePicker(1);
+        picker.setBounds(0, -1, -1, -6, 1, 1, -4);
+        picker.build();
+
+        // Looking straight back, away from the box
+        assertEquals(GazePicker.NO_HIT, picker.pick(headView((float) Math.PI, 0)));
+        assertEquals(GazePicker.NO_HIT, picker.pick(headView(0.5f, 0)));
+    }
+
+    @Test
+    public void pick_neverHitsIdsWithoutBounds() throws Exception {
+        GazePicker picker = new GazePicker(3);
+        picker.setBounds(2, 10, 10, 10, 11, 11, 11);
+        picker.build();
+
+        // Ids 0 and 1 were never set, and the ray starts at the origin
+        assertEquals(GazePicker.NO_HIT, picker.pick(headView(0, 0)));
+        assertEquals(GazePicker.NO_HIT, picker.pick(0, 0, 0, 1, 0, 0));
+    }
+
+    @Test
+    public void setSphere_picksTheSphereNotItsBox() throws Exception {
+        GazePicker picker = new GazePicker(1);
+        picker.setSphere(0, 0, 0, -10, 2);
+        picker.build();
+
+        assertEquals(0, picker.pick(headView(0, 0)));
+        assertEquals(8f, picker.getHitDistance(), 1e-5f);
+        assertEquals(0, picker.pick(1, 0, 0, 0, 0, -1));
+        assertEquals(10 - (float) Math.sqrt(3), picker.getHitDistance(), 1e-5f);
+        // Through the box's corner, past the sphere
+        assertEquals(GazePicker.NO_HIT, picker.pick(1.8f, 1.8f, 0, 0, 0, -1));
+        // Facing away, and from inside
+        assertEquals(GazePicker.NO_HIT, picker.pick(0, 0, 0, 0, 0, 1));
+        assertEquals(0, picker.pick(0, 0, -9, 0, 0, 1));
+        assertEquals(0f, picker.getHitDistance(), 0f);
+    }
+
+    @Test
+    public void pick_agreesWithPitchYawCheck() throws Exception {
+        // A cube at cubeDistance, sized so its face spans the pitch/yaw limits
+        float distance = 5f;
+        float half = (float) (distance * Math.tan(PITCH_LIMIT));
+        float[] model = translation(0, 0, -distance);
+        GazePicker picker = new GazePicker(1);
+        picker.setBounds(0, new float[]{-half, -half, -half, half, half, half}, model);
+        picker.build();
+
+        Random random = new Random(42);
+        int compared = 0;
+        for (int i = 0; i < 10000; i++) {
+            float yaw = (random.nextFloat() - 0.5f);
+            float pitch = (random.nextFloat() - 0.5f);
+            float[] headView = headView(yaw, pitch);
+
+            float[] objPosition = multiply(headView, new float[]{model[12], model[13], model[14], 1});
+            float objPitch = (float) Math.atan2(objPosition[1], -objPosition[2]);
+            float objYaw = (float) Math.atan2(objPosition[0], -objPosition[2]);
+            boolean looking = Math.abs(objPitch) < PITCH_LIMIT && Math.abs(objYaw) < YAW_LIMIT;
+
+            // Only compare away from the edge, where the two shapes differ
+            float angle = Math.max(Math.abs(objPitch), Math.abs(objYaw));
+            if (angle < PITCH_LIMIT / 2 || angle > PITCH_LIMIT * 2) {
+                assertEquals("yaw " + yaw + " pitch " + pitch, looking, picker.pick(headView) == 0);
+                compared++;
+            }
+        }
+        assertTrue(compared > 1000);
+    }
+
+    @Test
+    public void pick_matchesBruteForce() throws Exception {
+        Random random = new Random(7);
+        int count = 2000;
+        float[] bounds = new float[count * 6];
+        GazePicker picker = new GazePicker(count);
+        for (int i = 0; i < count; i++) {
+            float x = (random.nextFloat() - 0.5f) * 100;
+            float y = (random.nextFloat() - 0.5f) * 100;
+            float z = (random.nextFloat() - 0.5f) * 100;
+            float s = random.nextFloat() * 2 + 0.1f;
+            float[] b = {x - s, y - s, z - s, x + s, y + s, z + s};
+            System.arraycopy(b, 0, bounds, i * 6, 6);
+            picker.setBounds(i, b[0], b[1], b[2], b[3], b[4], b[5]);
+        }
+        picker.build();
+
+        for (int r = 0; r < 500; r++) {
+            float[] headView = headView(random.nextFloat() * 6.28f, (random.nextFloat() - 0.5f) * 3f);
+            int expected = GazePicker.NO_HIT;
+            float nearest = Float.POSITIVE_INFINITY;
+            for (int i = 0; i < count; i++) {
+                float t = slab(bounds, i * 6, -headView[2], -headView[6], -headView[10]);
+                if (t < nearest) {
+                    nearest = t;
+                    expected = i;
+                }
+            }
+            int hit = picker.pick(headView);
+            if (hit != expected) {
+                // Ties between touching boxes may resolve either way
+                assertEquals(nearest, picker.getHitDistance(), 1e-4f);
+            }
+        }
+    }
+
+    @Test
+    public void refit_tracksMovedObjects() throws Exception {
+        GazePicker picker = new GazePicker(8);
+        for (int i = 0; i < 8; i++) {
+            picker.setBounds(i, 10 + i, 0, 0, 11 + i, 1, 1);
+        }
+        picker.build();
+        assertEquals(GazePicker.NO_HIT, picker.pick(headView(0, 0)));
+
+        picker.setBounds(5, -1, -1, -3, 1, 1, -2);
+        picker.refit();
+        assertEquals(5, picker.pick(headView(0, 0)));
+    }
+
+    @Test
+    public void setBounds_transformsBox() throws Exception {
+        GazePicker picker = new GazePicker(1);
+        // 90 degrees around Y swaps the x and z extents
+        float[] transform = {
+                0, 0, -1, 0,
+                0, 1, 0, 0,
+                1, 0, 0, 0,
+                0, 0, -10, 1,
+        };
+        picker.setBounds(0, new float[]{-3, -1, -1, 3, 1, 1}, transform);
+        picker.build();
+
+        assertEquals(0, picker.pick(headView(0, 0)));
+        assertEquals(7f, picker.getHitDistance(), 1e-5f);
+    }
+
+    /**
+     * World to head transform for a head turned by yaw (around Y) then pitch (around X).
+     */
+    static float[] headView(float yaw, float pitch) {
+        float cy = (float) Math.cos(yaw), sy = (float) Math.sin(yaw);
+        float cp = (float) Math.cos(pitch), sp = (float) Math.sin(pitch);
+        // Head to world rotation R = Ry(yaw) * Rx(pitch), column-major
+        float[] r = {
+                cy, 0, -sy, 0,
+                sy * sp, cp, cy * sp, 0,
+                sy * cp, -sp, cy * cp, 0,
+                0, 0, 0, 1,
+        };
+        // The head view is the inverse, which for a rotation is the transpose
+        float[] view = new float[16];
+        for (int col = 0; col < 4; col++) {
+            for (int row = 0; row < 4; row++) {
+                view[col * 4 + row] = r[row * 4 + col];
+            }
+        }
+        return view;
+    }
+
+    static float[] translation(float x, float y, float z) {
+        return new float[]{1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, x, y, z, 1};
+    }
+
+    static float[] multiply(float[] m, float[] v) {
+        float[] result = new float[4];
+        for (int row = 0; row < 4; row++) {
+            for (int k = 0; k < 4; k++) {
+                result[row] += m[k * 4 + row] * v[k];
+            }
+        }
+        return result;
+    }
+
+    private static float slab(float[] b, int o, float dx, float dy, float dz) {
+        float tNear = Float.NEGATIVE_INFINITY, tFar = Float.POSITIVE_INFINITY;
+        float[] d = {dx, dy, dz};
+        for (int k = 0; k < 3; k++) {
+            float t1 = b[o + k] / d[k], t2 = b[o + k + 3] / d[k];
+            tNear = Math.max(tNear, Math.min(t1, t2));
+            tFar = Math.min(tFar, Math.max(t1, t2));
+        }
+        return (tFar < 0 || tNear > tFar) ? Float.POSITIVE_INFINITY : Math.max(tNear, 0);
+    }
+}
@@ -0,0 +1,185 @@
+package com.cardbookvr.cardboardbox;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class GlStateTest {
+    private static final int DEPTH_TEST = 0x0B71;
+    private static final int FLOAT = 0x1406;
+
+    private RecordingGlBackend backend;
+    private GlState gl;
+
+    @Before
+    public void setUp() {
+        backend = new RecordingGlBackend();
+        gl = new GlState(backend);
+    }
+
+    @Test
+    public void skipsRedundantProgramsAndCapabilities() {
+        gl.glUseProgram(1);
+        gl.glUseProgram(1);
+        gl.glUseProgram(2);
+        gl.glEnable(DEPTH_TEST);
+        gl.glEnable(DEPTH_TEST);
+        gl.glDisable(DEPTH_TEST);
+        gl.glDisable(DEPTH_TEST);
+        assertEquals(Arrays.asList("useProgram 1", "useProgram 2", "enable " + DEPTH_TEST,
+                "disable " + DEPTH_TEST), backend.take());
+        assertEquals(1, gl.getSkipped(GlState.CALL_PROGRAM));
+        assertEquals(2, gl.getSkipped(GlState.CALL_CAPABILITY));
+    }
+
+    @Test
+    public void skipsPointersToTheSamePlace() {
+        FloatBuffer vertices = ByteBuffer.allocateDirect(64).asFloatBuffer();
+        gl.glEnableVertexAttribArray(0);
+        gl.glEnableVertexAttribArray(0);
+        gl.glVertexAttribPointer(0, 3, FLOAT, false, 40, vertices);
+        gl.glVertexAttribPointer(0, 3, FLOAT, false, 40, vertices);
+        // Same buffer, further in
+        vertices.position(3);
+        gl.glVertexAttribPointer(0, 3, FLOAT, false, 40, vertices);
+        // Same place, different layout
+        gl.glVertexAttribPointer(0, 4, FLOAT, false, 40, vertices);
+        // Another buffer at the same position
+        FloatBuffer other = ByteBuffer.allocateDirect(64).asFloatBuffer();
+        other.position(3);
+        gl.glVertexAttribPointer(0, 4, FLOAT, false, 40, other);
+        assertEquals(Arrays.asList("enableVertexAttribArray 0", "vertexAttribPointer 0 3 40 @0",
+                "vertexAttribPointer 0 3 40 @3", "vertexAttribPointer 0 4 40 @3",
+                "vertexAttribPointer 0 4 40 @3"), backend.take());
+    }
+
+    @Test
+    public void cachesUniformsPerProgram() {
+        float[] m = new float[16];
+        Matrices.setIdentityM(m, 0);
+        gl.glUseProgram(1);
+        gl.glUniformMatrix4fv(5, 1, false, m, 0);
+        gl.glUniformMatrix4fv(5, 1, false, m, 0);
+        gl.glUniform1f(6, 1f);
+        gl.glUniform1f(6, 1f);
+
+        // The same locations in another program are different uniforms
+        gl.glUseProgram(2);
+        gl.glUniformMatrix4fv(5, 1, false, m, 0);
+        gl.glUniform1f(6, 1f);
+
+        // Back in the first program nothing has changed
+        gl.glUseProgram(1);
+        gl.glUniformMatrix4fv(5, 1, false, m, 0);
+        gl.glUniform1f(6, 1f);
+        m[12] = 2;
+        gl.glUniformMatrix4fv(5, 1, false, m, 0);
+        gl.glUniform1f(6, 0f);
+        assertEquals(Arrays.asList("useProgram 1", "uniformMatrix4fv 5", "uniform1f 6 1.0",
+                "useProgram 2", "uniformMatrix4fv 5", "uniform1f 6 1.0",
+                "useProgram 1", "uniformMatrix4fv 5", "uniform1f 6 0.0"), backend.take());
+        assertEquals(4, gl.getSkipped(GlState.CALL_UNIFORM));
+    }
+
+    @Test
+    public void uniformsAreNotCachedWithoutAKnownProgram() {
+        float[] v = { 1, 2, 3, 4 };
+        gl.glUniform4fv(1, 1, v, 0);
+        gl.glUniform4fv(1, 1, v, 0);
+        assertEquals(2, backend.take().size());
+    }
+
+    @Test
+    public void manyUniformsStayCached() {
+        float[] v = { 1, 2, 3 };
+        for (int program = 1; program <= 20; program++) {
+            gl.glUseProgram(program);
+            for (int location = 0; location < 10; location++) {
+                v[0] = program * 100 + location;
+                gl.glUniform3fv(location, 1, v, 0);
+            }
+        }
+        backend.take();
+        for (int program = 1; program <= 20; program++) {
+            gl.glUseProgram(program);
+            for (int location = 0; location < 10; location++) {
+                v[0] = program * 100 + location;
+                gl.glUniform3fv(location, 1, v, 0);
+            }
+        }
+        for (String call : backend.take()) {
+            assertTrue(call, call.startsWith("useProgram"));
+        }
+    }
+
+    @Test
+    public void invalidateForgetsContextStateButNotUniforms() {
+        FloatBuffer vertices = ByteBuffer.allocateDirect(64).asFloatBuffer();
+        gl.glUseProgram(1);
+        gl.glEnable(DEPTH_TEST);
+        gl.glVertexAttribPointer(0, 3, FLOAT, false, 0, vertices);
+        gl.glUniform1f(2, 1f);
+        backend.take();
+
+        gl.invalidate();
+        gl.glUseProgram(1);
+        gl.glEnable(DEPTH_TEST);
+        gl.glVertexAttribPointer(0, 3, FLOAT, false, 0, vertices);
+        gl.glUniform1f(2, 1f);
+        assertEquals(Arrays.asList("useProgram 1", "enable " + DEPTH_TEST,
+                "vertexAttribPointer 0 3 0 @0"), backend.take());
+
+        gl.reset();
+        gl.glUseProgram(1);
+        gl.glUniform1f(2, 1f);
+        assertEquals(Arrays.asList("useProgram 1", "uniform1f 2 1.0"), backend.take());
+    }
+
+    @Test
+    public void skipsRepeatedDivisorsUntilInvalidated() {
+        gl.glVertexAttribDivisor(3, 1);
+        gl.glVertexAttribDivisor(3, 1);
+        gl.glVertexAttribDivisor(3, 0);
+        gl.glDrawElementsInstanced(4, 36, 0x1403, null, 10);
+        gl.invalidate();
+        gl.glVertexAttribDivisor(3, 0);
+        assertEquals(Arrays.asList("vertexAttribDivisor 3 1", "vertexAttribDivisor 3 0",
+                "drawElementsInstanced 36 x10", "vertexAttribDivisor 3 0"), backend.take());
+        assertEquals(1, gl.getSkipped(GlState.CALL_ATTRIB_ARRAY));
+    }
+
+    @Test
+    public void drawsAndQueriesAlwaysGoThrough() {
+        gl.glClear(1);
+        gl.glClear(1);
+        gl.glDrawArrays(4, 0, 3);
+        gl.glDrawArrays(4, 0, 3);
+        assertEquals(0, gl.glGetUniformLocation(1, "u_MVP"));
+        assertEquals(1, gl.glGetUniformLocation(1, "u_MVP"));
+        assertEquals(6, backend.take().size());
+        assertEquals(0, gl.getSkipped(GlState.CALL_DRAW) + gl.getSkipped(GlState.CALL_OTHER));
+    }
+
+    @Test
+    public void countsPerFrame() {
+        gl.glUseProgram(1);
+        gl.glUseProgram(1);
+        gl.glDrawArrays(4, 0, 3);
+        gl.beginFrame();
+        assertEquals(2, gl.getFrameIssued());
+        assertEquals(1, gl.getFrameSkipped());
+        assertEquals(1, gl.getFrameSkipped(GlState.CALL_PROGRAM));
+
+        gl.glUseProgram(1);
+        gl.beginFrame();
+        assertEquals(0, gl.getFrameIssued());
+        assertEquals(1, gl.getFrameSkipped());
+        assertEquals(1, gl.getIssued(GlState.CALL_PROGRAM));
+        assertEquals(2, gl.getSkipped(GlState.CALL_PROGRAM));
+    }
+}
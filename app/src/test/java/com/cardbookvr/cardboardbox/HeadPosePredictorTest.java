@@ -0,0 +1,207 @@
+package com.cardbookvr.cardboardbox;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+
+import static org.junit.Assert.*;
+
+public class HeadPosePredictorTest {
+    private static final long FRAME = 1000000000L / 60;
+    private static final long WINDOW = 50000000L;
+
+    private static float[] yaw(float degrees) {
+        float[] q = new float[4];
+        Quaternions.setAxisAngle(q, 0, degrees, 0, 1, 0);
+        return q;
+    }
+
+    @Test
+    public void constantVelocityFollowsASteadyTurn() {
+        HeadPosePredictor predictor = new HeadPosePredictor(
+                HeadPosePredictor.MODEL_CONSTANT_VELOCITY, WINDOW);
+        // 60 degrees per second
+        for (int i = 0; i < 10; i++) {
+            predictor.addSample(i * FRAME, yaw(i), 0);
+        }
+        float[] predicted = new float[4];
+        predictor.predict(9 * FRAME + 3 * FRAME, predicted, 0);
+        assertEquals(0f, Quaternions.angle(predicted, 0, yaw(12), 0), 0.01f);
+    }
+
+    @Test
+    public void constantAccelerationFollowsASpeedingTurn() {
+        HeadPosePredictor velocity = new HeadPosePredictor(
+                HeadPosePredictor.MODEL_CONSTANT_VELOCITY, WINDOW);
+        HeadPosePredictor acceleration = new HeadPosePredictor(
+                HeadPosePredictor.MODEL_CONSTANT_ACCELERATION, WINDOW);
+        // yaw = 100 t^2 degrees
+        for (int i = 0; i < 10; i++) {
+            float t = i * FRAME / 1e9f;
+            velocity.addSample(i * FRAME, yaw(100 * t * t), 0);
+            acceleration.addSample(i * FRAME, yaw(100 * t * t), 0);
+        }
+        float t = 12 * FRAME / 1e9f;
+        float[] expected = yaw(100 * t * t);
+        float[] predicted = new float[4];
+        acceleration.predict(12 * FRAME, predicted, 0);
+        float accelerationError = Quaternions.angle(predicted, 0, expected, 0);
+        velocity.predict(12 * FRAME, predicted, 0);
+        float velocityError = Quaternions.angle(predicted, 0, expected, 0);
+        assertEquals(0f, accelerationError, 0.01f);
+        assertTrue(velocityError > 0.1f);
+    }
+
+    @Test
+    public void noModelReturnsTheNewestSample() {
+        HeadPosePredictor predictor = new HeadPosePredictor(HeadPosePredictor.MODEL_NONE, WINDOW);
+        float[] predicted = new float[4];
+        predictor.predict(0, predicted, 0);
+        assertArrayEquals(new float[] { 0, 0, 0, 1 }, predicted, 0f);
+        predictor.addSample(0, yaw(0), 0);
+        predictor.addSample(FRAME, yaw(5), 0);
+        predictor.predict(10 * FRAME, predicted, 0);
+        assertArrayEquals(yaw(5), predicted, 0f);
+    }
+
+    @Test
+    public void ignoresSamplesOutOfOrder() {
+        HeadPosePredictor predictor = new HeadPosePredictor(
+                HeadPosePredictor.MODEL_CONSTANT_VELOCITY, WINDOW);
+        predictor.addSample(0, yaw(0), 0);
+        predictor.addSample(FRAME, yaw(1), 0);
+        predictor.addSample(FRAME, yaw(50), 0);
+        predictor.addSample(FRAME / 2, yaw(-50), 0);
+        float[] predicted = new float[4];
+        predictor.predict(2 * FRAME, predicted, 0);
+        assertEquals(0f, Quaternions.angle(predicted, 0, yaw(2), 0), 0.01f);
+    }
+
+    @Test
+    public void handlesQuaternionSignFlips() {
+        HeadPosePredictor predictor = new HeadPosePredictor(
+                HeadPosePredictor.MODEL_CONSTANT_VELOCITY, WINDOW);
+        for (int i = 0; i < 5; i++) {
+            float[] q = yaw(179 + i);
+            if (i % 2 == 1) {
+                for (int k = 0; k < 4; k++) {
+                    q[k] = -q[k];
+                }
+            }
+            predictor.addSample(i * FRAME, q, 0);
+        }
+        float[] predicted = new float[4];
+        predictor.predict(6 * FRAME, predicted, 0);
+        assertEquals(0f, Quaternions.angle(predicted, 0, yaw(185), 0), 0.01f);
+    }
+
+    @Test
+    public void measuresErrorOnceTheTargetTimeIsPast() {
+        HeadPosePredictor predictor = new HeadPosePredictor(
+                HeadPosePredictor.MODEL_CONSTANT_VELOCITY, WINDOW);
+        predictor.addSample(0, yaw(0), 0);
+        predictor.addSample(FRAME, yaw(1), 0);
+        float[] predicted = new float[4];
+        // Predicts 2 degrees; the head stops at 1 instead
+        predictor.predict(2 * FRAME, predicted, 0);
+        predictor.addSample(2 * FRAME - 1, yaw(1), 0);
+        assertEquals(0, predictor.getErrorCount());
+        predictor.addSample(2 * FRAME, yaw(1), 0);
+        assertEquals(1, predictor.getErrorCount());
+        assertEquals(1f, predictor.getMeanError(), 0.01f);
+        assertEquals(1f, predictor.getMaxError(), 0.01f);
+        assertEquals(0f, predictor.getMeanUnpredictedError(), 0.01f);
+
+        predictor.resetErrors();
+        assertEquals(0, predictor.getErrorCount());
+        assertEquals(0f, predictor.getMeanError(), 0f);
+    }
+
+    @Test
+    public void predictHeadViewKeepsTheTranslation() {
+        HeadPosePredictor predictor = new HeadPosePredictor(
+                HeadPosePredictor.MODEL_CONSTANT_VELOCITY, WINDOW);
+        predictor.addSample(0, yaw(0), 0);
+        predictor.addSample(FRAME, yaw(1), 0);
+        float[] headView = new float[16];
+        Matrices.setIdentityM(headView, 0);
+        Matrices.translateM(headView, 0, 0.1f, 0.2f, 0.3f);
+        predictor.predictHeadView(2 * FRAME, headView);
+
+        float[] expected = new float[16];
+        // Turning the head left turns the world right
+        Matrices.setRotateM(expected, 0, -2, 0, 1, 0);
+        expected[12] = 0.1f;
+        expected[13] = 0.2f;
+        expected[14] = 0.3f;
+        assertArrayEquals(expected, headView, 1e-4f);
+    }
+
+    @Test
+    public void predictHeadViewMatchesHeadTransformAtZeroHorizon() {
+        HeadPosePredictor predictor = new HeadPosePredictor(
+                HeadPosePredictor.MODEL_CONSTANT_VELOCITY, WINDOW);
+        float[] q = new float[4];
+        Quaternions.setAxisAngle(q, 0, 20, 0, 1, 0);
+        predictor.addSample(0, q, 0);
+        Quaternions.setAxisAngle(q, 0, 35, 0.3f, 1, -0.5f);
+        predictor.addSample(FRAME, q, 0);
+
+        // HeadTransform's pair: the head view is the transpose of q's rotation
+        float[] rotation = new float[16];
+        Quaternions.toRotationM(rotation, 0, q, 0);
+        float[] expected = new float[16];
+        for (int col = 0; col < 4; col++) {
+            for (int row = 0; row < 4; row++) {
+                expected[col * 4 + row] = rotation[row * 4 + col];
+            }
+        }
+        expected[12] = 0.1f;
+        expected[13] = 0.2f;
+        expected[14] = 0.3f;
+        float[] headView = expected.clone();
+        predictor.predictHeadView(FRAME, headView);
+        assertArrayEquals(expected, headView, 1e-5f);
+    }
+
+    @Test
+    public void predictionBeatsNoneOnSmoothMotion() {
+        PoseTraces.Trace sway = PoseTraces.sway(FRAME, 20);
+        long horizon = 2 * FRAME;
+        PoseTraces.Result none = PoseTraces.replay(sway,
+                new HeadPosePredictor(HeadPosePredictor.MODEL_NONE, WINDOW), horizon);
+        PoseTraces.Result velocity = PoseTraces.replay(sway,
+                new HeadPosePredictor(HeadPosePredictor.MODEL_CONSTANT_VELOCITY, WINDOW), horizon);
+        PoseTraces.Result acceleration = PoseTraces.replay(sway,
+                new HeadPosePredictor(HeadPosePredictor.MODEL_CONSTANT_ACCELERATION, WINDOW),
+                horizon);
+        assertEquals(none.mean, none.unpredicted, 1e-4f);
+        assertTrue(velocity.mean < none.mean / 4);
+        assertTrue(acceleration.mean < velocity.mean);
+
+        PoseTraces.Trace turns = PoseTraces.turns(FRAME, 20);
+        none = PoseTraces.replay(turns,
+                new HeadPosePredictor(HeadPosePredictor.MODEL_NONE, WINDOW), horizon);
+        velocity = PoseTraces.replay(turns,
+                new HeadPosePredictor(HeadPosePredictor.MODEL_CONSTANT_VELOCITY, WINDOW), horizon);
+        assertTrue(velocity.mean < none.mean);
+
+        // Sensor noise costs some of the gain but not all of it
+        PoseTraces.Trace noisy = PoseTraces.noisy(sway, 0.05f, 1);
+        none = PoseTraces.replay(noisy,
+                new HeadPosePredictor(HeadPosePredictor.MODEL_NONE, WINDOW), horizon);
+        velocity = PoseTraces.replay(noisy,
+                new HeadPosePredictor(HeadPosePredictor.MODEL_CONSTANT_VELOCITY, WINDOW), horizon);
+        assertTrue(velocity.mean < none.mean);
+    }
+
+    @Test
+    public void readsRecordedTraces() throws Exception {
+        PoseTraces.Trace trace = PoseTraces.read("recorded", new BufferedReader(new StringReader(
+                "# nanos,x,y,z,w\n0,0,0,0,1\n\n16666667, 0, 0.0087265, 0, 0.9999619\n")));
+        assertEquals(2, trace.size());
+        assertEquals(16666667L, trace.times[1]);
+        assertEquals(0.0087265f, trace.orientations[5], 0f);
+    }
+}
@@ -0,0 +1,74 @@
+package com.cardbookvr.cardboardbox;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class HeadPoseTraceTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void write_roundTripsEveryFrame() throws Exception {
+        HeadPoseTrace trace = new HeadPoseTrace();
+        float[] headView = new float[16];
+        float[] quaternion = new float[4];
+        // Enough frames to grow past the first arrays
+        for (int i = 0; i < 200; i++) {
+            // A head view is the inverse of the head's rotation
+            Quaternions.setAxisAngle(quaternion, 0, -i * 0.7f, 0, 1, 0);
+            Quaternions.toRotationM(headView, 0, quaternion, 0);
+            Quaternions.conjugate(quaternion, 0);
+            headView[13] = i;
+            trace.add(1000L * i, headView, 0, quaternion, 0);
+        }
+        File file = folder.newFile("poses.cbtrace");
+        trace.write(file);
+        assertEquals(12 + 200 * (8 + 20 * 4), file.length());
+
+        HeadPoseTrace read = HeadPoseTrace.read(file);
+        assertEquals(200, read.getFrameCount());
+        float[] expected = new float[16];
+        float[] actual = new float[16];
+        for (int i = 0; i < 200; i++) {
+            assertEquals(trace.getTime(i), read.getTime(i));
+            trace.getHeadView(i, expected, 0);
+            read.getHeadView(i, actual, 0);
+            assertArrayEquals(expected, actual, 0);
+            trace.getQuaternion(i, expected, 0);
+            read.getQuaternion(i, actual, 0);
+            assertArrayEquals(expected, actual, 0);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void read_rejectsOtherFiles() throws Exception {
+        File file = folder.newFile("cube.cbmesh");
+        new MeshFileWriter().write(file, MeshConverter.compileCube());
+        HeadPoseTrace.read(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void read_rejectsTruncatedTraces() throws Exception {
+        HeadPoseTrace trace = new HeadPoseTrace();
+        trace.add(0, new float[16], 0, new float[4], 0);
+        trace.add(1, new float[16], 0, new float[4], 0);
+        File file = folder.newFile("poses.cbtrace");
+        trace.write(file);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(file.length() - 4);
+        raf.close();
+        HeadPoseTrace.read(file);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getTime_rejectsMissingFrames() {
+        new HeadPoseTrace().getTime(0);
+    }
+}
@@ -0,0 +1,79 @@
+package com.cardbookvr.cardboardbox;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    @Test
+    public void buckets_coverRangeWithBoundedError() throws Exception {
+        long previous = -1;
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKET_COUNT; bucket++) {
+            long upper = LatencyHistogram.upperBoundOf(bucket);
+            assertTrue(upper > previous);
+            assertEquals(bucket, LatencyHistogram.bucketOf(upper));
+            assertEquals(bucket, LatencyHistogram.bucketOf(previous + 1));
+            previous = upper;
+        }
+        assertEquals(Long.MAX_VALUE, previous);
+
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            long value = (long) Math.exp(random.nextDouble() * 40);
+            long upper = LatencyHistogram.upperBoundOf(LatencyHistogram.bucketOf(value));
+            assertTrue(upper >= value);
+            assertTrue(upper - value <= value / 8 + 1);
+        }
+    }
+
+    @Test
+    public void snapshot_reportsPercentiles() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(1000000L, snapshot.getMax());
+        assertEquals(500000, snapshot.getP50(), 500000 / 8.0);
+        assertEquals(990000, snapshot.getP99(), 990000 / 8.0);
+        assertTrue(snapshot.getP50() >= 500000);
+        assertTrue(snapshot.getP99() <= snapshot.getMax());
+    }
+
+    @Test
+    public void snapshot_emptyHistogram() throws Exception {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getP99());
+    }
+
+    @Test
+    public void snapshot_readableWhileRecording() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final int samples = 2000000;
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < samples; i++) {
+                    histogram.record(1000 + (i & 1023));
+                }
+            }
+        });
+        writer.start();
+        long lastCount = 0;
+        while (writer.isAlive()) {
+            LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+            assertTrue(snapshot.getCount() >= lastCount);
+            lastCount = snapshot.getCount();
+        }
+        writer.join();
+
+        assertEquals(samples, histogram.snapshot().getCount());
+        assertEquals(2023, histogram.snapshot().getMax());
+    }
+}
@@ -0,0 +1,122 @@
+package com.cardbookvr.cardboardbox;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LodSelectorTest {
+    private static final float[] UNIT_CUBE = { -1, -1, -1, 1, 1, 1 };
+
+    private static float[] perspective() {
+        // 90 degree vertical field of view, so the y scale is 1
+        float near = 0.1f, far = 100f;
+        return new float[] {
+                1, 0, 0, 0,
+                0, 1, 0, 0,
+                0, 0, -(far + near) / (far - near), -1,
+                0, 0, -2 * far * near / (far - near), 0,
+        };
+    }
+
+    private static float[] at(float distance) {
+        float[] m = new float[16];
+        Matrices.setIdentityM(m, 0);
+        Matrices.translateM(m, 0, 0, 0, -distance);
+        return m;
+    }
+
+    @Test
+    public void screenSizeFallsWithDistance() {
+        LodSelector selector = new LodSelector(1, new float[] { 0.5f }, 0f);
+        selector.setObject(0, UNIT_CUBE, 2);
+        float radius = (float) Math.sqrt(3);
+        assertEquals(radius / 10, selector.screenSize(0, at(10), 0, perspective(), 0), 1e-5f);
+        assertEquals(radius / 20, selector.screenSize(0, at(20), 0, perspective(), 0), 1e-5f);
+        assertEquals(Float.POSITIVE_INFINITY,
+                selector.screenSize(0, at(1), 0, perspective(), 0), 0f);
+
+        // Scaling the model scales its size
+        float[] scaled = at(10);
+        scaled[0] = 2;
+        scaled[5] = 2;
+        scaled[10] = 2;
+        assertEquals(2 * radius / 10, selector.screenSize(0, scaled, 0, perspective(), 0), 1e-5f);
+    }
+
+    @Test
+    public void coarserLevelsFurtherAway() {
+        LodSelector selector = new LodSelector(1, new float[] { 0.25f, 0.12f, 0.05f }, 0.1f);
+        selector.setObject(0, UNIT_CUBE, 4);
+        int previous = 0;
+        for (float distance = 2; distance < 100; distance *= 1.1f) {
+            int level = selector.select(0, at(distance), 0, perspective(), 0);
+            assertTrue(level >= previous);
+            previous = level;
+        }
+        assertEquals(3, previous);
+        assertEquals(0, selector.select(0, at(2), 0, perspective(), 0));
+    }
+
+    @Test
+    public void neverUsesMissingLevels() {
+        LodSelector selector = new LodSelector(2, new float[] { 0.25f, 0.12f, 0.05f }, 0.1f);
+        selector.setObject(0, UNIT_CUBE, 2);
+        selector.setObject(1, UNIT_CUBE, 1);
+        assertEquals(1, selector.select(0, 0.001f));
+        assertEquals(0, selector.select(1, 0.001f));
+    }
+
+    @Test
+    public void biasScalesSizesBeforePicking() {
+        LodSelector selector = new LodSelector(1, new float[] { 0.2f }, 0.1f);
+        selector.setObject(0, UNIT_CUBE, 2);
+        assertEquals(0, selector.select(0, 0.3f));
+        selector.setBias(0.5f);
+        assertEquals(1, selector.select(0, 0.3f));
+        selector.setBias(1);
+        assertEquals(0, selector.select(0, 0.3f));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setBias_rejectsZero() {
+        new LodSelector(1, new float[] { 0.2f }, 0.1f).setBias(0);
+    }
+
+    @Test
+    public void hysteresisStopsFlicker() {
+        LodSelector selector = new LodSelector(1, new float[] { 0.2f }, 0.1f);
+        selector.setObject(0, UNIT_CUBE, 2);
+        // Hovering within 10% either side of the threshold never switches
+        for (int frame = 0; frame < 100; frame++) {
+            float size = frame % 2 == 0 ? 0.185f : 0.215f;
+            assertEquals(0, selector.select(0, size));
+        }
+        assertEquals(0, selector.getSwitchCount());
+
+        assertEquals(1, selector.select(0, 0.17f));
+        for (int frame = 0; frame < 100; frame++) {
+            float size = frame % 2 == 0 ? 0.185f : 0.215f;
+            assertEquals(1, selector.select(0, size));
+        }
+        assertEquals(0, selector.select(0, 0.23f));
+        assertEquals(2, selector.getSwitchCount());
+    }
+
+    @Test
+    public void jitterSwitchesOnce() {
+        LodSelector selector = new LodSelector(1, new float[] { 0.2f }, 0.05f);
+        selector.setObject(0, UNIT_CUBE, 2);
+        // Head tremor moves the size 2% either way; walk slowly through the threshold
+        int frame = 0;
+        for (float size = 0.3f; size > 0.1f; size -= 0.001f) {
+            selector.select(0, size * (frame++ % 2 == 0 ? 1.02f : 0.98f));
+        }
+        assertEquals(1, selector.getLevel(0));
+        assertEquals(1, selector.getSwitchCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsIncreasingThresholds() {
+        new LodSelector(1, new float[] { 0.1f, 0.2f }, 0.1f);
+    }
+}
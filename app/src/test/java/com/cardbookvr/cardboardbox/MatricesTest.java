@@ -0,0 +1,108 @@
+package com.cardbookvr.cardboardbox;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MatricesTest {
+    private static final float EPSILON = 1e-5f;
+
+    /**
+     * Reference column-major product, as android.opengl.Matrix.multiplyMM.
+     */
+    static float[] multiply(float[] lhs, float[] rhs) {
+        float[] result = new float[16];
+        for (int col = 0; col < 4; col++) {
+            for (int row = 0; row < 4; row++) {
+                float sum = 0;
+                for (int k = 0; k < 4; k++) {
+                    sum += lhs[k * 4 + row] * rhs[col * 4 + k];
+                }
+                result[col * 4 + row] = sum;
+            }
+        }
+        return result;
+    }
+
+    static float[] random(Random random) {
+        float[] m = new float[16];
+        for (int i = 0; i < 16; i++) {
+            m[i] = random.nextFloat() * 2 - 1;
+        }
+        return m;
+    }
+
+    @Test
+    public void multiplyMM_matchesReference() throws Exception {
+        Random random = new Random(3);
+        for (int n = 0; n < 100; n++) {
+            float[] lhs = random(random);
+            float[] rhs = random(random);
+            float[] result = new float[20];
+            Matrices.multiplyMM(result, 4, lhs, 0, rhs, 0);
+
+            float[] expected = multiply(lhs, rhs);
+            for (int i = 0; i < 16; i++) {
+                assertEquals(expected[i], result[4 + i], EPSILON);
+            }
+        }
+    }
+
+    @Test
+    public void multiplyMV_matchesReference() throws Exception {
+        float[] m = random(new Random(5));
+        float[] v = {1, 2, 3, 1};
+        float[] result = new float[4];
+        Matrices.multiplyMV(result, 0, m, 0, v, 0);
+
+        float[] expected = GazePickerTest.multiply(m, v);
+        assertArrayEquals(expected, result, EPSILON);
+    }
+
+    @Test
+    public void translateM_postMultipliesTranslation() throws Exception {
+        float[] m = random(new Random(9));
+        float[] expected = multiply(m, GazePickerTest.translation(1, -2, 3));
+        Matrices.translateM(m, 0, 1, -2, 3);
+
+        assertArrayEquals(expected, m, EPSILON);
+    }
+
+    @Test
+    public void rotateM_rotatesAroundAxis() throws Exception {
+        float[] m = new float[16];
+        Matrices.setIdentityM(m, 0);
+        Matrices.rotateM(m, 0, 90, 0, 0, 2, new float[32]);
+
+        float[] x = new float[4];
+        Matrices.multiplyMV(x, 0, m, 0, new float[]{1, 0, 0, 0}, 0);
+        assertArrayEquals(new float[]{0, 1, 0, 0}, x, EPSILON);
+    }
+
+    @Test
+    public void rotateM_postMultipliesRotation() throws Exception {
+        float[] m = random(new Random(11));
+        float[] rotation = new float[16];
+        Matrices.setRotateM(rotation, 0, 0.3f, 0.5f, 0.5f, 1.0f);
+        float[] expected = multiply(m, rotation);
+        Matrices.rotateM(m, 0, 0.3f, 0.5f, 0.5f, 1.0f, new float[32]);
+
+        assertArrayEquals(expected, m, EPSILON);
+    }
+
+    @Test
+    public void setLookAtM_movesEyeToOrigin() throws Exception {
+        float[] m = new float[16];
+        Matrices.setLookAtM(m, 0, 0, 0, 0.01f, 0, 0, 0, 0, 1, 0);
+
+        float[] eye = new float[4];
+        Matrices.multiplyMV(eye, 0, m, 0, new float[]{0, 0, 0.01f, 1}, 0);
+        assertArrayEquals(new float[]{0, 0, 0, 1}, eye, EPSILON);
+
+        float[] forward = new float[4];
+        Matrices.multiplyMV(forward, 0, m, 0, new float[]{0, 0, -1, 0}, 0);
+        assertArrayEquals(new float[]{0, 0, -1, 0}, forward, EPSILON);
+    }
+}
@@ -0,0 +1,91 @@
+package com.cardbookvr.cardboardbox;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MatrixBatchTest {
+    private static final float EPSILON = 1e-5f;
+
+    @Test
+    public void setAndGet_roundTrip() throws Exception {
+        MatrixBatch batch = new MatrixBatch(3);
+        float[] m = MatricesTest.random(new Random(1));
+        batch.set(1, m, 0);
+
+        float[] out = new float[16];
+        batch.get(1, out, 0);
+        assertArrayEquals(m, out, 0f);
+        assertEquals(m[13], batch.get(1, 13), 0f);
+    }
+
+    @Test
+    public void multiply_matchesPerMatrixProduct() throws Exception {
+        Random random = new Random(2);
+        int count = 1000;
+        float[][] models = new float[count][];
+        MatrixBatch src = new MatrixBatch(count);
+        MatrixBatch dst = new MatrixBatch(count);
+        for (int i = 0; i < count; i++) {
+            models[i] = MatricesTest.random(random);
+            src.set(i, models[i], 0);
+        }
+        float[] viewProjection = MatricesTest.random(random);
+
+        MatrixBatch.multiply(viewProjection, 0, src, dst, count);
+
+        float[] out = new float[16];
+        for (int i = 0; i < count; i++) {
+            dst.get(i, out, 0);
+            assertArrayEquals(MatricesTest.multiply(viewProjection, models[i]), out, EPSILON);
+        }
+    }
+
+    @Test
+    public void multiply_inPlace() throws Exception {
+        Random random = new Random(4);
+        float[] m = MatricesTest.random(random);
+        float[] lhs = MatricesTest.random(random);
+        MatrixBatch batch = new MatrixBatch(1);
+        batch.set(0, m, 0);
+
+        MatrixBatch.multiply(lhs, 0, batch, batch, 1);
+
+        float[] out = new float[16];
+        batch.get(0, out, 0);
+        assertArrayEquals(MatricesTest.multiply(lhs, m), out, EPSILON);
+    }
+
+    @Test
+    public void multiply_leavesTailUntouched() throws Exception {
+        MatrixBatch src = new MatrixBatch(4);
+        MatrixBatch dst = new MatrixBatch(4);
+        float[] identity = new float[16];
+        Matrices.setIdentityM(identity, 0);
+        for (int i = 0; i < 4; i++) {
+            src.set(i, identity, 0);
+        }
+
+        MatrixBatch.multiply(identity, 0, src, dst, 2);
+
+        assertEquals(1f, dst.get(1, 0), 0f);
+        assertEquals(0f, dst.get(2, 0), 0f);
+    }
+
+    @Test
+    public void preTranslate_matchesTranslationProduct() throws Exception {
+        Random random = new Random(6);
+        float[] m = MatricesTest.random(random);
+        MatrixBatch src = new MatrixBatch(2);
+        MatrixBatch dst = new MatrixBatch(2);
+        src.set(1, m, 0);
+
+        MatrixBatch.preTranslate(0.03f, -1, 2, src, dst, 2);
+
+        float[] out = new float[16];
+        dst.get(1, out, 0);
+        assertArrayEquals(MatricesTest.multiply(GazePickerTest.translation(0.03f, -1, 2), m), out, EPSILON);
+    }
+}
@@ -0,0 +1,75 @@
+package com.cardbookvr.cardboardbox;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MeshCompilerTest {
+    private static final float[] CUBE_NORMALS = Cube.cubeFacesToArray(Cube.CUBE_NORMALS_FACES, 3);
+    private static final float[] CUBE_COLORS = Cube.cubeFacesToArray(Cube.CUBE_COLORS_FACES, 4);
+
+    @Test
+    public void compile_cubeMergesSharedFaceVertices() throws Exception {
+        CompiledMesh mesh = new MeshCompiler().compile(Cube.CUBE_COORDS, CUBE_NORMALS, CUBE_COLORS);
+
+        // Four corners per face, each face with its own normal
+        assertEquals(24, mesh.getVertexCount());
+        assertEquals(36, mesh.getIndexCount());
+        assertEquals(40, mesh.getStride());
+    }
+
+    @Test
+    public void compile_roundTripsToSourceAttributes() throws Exception {
+        CompiledMesh mesh = new MeshCompiler().compile(Cube.CUBE_COORDS, CUBE_NORMALS, CUBE_COLORS);
+        float[] vertices = mesh.getVertices();
+        int stride = mesh.getStride() / 4;
+        short[] indices = mesh.getIndices();
+
+        for (int i = 0; i < indices.length; i++) {
+            int v = (indices[i] & 0xffff) * stride;
+            for (int k = 0; k < 3; k++) {
+                assertEquals(Cube.CUBE_COORDS[i * 3 + k], vertices[v + CompiledMesh.POSITION_OFFSET + k], 0f);
+                assertEquals(CUBE_NORMALS[i * 3 + k], vertices[v + CompiledMesh.NORMAL_OFFSET + k], 0f);
+            }
+            for (int k = 0; k < 4; k++) {
+                assertEquals(CUBE_COLORS[i * 4 + k], vertices[v + CompiledMesh.COLOR_OFFSET + k], 0f);
+            }
+        }
+    }
+
+    @Test
+    public void compile_floorSharesDiagonal() throws Exception {
+        CompiledMesh mesh = new MeshCompiler().compile(Floor.FLOOR_COORDS, Floor.FLOOR_NORMALS,
+                Floor.FLOOR_COLORS);
+
+        assertEquals(4, mesh.getVertexCount());
+        assertEquals(6, mesh.getIndexCount());
+    }
+
+    @Test
+    public void compile_padsStrideToAlignment() throws Exception {
+        CompiledMesh mesh = new MeshCompiler().setStrideAlignment(16)
+                .compile(Cube.CUBE_COORDS, CUBE_NORMALS, CUBE_COLORS);
+
+        assertEquals(48, mesh.getStride());
+        assertEquals(24 * 48, mesh.getVertexBytes());
+    }
+
+    @Test
+    public void compile_reportsByteSizes() throws Exception {
+        CompiledMesh mesh = new MeshCompiler().compile(Cube.CUBE_COORDS, CUBE_NORMALS, CUBE_COLORS);
+
+        // Before: separate position, normal, color and found color arrays
+        int before = mesh.getSourceBytes() + Cube.cubeFacesToArray(Cube.CUBE_FOUND_COLORS_FACES, 4).length * 4;
+        int after = mesh.getCompiledBytes();
+
+        assertEquals(36 * 10 * 4, mesh.getSourceBytes());
+        assertEquals(24 * 40 + 36 * 2, after);
+        assertTrue(after < before);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void compile_rejectsMismatchedArrays() throws Exception {
+        new MeshCompiler().compile(Cube.CUBE_COORDS, Floor.FLOOR_NORMALS, CUBE_COLORS);
+    }
+}
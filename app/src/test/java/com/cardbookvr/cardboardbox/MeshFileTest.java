@@ -0,0 +1,165 @@
+package com.cardbookvr.cardboardbox;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class MeshFileTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void map_roundTripsCompiledMesh() throws Exception {
+        CompiledMesh cube = MeshConverter.compileCube();
+        File file = folder.newFile("cube.cbmesh");
+        new MeshFileWriter().write(file, cube);
+
+        MeshFile mesh = MeshFile.map(file);
+
+        assertTrue(mesh.isNativeOrder());
+        assertEquals(cube.getVertexCount(), mesh.getVertexCount());
+        assertEquals(cube.getIndexCount(), mesh.getIndexCount());
+        assertEquals(MeshFile.TYPE_UNSIGNED_SHORT, mesh.getIndexType());
+        assertEquals(cube.getStride(), mesh.getStride());
+        assertEquals(CompiledMesh.COLOR_OFFSET * 4,
+                mesh.findAttribute(MeshFile.SEMANTIC_COLOR).offset);
+        assertNull(mesh.findAttribute(MeshFile.SEMANTIC_TEXCOORD));
+
+        ByteBuffer vertices = mesh.getVertexData();
+        assertTrue(vertices.isDirect());
+        float[] expected = cube.getVertices();
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], vertices.getFloat(i * 4), 0);
+        }
+        ByteBuffer indices = mesh.getIndexData();
+        for (int i = 0; i < cube.getIndexCount(); i++) {
+            assertEquals(cube.getIndices()[i], indices.getShort(i * 2));
+        }
+        assertArrayEquals(GazePicker.computeLocalBounds(Cube.CUBE_COORDS), mesh.getBounds(), 0);
+    }
+
+    @Test
+    public void map_roundTripsQuantizedMesh() throws Exception {
+        // Off the origin, so positions need a scale and offset
+        float[] coords = Cube.CUBE_COORDS.clone();
+        for (int i = 0; i < coords.length; i++) {
+            coords[i] = coords[i] * (i % 3 + 1) + 10;
+        }
+        CompiledMesh cube = new MeshCompiler().compile(coords,
+                Cube.cubeFacesToArray(Cube.CUBE_NORMALS_FACES, 3),
+                Cube.cubeFacesToArray(Cube.CUBE_COLORS_FACES, 4));
+        QuantizedVertices packed = new VertexQuantizer().quantize(cube);
+        int[] indices = MeshConverter.toMesh(cube).getIndices();
+        ByteOrder other = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN
+                ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+
+        for (ByteOrder order : new ByteOrder[] { ByteOrder.nativeOrder(), other }) {
+            File file = folder.newFile("packed-" + order + ".cbmesh");
+            new MeshFileWriter().setByteOrder(order).write(file, packed, indices, indices.length);
+
+            MeshFile mesh = MeshFile.map(file);
+
+            assertEquals(order, mesh.getByteOrder());
+            assertEquals(16, mesh.getStride());
+            MeshFile.Attribute position = mesh.findAttribute(MeshFile.SEMANTIC_POSITION);
+            assertEquals(MeshFile.TYPE_SHORT, position.type);
+            assertTrue(position.normalized);
+            assertEquals(2, mesh.findAttribute(MeshFile.SEMANTIC_NORMAL).size);
+            assertEquals(MeshFile.TYPE_UNSIGNED_BYTE,
+                    mesh.findAttribute(MeshFile.SEMANTIC_COLOR).type);
+            assertArrayEquals(packed.getPositionScale(), mesh.getPositionScale(), 0);
+            assertArrayEquals(packed.getPositionOffset(), mesh.getPositionOffset(), 0);
+            assertArrayEquals(GazePicker.computeLocalBounds(coords), mesh.getBounds(), 0);
+
+            // Every component as packed, read in the file's order
+            ByteBuffer expected = packed.getVertexData();
+            ByteBuffer actual = mesh.getVertexData();
+            for (int v = 0; v < mesh.getVertexCount(); v++) {
+                int base = v * 16;
+                for (int k = 0; k < 3; k++) {
+                    assertEquals(expected.getShort(base + k * 2), actual.getShort(base + k * 2));
+                }
+                for (int k = 0; k < 2; k++) {
+                    assertEquals(expected.getShort(base + 8 + k * 2),
+                            actual.getShort(base + 8 + k * 2));
+                }
+                for (int k = 0; k < 4; k++) {
+                    assertEquals(expected.get(base + 12 + k), actual.get(base + 12 + k));
+                }
+            }
+            assertEquals(cube.getIndices()[5], mesh.getIndexData().getShort(10));
+        }
+    }
+
+    @Test
+    public void map_leavesFloatPositionsUnscaled() throws Exception {
+        File file = folder.newFile("floor.cbmesh");
+        new MeshFileWriter().write(file, MeshConverter.compileFloor());
+
+        MeshFile mesh = MeshFile.map(file);
+
+        assertArrayEquals(new float[] { 1, 1, 1 }, mesh.getPositionScale(), 0);
+        assertArrayEquals(new float[] { 0, 0, 0 }, mesh.getPositionOffset(), 0);
+    }
+
+    @Test
+    public void write_usesIntIndicesForLargeMeshes() throws Exception {
+        int vertexCount = 70000;
+        float[] vertices = new float[vertexCount * ObjReader.STRIDE_FLOATS];
+        int[] indices = new int[vertexCount];
+        for (int i = 0; i < vertexCount; i++) {
+            vertices[i * ObjReader.STRIDE_FLOATS] = i;
+            indices[i] = vertexCount - 1 - i;
+        }
+        File file = folder.newFile("large.cbmesh");
+        new MeshFileWriter().write(file, vertices, ObjReader.STRIDE_FLOATS, vertexCount,
+                indices, vertexCount, CompiledMesh.getLayout());
+
+        MeshFile mesh = MeshFile.map(file);
+
+        assertEquals(MeshFile.TYPE_UNSIGNED_INT, mesh.getIndexType());
+        assertEquals(vertexCount - 1, mesh.getIndexData().getInt(0));
+        assertEquals(vertexCount - 1, mesh.getBounds()[3], 0);
+        assertEquals(0, mesh.getVertexData().position());
+        assertEquals(vertexCount * mesh.getStride(), mesh.getVertexData().capacity());
+    }
+
+    @Test
+    public void map_detectsByteOrder() throws Exception {
+        ByteOrder other = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN
+                ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        File file = folder.newFile("swapped.cbmesh");
+        new MeshFileWriter().setByteOrder(other).write(file, MeshConverter.compileFloor());
+
+        MeshFile mesh = MeshFile.map(file);
+
+        assertFalse(mesh.isNativeOrder());
+        assertEquals(other, mesh.getByteOrder());
+        assertEquals(4, mesh.getVertexCount());
+        assertEquals(200f, mesh.getVertexData().getFloat(0), 0);
+    }
+
+    @Test(expected = IOException.class)
+    public void map_rejectsOtherFiles() throws Exception {
+        MeshFile.wrap(ByteBuffer.allocate(256));
+    }
+
+    @Test(expected = IOException.class)
+    public void map_rejectsTruncatedFiles() throws Exception {
+        File file = folder.newFile("truncated.cbmesh");
+        new MeshFileWriter().write(file, MeshConverter.compileCube());
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 8);
+        raf.close();
+
+        MeshFile.map(file);
+    }
+}
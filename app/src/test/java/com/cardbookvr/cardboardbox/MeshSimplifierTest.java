@@ -0,0 +1,210 @@
+package com.cardbookvr.cardboardbox;
+
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class MeshSimplifierTest {
+    private static final int STRIDE = ObjReader.STRIDE_FLOATS;
+
+    /**
+     * A flat, square grid of size x size quads in the y = 0 plane.
+     */
+    static ObjReader.Mesh grid(int size) {
+        int row = size + 1;
+        float[] vertices = new float[row * row * STRIDE];
+        for (int z = 0; z < row; z++) {
+            for (int x = 0; x < row; x++) {
+                int o = (z * row + x) * STRIDE;
+                vertices[o] = x;
+                vertices[o + 2] = z;
+                vertices[o + CompiledMesh.NORMAL_OFFSET + 1] = 1;
+                vertices[o + CompiledMesh.COLOR_OFFSET + 3] = 1;
+            }
+        }
+        int[] indices = new int[size * size * 6];
+        int i = 0;
+        for (int z = 0; z < size; z++) {
+            for (int x = 0; x < size; x++) {
+                int a = z * row + x;
+                indices[i++] = a;
+                indices[i++] = a + row;
+                indices[i++] = a + 1;
+                indices[i++] = a + 1;
+                indices[i++] = a + row;
+                indices[i++] = a + row + 1;
+            }
+        }
+        return new ObjReader.Mesh(vertices, row * row, indices, indices.length);
+    }
+
+    /**
+     * A closed unit sphere of rings x segments quads, wound outwards.
+     */
+    static ObjReader.Mesh sphere(int rings, int segments) {
+        int count = (rings - 1) * segments + 2;
+        float[] vertices = new float[count * STRIDE];
+        put(vertices, 0, 0, 1, 0);
+        put(vertices, count - 1, 0, -1, 0);
+        for (int r = 1; r < rings; r++) {
+            double theta = Math.PI * r / rings;
+            for (int s = 0; s < segments; s++) {
+                double phi = 2 * Math.PI * s / segments;
+                put(vertices, 1 + (r - 1) * segments + s, (float) (Math.sin(theta) * Math.cos(phi)),
+                        (float) Math.cos(theta), (float) (Math.sin(theta) * Math.sin(phi)));
+            }
+        }
+        int[] indices = new int[segments * (rings - 1) * 6];
+        int i = 0;
+        for (int s = 0; s < segments; s++) {
+            int next = (s + 1) % segments;
+            // Caps
+            indices[i++] = 0;
+            indices[i++] = 1 + next;
+            indices[i++] = 1 + s;
+            int bottom = 1 + (rings - 2) * segments;
+            indices[i++] = count - 1;
+            indices[i++] = bottom + s;
+            indices[i++] = bottom + next;
+            for (int r = 1; r < rings - 1; r++) {
+                int a = 1 + (r - 1) * segments;
+                int b = a + segments;
+                indices[i++] = a + s;
+                indices[i++] = a + next;
+                indices[i++] = b + s;
+                indices[i++] = b + s;
+                indices[i++] = a + next;
+                indices[i++] = b + next;
+            }
+        }
+        return new ObjReader.Mesh(vertices, count, indices, i);
+    }
+
+    private static void put(float[] vertices, int v, float x, float y, float z) {
+        int o = v * STRIDE;
+        vertices[o] = x;
+        vertices[o + 1] = y;
+        vertices[o + 2] = z;
+        vertices[o + CompiledMesh.NORMAL_OFFSET] = x;
+        vertices[o + CompiledMesh.NORMAL_OFFSET + 1] = y;
+        vertices[o + CompiledMesh.NORMAL_OFFSET + 2] = z;
+        vertices[o + CompiledMesh.COLOR_OFFSET + 3] = 1;
+    }
+
+    private static float[] faceNormal(ObjReader.Mesh mesh, int t) {
+        float[] v = mesh.getVertices();
+        int a = mesh.getIndices()[t * 3] * STRIDE;
+        int b = mesh.getIndices()[t * 3 + 1] * STRIDE;
+        int c = mesh.getIndices()[t * 3 + 2] * STRIDE;
+        float ux = v[b] - v[a], uy = v[b + 1] - v[a + 1], uz = v[b + 2] - v[a + 2];
+        float wx = v[c] - v[a], wy = v[c + 1] - v[a + 1], wz = v[c + 2] - v[a + 2];
+        return new float[] { uy * wz - uz * wy, uz * wx - ux * wz, ux * wy - uy * wx };
+    }
+
+    private static float area(ObjReader.Mesh mesh) {
+        float area = 0;
+        for (int t = 0; t < mesh.getIndexCount() / 3; t++) {
+            float[] n = faceNormal(mesh, t);
+            area += Math.sqrt(n[0] * n[0] + n[1] * n[1] + n[2] * n[2]) / 2;
+        }
+        return area;
+    }
+
+    @Test
+    public void flatGridCollapsesWithoutError() {
+        ObjReader.Mesh grid = grid(16);
+        MeshSimplifier simplifier = new MeshSimplifier();
+        ObjReader.Mesh simplified = simplifier.simplify(grid, 8, 0.01f);
+
+        assertTrue(simplified.getIndexCount() / 3 <= 8);
+        assertTrue(simplified.getVertexCount() < grid.getVertexCount());
+        assertEquals(0f, simplifier.getError(), 1e-4f);
+        // Still flat, still facing up, and the border hasn't moved
+        assertEquals(256f, area(simplified), 1e-2f);
+        for (int t = 0; t < simplified.getIndexCount() / 3; t++) {
+            assertTrue(faceNormal(simplified, t)[1] > 0);
+        }
+        for (int v = 0; v < simplified.getVertexCount(); v++) {
+            assertEquals(0f, simplified.getVertices()[v * STRIDE + 1], 0f);
+        }
+    }
+
+    @Test
+    public void keepsCorners() {
+        ObjReader.Mesh simplified = new MeshSimplifier().simplify(grid(8), 0, 0.01f);
+        float[] v = simplified.getVertices();
+        float[][] corners = { { 0, 0 }, { 8, 0 }, { 0, 8 }, { 8, 8 } };
+        for (float[] corner : corners) {
+            boolean found = false;
+            for (int i = 0; i < simplified.getVertexCount(); i++) {
+                found |= v[i * STRIDE] == corner[0] && v[i * STRIDE + 2] == corner[1];
+            }
+            assertTrue(found);
+        }
+        assertEquals(2, simplified.getIndexCount() / 3);
+    }
+
+    @Test
+    public void sphereKeepsItsShape() {
+        ObjReader.Mesh sphere = sphere(24, 48);
+        int triangles = sphere.getIndexCount() / 3;
+        MeshSimplifier simplifier = new MeshSimplifier();
+        ObjReader.Mesh simplified = simplifier.simplify(sphere, triangles / 8, 1f);
+
+        assertTrue(simplified.getIndexCount() / 3 <= triangles / 8);
+        assertTrue(simplifier.getError() < 0.1f);
+        float[] v = simplified.getVertices();
+        for (int i = 0; i < simplified.getVertexCount(); i++) {
+            float x = v[i * STRIDE], y = v[i * STRIDE + 1], z = v[i * STRIDE + 2];
+            assertEquals(1f, (float) Math.sqrt(x * x + y * y + z * z), 0.1f);
+        }
+        // No triangle was turned inside out
+        for (int t = 0; t < simplified.getIndexCount() / 3; t++) {
+            float[] n = faceNormal(simplified, t);
+            int a = simplified.getIndices()[t * 3] * STRIDE;
+            assertTrue(n[0] * v[a] + n[1] * v[a + 1] + n[2] * v[a + 2] > 0);
+        }
+    }
+
+    @Test
+    public void stopsAtMaxError() {
+        ObjReader.Mesh sphere = sphere(12, 24);
+        MeshSimplifier simplifier = new MeshSimplifier();
+        ObjReader.Mesh simplified = simplifier.simplify(sphere, 0, 0.02f);
+        assertTrue(simplifier.getError() <= 0.02f);
+        assertTrue(simplified.getIndexCount() > 0);
+        assertTrue(simplified.getIndexCount() < sphere.getIndexCount());
+    }
+
+    @Test
+    public void leavesSourceUntouched() {
+        ObjReader.Mesh grid = grid(4);
+        float[] vertices = grid.getVertices().clone();
+        int[] indices = grid.getIndices().clone();
+        new MeshSimplifier().simplify(grid, 2, 1f);
+        assertArrayEquals(vertices, grid.getVertices(), 0f);
+        assertArrayEquals(indices, grid.getIndices());
+    }
+
+    @Test
+    public void buildsLevelsInParallel() {
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            ObjReader.Mesh sphere = sphere(32, 64);
+            LodBuilder.Level[] levels = new LodBuilder(pool).build(sphere,
+                    new float[] { 0.5f, 0.25f, 0.125f }, 1f);
+            assertEquals(4, levels.length);
+            assertSame(sphere, levels[0].getMesh());
+            assertEquals(0f, levels[0].getError(), 0f);
+            for (int i = 1; i < levels.length; i++) {
+                int triangles = levels[i].getMesh().getIndexCount() / 3;
+                assertTrue(triangles <= sphere.getIndexCount() / 3 >> i);
+                assertTrue(levels[i].getError() >= levels[i - 1].getError());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.cardbookvr.cardboardbox;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class ModelImporterTest {
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    private static ByteBuffer bytes(String text) throws Exception {
+        return ByteBuffer.wrap(text.getBytes("US-ASCII"));
+    }
+
+    /**
+     * A grid of quads as OBJ, with normals and a comment on every row.
+     */
+    static String gridObj(int size) {
+        StringBuilder sb = new StringBuilder();
+        for (int z = 0; z <= size; z++) {
+            sb.append("# row ").append(z).append('\n');
+            for (int x = 0; x <= size; x++) {
+                sb.append("v ").append(x * 0.5f).append(' ').append(-1.25e-1f * z)
+                        .append(' ').append(z).append('\n');
+            }
+        }
+        sb.append("vn 0 1 0\n");
+        for (int z = 0; z < size; z++) {
+            for (int x = 0; x < size; x++) {
+                int a = z * (size + 1) + x + 1;
+                sb.append("f ").append(a).append("//1 ").append(a + 1).append("//1 ")
+                        .append(a + size + 2).append("//1 ").append(a + size + 1).append("//1\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void importObj_triangulatesFaces() throws Exception {
+        ModelImporter.Model model = new ModelImporter(pool).importObj(bytes(
+                "v 0 0 0\nv 1 0 0\nv 1 1 0 0.5 0.25 0\nv 0 1 0\nvn 0 0 1\n"
+                        + "f 1//1 2//1 3//1 -1//1\n"));
+
+        assertEquals(4, model.getVertexCount());
+        assertEquals(2, model.getTriangleCount());
+        IntBuffer indices = model.getIndices();
+        int[] expected = {0, 1, 2, 0, 2, 3};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], indices.get(i));
+        }
+        FloatBuffer v = model.getVertices();
+        int o = 2 * ModelImporter.STRIDE_FLOATS;
+        assertEquals(1f, v.get(o + 1), 0);
+        assertEquals(1f, v.get(o + CompiledMesh.NORMAL_OFFSET + 2), 0);
+        assertEquals(0.25f, v.get(o + CompiledMesh.COLOR_OFFSET + 1), 0);
+        assertEquals(1f, v.get(CompiledMesh.COLOR_OFFSET), 0);
+        assertArrayEquals(new float[] {0, 0, 0, 1, 1, 0}, model.getBounds(), 0);
+    }
+
+    @Test
+    public void importObj_sameResultForAnyChunking() throws Exception {
+        String obj = gridObj(40);
+        ModelImporter.Model whole = new ModelImporter(pool).importObj(bytes(obj));
+        ModelImporter.Model chunked = new ModelImporter(pool, 97).importObj(bytes(obj));
+
+        assertEquals(41 * 41, whole.getVertexCount());
+        assertEquals(40 * 40 * 2, whole.getTriangleCount());
+        assertEquals(whole.getVertexCount(), chunked.getVertexCount());
+        assertEquals(whole.getTriangleCount(), chunked.getTriangleCount());
+        assertEquals(whole.getVertices(), chunked.getVertices());
+        assertEquals(whole.getIndices(), chunked.getIndices());
+        assertArrayEquals(whole.getBounds(), chunked.getBounds(), 0);
+    }
+
+    @Test
+    public void importObj_generatesMissingNormals() throws Exception {
+        ModelImporter.Model model = new ModelImporter(pool).importObj(bytes(
+                "v 0 0 0\nv 1 0 0\nv 0 0 -1\nf 1 2 3\n"));
+
+        assertEquals(1f, model.getVertices().get(CompiledMesh.NORMAL_OFFSET + 1), 1e-6f);
+    }
+
+    @Test
+    public void importPly_readsPropertiesAndPolygons() throws Exception {
+        String ply = "ply\nformat ascii 1.0\ncomment test\n"
+                + "element vertex 4\nproperty float x\nproperty float y\nproperty float z\n"
+                + "property float confidence\n"
+                + "property uchar red\nproperty uchar green\nproperty uchar blue\n"
+                + "element face 1\nproperty list uchar int vertex_indices\nend_header\n"
+                + "0 0 0 0.9 255 0 0\n1 0 0 0.9 0 255 0\n1 1 0 0.9 0 0 255\n0 1 0 0.9 51 51 51\n"
+                + "4 0 1 2 3\n";
+        ModelImporter.Model whole = new ModelImporter(pool).importPly(bytes(ply));
+        ModelImporter.Model chunked = new ModelImporter(pool, 7).importPly(bytes(ply));
+
+        assertEquals(4, whole.getVertexCount());
+        assertEquals(2, whole.getTriangleCount());
+        FloatBuffer v = whole.getVertices();
+        assertEquals(1f, v.get(ModelImporter.STRIDE_FLOATS), 0);
+        assertEquals(1f, v.get(ModelImporter.STRIDE_FLOATS + CompiledMesh.COLOR_OFFSET + 1), 0);
+        assertEquals(0.2f, v.get(3 * ModelImporter.STRIDE_FLOATS + CompiledMesh.COLOR_OFFSET), 1e-6f);
+        // Generated, facing +z
+        assertEquals(1f, v.get(CompiledMesh.NORMAL_OFFSET + 2), 1e-6f);
+        assertEquals(whole.getVertices(), chunked.getVertices());
+        assertEquals(whole.getIndices(), chunked.getIndices());
+    }
+
+    @Test
+    public void parseFloat_matchesJava() throws Exception {
+        Random random = new Random(7);
+        StringBuilder sb = new StringBuilder();
+        float[] expected = new float[1000];
+        for (int i = 0; i < expected.length; i++) {
+            String text;
+            switch (i % 4) {
+                case 0:
+                    text = Float.toString((random.nextFloat() - 0.5f) * 1000);
+                    break;
+                case 1:
+                    text = Float.toString(random.nextFloat() * 1e-6f);
+                    break;
+                case 2:
+                    text = String.format("%.9f", random.nextDouble() * 100);
+                    break;
+                default:
+                    text = Integer.toString(random.nextInt(100000) - 50000);
+            }
+            expected[i] = Float.parseFloat(text);
+            sb.append("v ").append(text).append(" 0 0\n");
+        }
+        FloatBuffer v = new ModelImporter(pool).importObj(bytes(sb.toString())).getVertices();
+        for (int i = 0; i < expected.length; i++) {
+            float actual = v.get(i * ModelImporter.STRIDE_FLOATS);
+            assertEquals(expected[i], actual, Math.ulp(expected[i]));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void importObj_rejectsBadReference() throws Exception {
+        new ModelImporter(pool).importObj(bytes("v 0 0 0\nf 1 2 3\n"));
+    }
+
+    @Test(expected = IOException.class)
+    public void importObj_rejectsGarbage() throws Exception {
+        new ModelImporter(pool).importObj(bytes("v 0 zero 0\n"));
+    }
+
+    @Test(expected = IOException.class)
+    public void importPly_rejectsBinary() throws Exception {
+        new ModelImporter(pool).importPly(bytes(
+                "ply\nformat binary_little_endian 1.0\nelement vertex 0\nelement face 0\nend_header\n"));
+    }
+}
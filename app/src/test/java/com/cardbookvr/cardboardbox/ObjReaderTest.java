@@ -0,0 +1,53 @@
+package com.cardbookvr.cardboardbox;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.*;
+
+public class ObjReaderTest {
+    private static ObjReader.Mesh read(String obj) throws IOException {
+        return new ObjReader().read(new BufferedReader(new StringReader(obj)));
+    }
+
+    @Test
+    public void read_triangulatesAndSharesVertices() throws Exception {
+        ObjReader.Mesh mesh = read("# quad\n"
+                + "v 0 0 0\nv 1 0 0\nv 1 1 0\nv 0 1 0\n"
+                + "vn 0 0 1\n"
+                + "f 1//1 2//1 3//1 4//1\n");
+
+        assertEquals(4, mesh.getVertexCount());
+        assertEquals(6, mesh.getIndexCount());
+        int[] expected = {0, 1, 2, 0, 2, 3};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], mesh.getIndices()[i]);
+        }
+        float[] v = mesh.getVertices();
+        int o = 2 * ObjReader.STRIDE_FLOATS;
+        assertEquals(1f, v[o], 0);
+        assertEquals(1f, v[o + 1], 0);
+        assertEquals(1f, v[o + CompiledMesh.NORMAL_OFFSET + 2], 0);
+        assertEquals(1f, v[o + CompiledMesh.COLOR_OFFSET], 0);
+    }
+
+    @Test
+    public void read_resolvesNegativeIndicesAndColors() throws Exception {
+        ObjReader.Mesh mesh = read("v 0 0 0 1 0 0\nv 1 0 0 0 1 0\nv 0 0 -1 0 0 1\n"
+                + "f -3/1 -2/2 -1/3\n");
+
+        assertEquals(3, mesh.getVertexCount());
+        float[] v = mesh.getVertices();
+        assertEquals(1f, v[ObjReader.STRIDE_FLOATS + CompiledMesh.COLOR_OFFSET + 1], 0);
+        // No normals in the file, so the face normal is generated
+        assertEquals(1f, v[CompiledMesh.NORMAL_OFFSET + 1], 1e-6f);
+    }
+
+    @Test(expected = IOException.class)
+    public void read_rejectsBadReferences() throws Exception {
+        read("v 0 0 0\nf 1 2 3\n");
+    }
+}
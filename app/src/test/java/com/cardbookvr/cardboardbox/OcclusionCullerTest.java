@@ -0,0 +1,182 @@
+package com.cardbookvr.cardboardbox;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class OcclusionCullerTest {
+    private static final float EPSILON = 1e-4f;
+
+    @Test
+    public void rasterize_keepsTheNearestDepth() {
+        OcclusionCuller occlusion = begin(new OcclusionCuller(32, 32, 8, null));
+        // Two screen-filling walls; the nearer one wins wherever it is drawn
+        occlusion.addOccluder(wall(-10, 100), 0, 6, identity(), 0);
+        occlusion.addOccluder(wall(-5, 100), 0, 6, identity(), 0);
+        occlusion.rasterize();
+
+        float expected = windowDepth(-5, 0.1f, 100);
+        for (int y = 0; y < 32; y++) {
+            for (int x = 0; x < 32; x++) {
+                assertEquals(expected, occlusion.getDepth(x, y), EPSILON);
+            }
+        }
+        assertEquals(4, occlusion.getTriangleCount());
+    }
+
+    @Test
+    public void isOccluded_onlyHidesWhatIsFullyBehind() {
+        OcclusionCuller occlusion = begin(new OcclusionCuller(64, 64, 16, null));
+        // A 4 by 4 wall across the middle of the view at z = -5
+        occlusion.addOccluder(wall(-5, 2), 0, 6, identity(), 0);
+        occlusion.rasterize();
+
+        assertTrue(occlusion.isOccluded(box(0, 0, -10, 1), 0));
+        // In front of the wall
+        assertFalse(occlusion.isOccluded(box(0, 0, -3, 0.5f), 0));
+        // Straddling the wall's depth
+        assertFalse(occlusion.isOccluded(box(0, 0, -5, 1), 0));
+        // Behind it, but peeking past its side
+        assertFalse(occlusion.isOccluded(box(3, 0, -10, 1.5f), 0));
+        // Off to the side entirely
+        assertFalse(occlusion.isOccluded(box(-15, 0, -10, 1), 0));
+        assertEquals(5, occlusion.getTestedCount());
+        assertEquals(1, occlusion.getOccludedCount());
+        occlusion.resetCounts();
+        assertEquals(0, occlusion.getTestedCount());
+    }
+
+    @Test
+    public void isOccluded_keepsWhatPeeksPastAnEdgeWithinAPixel() {
+        OcclusionCuller occlusion = begin(new OcclusionCuller(64, 64, 16, null));
+        // The wall's right edge is at x = 44.8, so pixel 44's centre is covered
+        occlusion.addOccluder(wall(-5, 2), 0, 6, identity(), 0);
+        occlusion.rasterize();
+
+        // Behind the wall, reaching x = 44.9 at its nearest: a sliver of
+        // pixel 44 past the edge
+        float right = ((44.9f / 64) * 2 - 1) * 9.8f;
+        assertTrue(right > 2 * 9.8f / 5);
+        assertFalse(occlusion.isOccluded(new float[] { 0, -0.5f, -10.2f, right, 0.5f, -9.8f }, 0));
+        // Stopping more than a pixel short of the edge
+        right = ((43.5f / 64) * 2 - 1) * 9.8f;
+        assertTrue(occlusion.isOccluded(new float[] { 0, -0.5f, -10.2f, right, 0.5f, -9.8f }, 0));
+    }
+
+    @Test
+    public void nearPlane_neverHidesOrOccludes() {
+        OcclusionCuller occlusion = begin(new OcclusionCuller(32, 32, 8, null));
+        float[] crossing = {
+                -100, -100, -5, 100, -100, -5, 0, 100, 5,
+        };
+        occlusion.addOccluder(crossing, 0, 3, identity(), 0);
+        assertEquals(0, occlusion.getTriangleCount());
+        occlusion.addOccluder(wall(-5, 100), 0, 6, identity(), 0);
+        occlusion.rasterize();
+
+        // Behind the wall, but reaching past the near plane
+        assertFalse(occlusion.isOccluded(new float[] { -1, -1, -20, 1, 1, 1 }, 0));
+        assertTrue(occlusion.isOccluded(new float[] { -1, -1, -20, 1, 1, -10 }, 0));
+    }
+
+    @Test
+    public void addOccluder_appliesTheModelTransform() {
+        OcclusionCuller occlusion = begin(new OcclusionCuller(64, 64, 16, null));
+        float[] model = identity();
+        Matrices.translateM(model, 0, 3, 0, 0);
+        occlusion.addOccluder(wall(-5, 1), 0, 6, model, 0);
+        occlusion.rasterize();
+
+        // Twice as far away, twice as far to the side
+        assertTrue(occlusion.isOccluded(box(6, 0, -10, 0.5f), 0));
+        assertFalse(occlusion.isOccluded(box(0, 0, -10, 0.5f), 0));
+    }
+
+    @Test
+    public void begin_clearsTheBuffer() {
+        OcclusionCuller occlusion = begin(new OcclusionCuller(32, 32, 8, null));
+        occlusion.addOccluder(wall(-5, 100), 0, 6, identity(), 0);
+        occlusion.rasterize();
+        assertTrue(occlusion.isOccluded(box(0, 0, -10, 1), 0));
+
+        begin(occlusion);
+        occlusion.rasterize();
+        assertEquals(0, occlusion.getTriangleCount());
+        assertEquals(1, occlusion.getDepth(16, 16), 0);
+        assertFalse(occlusion.isOccluded(box(0, 0, -10, 1), 0));
+    }
+
+    @Test
+    public void rasterize_parallelMatchesSequential() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            OcclusionCuller sequential = begin(new OcclusionCuller(97, 61, 8, null));
+            OcclusionCuller parallel = begin(new OcclusionCuller(97, 61, 8, pool));
+            Random random = new Random(5);
+            float[] model = new float[16];
+            float[] scratch = new float[32];
+            for (int i = 0; i < 200; i++) {
+                Matrices.setIdentityM(model, 0);
+                Matrices.translateM(model, 0, (random.nextFloat() - 0.5f) * 20,
+                        (random.nextFloat() - 0.5f) * 20, -5 - random.nextFloat() * 40);
+                Matrices.rotateM(model, 0, random.nextFloat() * 360, random.nextFloat(),
+                        random.nextFloat(), random.nextFloat() + 0.1f, scratch);
+                sequential.addOccluder(Cube.CUBE_COORDS, 0, 36, model, 0);
+                parallel.addOccluder(Cube.CUBE_COORDS, 0, 36, model, 0);
+            }
+            sequential.rasterize();
+            parallel.rasterize();
+
+            for (int y = 0; y < 61; y++) {
+                for (int x = 0; x < 97; x++) {
+                    assertEquals(sequential.getDepth(x, y), parallel.getDepth(x, y), 0);
+                }
+            }
+            for (int i = 0; i < 500; i++) {
+                float[] b = box((random.nextFloat() - 0.5f) * 40, (random.nextFloat() - 0.5f) * 40,
+                        -5 - random.nextFloat() * 80, random.nextFloat() * 2);
+                assertEquals(sequential.isOccluded(b, 0), parallel.isOccluded(b, 0));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void isOccluded_needsBegin() {
+        new OcclusionCuller(8, 8, 4, null).isOccluded(box(0, 0, -5, 1), 0);
+    }
+
+    private static OcclusionCuller begin(OcclusionCuller occlusion) {
+        occlusion.begin(FrustumCullerTest.perspective(90, 1, 0.1f, 100), 0);
+        return occlusion;
+    }
+
+    /**
+     * Two triangles facing the viewer, half wide across, at depth z.
+     */
+    private static float[] wall(float z, float half) {
+        return new float[] {
+                -half, -half, z, half, -half, z, half, half, z,
+                -half, -half, z, half, half, z, -half, half, z,
+        };
+    }
+
+    private static float[] box(float x, float y, float z, float half) {
+        return new float[] { x - half, y - half, z - half, x + half, y + half, z + half };
+    }
+
+    private static float[] identity() {
+        float[] m = new float[16];
+        Matrices.setIdentityM(m, 0);
+        return m;
+    }
+
+    private static float windowDepth(float eyeZ, float near, float far) {
+        float ndc = ((far + near) / (near - far) * eyeZ + 2 * far * near / (near - far)) / -eyeZ;
+        return ndc * 0.5f + 0.5f;
+    }
+}
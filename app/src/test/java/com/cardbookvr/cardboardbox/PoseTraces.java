@@ -0,0 +1,150 @@
+package com.cardbookvr.cardboardbox;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Head orientation traces for replaying through {@link HeadPosePredictor}:
+ * synthetic ones, and recorded ones read from CSV lines of
+ * "nanos,x,y,z,w".
+ */
+class PoseTraces {
+    /**
+     * Timestamped unit quaternions.
+     */
+    static class Trace {
+        final String name;
+        final long[] times;
+        final float[] orientations;
+
+        Trace(String name, long[] times, float[] orientations) {
+            this.name = name;
+            this.times = times;
+            this.orientations = orientations;
+        }
+
+        int size() {
+            return times.length;
+        }
+    }
+
+    /**
+     * Errors of one replay, in degrees.
+     */
+    static class Result {
+        float mean;
+        float rms;
+        float max;
+        float unpredicted;
+        long count;
+    }
+
+    private PoseTraces() {
+    }
+
+    /**
+     * Feed every sample to the predictor, predicting horizonNanos ahead
+     * after each one, as onNewFrame does.
+     */
+    static Result replay(Trace trace, HeadPosePredictor predictor, long horizonNanos) {
+        float[] predicted = new float[4];
+        for (int i = 0; i < trace.size(); i++) {
+            predictor.addSample(trace.times[i], trace.orientations, i * 4);
+            predictor.predict(trace.times[i] + horizonNanos, predicted, 0);
+        }
+        Result result = new Result();
+        result.mean = predictor.getMeanError();
+        result.rms = predictor.getRmsError();
+        result.max = predictor.getMaxError();
+        result.unpredicted = predictor.getMeanUnpredictedError();
+        result.count = predictor.getErrorCount();
+        return result;
+    }
+
+    /**
+     * Yaw and pitch swaying sinusoidally, like looking around a scene.
+     */
+    static Trace sway(long intervalNanos, float seconds) {
+        int count = (int) (seconds * 1e9f / intervalNanos);
+        long[] times = new long[count];
+        float[] orientations = new float[count * 4];
+        float[] pitch = new float[4];
+        for (int i = 0; i < count; i++) {
+            times[i] = i * intervalNanos;
+            double t = times[i] / 1e9;
+            Quaternions.setAxisAngle(orientations, i * 4,
+                    (float) (30 * Math.sin(2 * Math.PI * 0.5 * t)), 0, 1, 0);
+            Quaternions.setAxisAngle(pitch, 0, (float) (10 * Math.sin(2 * Math.PI * 0.3 * t)), 1, 0, 0);
+            Quaternions.multiply(orientations, i * 4, orientations, i * 4, pitch, 0);
+        }
+        return new Trace("sway", times, orientations);
+    }
+
+    /**
+     * 60 degree turns with a minimum-jerk profile, 300ms each, with
+     * pauses between them.
+     */
+    static Trace turns(long intervalNanos, float seconds) {
+        int count = (int) (seconds * 1e9f / intervalNanos);
+        long[] times = new long[count];
+        float[] orientations = new float[count * 4];
+        for (int i = 0; i < count; i++) {
+            times[i] = i * intervalNanos;
+            double t = times[i] / 1e9;
+            // One turn per second, alternating direction
+            int turn = (int) t;
+            double u = Math.min(1, (t - turn) / 0.3);
+            double s = u * u * u * (10 - 15 * u + 6 * u * u);
+            double yaw = turn % 2 == 0 ? 60 * s : 60 * (1 - s);
+            Quaternions.setAxisAngle(orientations, i * 4, (float) yaw, 0, 1, 0);
+        }
+        return new Trace("turns", times, orientations);
+    }
+
+    /**
+     * A trace with sensor noise of the given standard deviation, in
+     * degrees, added around random axes.
+     */
+    static Trace noisy(Trace trace, float degrees, long seed) {
+        Random random = new Random(seed);
+        float[] orientations = Arrays.copyOf(trace.orientations, trace.orientations.length);
+        float[] noise = new float[4];
+        for (int i = 0; i < trace.size(); i++) {
+            Quaternions.setAxisAngle(noise, 0, (float) random.nextGaussian() * degrees,
+                    (float) random.nextGaussian(), (float) random.nextGaussian(),
+                    (float) random.nextGaussian());
+            Quaternions.multiply(orientations, i * 4, noise, 0, orientations, i * 4);
+        }
+        return new Trace(trace.name + "+noise", trace.times, orientations);
+    }
+
+    /**
+     * Read a recorded trace of "nanos,x,y,z,w" lines; blank lines and
+     * lines starting with # are skipped.
+     */
+    static Trace read(String name, BufferedReader reader) throws IOException {
+        long[] times = new long[1024];
+        float[] orientations = new float[4096];
+        int count = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split(",");
+            if (count == times.length) {
+                times = Arrays.copyOf(times, count * 2);
+                orientations = Arrays.copyOf(orientations, count * 8);
+            }
+            times[count] = Long.parseLong(fields[0].trim());
+            for (int k = 0; k < 4; k++) {
+                orientations[count * 4 + k] = Float.parseFloat(fields[1 + k].trim());
+            }
+            count++;
+        }
+        return new Trace(name, Arrays.copyOf(times, count), Arrays.copyOf(orientations, count * 4));
+    }
+}
@@ -0,0 +1,114 @@
+package com.cardbookvr.cardboardbox;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class ProgramBinaryStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), "UTF-8");
+    }
+
+    private static ProgramBinaryStore.Binary binary(int size) {
+        return new ProgramBinaryStore.Binary(7, new byte[size]);
+    }
+
+    @Test
+    public void save_persistsAcrossInstances() throws Exception {
+        File dir = folder.newFolder();
+        ProgramBinaryStore store = new ProgramBinaryStore(dir, 1000);
+        store.open("gpu");
+        byte[] data = {1, 2, 3, 4};
+        store.save("a", new ProgramBinaryStore.Binary(42, data));
+
+        ProgramBinaryStore reopened = new ProgramBinaryStore(dir, 1000);
+        reopened.open("gpu");
+        ProgramBinaryStore.Binary loaded = reopened.load("a");
+
+        assertNotNull(loaded);
+        assertEquals(42, loaded.format);
+        assertArrayEquals(data, loaded.data);
+        assertEquals(4, reopened.getTotalBytes());
+    }
+
+    @Test
+    public void save_evictsLeastRecentlyUsed() throws Exception {
+        ProgramBinaryStore store = new ProgramBinaryStore(folder.newFolder(), 250);
+        store.open("gpu");
+        store.save("a", binary(100));
+        store.save("b", binary(100));
+        store.load("a");
+        store.save("c", binary(100));
+
+        assertTrue(store.contains("a"));
+        assertFalse(store.contains("b"));
+        assertTrue(store.contains("c"));
+        assertEquals(200, store.getTotalBytes());
+    }
+
+    @Test
+    public void load_writesTheNewOrderOnlyOnFlush() throws Exception {
+        File dir = folder.newFolder();
+        File index = new File(dir, "index");
+        ProgramBinaryStore store = new ProgramBinaryStore(dir, 250);
+        store.open("gpu");
+        store.save("a", binary(100));
+        store.save("b", binary(100));
+        String saved = read(index);
+        store.load("a");
+        store.load("b");
+        store.load("a");
+        assertEquals(saved, read(index));
+
+        store.flush();
+        assertNotEquals(saved, read(index));
+        // Reopened, b is now the least recently used
+        ProgramBinaryStore reopened = new ProgramBinaryStore(dir, 250);
+        reopened.open("gpu");
+        reopened.save("c", binary(100));
+        assertTrue(reopened.contains("a"));
+        assertFalse(reopened.contains("b"));
+    }
+
+    @Test
+    public void open_dropsEntriesForOtherDriver() throws Exception {
+        File dir = folder.newFolder();
+        ProgramBinaryStore store = new ProgramBinaryStore(dir, 1000);
+        store.open("gpu 1.0");
+        store.save("a", binary(10));
+
+        store.open("gpu 1.1");
+
+        assertEquals(0, store.getEntryCount());
+        assertFalse(new File(dir, "a.bin").exists());
+    }
+
+    @Test
+    public void open_recoversFromCorruptIndex() throws Exception {
+        File dir = folder.newFolder();
+        ProgramBinaryStore store = new ProgramBinaryStore(dir, 1000);
+        store.open("gpu");
+        store.save("a", binary(10));
+        Writer writer = new FileWriter(new File(dir, "index"), true);
+        writer.write("garbage\n");
+        writer.close();
+
+        ProgramBinaryStore reopened = new ProgramBinaryStore(dir, 1000);
+        reopened.open("gpu");
+
+        assertEquals(0, reopened.getEntryCount());
+        reopened.save("b", binary(10));
+        assertTrue(reopened.contains("b"));
+    }
+}
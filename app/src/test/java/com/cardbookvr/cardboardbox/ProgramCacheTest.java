@@ -0,0 +1,168 @@
+package com.cardbookvr.cardboardbox;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class ProgramCacheTest {
+    private static final int VERTEX = 0x8B31;
+    private static final int FRAGMENT = 0x8B30;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ShaderSource light;
+    private ShaderSource passthrough;
+    private ShaderSource grid;
+
+    @Before
+    public void setUp() {
+        light = new ShaderSource("light_vertex", VERTEX, "void main() { light(); }\n");
+        passthrough = new ShaderSource("passthrough_fragment", FRAGMENT, "void main() {}\n");
+        grid = new ShaderSource("grid_fragment", FRAGMENT, "void main() { grid(); }\n");
+    }
+
+    /**
+     * Hands out increasing handles and fakes binaries that only load for
+     * the same identity.
+     */
+    private static class StubDriver implements ShaderDriver {
+        private final String identity;
+        private final boolean binaries;
+        private int nextHandle = 1;
+        private int deleted;
+
+        StubDriver(String identity, boolean binaries) {
+            this.identity = identity;
+            this.binaries = binaries;
+        }
+
+        @Override
+        public int compileShader(int type, String code) {
+            return nextHandle++;
+        }
+
+        @Override
+        public int linkProgram(int vertexShader, int fragmentShader) {
+            return nextHandle++;
+        }
+
+        @Override
+        public void deleteShader(int shader) {
+            deleted++;
+        }
+
+        @Override
+        public ProgramBinaryStore.Binary getProgramBinary(int program) {
+            return binaries ? new ProgramBinaryStore.Binary(1, identity.getBytes()) : null;
+        }
+
+        @Override
+        public int loadProgramBinary(ProgramBinaryStore.Binary binary) {
+            return new String(binary.data).equals(identity) ? nextHandle++ : 0;
+        }
+
+        @Override
+        public String getIdentity() {
+            return identity;
+        }
+    }
+
+    @Test
+    public void getProgram_compilesSharedShaderOnce() throws Exception {
+        ProgramCache cache = new ProgramCache(new StubDriver("gpu", false), null);
+
+        int cube = cache.getProgram(light, passthrough);
+        int floor = cache.getProgram(light, grid);
+        int again = cache.getProgram(light, passthrough);
+
+        assertNotEquals(cube, floor);
+        assertEquals(cube, again);
+        assertEquals(3, cache.getCompileCount());
+        assertEquals(2, cache.getLinkCount());
+    }
+
+    @Test
+    public void getProgramIndex_isDenseWhateverTheHandles() throws Exception {
+        StubDriver driver = new StubDriver("gpu", false);
+        driver.nextHandle = 1 << 20;
+        ProgramCache cache = new ProgramCache(driver, null);
+
+        int cube = cache.getProgram(light, passthrough);
+        int floor = cache.getProgram(light, grid);
+        assertTrue(cube > RenderQueue.MAX_PROGRAM);
+        assertEquals(0, cache.getProgramIndex(cube));
+        assertEquals(1, cache.getProgramIndex(floor));
+        assertEquals(0, cache.getProgramIndex(cache.getProgram(light, passthrough)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getProgramIndex_rejectsOtherHandles() throws Exception {
+        ProgramCache cache = new ProgramCache(new StubDriver("gpu", false), null);
+        cache.getProgramIndex(cache.getProgram(light, passthrough) + 1);
+    }
+
+    @Test
+    public void finish_deletesEachShaderOnce() throws Exception {
+        StubDriver driver = new StubDriver("gpu", false);
+        ProgramCache cache = new ProgramCache(driver, null);
+        cache.getProgram(light, passthrough);
+        cache.getProgram(light, grid);
+        cache.finish();
+        assertEquals(3, driver.deleted);
+
+        // Programs already made are kept; new ones compile what they need again
+        cache.getProgram(light, grid);
+        assertEquals(3, cache.getCompileCount());
+        cache.getProgram(new ShaderSource("other", VERTEX, "void main() { other(); }\n"), grid);
+        assertEquals(5, cache.getCompileCount());
+    }
+
+    @Test
+    public void getProgram_dedupsIdenticalSourcesFromDifferentFiles() throws Exception {
+        ProgramCache cache = new ProgramCache(new StubDriver("gpu", false), null);
+        ShaderSource copy = new ShaderSource("copy_of_light", VERTEX, light.getCode());
+
+        assertEquals(cache.getProgram(light, passthrough), cache.getProgram(copy, passthrough));
+        assertEquals(1, cache.getLinkCount());
+    }
+
+    @Test
+    public void getProgram_reusesBinariesAcrossStarts() throws Exception {
+        File dir = folder.newFolder();
+        ProgramCache first = new ProgramCache(new StubDriver("gpu", true),
+                new ProgramBinaryStore(dir, 1024));
+        first.getProgram(light, passthrough);
+        first.getProgram(light, grid);
+        assertEquals(2, first.getLinkCount());
+
+        ProgramCache second = new ProgramCache(new StubDriver("gpu", true),
+                new ProgramBinaryStore(dir, 1024));
+        second.getProgram(light, passthrough);
+        second.getProgram(light, grid);
+
+        assertEquals(0, second.getCompileCount());
+        assertEquals(0, second.getLinkCount());
+        assertEquals(2, second.getBinaryLoadCount());
+    }
+
+    @Test
+    public void getProgram_recompilesAfterDriverChange() throws Exception {
+        File dir = folder.newFolder();
+        new ProgramCache(new StubDriver("gpu 1.0", true), new ProgramBinaryStore(dir, 1024))
+                .getProgram(light, passthrough);
+
+        ProgramBinaryStore store = new ProgramBinaryStore(dir, 1024);
+        ProgramCache updated = new ProgramCache(new StubDriver("gpu 1.1", true), store);
+        updated.getProgram(light, passthrough);
+
+        assertEquals(0, updated.getBinaryLoadCount());
+        assertEquals(1, updated.getLinkCount());
+        assertEquals(1, store.getEntryCount());
+    }
+}
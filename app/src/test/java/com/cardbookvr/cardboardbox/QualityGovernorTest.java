@@ -0,0 +1,138 @@
+package com.cardbookvr.cardboardbox;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class QualityGovernorTest {
+    private static final long BUDGET = 1000000000L / 60;
+    private static final int WINDOW = 30;
+    private static final int RECOVER = 180;
+    private static final int LEVELS = 5;
+
+    @Test
+    public void holdsFullQualityWithinBudget() {
+        QualityGovernor governor = governor();
+        Random random = new Random(1);
+        for (int frame = 0; frame < 10000; frame++) {
+            assertFalse(governor.addFrame(load(0.5f, 0.1f, random)));
+        }
+        assertEquals(0, governor.getLevel());
+    }
+
+    @Test
+    public void ignoresLoneSpikes() {
+        QualityGovernor governor = governor();
+        Random random = new Random(2);
+        for (int frame = 0; frame < 10000; frame++) {
+            // A long frame every second, as a collection might cause
+            governor.addFrame(frame % 60 == 0 ? BUDGET * 3 : load(0.5f, 0.1f, random));
+        }
+        assertEquals(0, governor.getStepDownCount());
+    }
+
+    @Test
+    public void stepsDownWithinAWindowOfOverload() {
+        QualityGovernor governor = governor();
+        Random random = new Random(3);
+        for (int frame = 0; frame < 100; frame++) {
+            governor.addFrame(load(0.5f, 0.1f, random));
+        }
+        int frames = 0;
+        while (governor.getLevel() == 0) {
+            governor.addFrame(load(1.2f, 0.1f, random));
+            frames++;
+        }
+        assertTrue("took " + frames + " frames", frames <= WINDOW);
+
+        // Still overloaded, down a level per window to the lowest
+        for (int frame = 0; frame < WINDOW * LEVELS; frame++) {
+            governor.addFrame(load(1.2f, 0.1f, random));
+        }
+        assertEquals(LEVELS - 1, governor.getLevel());
+        assertEquals(LEVELS - 1, governor.getStepDownCount());
+    }
+
+    @Test
+    public void stepsBackUpOnlyAfterRecovering() {
+        QualityGovernor governor = governor();
+        governor.setLevel(2);
+        Random random = new Random(4);
+        int frames = 0;
+        while (governor.getLevel() == 2) {
+            governor.addFrame(load(0.4f, 0.05f, random));
+            frames++;
+        }
+        assertEquals(1, governor.getLevel());
+        assertEquals(RECOVER, frames);
+
+        // Between the thresholds there is no reason to change either way
+        for (int frame = 0; frame < 10000; frame++) {
+            assertFalse(governor.addFrame(load(0.75f, 0.05f, random)));
+        }
+        assertEquals(1, governor.getLevel());
+    }
+
+    @Test
+    public void settlesInsteadOfOscillating() {
+        // Full quality takes 1.1 of the budget, the next level only 0.5,
+        // which looks like room to go back up every time
+        QualityGovernor governor = governor();
+        Random random = new Random(5);
+        int frames = 60 * 60 * 10;
+        for (int frame = 0; frame < frames; frame++) {
+            governor.addFrame(load(1.1f - 0.6f * governor.getLevel(), 0.05f, random));
+        }
+        // Every failed try at full quality doubles the wait for the next,
+        // up to 8 times, instead of trying every RECOVER frames
+        int changes = governor.getStepUpCount() + governor.getStepDownCount();
+        assertTrue("changed " + changes + " times", changes <= 2 * (frames / (RECOVER * 8) + 4));
+        assertEquals(1, governor.getLevel());
+    }
+
+    @Test
+    public void resetWaitsForAFullWindow() {
+        QualityGovernor governor = governor();
+        for (int frame = 0; frame < WINDOW - 1; frame++) {
+            governor.addFrame(BUDGET * 2);
+        }
+        governor.reset();
+        for (int frame = 0; frame < WINDOW - 1; frame++) {
+            assertFalse(governor.addFrame(BUDGET * 2));
+        }
+        assertTrue(governor.addFrame(BUDGET * 2));
+        assertEquals(1, governor.getLevel());
+    }
+
+    @Test
+    public void singleLevelNeverChanges() {
+        QualityGovernor governor = new QualityGovernor(1, BUDGET, WINDOW, RECOVER);
+        for (int frame = 0; frame < 1000; frame++) {
+            assertFalse(governor.addFrame(BUDGET * 2));
+        }
+        assertEquals(0, governor.getLevel());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsShortRecovery() {
+        new QualityGovernor(LEVELS, BUDGET, WINDOW, WINDOW - 1);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void setLevel_rejectsMissingLevels() {
+        governor().setLevel(LEVELS);
+    }
+
+    private static QualityGovernor governor() {
+        return new QualityGovernor(LEVELS, BUDGET, WINDOW, RECOVER);
+    }
+
+    /**
+     * @return a frame time around a fraction of the budget.
+     */
+    private static long load(float fraction, float jitter, Random random) {
+        return Math.max(0, (long) (BUDGET * (fraction + jitter * (float) random.nextGaussian())));
+    }
+}
@@ -0,0 +1,118 @@
+package com.cardbookvr.cardboardbox;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class QuaternionsTest {
+    private static final float EPSILON = 1e-5f;
+
+    @Test
+    public void toRotationM_matchesSetRotateM() {
+        float[] q = new float[4];
+        float[] expected = new float[16];
+        float[] actual = new float[16];
+        for (int a = -180; a <= 180; a += 45) {
+            Quaternions.setAxisAngle(q, 0, a, 0.5f, 0.5f, 1.0f);
+            Quaternions.toRotationM(actual, 0, q, 0);
+            Matrices.setRotateM(expected, 0, a, 0.5f, 0.5f, 1.0f);
+            assertArrayEquals(expected, actual, EPSILON);
+        }
+    }
+
+    @Test
+    public void conjugate_transposesTheMatrix() {
+        float[] q = new float[4];
+        Quaternions.setAxisAngle(q, 0, 70, 0.5f, -1, 0.2f);
+        float[] m = new float[16];
+        Quaternions.toRotationM(m, 0, q, 0);
+        Quaternions.conjugate(q, 0);
+        float[] inverse = new float[16];
+        Quaternions.toRotationM(inverse, 0, q, 0);
+
+        float[] identity = new float[16];
+        Matrices.setIdentityM(identity, 0);
+        assertArrayEquals(identity, MatricesTest.multiply(m, inverse), EPSILON);
+        for (int col = 0; col < 4; col++) {
+            for (int row = 0; row < 4; row++) {
+                assertEquals(m[row * 4 + col], inverse[col * 4 + row], EPSILON);
+            }
+        }
+    }
+
+    @Test
+    public void multiply_composesLikeMatrices() {
+        float[] q = new float[12];
+        Quaternions.setAxisAngle(q, 0, 30, 1, 1, 0);
+        Quaternions.setAxisAngle(q, 4, 70, 0, 0.2f, 1);
+        Quaternions.multiply(q, 8, q, 0, q, 4);
+
+        float[] a = new float[16];
+        float[] b = new float[16];
+        float[] actual = new float[16];
+        Quaternions.toRotationM(a, 0, q, 0);
+        Quaternions.toRotationM(b, 0, q, 4);
+        Quaternions.toRotationM(actual, 0, q, 8);
+        assertArrayEquals(MatricesTest.multiply(a, b), actual, EPSILON);
+
+        // In place
+        Quaternions.multiply(q, 0, q, 0, q, 4);
+        assertArrayEquals(new float[] { q[8], q[9], q[10], q[11] },
+                new float[] { q[0], q[1], q[2], q[3] }, 0f);
+    }
+
+    @Test
+    public void slerp_followsTheShortArc() {
+        float[] q = new float[12];
+        Quaternions.setAxisAngle(q, 0, 10, 0, 1, 0);
+        Quaternions.setAxisAngle(q, 4, 90, 0, 1, 0);
+        float[] expected = new float[4];
+        for (int i = 0; i <= 4; i++) {
+            Quaternions.slerp(q, 8, q, 0, q, 4, i / 4f);
+            Quaternions.setAxisAngle(expected, 0, 10 + 20 * i, 0, 1, 0);
+            assertArrayEquals(expected, new float[] { q[8], q[9], q[10], q[11] }, EPSILON);
+        }
+
+        // The same rotation with the opposite sign is no rotation at all
+        for (int k = 0; k < 4; k++) {
+            q[4 + k] = -q[k];
+        }
+        Quaternions.slerp(q, 8, q, 0, q, 4, 0.5f);
+        float[] a = new float[16];
+        float[] b = new float[16];
+        Quaternions.toRotationM(a, 0, q, 0);
+        Quaternions.toRotationM(b, 0, q, 8);
+        assertArrayEquals(a, b, EPSILON);
+    }
+
+    @Test
+    public void rotationVector_roundTrips() {
+        float[] q = new float[8];
+        float[] v = new float[3];
+        Quaternions.setAxisAngle(q, 0, 90, 0, 1, 0);
+        Quaternions.toRotationVector(v, 0, q, 0);
+        assertArrayEquals(new float[] { 0, (float) (Math.PI / 2), 0 }, v, EPSILON);
+        Quaternions.fromRotationVector(q, 4, v[0], v[1], v[2]);
+        assertArrayEquals(new float[] { q[0], q[1], q[2], q[3] },
+                new float[] { q[4], q[5], q[6], q[7] }, EPSILON);
+
+        // The negated quaternion is the same rotation
+        for (int k = 0; k < 4; k++) {
+            q[k] = -q[k];
+        }
+        Quaternions.toRotationVector(v, 0, q, 0);
+        assertEquals(Math.PI / 2, v[1], EPSILON);
+    }
+
+    @Test
+    public void multiplyConjugate_givesTheRotationBetween() {
+        float[] q = new float[12];
+        Quaternions.setAxisAngle(q, 0, 20, 0, 1, 0);
+        Quaternions.setAxisAngle(q, 4, 50, 0, 1, 0);
+        Quaternions.multiplyConjugate(q, 8, q, 4, q, 0);
+        Quaternions.setAxisAngle(q, 0, 30, 0, 1, 0);
+        assertArrayEquals(new float[] { q[0], q[1], q[2], q[3] },
+                new float[] { q[8], q[9], q[10], q[11] }, EPSILON);
+        assertEquals(20, Quaternions.angle(q, 4, q, 0), 0.01f);
+    }
+}
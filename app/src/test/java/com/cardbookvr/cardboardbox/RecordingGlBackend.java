@@ -0,0 +1,120 @@
+package com.cardbookvr.cardboardbox;
+
+import java.nio.Buffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records every call as a line of text, and hands out locations in the
+ * order they are asked for.
+ */
+class RecordingGlBackend implements GlBackend {
+    final List<String> calls = new ArrayList<>();
+    private int nextLocation;
+
+    /**
+     * @return the calls recorded since the last time, then forgets them.
+     */
+    List<String> take() {
+        List<String> taken = new ArrayList<>(calls);
+        calls.clear();
+        return taken;
+    }
+
+    @Override
+    public String glGetString(int name) {
+        calls.add("getString " + name);
+        return null;
+    }
+
+    @Override
+    public void glClear(int mask) {
+        calls.add("clear " + mask);
+    }
+
+    @Override
+    public void glEnable(int cap) {
+        calls.add("enable " + cap);
+    }
+
+    @Override
+    public void glDisable(int cap) {
+        calls.add("disable " + cap);
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        calls.add("useProgram " + program);
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        calls.add("getAttribLocation " + program + " " + name);
+        return nextLocation++;
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        calls.add("getUniformLocation " + program + " " + name);
+        return nextLocation++;
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        calls.add("enableVertexAttribArray " + index);
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        calls.add("disableVertexAttribArray " + index);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+                                      int stride, Buffer pointer) {
+        calls.add("vertexAttribPointer " + index + " " + size + " " + stride + " @"
+                + pointer.position());
+    }
+
+    @Override
+    public void glUniform1f(int location, float x) {
+        calls.add("uniform1f " + location + " " + x);
+    }
+
+    @Override
+    public void glUniform3fv(int location, int count, float[] v, int offset) {
+        calls.add("uniform3fv " + location);
+    }
+
+    @Override
+    public void glUniform4fv(int location, int count, float[] v, int offset) {
+        calls.add("uniform4fv " + location);
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value,
+                                   int offset) {
+        calls.add("uniformMatrix4fv " + location);
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count) {
+        calls.add("drawArrays " + count);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, Buffer indices) {
+        calls.add("drawElements " + count);
+    }
+
+    @Override
+    public void glVertexAttribDivisor(int index, int divisor) {
+        calls.add("vertexAttribDivisor " + index + " " + divisor);
+    }
+
+    @Override
+    public void glDrawElementsInstanced(int mode, int count, int type, Buffer indices,
+                                        int instanceCount) {
+        calls.add("drawElementsInstanced " + count + " x" + instanceCount);
+    }
+}
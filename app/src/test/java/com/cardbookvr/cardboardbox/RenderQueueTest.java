@@ -0,0 +1,95 @@
+package com.cardbookvr.cardboardbox;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RenderQueueTest {
+    @Test
+    public void sortsLikeAStableUnsignedSort() {
+        Random random = new Random(11);
+        RenderQueue queue = new RenderQueue(1);
+        final List<long[]> expected = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            // Few distinct values in some bytes, full range in others
+            long key = random.nextLong() & 0xF0FF_0000_00FF_FF00L | (long) random.nextInt(4) << 40;
+            queue.add(key, i);
+            expected.add(new long[] { key, i });
+        }
+        Collections.sort(expected, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                // Unsigned
+                return Long.compare(a[0] ^ Long.MIN_VALUE, b[0] ^ Long.MIN_VALUE);
+            }
+        });
+        queue.sort();
+        assertEquals(5000, queue.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i)[0], queue.getKey(i));
+            assertEquals(expected.get(i)[1], queue.getItem(i));
+        }
+    }
+
+    @Test
+    public void opaqueDrawsGroupByStateThenGoFrontToBack() {
+        RenderQueue queue = new RenderQueue(8);
+        queue.add(RenderQueue.opaqueKey(1, 1, 0, 0.1f, 0), 0);
+        queue.add(RenderQueue.opaqueKey(0, 2, 0, 0.2f, 0), 1);
+        queue.add(RenderQueue.opaqueKey(0, 1, 1, 0.1f, 0), 2);
+        queue.add(RenderQueue.opaqueKey(0, 1, 0, 0.9f, 0), 3);
+        queue.add(RenderQueue.opaqueKey(0, 1, 0, 0.3f, 0), 4);
+        queue.add(RenderQueue.opaqueKey(0, 2, 0, 0.1f, 0), 5);
+        queue.sort();
+        assertArrayEquals(new int[] { 4, 3, 2, 5, 1, 0 }, items(queue));
+    }
+
+    @Test
+    public void translucentDrawsGoBackToFront() {
+        RenderQueue queue = new RenderQueue(4);
+        queue.add(RenderQueue.translucentKey(2, 1, 0, 0.1f, 0), 0);
+        queue.add(RenderQueue.translucentKey(2, 2, 0, 0.5f, 0), 1);
+        queue.add(RenderQueue.translucentKey(2, 1, 0, 0.3f, 0), 2);
+        queue.add(RenderQueue.opaqueKey(0, 3, 0, 0.9f, 0), 3);
+        queue.sort();
+        assertArrayEquals(new int[] { 3, 1, 2, 0 }, items(queue));
+        assertEquals(2, RenderQueue.getLayer(queue.getKey(1)));
+    }
+
+    @Test
+    public void depthIsClampedAndUserBitsKept() {
+        assertEquals(RenderQueue.opaqueKey(0, 0, 0, 0, 7), RenderQueue.opaqueKey(0, 0, 0, -5, 7));
+        assertEquals(RenderQueue.opaqueKey(0, 0, 0, 1, 7),
+                RenderQueue.opaqueKey(0, 0, 0, Float.POSITIVE_INFINITY, 7));
+        assertEquals(7, RenderQueue.getUser(RenderQueue.opaqueKey(15, 4095, 255, 1, 7)));
+        assertEquals(15, RenderQueue.getLayer(RenderQueue.opaqueKey(15, 4095, 255, 1, 7)));
+    }
+
+    @Test
+    public void clearEmptiesTheQueue() {
+        RenderQueue queue = new RenderQueue(2);
+        queue.add(1, 1);
+        queue.clear();
+        queue.sort();
+        assertEquals(0, queue.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsProgramsOutOfRange() {
+        RenderQueue.opaqueKey(0, RenderQueue.MAX_PROGRAM + 1, 0, 0, 0);
+    }
+
+    private static int[] items(RenderQueue queue) {
+        int[] items = new int[queue.size()];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = queue.getItem(i);
+        }
+        return items;
+    }
+}
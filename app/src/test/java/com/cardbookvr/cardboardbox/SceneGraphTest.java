@@ -0,0 +1,140 @@
+package com.cardbookvr.cardboardbox;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class SceneGraphTest {
+    private static final float EPSILON = 1e-4f;
+
+    private static float[] translation(float x, float y, float z) {
+        float[] m = new float[16];
+        Matrices.setIdentityM(m, 0);
+        Matrices.translateM(m, 0, x, y, z);
+        return m;
+    }
+
+    private static float[] world(SceneGraph scene, int node) {
+        float[] m = new float[16];
+        scene.getWorld(node, m, 0);
+        return m;
+    }
+
+    @Test
+    public void worldIsParentWorldTimesLocal() {
+        SceneGraph scene = new SceneGraph(4, null);
+        int root = scene.addNode(SceneGraph.NO_PARENT);
+        int child = scene.addNode(root);
+        int grandchild = scene.addNode(child);
+        float[] spin = new float[16];
+        Matrices.setRotateM(spin, 0, 90, 0, 1, 0);
+        scene.setLocal(root, translation(1, 0, 0), 0);
+        scene.setLocal(child, spin, 0);
+        scene.setLocal(grandchild, translation(0, 0, -2), 0);
+        assertEquals(3, scene.update());
+
+        float[] expected = MatricesTest.multiply(
+                MatricesTest.multiply(translation(1, 0, 0), spin), translation(0, 0, -2));
+        assertArrayEquals(expected, world(scene, grandchild), EPSILON);
+        assertEquals(-1f, world(scene, grandchild)[12], EPSILON);
+    }
+
+    @Test
+    public void onlyChangedSubtreesAreRecomputed() {
+        SceneGraph scene = new SceneGraph(8, null);
+        int a = scene.addNode(SceneGraph.NO_PARENT);
+        int a1 = scene.addNode(a);
+        int a2 = scene.addNode(a);
+        int b = scene.addNode(SceneGraph.NO_PARENT);
+        int b1 = scene.addNode(b);
+        assertEquals(5, scene.update());
+
+        // Nothing changed
+        assertEquals(0, scene.update());
+        assertFalse(scene.isWorldChanged(a));
+
+        scene.setLocal(a1, translation(0, 1, 0), 0);
+        assertEquals(1, scene.update());
+        assertTrue(scene.isWorldChanged(a1));
+        assertFalse(scene.isWorldChanged(a2));
+
+        // A child queued along with its parent is done once
+        scene.setLocal(b1, translation(0, 1, 0), 0);
+        scene.setLocal(b, translation(3, 0, 0), 0);
+        assertEquals(2, scene.update());
+        assertEquals(3f, world(scene, b1)[12], EPSILON);
+        assertEquals(1f, world(scene, b1)[13], EPSILON);
+        assertFalse(scene.isWorldChanged(a1));
+    }
+
+    @Test
+    public void inPlaceEditsNeedInvalidate() {
+        SceneGraph scene = new SceneGraph(1, null);
+        int node = scene.addNode(SceneGraph.NO_PARENT);
+        scene.update();
+        scene.getLocalMatrices()[node * 16 + 12] = 7;
+        assertEquals(0, scene.update());
+        scene.invalidate(node);
+        assertEquals(1, scene.update());
+        assertEquals(7f, world(scene, node)[12], 0f);
+    }
+
+    @Test
+    public void growsPastItsCapacityAndHandlesDeepChains() {
+        SceneGraph scene = new SceneGraph(1, null);
+        int node = scene.addNode(SceneGraph.NO_PARENT);
+        for (int i = 0; i < 20000; i++) {
+            node = scene.addNode(node);
+            scene.setLocal(node, translation(0, 0, -0.001f), 0);
+        }
+        assertEquals(20001, scene.update());
+        assertEquals(-20f, world(scene, node)[14], 1e-2f);
+    }
+
+    @Test
+    public void parallelUpdateMatchesSequential() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            SceneGraph sequential = new SceneGraph(16, null);
+            SceneGraph parallel = new SceneGraph(16, pool);
+            Random random = new Random(3);
+            float[] scratch = new float[32];
+            for (int i = 0; i < 30000; i++) {
+                // Shallow, bushy trees with a few big subtrees
+                int parent = i < 4 ? SceneGraph.NO_PARENT : random.nextInt(Math.min(i, 400));
+                sequential.addNode(parent);
+                parallel.addNode(parent);
+                float[] local = translation(random.nextFloat(), random.nextFloat(), random.nextFloat());
+                Matrices.rotateM(local, 0, random.nextFloat() * 360, 0, 1, 0, scratch);
+                sequential.setLocal(i, local, 0);
+                parallel.setLocal(i, local, 0);
+            }
+            assertEquals(30000, sequential.update());
+            assertEquals(30000, parallel.update());
+            assertArrayEquals(sequential.getWorldMatrices(), parallel.getWorldMatrices(), 0f);
+
+            for (int round = 0; round < 5; round++) {
+                for (int i = 0; i < 10; i++) {
+                    int node = random.nextInt(30000);
+                    float[] local = translation(random.nextFloat(), 0, 0);
+                    sequential.setLocal(node, local, 0);
+                    parallel.setLocal(node, local, 0);
+                }
+                assertEquals(sequential.update(), parallel.update());
+                assertArrayEquals(sequential.getWorldMatrices(), parallel.getWorldMatrices(), 0f);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsUnknownParents() {
+        SceneGraph scene = new SceneGraph(4, null);
+        scene.addNode(SceneGraph.NO_PARENT);
+        scene.addNode(1);
+    }
+}
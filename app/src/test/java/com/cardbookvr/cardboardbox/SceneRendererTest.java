@@ -0,0 +1,248 @@
+package com.cardbookvr.cardboardbox;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class SceneRendererTest {
+    private static final long FRAME_NANOS = 1000000000L / 60;
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private int renders;
+
+    @Test
+    public void onDrawEye_drawsTheSceneHeadless() throws Exception {
+        List<String> calls = render(3);
+        assertTrue(calls.contains("drawArrays 3"));
+        // The cube, from the 36 indices of its one level
+        assertTrue(calls.contains("drawElements 36"));
+        assertTrue(calls.contains("clear " + (GlBackend.GL_COLOR_BUFFER_BIT
+                | GlBackend.GL_DEPTH_BUFFER_BIT)));
+        // The cube's positions, bound where the file holds them
+        assertTrue(count(calls, "vertexAttribPointer") > 0);
+        assertTrue(endsWith(calls, " 3 16 @0"));
+    }
+
+    @Test
+    public void onNewFrame_enablesDepthTestEveryFrame() throws Exception {
+        // The distortion pass between frames may leave it off
+        List<String> calls = render(3);
+        assertEquals(3, count(calls, "enable " + GlBackend.GL_DEPTH_TEST));
+    }
+
+    @Test
+    public void onDrawEye_makesTheSameCallsForTheSameFrames() throws Exception {
+        assertEquals(render(30), render(30));
+    }
+
+    @Test
+    public void onDrawEye_replaysTheSameCallsRecordedOnWorkers() throws Exception {
+        ForkJoinPool workers = new ForkJoinPool(2);
+        try {
+            assertEquals(render(30), render(30, workers));
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    @Test
+    public void onDrawEye_replaysTheSameCallsAcrossMonocularFrames() throws Exception {
+        ForkJoinPool workers = new ForkJoinPool(2);
+        try {
+            List<String> direct = render(30, null, 0, true);
+            assertEquals(direct, render(30, workers, 0, true));
+            assertTrue(count(direct, "drawElements") > 0);
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    @Test
+    public void setQualityLevel_drawsLessAtTheLowest() throws Exception {
+        List<String> full = render(3, null, 0);
+        List<String> lowest = render(3, null, 5);
+        assertTrue(count(lowest, "drawElements") < count(full, "drawElements"));
+    }
+
+    @Test
+    public void setQualityLevel_scalesTheRenderTargetOnlyAtTheLowest() throws Exception {
+        File mesh = folder.newFile("cube.cbmesh");
+        new MeshFileWriter().write(mesh, MeshConverter.compileCube());
+        TestHost host = new TestHost(mesh);
+        SceneRenderer renderer = new SceneRenderer(host, new RecordingGlBackend(), DIRECT, null);
+        int lowest = renderer.getQualityLevelCount() - 1;
+        renderer.setQualityLevel(lowest - 1);
+        assertEquals(1f, host.renderScale, 0);
+        renderer.setQualityLevel(lowest);
+        assertTrue(host.renderScale < 1);
+        renderer.setQualityLevel(0);
+        assertEquals(1f, host.renderScale, 0);
+    }
+
+    private static int count(List<String> calls, String prefix) {
+        int count = 0;
+        for (String call : calls) {
+            if (call.startsWith(prefix)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean endsWith(List<String> calls, String suffix) {
+        for (String call : calls) {
+            if (call.endsWith(suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<String> render(int frames) throws IOException {
+        return render(frames, null, 0);
+    }
+
+    private List<String> render(int frames, ForkJoinPool eyeWorkers) throws IOException {
+        return render(frames, eyeWorkers, 0);
+    }
+
+    private List<String> render(int frames, ForkJoinPool eyeWorkers, int qualityLevel)
+            throws IOException {
+        return render(frames, eyeWorkers, qualityLevel, false);
+    }
+
+    /**
+     * Draw frames with the head turning, both eyes each, on a new renderer.
+     *
+     * @param eyeWorkers - to record the eyes on, or null.
+     * @param qualityLevel - held throughout.
+     * @param monocular - draw the middle third of the frames with one eye.
+     * @return every GL call made.
+     */
+    private List<String> render(int frames, ForkJoinPool eyeWorkers, int qualityLevel,
+                                boolean monocular) throws IOException {
+        File mesh = folder.newFile("cube" + renders++ + ".cbmesh");
+        // Quantized, as the converter writes the shipped asset
+        MeshConverter.writeLevels(mesh,
+                new ObjReader.Mesh[] { MeshConverter.toMesh(MeshConverter.compileCube()) },
+                new MeshFileWriter());
+        RecordingGlBackend gl = new RecordingGlBackend();
+        SceneRenderer renderer = new SceneRenderer(new TestHost(mesh), gl, DIRECT, eyeWorkers);
+        renderer.setAdaptiveQuality(false);
+        renderer.setQualityLevel(qualityLevel);
+        renderer.onSurfaceCreated();
+
+        float[] quaternion = new float[4];
+        float[] inverse = new float[4];
+        float[] headView = new float[16];
+        float[] perspective = FrustumCullerTest.perspective(90, 1, SceneRenderer.Z_NEAR,
+                SceneRenderer.Z_FAR);
+        for (int i = 0; i < frames; i++) {
+            long nanos = i * FRAME_NANOS;
+            Quaternions.setAxisAngle(quaternion, 0, i * 2, 0, 1, 0);
+            // As HeadTransform, the head view is the inverse rotation
+            System.arraycopy(quaternion, 0, inverse, 0, 4);
+            Quaternions.conjugate(inverse, 0);
+            Quaternions.toRotationM(headView, 0, inverse, 0);
+            renderer.advanceSimulation(nanos);
+            renderer.onNewFrame(nanos, headView, quaternion);
+            if (monocular && i >= frames / 3 && i < frames * 2 / 3) {
+                renderer.onDrawEye(StereoFramePlan.EYE_MONOCULAR, headView, perspective);
+            } else {
+                renderer.onDrawEye(StereoFramePlan.EYE_LEFT, headView, perspective);
+                renderer.onDrawEye(StereoFramePlan.EYE_RIGHT, headView, perspective);
+            }
+            renderer.onFinishFrame();
+        }
+        return gl.take();
+    }
+
+    private static class TestHost implements SceneRenderer.Host {
+        private final File mesh;
+        private float renderScale = 1;
+
+        TestHost(File mesh) {
+            this.mesh = mesh;
+        }
+
+        @Override
+        public MeshFile[] loadMeshLods(String name) {
+            try {
+                return new MeshFile[] { MeshFile.map(mesh) };
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public String loadShader(String name) {
+            return "void main() {}\n";
+        }
+
+        @Override
+        public ShaderDriver createShaderDriver() {
+            return new ShaderDriver() {
+                // Past what fits in a sort key, as some drivers hand out
+                private int nextHandle = 1 << 20;
+
+                @Override
+                public int compileShader(int type, String code) {
+                    return nextHandle++;
+                }
+
+                @Override
+                public int linkProgram(int vertexShader, int fragmentShader) {
+                    return nextHandle++;
+                }
+
+                @Override
+                public void deleteShader(int shader) {
+                }
+
+                @Override
+                public ProgramBinaryStore.Binary getProgramBinary(int program) {
+                    return null;
+                }
+
+                @Override
+                public int loadProgramBinary(ProgramBinaryStore.Binary binary) {
+                    return 0;
+                }
+
+                @Override
+                public String getIdentity() {
+                    return "test";
+                }
+            };
+        }
+
+        @Override
+        public ProgramBinaryStore createProgramStore() {
+            return null;
+        }
+
+        @Override
+        public void setRenderScale(float scale) {
+            renderScale = scale;
+        }
+
+        @Override
+        public void log(String message) {
+        }
+    }
+}
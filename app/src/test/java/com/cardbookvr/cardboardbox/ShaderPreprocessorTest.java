@@ -0,0 +1,75 @@
+package com.cardbookvr.cardboardbox;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ShaderPreprocessorTest {
+    private static final int VERTEX = 0x8B31;
+    private static final int FRAGMENT = 0x8B30;
+
+    private static ShaderPreprocessor preprocessor(final Map<String, String> files) {
+        return new ShaderPreprocessor(new ShaderPreprocessor.Loader() {
+            @Override
+            public String load(String name) {
+                return files.get(name);
+            }
+        });
+    }
+
+    @Test
+    public void preprocess_expandsNestedIncludes() throws Exception {
+        Map<String, String> files = new HashMap<>();
+        files.put("main", "#include \"lighting\"\nvoid main() {}\n");
+        files.put("lighting", "#include \"common\"\nfloat light;\n");
+        files.put("common", "precision mediump float;\n");
+
+        String code = preprocessor(files).preprocess("main", VERTEX).getCode();
+
+        assertEquals("precision mediump float;\nfloat light;\nvoid main() {}\n", code);
+    }
+
+    @Test
+    public void preprocess_insertsDefinesAfterVersion() throws Exception {
+        Map<String, String> files = new HashMap<>();
+        files.put("main", "#version 100\nvoid main() {}\n");
+
+        String code = preprocessor(files).preprocess("main", VERTEX, "QUANTIZED", "LIGHTS 4").getCode();
+
+        assertEquals("#version 100\n#define QUANTIZED\n#define LIGHTS 4\nvoid main() {}\n", code);
+    }
+
+    @Test(expected = IOException.class)
+    public void preprocess_rejectsIncludeCycles() throws Exception {
+        Map<String, String> files = new HashMap<>();
+        files.put("a", "#include \"b\"\n");
+        files.put("b", "#include \"a\"\n");
+
+        preprocessor(files).preprocess("a", VERTEX);
+    }
+
+    @Test(expected = IOException.class)
+    public void preprocess_rejectsMissingInclude() throws Exception {
+        Map<String, String> files = new HashMap<>();
+        files.put("a", "#include \"missing\"\n");
+
+        preprocessor(files).preprocess("a", VERTEX);
+    }
+
+    @Test
+    public void hash_dependsOnContentAndTypeOnly() throws Exception {
+        Map<String, String> files = new HashMap<>();
+        files.put("a", "void main() {}\n");
+        files.put("b", "void main() {}\n");
+        ShaderPreprocessor preprocessor = preprocessor(files);
+
+        ShaderSource a = preprocessor.preprocess("a", VERTEX);
+        assertEquals(a.getHash(), preprocessor.preprocess("b", VERTEX).getHash());
+        assertNotEquals(a.getHash(), preprocessor.preprocess("b", FRAGMENT).getHash());
+        assertNotEquals(a.getHash(), preprocessor.preprocess("a", VERTEX, "X").getHash());
+    }
+}
@@ -0,0 +1,182 @@
+package com.cardbookvr.cardboardbox;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SimulationLoopTest {
+    private static final long STEP = 1000000000L / 120;
+    private static final long SECOND = 1000000000L;
+    // Away from zero, as System.nanoTime() would be
+    private static final long ORIGIN = 123456789L;
+
+    /**
+     * Moves object 0 along x at one unit per second and turns it about y
+     * at 90 degrees per second.
+     */
+    private static class Mover implements Simulation {
+        private final float[] spin = new float[4];
+        int steps;
+
+        Mover() {
+            Quaternions.setAxisAngle(spin, 0, 90f / 120, 0, 1, 0);
+        }
+
+        @Override
+        public void step(float[] poses, float dt) {
+            poses[0] += dt;
+            Quaternions.multiply(poses, 3, poses, 3, spin, 0);
+            Quaternions.normalize(poses, 3);
+            steps++;
+        }
+    }
+
+    private static SimulationLoop loop(Simulation simulation) {
+        float[] poses = new float[SimulationLoop.POSE_FLOATS];
+        Quaternions.setIdentity(poses, 3);
+        return new SimulationLoop(simulation, poses, STEP);
+    }
+
+    /**
+     * Run frames at the given rate for a while, as the render thread would,
+     * with the simulation advanced just before each frame.
+     */
+    private static float[] renderAt(long frameNanos, long duration) {
+        SimulationLoop loop = loop(new Mover());
+        float[] m = new float[16];
+        for (long t = 0; t <= duration; t += frameNanos) {
+            loop.advanceTo(ORIGIN + t);
+            loop.sample(ORIGIN + t);
+            loop.getTransform(0, m, 0);
+        }
+        loop.advanceTo(ORIGIN + duration);
+        loop.sample(ORIGIN + duration);
+        loop.getTransform(0, m, 0);
+        return m;
+    }
+
+    @Test
+    public void motionDoesNotDependOnFrameRate() {
+        float[] at60 = renderAt(SECOND / 60, 2 * SECOND);
+        float[] at30 = renderAt(SECOND / 30, 2 * SECOND);
+        float[] at90 = renderAt(SECOND / 90, 2 * SECOND);
+        float[] at17 = renderAt(SECOND / 17, 2 * SECOND);
+        assertArrayEquals(at60, at30, 1e-5f);
+        assertArrayEquals(at60, at90, 1e-5f);
+        assertArrayEquals(at60, at17, 1e-5f);
+
+        // Shown one step behind: 2 seconds less one step of motion
+        assertEquals(2f - 1f / 120, at60[12], 1e-4f);
+        float[] expected = new float[16];
+        Matrices.setRotateM(expected, 0, 180 - 90f / 120, 0, 1, 0);
+        for (int i = 0; i < 12; i++) {
+            assertEquals(expected[i], at60[i], 1e-4f);
+        }
+    }
+
+    @Test
+    public void interpolatesBetweenSteps() {
+        SimulationLoop loop = loop(new Mover());
+        for (long t = 0; t <= 10 * STEP; t += STEP) {
+            loop.advanceTo(ORIGIN + t);
+        }
+        float[] m = new float[16];
+        float last = -1;
+        // Frames much faster than steps still move every frame
+        for (long t = 10 * STEP; t < 12 * STEP; t += STEP / 8) {
+            loop.advanceTo(ORIGIN + t);
+            loop.sample(ORIGIN + t);
+            loop.getTransform(0, m, 0);
+            assertTrue(m[12] > last);
+            assertEquals(t / 1e9f - 1f / 120, m[12], 1e-5f);
+            last = m[12];
+        }
+    }
+
+    @Test
+    public void showsTheLastPoseWhenTheSimulationStalls() {
+        SimulationLoop loop = loop(new Mover());
+        loop.advanceTo(ORIGIN);
+        loop.advanceTo(ORIGIN + 5 * STEP);
+        float[] m = new float[16];
+        loop.sample(ORIGIN + 50 * STEP);
+        loop.getTransform(0, m, 0);
+        assertEquals(1f, loop.getAlpha(), 0f);
+        assertEquals(5f / 120, m[12], 1e-6f);
+        assertEquals(5, loop.getSampledTick());
+    }
+
+    @Test
+    public void limitsCatchUp() {
+        Mover mover = new Mover();
+        SimulationLoop loop = loop(mover);
+        loop.advanceTo(ORIGIN);
+        loop.advanceTo(ORIGIN + SECOND);
+        assertEquals(SimulationLoop.MAX_CATCH_UP_STEPS, mover.steps);
+        assertEquals(120 - SimulationLoop.MAX_CATCH_UP_STEPS, loop.getDroppedNanos() / STEP);
+
+        // Back on schedule from then on
+        loop.advanceTo(ORIGIN + SECOND + STEP);
+        assertEquals(SimulationLoop.MAX_CATCH_UP_STEPS + 1, mover.steps);
+    }
+
+    @Test
+    public void runsOnItsOwnThread() throws Exception {
+        Mover mover = new Mover();
+        SimulationLoop loop = loop(mover);
+        loop.start();
+        try {
+            Thread.sleep(100);
+        } finally {
+            loop.stop();
+        }
+        loop.sample(System.nanoTime());
+        assertTrue(loop.getSampledTick() > 0);
+        assertEquals(mover.steps, loop.getSampledTick());
+
+        float[] m = new float[16];
+        loop.getTransform(0, m, 0);
+        // Orientation is still a rotation
+        assertEquals(1f, m[0] * m[0] + m[1] * m[1] + m[2] * m[2], 1e-4f);
+        assertEquals(1f, m[15], 0f);
+    }
+
+    @Test
+    public void noTornSnapshotsUnderStress() throws Exception {
+        // Every step moves all objects to the same place; a reader that
+        // mixed two snapshots would see them apart
+        final int objects = 64;
+        float[] poses = new float[objects * SimulationLoop.POSE_FLOATS];
+        for (int i = 0; i < objects; i++) {
+            Quaternions.setIdentity(poses, i * SimulationLoop.POSE_FLOATS + 3);
+        }
+        SimulationLoop loop = new SimulationLoop(new Simulation() {
+            @Override
+            public void step(float[] poses, float dt) {
+                for (int p = 0; p < poses.length; p += SimulationLoop.POSE_FLOATS) {
+                    poses[p] += 1;
+                }
+            }
+        }, poses, 1000);
+        loop.start();
+        float[] m = new float[16];
+        long end = System.nanoTime() + 300000000L;
+        long samples = 0;
+        try {
+            while (System.nanoTime() < end) {
+                loop.sample(System.nanoTime());
+                loop.getTransform(0, m, 0);
+                float x = m[12];
+                for (int i = 1; i < objects; i++) {
+                    loop.getTransform(i, m, 0);
+                    assertEquals(x, m[12], 0f);
+                }
+                samples++;
+            }
+        } finally {
+            loop.stop();
+        }
+        assertTrue(samples > 0);
+        assertTrue(loop.getSampledTick() > 0);
+    }
+}
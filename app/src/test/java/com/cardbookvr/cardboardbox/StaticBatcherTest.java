@@ -0,0 +1,222 @@
+package com.cardbookvr.cardboardbox;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StaticBatcherTest {
+    private static final float[] CUBE_NORMALS = Cube.cubeFacesToArray(Cube.CUBE_NORMALS_FACES, 3);
+    private static final float[] CUBE_COLORS = Cube.cubeFacesToArray(Cube.CUBE_COLORS_FACES, 4);
+    private static final CompiledMesh CUBE = new MeshCompiler().setStrideAlignment(16)
+            .compile(Cube.CUBE_COORDS, CUBE_NORMALS, CUBE_COLORS);
+
+    private final BufferArena arena = new BufferArena(64 * 1024, 16);
+
+    @Test
+    public void mergedTrianglesMatchTheTransformedSource() {
+        float[][] models = {
+                translation(1, 2, 3),
+                rotation(40, 0.3f, 1, 0.2f, 4, 0, 0),
+                scale(2, 0.5f, 1),
+        };
+        StaticBatcher batcher = new StaticBatcher(100, 0);
+        for (float[] model : models) {
+            batcher.add(CUBE, model, 0, 1);
+        }
+        List<StaticBatcher.Batch> batches = batcher.build(arena);
+        assertEquals(1, batches.size());
+        StaticBatcher.Batch batch = batches.get(0);
+        assertFalse(batch.isInstanced());
+        assertEquals(3, batch.getMeshCount());
+        assertEquals(3 * CUBE.getIndexCount(), batch.getIndexCount());
+        assertEquals(3 * CUBE.getVertexCount(), batch.getVertexCount());
+        assertEquals(CUBE.getStride(), batch.getStride());
+
+        // Every triangle corner, followed through both index buffers
+        FloatBuffer vertices = batch.getVertices();
+        ShortBuffer indices = batch.getIndices();
+        int stride = CUBE.getStride() / 4;
+        float[] source = CUBE.getVertices();
+        float[] expected = new float[4];
+        float[] normal = new float[4];
+        float[] bounds = new float[] {
+                Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+                Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY,
+        };
+        for (int m = 0; m < models.length; m++) {
+            for (int i = 0; i < CUBE.getIndexCount(); i++) {
+                int s = (CUBE.getIndices()[i] & 0xFFFF) * stride;
+                int b = (indices.get(m * CUBE.getIndexCount() + i) & 0xFFFF) * stride;
+                Matrices.multiplyMV(expected, 0, models[m], 0,
+                        new float[] { source[s], source[s + 1], source[s + 2], 1 }, 0);
+                for (int k = 0; k < 3; k++) {
+                    assertEquals(expected[k], vertices.get(b + CompiledMesh.POSITION_OFFSET + k),
+                            1e-5f);
+                    bounds[k] = Math.min(bounds[k], expected[k]);
+                    bounds[k + 3] = Math.max(bounds[k + 3], expected[k]);
+                }
+                for (int k = 0; k < 4; k++) {
+                    assertEquals(source[s + CompiledMesh.COLOR_OFFSET + k],
+                            vertices.get(b + CompiledMesh.COLOR_OFFSET + k), 0f);
+                }
+                // Normals stay unit length and perpendicular to the
+                // transformed face: check against a transformed edge
+                System.arraycopy(source, s + CompiledMesh.NORMAL_OFFSET, normal, 0, 3);
+                float nx = vertices.get(b + CompiledMesh.NORMAL_OFFSET);
+                float ny = vertices.get(b + CompiledMesh.NORMAL_OFFSET + 1);
+                float nz = vertices.get(b + CompiledMesh.NORMAL_OFFSET + 2);
+                assertEquals(1, nx * nx + ny * ny + nz * nz, 1e-5f);
+                float[] tangent = perpendicular(normal);
+                float[] edge = new float[4];
+                Matrices.multiplyMV(edge, 0, models[m], 0, tangent, 0);
+                assertEquals(0, nx * edge[0] + ny * edge[1] + nz * edge[2], 1e-5f);
+            }
+        }
+        assertArrayEquals(bounds, batch.getBounds(), 1e-5f);
+    }
+
+    @Test
+    public void groupsByProgramAndCell() {
+        StaticBatcher batcher = new StaticBatcher(10, 0);
+        batcher.add(CUBE, translation(1, 0, 1), 0, 1);
+        batcher.add(CUBE, translation(25, 0, 1), 0, 1);
+        batcher.add(CUBE, translation(4, 0, 6), 0, 1);
+        batcher.add(CUBE, translation(4, 0, 4), 0, 2);
+        List<StaticBatcher.Batch> batches = batcher.build(arena);
+
+        assertEquals(3, batches.size());
+        assertEquals(1, batches.get(0).getProgram());
+        assertEquals(0, batches.get(0).getCellX());
+        assertEquals(2, batches.get(0).getMeshCount());
+        assertArrayEquals(new float[] { 0, -1, 0, 5, 1, 7 }, batches.get(0).getBounds(), 0);
+        assertEquals(2, batches.get(1).getCellX());
+        assertEquals(1, batches.get(1).getMeshCount());
+        assertEquals(2, batches.get(2).getProgram());
+        assertEquals(4, batcher.getSourceDrawCount());
+        assertEquals(3, batcher.getDrawCount());
+    }
+
+    @Test
+    public void splitsBatchesAtSixteenBitIndices() {
+        // 40000 vertices: two don't fit one batch
+        float[] vertices = new float[40000 * 12];
+        short[] indices = new short[] { 0, 1, (short) 39999 };
+        CompiledMesh big = new CompiledMesh(vertices, indices, 12, 40000);
+        StaticBatcher batcher = new StaticBatcher(100, 0);
+        batcher.add(big, translation(0, 0, 0), 0, 1);
+        batcher.add(big, translation(1, 0, 0), 0, 1);
+        batcher.add(CUBE, translation(0, 0, 0), 0, 1);
+        List<StaticBatcher.Batch> batches = batcher.build(arena);
+
+        assertEquals(2, batches.size());
+        assertEquals(40000, batches.get(0).getVertexCount());
+        assertEquals(40000 + CUBE.getVertexCount(), batches.get(1).getVertexCount());
+        assertEquals(39999, batches.get(1).getIndices().get(2) & 0xFFFF);
+    }
+
+    @Test
+    public void instancesRepeatedMeshes() {
+        CompiledMesh triangle = new CompiledMesh(new float[36], new short[] { 0, 1, 2 }, 12, 3);
+        StaticBatcher batcher = new StaticBatcher(100, 4);
+        for (int i = 0; i < 5; i++) {
+            batcher.add(CUBE, translation(i * 3, 0, 0), 0, 1);
+        }
+        batcher.add(triangle, translation(0, 0, 0), 0, 1);
+        batcher.add(triangle, translation(0, 1, 0), 0, 1);
+        List<StaticBatcher.Batch> batches = batcher.build(arena);
+
+        assertEquals(2, batches.size());
+        StaticBatcher.Batch cubes = batches.get(0);
+        assertTrue(cubes.isInstanced());
+        assertEquals(5, cubes.getInstanceCount());
+        assertEquals(CUBE.getVertexCount(), cubes.getVertexCount());
+        FloatBuffer instances = cubes.getInstances();
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i * 3, instances.get(i * StaticBatcher.INSTANCE_FLOATS + 12), 0);
+        }
+        assertArrayEquals(new float[] { -1, -1, -1, 13, 1, 1 }, cubes.getBounds(), 0);
+        assertEquals(CUBE.getVertices()[0], cubes.getVertices().get(0), 0);
+
+        StaticBatcher.Batch triangles = batches.get(1);
+        assertFalse(triangles.isInstanced());
+        assertNull(triangles.getInstances());
+        assertEquals(2, triangles.getMeshCount());
+        assertEquals(4, triangles.getIndices().get(4));
+        assertEquals(1, batcher.getInstancedDrawCount());
+    }
+
+    @Test
+    public void reducesDrawCallsOfAPropField() {
+        // 400 cubes over a 4x4 grid of cells
+        StaticBatcher batcher = new StaticBatcher(10, 0);
+        for (int x = 0; x < 20; x++) {
+            for (int z = 0; z < 20; z++) {
+                batcher.add(CUBE, translation(x * 2 + 1, 0, z * 2 + 1), 0, 1);
+            }
+        }
+        List<StaticBatcher.Batch> batches = batcher.build(arena);
+        assertEquals(16, batches.size());
+        assertEquals(400, batcher.getSourceDrawCount());
+        assertEquals(16, batcher.getDrawCount());
+        assertEquals("400 meshes in 16 draws (0 instanced), " + 400 * CUBE.getVertexBytes()
+                + " vertex bytes", batcher.toString());
+        assertEquals(0, batcher.getPendingCount());
+    }
+
+    @Test
+    public void freeReturnsMemoryToTheArena() {
+        StaticBatcher batcher = new StaticBatcher(10, 2);
+        batcher.add(CUBE, translation(0, 0, 0), 0, 1);
+        batcher.add(CUBE, translation(1, 0, 0), 0, 1);
+        batcher.add(CUBE, translation(30, 0, 0), 0, 1);
+        List<StaticBatcher.Batch> batches = batcher.build(arena);
+        assertEquals(5, arena.getBlockCount());
+        for (StaticBatcher.Batch batch : batches) {
+            batch.free(arena);
+            batch.free(arena);
+        }
+        assertEquals(0, arena.getBlockCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyMeshes() {
+        new StaticBatcher(10, 0).add(new CompiledMesh(new float[0], new short[0], 10, 0),
+                translation(0, 0, 0), 0, 1);
+    }
+
+    private static float[] translation(float x, float y, float z) {
+        float[] m = new float[16];
+        Matrices.setIdentityM(m, 0);
+        Matrices.translateM(m, 0, x, y, z);
+        return m;
+    }
+
+    private static float[] rotation(float a, float x, float y, float z,
+                                    float tx, float ty, float tz) {
+        float[] r = new float[16];
+        Matrices.setRotateM(r, 0, a, x, y, z);
+        return MatricesTest.multiply(translation(tx, ty, tz), r);
+    }
+
+    private static float[] scale(float x, float y, float z) {
+        float[] m = new float[16];
+        Matrices.setIdentityM(m, 0);
+        m[0] = x;
+        m[5] = y;
+        m[10] = z;
+        return m;
+    }
+
+    /**
+     * A direction in the plane the normal is perpendicular to.
+     */
+    private static float[] perpendicular(float[] n) {
+        float[] t = Math.abs(n[0]) < 0.9f ? new float[] { 0, -n[2], n[1], 0 }
+                : new float[] { -n[1], n[0], 0, 0 };
+        return t;
+    }
+}
@@ -0,0 +1,133 @@
+package com.cardbookvr.cardboardbox;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class StereoFramePlanTest {
+    private static final float EPSILON = 1e-4f;
+    private static final float[] LIGHT = {0, 2, 0, 1};
+
+    @Test
+    public void prepareEye_matchesPerEyeMatrixChain() throws Exception {
+        Random random = new Random(8);
+        StereoFramePlan plan = new StereoFramePlan(4);
+        float[][] models = new float[4][];
+        for (int id = 0; id < 4; id++) {
+            models[id] = MatricesTest.random(random);
+            plan.setModel(id, models[id]);
+        }
+        float[] camera = new float[16];
+        Matrices.setLookAtM(camera, 0, 0, 0, 0.01f, 0, 0, 0, 0, 1, 0);
+        float[] head = GazePickerTest.headView(0.4f, -0.2f);
+        float[] perspective = MatricesTest.random(random);
+
+        plan.build(head, camera, LIGHT);
+        for (float ipd : new float[]{-0.03f, 0.03f}) {
+            float[] eyeView = MatricesTest.multiply(GazePickerTest.translation(ipd, 0, 0), head);
+            StereoFramePlan.EyeDraws draws = plan.prepareEye(ipd < 0 ? 2 : 1, eyeView, perspective);
+            assertDraws(draws, models, eyeView, camera, perspective);
+        }
+
+        // The next frame reuses the learned offsets without calling prepareEye first
+        head = GazePickerTest.headView(-0.1f, 0.3f);
+        plan.build(head, camera, LIGHT);
+        float[] eyeView = MatricesTest.multiply(GazePickerTest.translation(0.03f, 0, 0), head);
+        assertDraws(plan.prepareEye(1, eyeView, perspective), models, eyeView, camera, perspective);
+    }
+
+    @Test
+    public void getViewProjection_isKnownOnceTheEyeIsPrepared() throws Exception {
+        Random random = new Random(9);
+        StereoFramePlan plan = new StereoFramePlan(1);
+        float[] camera = new float[16];
+        Matrices.setLookAtM(camera, 0, 0, 0, 0.01f, 0, 0, 0, 0, 1, 0);
+        float[] head = GazePickerTest.headView(0.4f, -0.2f);
+        float[] perspective = MatricesTest.random(random);
+        float[] out = new float[16];
+
+        plan.build(head, camera, LIGHT);
+        assertFalse(plan.getViewProjection(1, out, 0));
+        float[] eyeView = MatricesTest.multiply(GazePickerTest.translation(0.03f, 0, 0), head);
+        plan.prepareEye(1, eyeView, perspective);
+
+        // Follows the head on later frames
+        head = GazePickerTest.headView(-0.1f, 0.3f);
+        plan.build(head, camera, LIGHT);
+        eyeView = MatricesTest.multiply(GazePickerTest.translation(0.03f, 0, 0), head);
+        assertTrue(plan.getViewProjection(1, out, 0));
+        assertArrayEquals(MatricesTest.multiply(perspective, MatricesTest.multiply(eyeView, camera)),
+                out, EPSILON);
+    }
+
+    @Test
+    public void getEyeDraws_isReadyBeforeTheEyeOnceLearned() throws Exception {
+        Random random = new Random(10);
+        StereoFramePlan plan = new StereoFramePlan(1);
+        plan.setModel(0, MatricesTest.random(random));
+        float[] camera = new float[16];
+        Matrices.setLookAtM(camera, 0, 0, 0, 0.01f, 0, 0, 0, 0, 1, 0);
+        float[] head = GazePickerTest.headView(0.4f, -0.2f);
+        float[] perspective = MatricesTest.random(random);
+        float[] eyeView = MatricesTest.multiply(GazePickerTest.translation(0.03f, 0, 0), head);
+
+        plan.build(head, camera, LIGHT);
+        assertNull(plan.getEyeDraws(1));
+        assertFalse(plan.matches(1, eyeView, perspective));
+        StereoFramePlan.EyeDraws prepared = plan.prepareEye(1, eyeView, perspective);
+
+        // A new head pose: the eye's draws come from the learned offset
+        head = GazePickerTest.headView(-0.1f, 0.3f);
+        eyeView = MatricesTest.multiply(GazePickerTest.translation(0.03f, 0, 0), head);
+        plan.build(head, camera, LIGHT);
+        StereoFramePlan.EyeDraws draws = plan.getEyeDraws(1);
+        assertSame(prepared, draws);
+        assertTrue(plan.matches(1, eyeView, perspective));
+        float[] before = new float[16];
+        draws.getModelViewProjection(0, before, 0);
+        float[] after = new float[16];
+        plan.prepareEye(1, eyeView, perspective).getModelViewProjection(0, after, 0);
+        assertArrayEquals(before, after, 0);
+        float[] projection = new float[16];
+        draws.getPerspective(projection, 0);
+        assertArrayEquals(perspective, projection, 0);
+
+        // A different eye offset no longer matches
+        eyeView = MatricesTest.multiply(GazePickerTest.translation(0.04f, 0, 0), head);
+        assertFalse(plan.matches(1, eyeView, perspective));
+    }
+
+    @Test
+    public void build_skipsHiddenObjects() throws Exception {
+        StereoFramePlan plan = new StereoFramePlan(4);
+        float[] identity = new float[16];
+        Matrices.setIdentityM(identity, 0);
+        plan.setModel(0, identity);
+        plan.setModel(2, identity);
+        plan.setVisible(0, false);
+
+        plan.build(identity, identity, LIGHT);
+        StereoFramePlan.EyeDraws draws = plan.prepareEye(0, identity, identity);
+
+        assertEquals(1, draws.getDrawCount());
+        assertEquals(2, draws.getObject(0));
+    }
+
+    private static void assertDraws(StereoFramePlan.EyeDraws draws, float[][] models,
+                                    float[] eyeView, float[] camera, float[] perspective) {
+        float[] view = MatricesTest.multiply(eyeView, camera);
+        assertEquals(models.length, draws.getDrawCount());
+        float[] out = new float[16];
+        for (int i = 0; i < draws.getDrawCount(); i++) {
+            int id = draws.getObject(i);
+            float[] modelView = MatricesTest.multiply(view, models[id]);
+            draws.getModelView(id, out, 0);
+            assertArrayEquals(modelView, out, EPSILON);
+            draws.getModelViewProjection(id, out, 0);
+            assertArrayEquals(MatricesTest.multiply(perspective, modelView), out, EPSILON);
+        }
+        assertArrayEquals(GazePickerTest.multiply(view, LIGHT), draws.getLightPos(), EPSILON);
+    }
+}
@@ -0,0 +1,85 @@
+package com.cardbookvr.cardboardbox;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class TripleBufferTest {
+    @Test
+    public void readerGetsTheNewestValue() {
+        TripleBuffer<int[]> buffer = new TripleBuffer<>(new int[1], new int[1], new int[1]);
+        assertEquals(0, buffer.acquire()[0]);
+
+        for (int i = 1; i <= 3; i++) {
+            buffer.getWriteBuffer()[0] = i;
+            buffer.publish();
+        }
+        assertEquals(3, buffer.acquire()[0]);
+        // Nothing new: the same value again
+        assertEquals(3, buffer.acquire()[0]);
+
+        buffer.getWriteBuffer()[0] = 4;
+        buffer.publish();
+        assertEquals(4, buffer.acquire()[0]);
+    }
+
+    @Test
+    public void writerNeverTouchesTheReadersBuffer() {
+        TripleBuffer<int[]> buffer = new TripleBuffer<>(new int[1], new int[1], new int[1]);
+        buffer.getWriteBuffer()[0] = 1;
+        buffer.publish();
+        int[] read = buffer.acquire();
+        for (int i = 2; i < 10; i++) {
+            assertNotSame(read, buffer.getWriteBuffer());
+            buffer.getWriteBuffer()[0] = i;
+            buffer.publish();
+        }
+        assertEquals(1, read[0]);
+    }
+
+    @Test
+    public void noTornReadsUnderStress() throws Exception {
+        final int size = 256;
+        final TripleBuffer<long[]> buffer = new TripleBuffer<>(new long[size], new long[size],
+                new long[size]);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long value = 0;
+                while (running.get()) {
+                    value++;
+                    long[] values = buffer.getWriteBuffer();
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = value;
+                    }
+                    buffer.publish();
+                }
+            }
+        });
+        writer.start();
+
+        long last = 0;
+        long changes = 0;
+        long end = System.nanoTime() + 300000000L;
+        try {
+            while (System.nanoTime() < end) {
+                long[] values = buffer.acquire();
+                long first = values[0];
+                for (int i = 1; i < values.length; i++) {
+                    assertEquals(first, values[i]);
+                }
+                // Values only ever move forward
+                assertTrue(first >= last);
+                changes += first != last ? 1 : 0;
+                last = first;
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+        assertTrue(changes > 0);
+    }
+}
@@ -0,0 +1,215 @@
+package com.cardbookvr.cardboardbox;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class VertexQuantizerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void toHalf_roundsToNearestEven() {
+        assertEquals(0x3c00, VertexQuantizer.toHalf(1) & 0xffff);
+        assertEquals(0xc000, VertexQuantizer.toHalf(-2) & 0xffff);
+        assertEquals(0x7bff, VertexQuantizer.toHalf(65504) & 0xffff);
+        assertEquals(0x0001, VertexQuantizer.toHalf((float) Math.pow(2, -24)) & 0xffff);
+        assertEquals(0x8000, VertexQuantizer.toHalf(-0f) & 0xffff);
+        // Halfway between 1 and the next half, 1 + 2^-10: ties go to the even one
+        assertEquals(0x3c00, VertexQuantizer.toHalf(1 + (float) Math.pow(2, -11)) & 0xffff);
+        assertEquals(0x3c02, VertexQuantizer.toHalf(1 + 3 * (float) Math.pow(2, -11)) & 0xffff);
+        assertEquals(Float.POSITIVE_INFINITY,
+                VertexQuantizer.fromHalf(VertexQuantizer.toHalf(70000)), 0);
+        assertTrue(Float.isNaN(VertexQuantizer.fromHalf(VertexQuantizer.toHalf(Float.NaN))));
+    }
+
+    @Test
+    public void half_roundTripsWithinHalfAStep() {
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            float value = (random.nextFloat() - 0.5f) * 2000;
+            float back = VertexQuantizer.fromHalf(VertexQuantizer.toHalf(value));
+            // 10 stored mantissa bits
+            assertEquals(value, back, Math.abs(value) * (float) Math.pow(2, -11) + 1e-7f);
+        }
+        for (int bits = 0; bits < 0x7c00; bits++) {
+            float value = VertexQuantizer.fromHalf((short) bits);
+            assertEquals(bits, VertexQuantizer.toHalf(value) & 0xffff);
+        }
+    }
+
+    @Test
+    public void octahedral_roundTripsUnitVectors() {
+        Random random = new Random(2);
+        short[] encoded = new short[2];
+        float[] decoded = new float[3];
+        float[][] axes = { { 1, 0, 0 }, { 0, -1, 0 }, { 0, 0, 1 }, { 0, 0, -1 } };
+        for (float[] axis : axes) {
+            VertexQuantizer.encodeOctahedral(axis[0], axis[1], axis[2], encoded, 0);
+            VertexQuantizer.decodeOctahedral(encoded[0], encoded[1], decoded, 0);
+            assertArrayEquals(axis, decoded, 1e-6f);
+        }
+        double worst = 0;
+        for (int i = 0; i < 100000; i++) {
+            float x = (float) random.nextGaussian();
+            float y = (float) random.nextGaussian();
+            float z = (float) random.nextGaussian();
+            VertexQuantizer.encodeOctahedral(x, y, z, encoded, 0);
+            VertexQuantizer.decodeOctahedral(encoded[0], encoded[1], decoded, 0);
+            worst = Math.max(worst, degrees(new float[] { x, y, z }, decoded, 0));
+        }
+        assertTrue("worst error " + worst + " degrees", worst < 0.01);
+    }
+
+    @Test
+    public void quantize_packsTheCubeInto16Bytes() {
+        CompiledMesh cube = MeshConverter.compileCube();
+        QuantizedVertices packed = new VertexQuantizer().quantize(cube);
+
+        assertEquals(VertexQuantizer.POSITION_SNORM16, packed.getPositionEncoding());
+        assertEquals(VertexQuantizer.NORMAL_OCT16, packed.getNormalEncoding());
+        assertEquals(VertexQuantizer.COLOR_UNORM8, packed.getColorEncoding());
+        assertEquals(16, packed.getStride());
+        assertEquals(cube.getVertexCount(), packed.getVertexCount());
+        assertEquals(cube.getVertexBytes(), packed.getSourceBytes());
+        assertEquals(cube.getVertexBytes() - 16 * cube.getVertexCount(), packed.getSavedBytes());
+        assertEquals(MeshFile.TYPE_SHORT,
+                packed.findAttribute(MeshFile.SEMANTIC_POSITION).type);
+        assertEquals(2, packed.findAttribute(MeshFile.SEMANTIC_NORMAL).size);
+        assertEquals(12, packed.findAttribute(MeshFile.SEMANTIC_COLOR).offset);
+        assertArrayEquals(new float[] { 1, 1, 1 }, packed.getPositionScale(), 0);
+        assertArrayEquals(new float[] { 0, 0, 0 }, packed.getPositionOffset(), 0);
+
+        assertDecodesWithin(cube, packed);
+    }
+
+    @Test
+    public void quantize_staysWithinTheBoundsOfArbitraryMeshes() {
+        Random random = new Random(3);
+        int count = 500;
+        float[] positions = new float[count * 3];
+        float[] normals = new float[count * 3];
+        float[] colors = new float[count * 4];
+        for (int i = 0; i < count * 3; i++) {
+            positions[i] = 10 + random.nextFloat() * (i % 3 + 1) * 7;
+            normals[i] = (float) random.nextGaussian();
+        }
+        for (int i = 0; i < count * 4; i++) {
+            colors[i] = random.nextFloat();
+        }
+        CompiledMesh mesh = new MeshCompiler().compile(positions, normals, colors);
+        QuantizedVertices packed = new VertexQuantizer().quantize(mesh);
+
+        assertEquals(16, packed.getStride());
+        assertTrue(packed.getPositionError() <= 1e-4f * diagonal(positions));
+        assertTrue(packed.getNormalError() <= 0.1f);
+        assertTrue(packed.getColorError() <= 1 / 510f + 1e-6f);
+        assertDecodesWithin(mesh, packed);
+    }
+
+    @Test
+    public void quantize_fallsBackWhenABoundCantBeMet() {
+        // A unit mesh a thousand units out: half floats are too coarse there
+        float[] positions = {
+                1000.1f, 1000.2f, 1000.3f, 1001.1f, 1000.2f, 1000.3f, 1000.1f, 1001.2f, 1001.3f,
+        };
+        float[] normals = {
+                0.3f, 0.4f, 0.866f, 0.3f, 0.4f, 0.866f, 0.3f, 0.4f, 0.866f,
+        };
+        float[] colors = {
+                1, 0, 0, 1, 0, 1, 0, 1, 2, 2, 2, 1,
+        };
+        CompiledMesh mesh = new MeshCompiler().compile(positions, normals, colors);
+
+        QuantizedVertices packed = new VertexQuantizer()
+                .setPositionEncoding(VertexQuantizer.POSITION_HALF)
+                .setMaxNormalError(0)
+                .quantize(mesh);
+        assertEquals(VertexQuantizer.POSITION_SNORM16, packed.getPositionEncoding());
+        assertEquals(VertexQuantizer.NORMAL_FLOAT, packed.getNormalEncoding());
+        // Colors past 1 don't fit in a byte
+        assertEquals(VertexQuantizer.COLOR_FLOAT, packed.getColorEncoding());
+        assertEquals(8 + 12 + 16, packed.getStride());
+        assertDecodesWithin(mesh, packed);
+
+        packed = new VertexQuantizer().setMaxPositionError(0).quantize(mesh);
+        assertEquals(VertexQuantizer.POSITION_FLOAT, packed.getPositionEncoding());
+        assertEquals(0, packed.getPositionError(), 0);
+        assertDecodesWithin(mesh, packed);
+    }
+
+    @Test
+    public void quantize_acceptsHalfFloatsNearTheOrigin() {
+        CompiledMesh cube = MeshConverter.compileCube();
+        QuantizedVertices packed = new VertexQuantizer()
+                .setPositionEncoding(VertexQuantizer.POSITION_HALF)
+                .quantize(cube);
+
+        // Every cube coordinate is exactly representable
+        assertEquals(VertexQuantizer.POSITION_HALF, packed.getPositionEncoding());
+        assertEquals(VertexQuantizer.TYPE_HALF_FLOAT,
+                packed.findAttribute(MeshFile.SEMANTIC_POSITION).type);
+        assertEquals(0, packed.getPositionError(), 0);
+        assertDecodesWithin(cube, packed);
+    }
+
+    @Test
+    public void quantize_readsMeshFiles() throws Exception {
+        CompiledMesh cube = MeshConverter.compileCube();
+        File file = folder.newFile("cube.cbmesh");
+        new MeshFileWriter().write(file, cube);
+
+        QuantizedVertices fromFile = new VertexQuantizer().quantize(MeshFile.map(file));
+        QuantizedVertices fromMesh = new VertexQuantizer().quantize(cube);
+        assertEquals(fromMesh.getVertexData(), fromFile.getVertexData());
+        assertEquals(fromMesh.getVertexBytes(), fromFile.createVertexBuffer().remaining());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setMaxColorError_rejectsNegativeBounds() {
+        new VertexQuantizer().setMaxColorError(-1);
+    }
+
+    private static void assertDecodesWithin(CompiledMesh mesh, QuantizedVertices packed) {
+        float[] source = mesh.getVertices();
+        int stride = mesh.getStride() / 4;
+        float[] decoded = new float[10];
+        for (int v = 0; v < mesh.getVertexCount(); v++) {
+            packed.decode(v, decoded, 0);
+            int o = v * stride;
+            for (int k = 0; k < 3; k++) {
+                assertEquals(source[o + CompiledMesh.POSITION_OFFSET + k], decoded[k],
+                        packed.getPositionError() + 1e-4f);
+            }
+            float[] n = { source[o + 3], source[o + 4], source[o + 5] };
+            assertTrue(degrees(n, decoded, 3) <= packed.getNormalError() + 1e-3);
+            for (int k = 0; k < 4; k++) {
+                assertEquals(source[o + CompiledMesh.COLOR_OFFSET + k], decoded[6 + k],
+                        packed.getColorError() + 1e-6f);
+            }
+        }
+    }
+
+    private static double degrees(float[] a, float[] b, int offset) {
+        double x = b[offset], y = b[offset + 1], z = b[offset + 2];
+        double cx = a[1] * z - a[2] * y, cy = a[2] * x - a[0] * z, cz = a[0] * y - a[1] * x;
+        double dot = a[0] * x + a[1] * y + a[2] * z;
+        return Math.toDegrees(Math.atan2(Math.sqrt(cx * cx + cy * cy + cz * cz), dot));
+    }
+
+    private static float diagonal(float[] positions) {
+        float[] min = { Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE };
+        float[] max = { -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+        for (int i = 0; i < positions.length; i++) {
+            min[i % 3] = Math.min(min[i % 3], positions[i]);
+            max[i % 3] = Math.max(max[i % 3], positions[i]);
+        }
+        float dx = max[0] - min[0], dy = max[1] - min[1], dz = max[2] - min[2];
+        return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+}
@@ -0,0 +1,50 @@
+package com.cardbookvr.cardboardbox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a ChunkedFloor worker spends building one floor chunk at each
+ * resolution, walking east so every chunk samples new heights. Each chunk
+ * allocates only its grid of heights.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ChunkedFloorBenchmark {
+    private static final float[] COLOR = { 0.0f, 0.34f, 0.90f, 1.0f };
+
+    @Param({"8", "16", "32", "64"})
+    public int resolution;
+
+    private FloorChunkGenerator generator;
+    private FloatBuffer vertices;
+    private int chunkX;
+
+    @Setup
+    public void setUp() {
+        generator = new FloorChunkGenerator(new Terrain(1, 2f, 40f), 20f, resolution, COLOR);
+        vertices = generator.allocateVertexBuffer();
+    }
+
+    @Benchmark
+    public FloatBuffer generate() {
+        generator.generate(chunkX++, 1, vertices);
+        return vertices;
+    }
+}
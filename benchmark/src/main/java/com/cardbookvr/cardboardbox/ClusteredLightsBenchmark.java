@@ -0,0 +1,110 @@
+package com.cardbookvr.cardboardbox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Binning synthetic point lights into a 16 by 8 by 24 cluster grid for one
+ * eye, with and without a ForkJoinPool. The lights drift a little each
+ * call so every build does the work. Occupancy is printed at the end of
+ * each trial; the sequential case's gc.alloc.rate.norm should be zero.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ClusteredLightsBenchmark {
+    private static final float NEAR = 0.1f;
+    private static final float FAR = 100;
+
+    @Param({"100", "1000"})
+    public int lights;
+
+    private ForkJoinPool pool;
+    private ClusteredLights sequential;
+    private ClusteredLights parallel;
+    private float[] view;
+    private float[] projection;
+    private float[] positions;
+    private float[] radii;
+    private int frame;
+
+    @Setup
+    public void setUp() {
+        pool = new ForkJoinPool();
+        sequential = new ClusteredLights(16, 8, 24, ClusteredLights.MAX_LIGHTS_PER_CLUSTER, null);
+        parallel = new ClusteredLights(16, 8, 24, ClusteredLights.MAX_LIGHTS_PER_CLUSTER, pool);
+
+        view = new float[16];
+        Matrices.setLookAtM(view, 0, 0, 1.6f, 0, 0, 1.6f, -1, 0, 1, 0);
+        // 90 degrees square
+        projection = new float[16];
+        projection[0] = 1;
+        projection[5] = 1;
+        projection[10] = (FAR + NEAR) / (NEAR - FAR);
+        projection[11] = -1;
+        projection[14] = 2 * FAR * NEAR / (NEAR - FAR);
+
+        // Lamps scattered over a floor around the viewer, a few large
+        Random random = new Random(1);
+        positions = new float[lights * 3];
+        radii = new float[lights];
+        for (int i = 0; i < lights; i++) {
+            positions[i * 3] = (random.nextFloat() - 0.5f) * 80;
+            positions[i * 3 + 1] = random.nextFloat() * 4;
+            positions[i * 3 + 2] = (random.nextFloat() - 0.5f) * 80;
+            radii[i] = random.nextInt(10) == 0 ? 8 + random.nextFloat() * 8
+                    : 1 + random.nextFloat() * 3;
+            float r = random.nextFloat(), g = random.nextFloat(), b = random.nextFloat();
+            sequential.addLight(positions[i * 3], positions[i * 3 + 1], positions[i * 3 + 2],
+                    radii[i], r, g, b);
+            parallel.addLight(positions[i * 3], positions[i * 3 + 1], positions[i * 3 + 2],
+                    radii[i], r, g, b);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.println();
+        System.out.println(sequential);
+        pool.shutdown();
+    }
+
+    private void move(ClusteredLights clustered) {
+        float y = (frame++ & 63) * 0.01f;
+        for (int i = 0; i < lights; i++) {
+            clustered.setLight(i, positions[i * 3], positions[i * 3 + 1] + y,
+                    positions[i * 3 + 2], radii[i]);
+        }
+    }
+
+    @Benchmark
+    public int build() {
+        move(sequential);
+        sequential.build(view, 0, projection, 0, NEAR, FAR);
+        return sequential.getPackedBytes();
+    }
+
+    @Benchmark
+    public int buildParallel() {
+        move(parallel);
+        parallel.build(view, 0, projection, 0, NEAR, FAR);
+        return parallel.getPackedBytes();
+    }
+}
@@ -0,0 +1,98 @@
+package com.cardbookvr.cardboardbox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What moving an eye's draws into a {@link CommandList} costs: recording
+ * one eye shaped like SceneRenderer's, a hundred draws of a program, four
+ * uniforms and three attributes each, which happens on a worker, and
+ * replaying it through a {@link GlState}, which is all that is left on the
+ * GL thread. direct makes the same calls on the GL thread as before.
+ * gc.alloc.rate.norm should be zero.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CommandListBenchmark {
+    private static final int DRAWS = 100;
+
+    private final CommandList commands = new CommandList();
+    private final GlState gl = new GlState(new NullGlBackend());
+    private final FloatBuffer vertices = ByteBuffer.allocateDirect(DRAWS * 64)
+            .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    private final ShortBuffer indices = ByteBuffer.allocateDirect(72)
+            .order(ByteOrder.nativeOrder()).asShortBuffer();
+    private final float[] matrix = new float[16];
+    private final float[] light = new float[4];
+
+    @Setup
+    public void setUp() {
+        record();
+    }
+
+    @Benchmark
+    public CommandList record() {
+        commands.clear();
+        for (int draw = 0; draw < DRAWS; draw++) {
+            commands.glUseProgram(1 + draw % 3);
+            commands.glUniform3fv(0, 1, light, 0);
+            matrix[12] = draw;
+            commands.glUniformMatrix4fv(1, 1, false, matrix, 0);
+            commands.glUniformMatrix4fv(2, 1, false, matrix, 0);
+            commands.glUniform1f(3, 0f);
+            for (int attribute = 0; attribute < 3; attribute++) {
+                commands.glVertexAttribPointer(attribute, 3, GlBackend.GL_FLOAT, false, 40,
+                        vertices, draw * 10 + attribute * 3);
+            }
+            commands.glDrawElements(GlBackend.GL_TRIANGLES, 36, GlBackend.GL_UNSIGNED_SHORT,
+                    indices, 0);
+        }
+        return commands;
+    }
+
+    @Benchmark
+    public GlState replay() {
+        gl.beginFrame();
+        gl.invalidate();
+        commands.replay(gl);
+        return gl;
+    }
+
+    @Benchmark
+    public GlState direct() {
+        gl.beginFrame();
+        gl.invalidate();
+        for (int draw = 0; draw < DRAWS; draw++) {
+            gl.glUseProgram(1 + draw % 3);
+            gl.glUniform3fv(0, 1, light, 0);
+            matrix[12] = draw;
+            gl.glUniformMatrix4fv(1, 1, false, matrix, 0);
+            gl.glUniformMatrix4fv(2, 1, false, matrix, 0);
+            gl.glUniform1f(3, 0f);
+            for (int attribute = 0; attribute < 3; attribute++) {
+                vertices.position(draw * 10 + attribute * 3);
+                gl.glVertexAttribPointer(attribute, 3, GlBackend.GL_FLOAT, false, 40, vertices);
+            }
+            gl.glDrawElements(GlBackend.GL_TRIANGLES, 36, GlBackend.GL_UNSIGNED_SHORT, indices);
+        }
+        return gl;
+    }
+}
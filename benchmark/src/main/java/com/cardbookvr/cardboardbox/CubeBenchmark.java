@@ -0,0 +1,42 @@
+package com.cardbookvr.cardboardbox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Startup geometry expansion: Cube.cubeFacesToArray and the mesh compiler.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CubeBenchmark {
+    private final float[] cubeNormals = Cube.cubeFacesToArray(Cube.CUBE_NORMALS_FACES, 3);
+    private final float[] cubeColors = Cube.cubeFacesToArray(Cube.CUBE_COLORS_FACES, 4);
+
+    @Benchmark
+    public float[] cubeFacesToArrayColors() {
+        return Cube.cubeFacesToArray(Cube.CUBE_COLORS_FACES, 4);
+    }
+
+    @Benchmark
+    public float[] cubeFacesToArrayNormals() {
+        return Cube.cubeFacesToArray(Cube.CUBE_NORMALS_FACES, 3);
+    }
+
+    @Benchmark
+    public CompiledMesh compileCube() {
+        return new MeshCompiler().compile(Cube.CUBE_COORDS, cubeNormals, cubeColors);
+    }
+}
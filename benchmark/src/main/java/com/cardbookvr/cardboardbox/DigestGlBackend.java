@@ -0,0 +1,210 @@
+package com.cardbookvr.cardboardbox;
+
+import java.nio.Buffer;
+
+/**
+ * A GL backend that folds every call and its arguments into a 64-bit
+ * FNV-1a digest instead of drawing, so two runs can be compared by one
+ * number. Buffers count by their position, limit and capacity, not their
+ * contents. Locations are handed out in the order they are asked for.
+ *
+ * Nothing is allocated per call, so it can sit under frames whose
+ * allocations are being measured.
+ */
+public class DigestGlBackend implements GlBackend {
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private final String version;
+    private long digest = OFFSET_BASIS;
+    private long callCount;
+    private int nextLocation;
+
+    /**
+     * @param version - what glGetString(GL_VERSION) returns, which decides
+     *                whether the renderer instances.
+     */
+    public DigestGlBackend(String version) {
+        this.version = version;
+    }
+
+    public long getDigest() {
+        return digest;
+    }
+
+    public long getCallCount() {
+        return callCount;
+    }
+
+    /**
+     * Start a new digest and count; locations keep counting.
+     */
+    public void reset() {
+        digest = OFFSET_BASIS;
+        callCount = 0;
+    }
+
+    private void call(int opcode) {
+        callCount++;
+        mix(opcode);
+    }
+
+    private void mix(int value) {
+        for (int i = 0; i < 4; i++) {
+            digest = (digest ^ (value & 0xff)) * PRIME;
+            value >>>= 8;
+        }
+    }
+
+    private void mix(float value) {
+        mix(Float.floatToIntBits(value));
+    }
+
+    private void mix(float[] v, int offset, int count) {
+        for (int i = 0; i < count; i++) {
+            mix(v[offset + i]);
+        }
+    }
+
+    private void mix(Buffer buffer) {
+        mix(buffer.position());
+        mix(buffer.limit());
+        mix(buffer.capacity());
+    }
+
+    @Override
+    public String glGetString(int name) {
+        call(0);
+        mix(name);
+        return name == GL_VERSION ? version : null;
+    }
+
+    @Override
+    public void glClear(int mask) {
+        call(1);
+        mix(mask);
+    }
+
+    @Override
+    public void glEnable(int cap) {
+        call(2);
+        mix(cap);
+    }
+
+    @Override
+    public void glDisable(int cap) {
+        call(3);
+        mix(cap);
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        call(4);
+        mix(program);
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        call(5);
+        mix(program);
+        mix(name.hashCode());
+        return nextLocation++;
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        call(6);
+        mix(program);
+        mix(name.hashCode());
+        return nextLocation++;
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        call(7);
+        mix(index);
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        call(8);
+        mix(index);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+                                      int stride, Buffer pointer) {
+        call(9);
+        mix(index);
+        mix(size);
+        mix(type);
+        mix(normalized ? 1 : 0);
+        mix(stride);
+        mix(pointer);
+    }
+
+    @Override
+    public void glUniform1f(int location, float x) {
+        call(10);
+        mix(location);
+        mix(x);
+    }
+
+    @Override
+    public void glUniform3fv(int location, int count, float[] v, int offset) {
+        call(11);
+        mix(location);
+        mix(v, offset, count * 3);
+    }
+
+    @Override
+    public void glUniform4fv(int location, int count, float[] v, int offset) {
+        call(12);
+        mix(location);
+        mix(v, offset, count * 4);
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value,
+                                   int offset) {
+        call(13);
+        mix(location);
+        mix(transpose ? 1 : 0);
+        mix(value, offset, count * 16);
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count) {
+        call(14);
+        mix(mode);
+        mix(first);
+        mix(count);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, Buffer indices) {
+        call(15);
+        mix(mode);
+        mix(count);
+        mix(type);
+        mix(indices);
+    }
+
+    @Override
+    public void glVertexAttribDivisor(int index, int divisor) {
+        call(16);
+        mix(index);
+        mix(divisor);
+    }
+
+    @Override
+    public void glDrawElementsInstanced(int mode, int count, int type, Buffer indices,
+                                        int instanceCount) {
+        call(17);
+        mix(mode);
+        mix(count);
+        mix(type);
+        mix(indices);
+        mix(instanceCount);
+    }
+}
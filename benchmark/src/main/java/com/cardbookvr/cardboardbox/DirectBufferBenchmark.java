@@ -0,0 +1,114 @@
+package com.cardbookvr.cardboardbox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Direct buffer creation as done by prepareRenderingCube and
+ * prepareRenderingFloor, before and after mesh compilation, against
+ * sub-allocating the same buffers from a {@link BufferArena} and a
+ * {@link FrameRingBuffer}. The ring's gc.alloc.rate.norm should be zero.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DirectBufferBenchmark {
+    private final float[] cubeColors = Cube.cubeFacesToArray(Cube.CUBE_COLORS_FACES, 4);
+    private final float[] cubeFoundColors = Cube.cubeFacesToArray(Cube.CUBE_FOUND_COLORS_FACES, 4);
+    private final float[] cubeNormals = Cube.cubeFacesToArray(Cube.CUBE_NORMALS_FACES, 3);
+    private final CompiledMesh cubeMesh =
+            new MeshCompiler().compile(Cube.CUBE_COORDS, cubeNormals, cubeColors);
+    private final CompiledMesh floorMesh =
+            new MeshCompiler().compile(Floor.FLOOR_COORDS, Floor.FLOOR_NORMALS, Floor.FLOOR_COLORS);
+    private final BufferArena arena = new BufferArena(64 * 1024, 16);
+    private final BufferArena.Block[] blocks = new BufferArena.Block[7];
+    private final FrameRingBuffer ring = new FrameRingBuffer(64 * 1024, 3, 16);
+    private long frame;
+
+    @Benchmark
+    public void separateAttributeBuffers(Blackhole blackhole) {
+        blackhole.consume(floatBuffer(Cube.CUBE_COORDS));
+        blackhole.consume(floatBuffer(cubeColors));
+        blackhole.consume(floatBuffer(cubeFoundColors));
+        blackhole.consume(floatBuffer(cubeNormals));
+        blackhole.consume(floatBuffer(Floor.FLOOR_COORDS));
+        blackhole.consume(floatBuffer(Floor.FLOOR_COLORS));
+        blackhole.consume(floatBuffer(Floor.FLOOR_NORMALS));
+    }
+
+    @Benchmark
+    public void compiledMeshBuffers(Blackhole blackhole) {
+        blackhole.consume(cubeMesh.createVertexBuffer());
+        blackhole.consume(cubeMesh.createIndexBuffer());
+        blackhole.consume(floorMesh.createVertexBuffer());
+        blackhole.consume(floorMesh.createIndexBuffer());
+    }
+
+    @Benchmark
+    public void arenaAttributeBuffers(Blackhole blackhole) {
+        blocks[0] = arenaBuffer(Cube.CUBE_COORDS);
+        blocks[1] = arenaBuffer(cubeColors);
+        blocks[2] = arenaBuffer(cubeFoundColors);
+        blocks[3] = arenaBuffer(cubeNormals);
+        blocks[4] = arenaBuffer(Floor.FLOOR_COORDS);
+        blocks[5] = arenaBuffer(Floor.FLOOR_COLORS);
+        blocks[6] = arenaBuffer(Floor.FLOOR_NORMALS);
+        blackhole.consume(blocks);
+        // Give the space back so every invocation starts from the same arena
+        for (BufferArena.Block block : blocks) {
+            arena.free(block);
+        }
+    }
+
+    @Benchmark
+    public FloatBuffer frameRingAttributeBuffers() {
+        ring.beginFrame(frame++);
+        ringBuffer(Cube.CUBE_COORDS);
+        ringBuffer(cubeColors);
+        ringBuffer(cubeFoundColors);
+        ringBuffer(cubeNormals);
+        ringBuffer(Floor.FLOOR_COORDS);
+        ringBuffer(Floor.FLOOR_COLORS);
+        ringBuffer(Floor.FLOOR_NORMALS);
+        return ring.getFloatBuffer();
+    }
+
+    private BufferArena.Block arenaBuffer(float[] data) {
+        BufferArena.Block block = arena.allocate(data.length * 4);
+        FloatBuffer buffer = block.getFloatBuffer();
+        buffer.put(data);
+        buffer.position(0);
+        return block;
+    }
+
+    private void ringBuffer(float[] data) {
+        FloatBuffer buffer = ring.getFloatBuffer();
+        buffer.position(ring.allocate(data.length * 4) / 4);
+        buffer.put(data);
+    }
+
+    private static FloatBuffer floatBuffer(float[] data) {
+        ByteBuffer bb = ByteBuffer.allocateDirect(data.length * 4);
+        bb.order(ByteOrder.nativeOrder());
+        FloatBuffer buffer = bb.asFloatBuffer();
+        buffer.put(data);
+        buffer.position(0);
+        return buffer;
+    }
+}
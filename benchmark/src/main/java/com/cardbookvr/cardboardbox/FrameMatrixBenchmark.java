@@ -0,0 +1,103 @@
+package com.cardbookvr.cardboardbox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One frame's worth of transform math for both eyes: the per-object matrix
+ * chain onDrawEye used to run for each eye, against StereoFramePlan.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FrameMatrixBenchmark {
+    private static final float[] LIGHT_POS_IN_WORLD_SPACE = {0.0f, 2.0f, 0.0f, 1.0f};
+
+    @Param({"3", "100", "2000"})
+    public int objectCount;
+
+    private float[][] transforms;
+    private float[] camera = new float[16];
+    private float[] headView = new float[16];
+    private float[] leftEyeView = new float[16];
+    private float[] rightEyeView = new float[16];
+    private float[] perspective = new float[16];
+
+    private float[] view = new float[16];
+    private float[] lightPosInEyeSpace = new float[4];
+    private float[] modelView = new float[16];
+    private float[] modelViewProjection = new float[16];
+
+    private StereoFramePlan plan;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        transforms = new float[objectCount][16];
+        plan = new StereoFramePlan(objectCount);
+        for (int i = 0; i < objectCount; i++) {
+            Matrices.setIdentityM(transforms[i], 0);
+            Matrices.translateM(transforms[i], 0, random.nextFloat() * 10 - 5,
+                    random.nextFloat() * 10 - 5, -random.nextFloat() * 50);
+            plan.setModel(i, transforms[i]);
+        }
+        Matrices.setLookAtM(camera, 0, 0.0f, 0.0f, 0.01f, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f);
+        float[] rotation = new float[32];
+        Matrices.setIdentityM(headView, 0);
+        Matrices.rotateM(headView, 0, 20, 0.2f, 1, 0, rotation);
+        float[] eyeOffset = new float[16];
+        Matrices.setIdentityM(eyeOffset, 0);
+        Matrices.translateM(eyeOffset, 0, 0.03f, 0, 0);
+        Matrices.multiplyMM(leftEyeView, 0, eyeOffset, 0, headView, 0);
+        Matrices.translateM(eyeOffset, 0, -0.06f, 0, 0);
+        Matrices.multiplyMM(rightEyeView, 0, eyeOffset, 0, headView, 0);
+        for (int i = 0; i < 16; i++) {
+            perspective[i] = random.nextFloat();
+        }
+    }
+
+    @Benchmark
+    public void perEyeMatrixChain(Blackhole blackhole) {
+        drawEye(leftEyeView, blackhole);
+        drawEye(rightEyeView, blackhole);
+    }
+
+    private void drawEye(float[] eyeView, Blackhole blackhole) {
+        // As onDrawEye did it: everything recomputed per eye, per object
+        Matrices.multiplyMM(view, 0, eyeView, 0, camera, 0);
+        Matrices.multiplyMV(lightPosInEyeSpace, 0, view, 0, LIGHT_POS_IN_WORLD_SPACE, 0);
+        for (int i = 0; i < objectCount; i++) {
+            Matrices.multiplyMM(modelView, 0, view, 0, transforms[i], 0);
+            Matrices.multiplyMM(modelViewProjection, 0, perspective, 0, modelView, 0);
+            blackhole.consume(modelViewProjection);
+        }
+    }
+
+    @Benchmark
+    public void stereoFramePlan(Blackhole blackhole) {
+        plan.build(headView, camera, LIGHT_POS_IN_WORLD_SPACE);
+        StereoFramePlan.EyeDraws left = plan.prepareEye(1, leftEyeView, perspective);
+        StereoFramePlan.EyeDraws right = plan.prepareEye(2, rightEyeView, perspective);
+        for (int i = 0; i < left.getDrawCount(); i++) {
+            left.getModelViewProjection(left.getObject(i), modelViewProjection, 0);
+            right.getModelViewProjection(right.getObject(i), modelViewProjection, 0);
+        }
+        blackhole.consume(modelViewProjection);
+    }
+}
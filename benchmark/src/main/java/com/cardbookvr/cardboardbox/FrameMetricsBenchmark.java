@@ -0,0 +1,38 @@
+package com.cardbookvr.cardboardbox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one stage recording on the render thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FrameMetricsBenchmark {
+    private final FrameMetrics metrics = new FrameMetrics(16666667L);
+    private long value;
+
+    @Benchmark
+    public void record() {
+        value = (value + 7919) & 0xfffff;
+        metrics.record(FrameMetrics.STAGE_NEW_FRAME, value);
+    }
+
+    @Benchmark
+    public void beginEnd() {
+        metrics.end(FrameMetrics.STAGE_FINISH_FRAME, metrics.begin());
+    }
+}
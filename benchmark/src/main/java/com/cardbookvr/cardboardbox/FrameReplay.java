@@ -0,0 +1,338 @@
+package com.cardbookvr.cardboardbox;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Runs {@link SceneRenderer} headless over a head pose trace, the same
+ * frames every time, and writes a CSV row per frame: CPU time, wall time,
+ * bytes allocated, GL calls and a digest of those calls.
+ *
+ * GL goes to a {@link DigestGlBackend}, eyes are {@link ReplayEye}s, and
+ * the simulation, ground chunks and occlusion run on the calling thread,
+ * so a trace always produces the same calls. The trace is replayed
+ * WARMUP_PASSES times first, each on a new renderer, to warm the JIT up;
+ * every pass has to end with the same digest, or the run fails.
+ *
+ * Given eye workers, the eyes are recorded on a pool of that many threads
+ * instead, as on a device. The digest stays the same, and the CPU time is
+ * then only what is left on the calling thread, which stands for the GL
+ * thread. Wall time also counts the calling thread waiting for the
+ * recorders, so compare both against a run without workers.
+ * <pre>
+ * ./gradlew :benchmark:replay [-Ptrace=head_poses.cbtrace|frames] [-Pworkers=2]
+ * </pre>
+ * or "java FrameReplay &lt;app/src/main&gt; &lt;out.csv&gt; [trace.cbtrace|frames [workers]]".
+ * Without a trace, the head sways and turns for the given number of
+ * frames, 600 by default. Traces are recorded on a device by MainActivity.
+ */
+public class FrameReplay {
+    private static final int WARMUP_PASSES = 3;
+    private static final int SYNTHETIC_FRAMES = 600;
+    private static final long FRAME_NANOS = 1000000000L / 60;
+    private static final String GL_VERSION = "OpenGL ES 3.0 FrameReplay";
+
+    private static final long PRIME = 0x100000001b3L;
+
+    private final File appDir;
+    private final HeadPoseTrace trace;
+    private final int eyeWorkers;
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // Per frame, from the last pass
+    private final long[] cpuNanos;
+    private final long[] wallNanos;
+    private final long[] allocatedBytes;
+    private final long[] callCounts;
+    private final long[] digests;
+
+    /**
+     * @param eyeWorkers - threads to record the eyes on, or 0 for the
+     *                   calling thread.
+     */
+    public FrameReplay(File appDir, HeadPoseTrace trace, int eyeWorkers) {
+        if (eyeWorkers < 0) {
+            throw new IllegalArgumentException("eyeWorkers must not be negative");
+        }
+        this.appDir = appDir;
+        this.trace = trace;
+        this.eyeWorkers = eyeWorkers;
+        int frames = trace.getFrameCount();
+        cpuNanos = new long[frames];
+        wallNanos = new long[frames];
+        allocatedBytes = new long[frames];
+        callCounts = new long[frames];
+        digests = new long[frames];
+    }
+
+    /**
+     * Replay every frame of the trace on a new renderer.
+     *
+     * @param log - whether to print what the renderer logs.
+     * @return the digest of every GL call made, setup included.
+     */
+    public long run(boolean log) {
+        DigestGlBackend gl = new DigestGlBackend(GL_VERSION);
+        Executor sameThread = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        ForkJoinPool workers = eyeWorkers > 0 ? new ForkJoinPool(eyeWorkers) : null;
+        SceneRenderer renderer = new SceneRenderer(new Host(appDir, log), gl, sameThread,
+                workers);
+        // Frame times differ run to run, the calls mustn't
+        renderer.setAdaptiveQuality(false);
+        ReplayEye left = new ReplayEye(StereoFramePlan.EYE_LEFT);
+        ReplayEye right = new ReplayEye(StereoFramePlan.EYE_RIGHT);
+        float[] headView = new float[16];
+        float[] quaternion = new float[4];
+
+        renderer.onSurfaceCreated();
+        long digest = gl.getDigest();
+        long thread = Thread.currentThread().getId();
+        // What measuring allocates by itself, if anything
+        long overhead = -threads.getThreadAllocatedBytes(thread)
+                + threads.getThreadAllocatedBytes(thread);
+
+        for (int i = 0; i < trace.getFrameCount(); i++) {
+            long nanos = trace.getTime(i);
+            trace.getHeadView(i, headView, 0);
+            trace.getQuaternion(i, quaternion, 0);
+            left.setHeadView(headView, 0);
+            right.setHeadView(headView, 0);
+            gl.reset();
+
+            long allocated = threads.getThreadAllocatedBytes(thread);
+            long cpu = threads.getCurrentThreadCpuTime();
+            long wall = System.nanoTime();
+            renderer.advanceSimulation(nanos);
+            renderer.onNewFrame(nanos, headView, quaternion);
+            renderer.onDrawEye(left.getType(), left.getEyeView(),
+                    left.getPerspective(SceneRenderer.Z_NEAR, SceneRenderer.Z_FAR));
+            renderer.onDrawEye(right.getType(), right.getEyeView(),
+                    right.getPerspective(SceneRenderer.Z_NEAR, SceneRenderer.Z_FAR));
+            renderer.onFinishFrame();
+            wallNanos[i] = System.nanoTime() - wall;
+            cpuNanos[i] = threads.getCurrentThreadCpuTime() - cpu;
+            allocatedBytes[i] = Math.max(0,
+                    threads.getThreadAllocatedBytes(thread) - allocated - overhead);
+
+            callCounts[i] = gl.getCallCount();
+            digests[i] = gl.getDigest();
+            digest = (digest ^ digests[i]) * PRIME;
+        }
+        if (log) {
+            renderer.logStats();
+        }
+        if (workers != null) {
+            workers.shutdown();
+        }
+        return digest;
+    }
+
+    /**
+     * Write the last pass's frames as CSV.
+     */
+    public void writeCsv(File file) throws IOException {
+        PrintWriter out = new PrintWriter(file, "UTF-8");
+        try {
+            out.println("frame,time_ns,cpu_us,wall_us,allocated_bytes,gl_calls,digest");
+            for (int i = 0; i < digests.length; i++) {
+                out.printf("%d,%d,%.1f,%.1f,%d,%d,%016x%n", i, trace.getTime(i),
+                        cpuNanos[i] / 1e3, wallNanos[i] / 1e3, allocatedBytes[i], callCounts[i],
+                        digests[i]);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        int frames = digests.length;
+        if (frames == 0) {
+            return "no frames";
+        }
+        long[] cpu = cpuNanos.clone();
+        Arrays.sort(cpu);
+        long[] wall = wallNanos.clone();
+        Arrays.sort(wall);
+        long allocated = 0;
+        long allocating = 0;
+        long calls = 0;
+        for (int i = 0; i < frames; i++) {
+            allocated += allocatedBytes[i];
+            allocating += allocatedBytes[i] > 0 ? 1 : 0;
+            calls += callCounts[i];
+        }
+        int p99 = Math.min(frames - 1, frames * 99 / 100);
+        return String.format("%d frames, cpu p50 %.1f p99 %.1f max %.1f us,"
+                        + " wall p50 %.1f p99 %.1f us,"
+                        + " %d bytes allocated in %d frames, %.1f GL calls per frame",
+                frames, cpu[frames / 2] / 1e3, cpu[p99] / 1e3, cpu[frames - 1] / 1e3,
+                wall[frames / 2] / 1e3, wall[p99] / 1e3, allocated, allocating,
+                calls / (float) frames);
+    }
+
+    /**
+     * The head swaying side to side and nodding, 60 frames a second.
+     */
+    public static HeadPoseTrace synthesize(int frames) {
+        HeadPoseTrace trace = new HeadPoseTrace();
+        float[] yaw = new float[4];
+        float[] pitch = new float[4];
+        float[] quaternion = new float[4];
+        float[] headView = new float[16];
+        for (int i = 0; i < frames; i++) {
+            double seconds = i * FRAME_NANOS / 1e9;
+            Quaternions.setAxisAngle(yaw, 0,
+                    (float) (30 * Math.sin(2 * Math.PI * seconds / 4)), 0, 1, 0);
+            Quaternions.setAxisAngle(pitch, 0,
+                    (float) (10 * Math.sin(2 * Math.PI * seconds / 3)), 1, 0, 0);
+            Quaternions.multiply(quaternion, 0, yaw, 0, pitch, 0);
+            // As HeadTransform, the head view is the inverse rotation
+            Quaternions.conjugate(quaternion, 0);
+            Quaternions.toRotationM(headView, 0, quaternion, 0);
+            Quaternions.conjugate(quaternion, 0);
+            trace.add(1000000000L + i * FRAME_NANOS, headView, 0, quaternion, 0);
+        }
+        return trace;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 4) {
+            System.err.println("usage: FrameReplay <app/src/main> <out.csv>"
+                    + " [trace.cbtrace|frames [workers]]");
+            System.exit(1);
+        }
+        HeadPoseTrace trace;
+        if (args.length == 2) {
+            trace = synthesize(SYNTHETIC_FRAMES);
+        } else if (args[2].matches("\\d+")) {
+            trace = synthesize(Integer.parseInt(args[2]));
+        } else {
+            trace = HeadPoseTrace.read(new File(args[2]));
+        }
+
+        int workers = args.length == 4 ? Integer.parseInt(args[3]) : 0;
+
+        FrameReplay replay = new FrameReplay(new File(args[0]), trace, workers);
+        long expected = 0;
+        for (int pass = 0; pass <= WARMUP_PASSES; pass++) {
+            long digest = replay.run(pass == WARMUP_PASSES);
+            if (pass > 0 && digest != expected) {
+                System.err.printf("Pass %d drew differently: %016x, then %016x%n", pass,
+                        expected, digest);
+                System.exit(2);
+            }
+            expected = digest;
+        }
+        replay.writeCsv(new File(args[1]));
+        System.out.println(replay);
+        System.out.printf("digest %016x%n", expected);
+    }
+
+    /**
+     * Assets and shaders straight from the app's source tree.
+     */
+    private static class Host implements SceneRenderer.Host {
+        private final File assets;
+        private final File raw;
+        private final boolean log;
+
+        Host(File appDir, boolean log) {
+            assets = new File(appDir, "assets");
+            raw = new File(appDir, "res/raw");
+            this.log = log;
+        }
+
+        @Override
+        public MeshFile[] loadMeshLods(String name) {
+            List<MeshFile> levels = new ArrayList<>();
+            try {
+                File file = new File(assets, name + ".cbmesh");
+                while (file.exists()) {
+                    levels.add(MeshFile.map(file));
+                    file = new File(assets, name + ".lod" + levels.size() + ".cbmesh");
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to load mesh " + name, e);
+            }
+            if (levels.isEmpty()) {
+                throw new RuntimeException("No mesh " + name + " in " + assets);
+            }
+            return levels.toArray(new MeshFile[levels.size()]);
+        }
+
+        @Override
+        public String loadShader(String name) throws IOException {
+            File file = new File(raw, name + ".shader");
+            return file.exists()
+                    ? new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8) : null;
+        }
+
+        @Override
+        public ShaderDriver createShaderDriver() {
+            return new ShaderDriver() {
+                private int nextHandle = 1;
+
+                @Override
+                public int compileShader(int type, String code) {
+                    return nextHandle++;
+                }
+
+                @Override
+                public int linkProgram(int vertexShader, int fragmentShader) {
+                    return nextHandle++;
+                }
+
+                @Override
+                public void deleteShader(int shader) {
+                }
+
+                @Override
+                public ProgramBinaryStore.Binary getProgramBinary(int program) {
+                    return null;
+                }
+
+                @Override
+                public int loadProgramBinary(ProgramBinaryStore.Binary binary) {
+                    return 0;
+                }
+
+                @Override
+                public String getIdentity() {
+                    return GL_VERSION;
+                }
+            };
+        }
+
+        @Override
+        public ProgramBinaryStore createProgramStore() {
+            return null;
+        }
+
+        @Override
+        public void setRenderScale(float scale) {
+        }
+
+        @Override
+        public void log(String message) {
+            if (log) {
+                System.err.println(message);
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.cardbookvr.cardboardbox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Culling boxes scattered around the viewer for both eyes: testing every
+ * box against each eye's frustum, against the combined frustum first,
+ * with and without a ForkJoinPool. The sequential cases'
+ * gc.alloc.rate.norm should be zero.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FrustumCullerBenchmark {
+    private static final float IPD = 0.064f;
+
+    @Param({"1000", "100000"})
+    public int objects;
+
+    private ForkJoinPool pool;
+    private FrustumCuller sequential;
+    private FrustumCuller parallel;
+    private float[] bounds;
+    private float[] leftPlanes;
+    private float[] rightPlanes;
+
+    @Setup
+    public void setUp() {
+        pool = new ForkJoinPool();
+        sequential = new FrustumCuller(objects, null);
+        parallel = new FrustumCuller(objects, pool);
+
+        Random random = new Random(1);
+        bounds = new float[objects * 6];
+        for (int i = 0; i < objects; i++) {
+            int o = i * 6;
+            float size = 0.1f + random.nextFloat();
+            for (int axis = 0; axis < 3; axis++) {
+                float centre = (random.nextFloat() - 0.5f) * 200;
+                bounds[o + axis] = centre - size;
+                bounds[o + 3 + axis] = centre + size;
+            }
+            sequential.setBounds(i, bounds, o);
+            parallel.setBounds(i, bounds, o);
+        }
+
+        // 90 degrees square, near 0.1, far 100
+        float near = 0.1f;
+        float far = 100;
+        float[] perspective = new float[16];
+        perspective[0] = 1;
+        perspective[5] = 1;
+        perspective[10] = (far + near) / (near - far);
+        perspective[11] = -1;
+        perspective[14] = 2 * far * near / (near - far);
+        float[] vp = new float[32];
+        float[] view = new float[16];
+        leftPlanes = new float[FrustumCuller.PLANE_FLOATS];
+        rightPlanes = new float[FrustumCuller.PLANE_FLOATS];
+        for (int eye = 0; eye < 2; eye++) {
+            Matrices.setIdentityM(view, 0);
+            Matrices.translateM(view, 0, eye == 0 ? IPD / 2 : -IPD / 2, 0, 0);
+            Matrices.multiplyMM(vp, eye * 16, perspective, 0, view, 0);
+            sequential.setFrustum(eye, vp, eye * 16);
+            parallel.setFrustum(eye, vp, eye * 16);
+        }
+        FrustumCuller.extractPlanes(vp, 0, leftPlanes, 0);
+        FrustumCuller.extractPlanes(vp, 16, rightPlanes, 0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public int eachEye() {
+        int visible = 0;
+        for (int i = 0; i < objects; i++) {
+            if (FrustumCuller.intersectsBox(leftPlanes, 0, bounds, i * 6)
+                    | FrustumCuller.intersectsBox(rightPlanes, 0, bounds, i * 6)) {
+                visible++;
+            }
+        }
+        return visible;
+    }
+
+    @Benchmark
+    public int union() {
+        return sequential.cull();
+    }
+
+    @Benchmark
+    public int unionParallel() {
+        return parallel.cull();
+    }
+}
@@ -0,0 +1,89 @@
+package com.cardbookvr.cardboardbox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The old isLookingAtObject check against a GazePicker pick.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class GazeBenchmark {
+    private static final float YAW_LIMIT = 0.12f;
+    private static final float PITCH_LIMIT = 0.12f;
+
+    @Param({"3", "1000", "10000", "100000"})
+    public int objectCount;
+
+    private float[] headView = new float[16];
+    private float[] cubeTransform = new float[16];
+    private float[] cubeView = new float[16];
+    private float[] cubeBounds;
+    private GazePicker picker;
+
+    @Setup
+    public void setUp() {
+        float[] scratch = new float[32];
+        Matrices.setIdentityM(headView, 0);
+        Matrices.rotateM(headView, 0, 3, 0, 1, 0, scratch);
+        Matrices.setIdentityM(cubeTransform, 0);
+        Matrices.translateM(cubeTransform, 0, 0, 0, -5);
+        Matrices.rotateM(cubeTransform, 0, 30, 1, 1, 0, scratch);
+
+        Random random = new Random(1);
+        cubeBounds = GazePicker.computeLocalBounds(Cube.CUBE_COORDS);
+        float[] transform = new float[16];
+        picker = new GazePicker(objectCount);
+        picker.setBounds(0, cubeBounds, cubeTransform);
+        for (int i = 1; i < objectCount; i++) {
+            Matrices.setIdentityM(transform, 0);
+            Matrices.translateM(transform, 0, random.nextFloat() * 200 - 100,
+                    random.nextFloat() * 200 - 100, random.nextFloat() * 200 - 100);
+            picker.setBounds(i, cubeBounds, transform);
+        }
+        picker.build();
+    }
+
+    /**
+     * Once per eye per frame, for the cube only.
+     */
+    @Benchmark
+    public boolean isLookingAtObject() {
+        float[] initVec = { 0, 0, 0, 1.0f };
+        float[] objPositionVec = new float[4];
+
+        Matrices.multiplyMM(cubeView, 0, headView, 0, cubeTransform, 0);
+        Matrices.multiplyMV(objPositionVec, 0, cubeView, 0, initVec, 0);
+
+        float pitch = (float) Math.atan2(objPositionVec[1], -objPositionVec[2]);
+        float yaw = (float) Math.atan2(objPositionVec[0], -objPositionVec[2]);
+
+        return Math.abs(pitch) < PITCH_LIMIT && Math.abs(yaw) < YAW_LIMIT;
+    }
+
+    /**
+     * Once per frame, for every object.
+     */
+    @Benchmark
+    public int pick() {
+        picker.setBounds(0, cubeBounds, cubeTransform);
+        picker.refit();
+        return picker.pick(headView);
+    }
+}
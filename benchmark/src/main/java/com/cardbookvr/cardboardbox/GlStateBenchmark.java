@@ -0,0 +1,74 @@
+package com.cardbookvr.cardboardbox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU cost of {@link GlState}'s bookkeeping on a frame shaped like
+ * MainActivity's, two eyes of three objects, against calling a backend
+ * that does nothing directly. On a device each skipped call saves a
+ * driver call, which costs far more than the check. gc.alloc.rate.norm
+ * should be zero.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class GlStateBenchmark {
+    private static final int OBJECTS = 3;
+    private static final int FLOAT = 0x1406;
+
+    private final GlBackend direct = new NullGlBackend();
+    private final GlState cached = new GlState(new NullGlBackend());
+    private final FloatBuffer vertices = ByteBuffer.allocateDirect(4096)
+            .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    private final float[] matrix = new float[16];
+    private final float[] light = new float[4];
+
+    @Benchmark
+    public GlBackend direct() {
+        frame(direct);
+        return direct;
+    }
+
+    @Benchmark
+    public GlBackend cached() {
+        cached.beginFrame();
+        cached.invalidate();
+        frame(cached);
+        return cached;
+    }
+
+    private void frame(GlBackend gl) {
+        for (int eye = 0; eye < 2; eye++) {
+            light[0] = eye;
+            for (int object = 0; object < OBJECTS; object++) {
+                gl.glUseProgram(1 + object);
+                gl.glUniform3fv(0, 1, light, 0);
+                matrix[12] = eye + object;
+                gl.glUniformMatrix4fv(1, 1, false, matrix, 0);
+                gl.glUniformMatrix4fv(2, 1, false, matrix, 0);
+                gl.glUniform1f(3, 0f);
+                for (int attribute = 0; attribute < 3; attribute++) {
+                    vertices.position(object * 10 + attribute * 3);
+                    gl.glVertexAttribPointer(attribute, 3, FLOAT, false, 40, vertices);
+                }
+                gl.glDrawArrays(4, 0, 36);
+            }
+        }
+    }
+}
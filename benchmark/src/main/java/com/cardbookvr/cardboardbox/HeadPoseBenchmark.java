@@ -0,0 +1,52 @@
+package com.cardbookvr.cardboardbox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per frame cost of head pose prediction: adding the frame's orientation
+ * and predicting the head view a frame ahead, with the error bookkeeping.
+ * gc.alloc.rate.norm should be zero.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class HeadPoseBenchmark {
+    private static final long FRAME = 1000000000L / 60;
+
+    @Param({"0", "1", "2"})
+    public int model;
+
+    private HeadPosePredictor predictor;
+    private final float[] orientation = new float[4];
+    private final float[] headView = new float[16];
+    private long time;
+
+    @Setup
+    public void setUp() {
+        predictor = new HeadPosePredictor(model, 50000000L);
+    }
+
+    @Benchmark
+    public float[] addAndPredict() {
+        time += FRAME;
+        Quaternions.setAxisAngle(orientation, 0, (time / 1000000L) % 360 * 0.06f, 0, 1, 0);
+        predictor.addSample(time, orientation, 0);
+        predictor.predictHeadView(time + FRAME, headView);
+        return headView;
+    }
+}
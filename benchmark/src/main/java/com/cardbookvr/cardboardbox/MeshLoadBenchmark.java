@@ -0,0 +1,116 @@
+package com.cardbookvr.cardboardbox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Getting a mesh from storage into a buffer GL can read: mapping a .cbmesh
+ * file against reading the same floats into the heap and copying them into
+ * a direct buffer, as the static arrays were. Both paths touch one float per
+ * page so the mapped pages are really faulted in.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MeshLoadBenchmark {
+    private static final int PAGE_FLOATS = 4096 / 4;
+
+    @Param({"10000", "1000000"})
+    public int vertexCount;
+
+    private File meshFile;
+    private File rawFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        float[] vertices = new float[vertexCount * ObjReader.STRIDE_FLOATS];
+        int[] indices = new int[vertexCount];
+        for (int i = 0; i < vertices.length; i++) {
+            vertices[i] = i * 0.001f;
+        }
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = i;
+        }
+        meshFile = File.createTempFile("bench", ".cbmesh");
+        new MeshFileWriter().write(meshFile, vertices, ObjReader.STRIDE_FLOATS, vertexCount,
+                indices, indices.length, CompiledMesh.getLayout());
+
+        // The same vertices as a bare float dump, standing in for the old arrays
+        rawFile = File.createTempFile("bench", ".raw");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(rawFile)));
+        try {
+            for (float v : vertices) {
+                out.writeFloat(v);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        meshFile.delete();
+        rawFile.delete();
+    }
+
+    @Benchmark
+    public float mapped() throws IOException {
+        MeshFile mesh = MeshFile.map(meshFile);
+        return touch(mesh.getVertexData().asFloatBuffer());
+    }
+
+    @Benchmark
+    public float heapCopy() throws IOException {
+        int floats = (int) (rawFile.length() / 4);
+        byte[] bytes = new byte[floats * 4];
+        DataInputStream in = new DataInputStream(new FileInputStream(rawFile));
+        try {
+            in.readFully(bytes);
+        } finally {
+            in.close();
+        }
+        float[] heap = new float[floats];
+        ByteBuffer.wrap(bytes).asFloatBuffer().get(heap);
+
+        FloatBuffer buffer = ByteBuffer.allocateDirect(floats * 4)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        buffer.put(heap);
+        buffer.position(0);
+        return touch(buffer);
+    }
+
+    private static float touch(FloatBuffer buffer) {
+        float sum = 0;
+        for (int i = 0; i < buffer.limit(); i += PAGE_FLOATS) {
+            sum += buffer.get(i);
+        }
+        return sum;
+    }
+}
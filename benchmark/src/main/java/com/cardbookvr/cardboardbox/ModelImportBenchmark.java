@@ -0,0 +1,133 @@
+package com.cardbookvr.cardboardbox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Import throughput on a synthetic height field scan of 2 * gridSize^2
+ * triangles, written as OBJ and ASCII PLY. Compare threads=1 against more
+ * threads for scaling, and objReader for the String based reader.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx512m")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ModelImportBenchmark {
+    @Param({"300", "1000"})
+    public int gridSize;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private File obj;
+    private File ply;
+    private ForkJoinPool pool;
+    private ModelImporter importer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        pool = new ForkJoinPool(threads);
+        importer = new ModelImporter(pool);
+        float[] heights = heights(gridSize);
+
+        obj = File.createTempFile("scan", ".obj");
+        Writer out = new BufferedWriter(new FileWriter(obj));
+        try {
+            for (int i = 0; i < heights.length; i++) {
+                out.write("v " + (i % (gridSize + 1)) * 0.01f + " " + heights[i] + " "
+                        + (i / (gridSize + 1)) * 0.01f + "\n");
+            }
+            for (int z = 0; z < gridSize; z++) {
+                for (int x = 0; x < gridSize; x++) {
+                    int a = z * (gridSize + 1) + x + 1;
+                    out.write("f " + a + " " + (a + gridSize + 1) + " " + (a + 1) + "\n");
+                    out.write("f " + (a + 1) + " " + (a + gridSize + 1) + " " + (a + gridSize + 2) + "\n");
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        ply = File.createTempFile("scan", ".ply");
+        out = new BufferedWriter(new FileWriter(ply));
+        try {
+            out.write("ply\nformat ascii 1.0\nelement vertex " + heights.length + "\n"
+                    + "property float x\nproperty float y\nproperty float z\n"
+                    + "element face " + gridSize * gridSize + "\n"
+                    + "property list uchar int vertex_indices\nend_header\n");
+            for (int i = 0; i < heights.length; i++) {
+                out.write((i % (gridSize + 1)) * 0.01f + " " + heights[i] + " "
+                        + (i / (gridSize + 1)) * 0.01f + "\n");
+            }
+            for (int z = 0; z < gridSize; z++) {
+                for (int x = 0; x < gridSize; x++) {
+                    int a = z * (gridSize + 1) + x;
+                    out.write("4 " + a + " " + (a + gridSize + 1) + " " + (a + gridSize + 2)
+                            + " " + (a + 1) + "\n");
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+        obj.delete();
+        ply.delete();
+    }
+
+    @Benchmark
+    public ModelImporter.Model importObj() throws IOException {
+        return importer.importFile(obj);
+    }
+
+    @Benchmark
+    public ModelImporter.Model importPly() throws IOException {
+        return importer.importFile(ply);
+    }
+
+    @Benchmark
+    public ObjReader.Mesh objReader() throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(obj));
+        try {
+            return new ObjReader().read(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static float[] heights(int gridSize) {
+        Random random = new Random(1);
+        float[] heights = new float[(gridSize + 1) * (gridSize + 1)];
+        for (int i = 0; i < heights.length; i++) {
+            heights[i] = random.nextFloat() * 0.05f;
+        }
+        return heights;
+    }
+}
@@ -0,0 +1,87 @@
+package com.cardbookvr.cardboardbox;
+
+import java.nio.Buffer;
+
+/**
+ * A GL backend that does nothing, so benchmarks measure only the Java side
+ * of issuing calls.
+ */
+public class NullGlBackend implements GlBackend {
+    @Override
+    public String glGetString(int name) {
+        return null;
+    }
+
+    @Override
+    public void glClear(int mask) {
+    }
+
+    @Override
+    public void glEnable(int cap) {
+    }
+
+    @Override
+    public void glDisable(int cap) {
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        return 0;
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        return 0;
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+                                      int stride, Buffer pointer) {
+    }
+
+    @Override
+    public void glUniform1f(int location, float x) {
+    }
+
+    @Override
+    public void glUniform3fv(int location, int count, float[] v, int offset) {
+    }
+
+    @Override
+    public void glUniform4fv(int location, int count, float[] v, int offset) {
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose,
+                                   float[] value, int offset) {
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count) {
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, Buffer indices) {
+    }
+
+    @Override
+    public void glVertexAttribDivisor(int index, int divisor) {
+    }
+
+    @Override
+    public void glDrawElementsInstanced(int mode, int count, int type, Buffer indices,
+                                        int instanceCount) {
+    }
+}
@@ -0,0 +1,128 @@
+package com.cardbookvr.cardboardbox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Software occlusion for one eye: rasterizing cubes into a 128 by 128
+ * buffer with and without a ForkJoinPool, and testing a thousand boxes
+ * against the result. The sequential cases' gc.alloc.rate.norm should
+ * be zero.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class OcclusionCullerBenchmark {
+    private static final int SIZE = 128;
+    private static final int TILE = 16;
+    private static final int BOXES = 1000;
+
+    @Param({"4", "64"})
+    public int occluders;
+
+    private ForkJoinPool pool;
+    private OcclusionCuller sequential;
+    private OcclusionCuller parallel;
+    private float[] viewProjection;
+    private float[] models;
+    private float[] bounds;
+
+    @Setup
+    public void setUp() {
+        pool = new ForkJoinPool();
+        sequential = new OcclusionCuller(SIZE, SIZE, TILE, null);
+        parallel = new OcclusionCuller(SIZE, SIZE, TILE, pool);
+
+        // 90 degrees square, near 0.1, far 100
+        float near = 0.1f;
+        float far = 100;
+        viewProjection = new float[16];
+        viewProjection[0] = 1;
+        viewProjection[5] = 1;
+        viewProjection[10] = (far + near) / (near - far);
+        viewProjection[11] = -1;
+        viewProjection[14] = 2 * far * near / (near - far);
+
+        Random random = new Random(1);
+        float[] scratch = new float[32];
+        models = new float[occluders * 16];
+        for (int i = 0; i < occluders; i++) {
+            int o = i * 16;
+            Matrices.setIdentityM(models, o);
+            Matrices.translateM(models, o, (random.nextFloat() - 0.5f) * 10,
+                    (random.nextFloat() - 0.5f) * 10, -4 - random.nextFloat() * 10);
+            Matrices.rotateM(models, o, random.nextFloat() * 360, 0, 1, 0, scratch);
+        }
+        bounds = new float[BOXES * 6];
+        for (int i = 0; i < BOXES; i++) {
+            int o = i * 6;
+            float x = (random.nextFloat() - 0.5f) * 40;
+            float y = (random.nextFloat() - 0.5f) * 40;
+            float z = -15 - random.nextFloat() * 60;
+            float half = 0.2f + random.nextFloat();
+            bounds[o] = x - half;
+            bounds[o + 1] = y - half;
+            bounds[o + 2] = z - half;
+            bounds[o + 3] = x + half;
+            bounds[o + 4] = y + half;
+            bounds[o + 5] = z + half;
+        }
+        draw(sequential);
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.println();
+        System.out.println(sequential.getOccludedCount() + " of " + sequential.getTestedCount()
+                + " boxes hidden");
+        pool.shutdown();
+    }
+
+    private void draw(OcclusionCuller occlusion) {
+        occlusion.begin(viewProjection, 0);
+        for (int i = 0; i < occluders; i++) {
+            occlusion.addOccluder(Cube.CUBE_COORDS, 0, 36, models, i * 16);
+        }
+        occlusion.rasterize();
+    }
+
+    @Benchmark
+    public int rasterize() {
+        draw(sequential);
+        return sequential.getTriangleCount();
+    }
+
+    @Benchmark
+    public int rasterizeParallel() {
+        draw(parallel);
+        return parallel.getTriangleCount();
+    }
+
+    @Benchmark
+    public int query() {
+        int hidden = 0;
+        for (int i = 0; i < BOXES; i++) {
+            if (sequential.isOccluded(bounds, i * 6)) {
+                hidden++;
+            }
+        }
+        return hidden;
+    }
+}
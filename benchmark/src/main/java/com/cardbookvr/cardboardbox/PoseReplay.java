@@ -0,0 +1,107 @@
+package com.cardbookvr.cardboardbox;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Replays a head pose trace through every {@link HeadPosePredictor} model
+ * at a range of prediction horizons, and prints the mean, RMS and max
+ * angle between each prediction and the pose that followed, in degrees.
+ * SceneRenderer predicts one frame ahead with the constant velocity
+ * model; this shows what the other choices would cost.
+ * <pre>
+ * ./gradlew :benchmark:poseReplay [-Ptrace=head_poses.cbtrace|frames] [-Pnoise=degrees]
+ * </pre>
+ * or "java PoseReplay [trace.cbtrace|frames [noise]]". Without a trace,
+ * the head sways as in {@link FrameReplay#synthesize} for the given number
+ * of frames, 600 by default. Noise adds sensor jitter of that standard
+ * deviation around random axes, the same every run.
+ */
+public class PoseReplay {
+    private static final int SYNTHETIC_FRAMES = 600;
+    private static final long WINDOW_NANOS = 50000000L;
+    private static final long[] HORIZONS_MS = { 8, 16, 33, 50, 66, 100 };
+    private static final String[] MODELS = { "none", "velocity", "acceleration" };
+
+    private final long[] times;
+    private final float[] orientations;
+
+    public PoseReplay(HeadPoseTrace trace) {
+        int frames = trace.getFrameCount();
+        times = new long[frames];
+        orientations = new float[frames * 4];
+        for (int i = 0; i < frames; i++) {
+            times[i] = trace.getTime(i);
+            trace.getQuaternion(i, orientations, i * 4);
+        }
+    }
+
+    /**
+     * Jitter every orientation by a random rotation.
+     *
+     * @param degrees - standard deviation of the rotation angle.
+     */
+    public void addNoise(float degrees, long seed) {
+        Random random = new Random(seed);
+        float[] noise = new float[4];
+        for (int i = 0; i < times.length; i++) {
+            Quaternions.setAxisAngle(noise, 0, (float) random.nextGaussian() * degrees,
+                    (float) random.nextGaussian(), (float) random.nextGaussian(),
+                    (float) random.nextGaussian());
+            Quaternions.multiply(orientations, i * 4, noise, 0, orientations, i * 4);
+        }
+    }
+
+    /**
+     * Feed every sample to a new predictor, predicting horizonNanos ahead
+     * after each one, as onNewFrame does.
+     *
+     * @return the predictor, holding the errors.
+     */
+    public HeadPosePredictor replay(int model, long horizonNanos) {
+        HeadPosePredictor predictor = new HeadPosePredictor(model, WINDOW_NANOS);
+        float[] predicted = new float[4];
+        for (int i = 0; i < times.length; i++) {
+            predictor.addSample(times[i], orientations, i * 4);
+            predictor.predict(times[i] + horizonNanos, predicted, 0);
+        }
+        return predictor;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length > 2) {
+            System.err.println("usage: PoseReplay [trace.cbtrace|frames [noise]]");
+            System.exit(1);
+        }
+        HeadPoseTrace trace;
+        if (args.length == 0) {
+            trace = FrameReplay.synthesize(SYNTHETIC_FRAMES);
+        } else if (args[0].matches("\\d+")) {
+            trace = FrameReplay.synthesize(Integer.parseInt(args[0]));
+        } else {
+            trace = HeadPoseTrace.read(new File(args[0]));
+        }
+        PoseReplay replay = new PoseReplay(trace);
+        if (args.length == 2) {
+            replay.addNoise(Float.parseFloat(args[1]), 1);
+        }
+
+        System.out.printf("%d frames, error in degrees as mean / rms / max%n",
+                trace.getFrameCount());
+        StringBuilder header = new StringBuilder("horizon");
+        for (String model : MODELS) {
+            header.append(String.format("  %-24s", model));
+        }
+        System.out.println(header);
+        for (long horizon : HORIZONS_MS) {
+            StringBuilder line = new StringBuilder(String.format("%5dms", horizon));
+            for (int model = 0; model < MODELS.length; model++) {
+                HeadPosePredictor predictor = replay.replay(model, horizon * 1000000L);
+                line.append(String.format("  %6.3f / %6.3f / %6.2f", predictor.getMeanError(),
+                        predictor.getRmsError(), predictor.getMaxError()));
+            }
+            System.out.println(line);
+        }
+    }
+}
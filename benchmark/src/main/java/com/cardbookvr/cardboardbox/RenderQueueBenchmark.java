@@ -0,0 +1,123 @@
+package com.cardbookvr.cardboardbox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building, sorting and submitting a frame of draws with mixed programs
+ * and vertex layouts through {@link GlState}, against submitting them in
+ * the order they came, and the sort alone. The backend does nothing, so
+ * this is the CPU side only; the state changes each order costs the driver
+ * are printed at the end of the trial. gc.alloc.rate.norm should be zero.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RenderQueueBenchmark {
+    private static final int PROGRAMS = 8;
+    private static final int LAYOUTS = 4;
+    private static final int FLOAT = 0x1406;
+
+    @Param({"100", "1000", "10000"})
+    public int draws;
+
+    private final GlState unsortedGl = new GlState(new NullGlBackend());
+    private final GlState sortedGl = new GlState(new NullGlBackend());
+    private final FloatBuffer vertices = ByteBuffer.allocateDirect(LAYOUTS * 64)
+            .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    private final float[] matrix = new float[16];
+
+    private RenderQueue queue;
+    private int[] programs;
+    private int[] layouts;
+    private float[] depths;
+
+    @Setup
+    public void setUp() {
+        queue = new RenderQueue(draws);
+        programs = new int[draws];
+        layouts = new int[draws];
+        depths = new float[draws];
+        Random random = new Random(1);
+        for (int i = 0; i < draws; i++) {
+            programs[i] = 1 + random.nextInt(PROGRAMS);
+            layouts[i] = random.nextInt(LAYOUTS);
+            depths[i] = random.nextFloat();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.printf("%n%d draws, programs/layouts bound per frame: unsorted %d/%d, sorted %d/%d%n",
+                draws,
+                unsortedGl.getFrameIssued(GlState.CALL_PROGRAM),
+                unsortedGl.getFrameIssued(GlState.CALL_ATTRIB_POINTER),
+                sortedGl.getFrameIssued(GlState.CALL_PROGRAM),
+                sortedGl.getFrameIssued(GlState.CALL_ATTRIB_POINTER));
+    }
+
+    @Benchmark
+    public GlState unsorted() {
+        unsortedGl.beginFrame();
+        unsortedGl.invalidate();
+        for (int i = 0; i < draws; i++) {
+            submit(unsortedGl, i);
+        }
+        return unsortedGl;
+    }
+
+    @Benchmark
+    public GlState sorted() {
+        fill();
+        queue.sort();
+        sortedGl.beginFrame();
+        sortedGl.invalidate();
+        for (int i = 0; i < queue.size(); i++) {
+            submit(sortedGl, queue.getItem(i));
+        }
+        return sortedGl;
+    }
+
+    @Benchmark
+    public RenderQueue sortOnly() {
+        fill();
+        queue.sort();
+        return queue;
+    }
+
+    private void fill() {
+        queue.clear();
+        for (int i = 0; i < draws; i++) {
+            queue.add(RenderQueue.opaqueKey(0, programs[i], layouts[i], depths[i], 0), i);
+        }
+    }
+
+    private void submit(GlState gl, int draw) {
+        gl.glUseProgram(programs[draw]);
+        vertices.position(layouts[draw] * 16);
+        gl.glVertexAttribPointer(0, 3, FLOAT, false, 0, vertices);
+        matrix[12] = depths[draw];
+        gl.glUniformMatrix4fv(0, 1, false, matrix, 0);
+        gl.glDrawArrays(4, 0, 36);
+    }
+}
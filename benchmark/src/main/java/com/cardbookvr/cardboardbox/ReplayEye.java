@@ -0,0 +1,72 @@
+package com.cardbookvr.cardboardbox;
+
+/**
+ * Stands in for Cardboard's Eye: a fixed offset from the head and an
+ * off-centre frustum, wider towards the nose, like a viewer's lenses.
+ */
+public class ReplayEye {
+    // Metres between the eyes
+    private static final float INTERPUPILLARY_DISTANCE = 0.064f;
+    // Degrees from the centre of view to each edge
+    private static final float FOV_OUTER = 40f;
+    private static final float FOV_INNER = 35f;
+    private static final float FOV_VERTICAL = 40f;
+
+    private final int type;
+    private final float[] translation = new float[16];
+    private final float[] eyeView = new float[16];
+    private final float[] perspective = new float[16];
+
+    /**
+     * @param type - StereoFramePlan.EYE_LEFT or EYE_RIGHT.
+     */
+    public ReplayEye(int type) {
+        if (type != StereoFramePlan.EYE_LEFT && type != StereoFramePlan.EYE_RIGHT) {
+            throw new IllegalArgumentException("eye must be left or right");
+        }
+        this.type = type;
+        Matrices.setIdentityM(translation, 0);
+        // The world moves the other way to the eye
+        translation[12] = type == StereoFramePlan.EYE_LEFT
+                ? INTERPUPILLARY_DISTANCE / 2 : -INTERPUPILLARY_DISTANCE / 2;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Place the eye for a frame.
+     */
+    public void setHeadView(float[] headView, int offset) {
+        Matrices.multiplyMM(eyeView, 0, translation, 0, headView, offset);
+    }
+
+    public float[] getEyeView() {
+        return eyeView;
+    }
+
+    public float[] getPerspective(float near, float far) {
+        float left = FOV_OUTER, right = FOV_INNER;
+        if (type == StereoFramePlan.EYE_RIGHT) {
+            left = FOV_INNER;
+            right = FOV_OUTER;
+        }
+        float l = -near * (float) Math.tan(Math.toRadians(left));
+        float r = near * (float) Math.tan(Math.toRadians(right));
+        float t = near * (float) Math.tan(Math.toRadians(FOV_VERTICAL));
+        float b = -t;
+        // As Matrix.frustumM
+        for (int i = 0; i < 16; i++) {
+            perspective[i] = 0;
+        }
+        perspective[0] = 2 * near / (r - l);
+        perspective[5] = 2 * near / (t - b);
+        perspective[8] = (r + l) / (r - l);
+        perspective[9] = (t + b) / (t - b);
+        perspective[10] = -(far + near) / (far - near);
+        perspective[11] = -1;
+        perspective[14] = -2 * far * near / (far - near);
+        return perspective;
+    }
+}
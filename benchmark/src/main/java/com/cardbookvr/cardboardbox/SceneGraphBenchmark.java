@@ -0,0 +1,116 @@
+package com.cardbookvr.cardboardbox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * World matrix updates of a mostly static 10k node scene: a few moving
+ * nodes per frame, against recomputing every node, with and without a
+ * ForkJoinPool. The sequential moving case's gc.alloc.rate.norm should be
+ * zero.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SceneGraphBenchmark {
+    private static final int NODES = 10000;
+    // Top level nodes, each with its own subtree
+    private static final int GROUPS = 8;
+
+    @Param({"10", "100"})
+    public int moving;
+
+    private ForkJoinPool pool;
+    private SceneGraph sequential;
+    private SceneGraph parallel;
+    private int[] movers;
+    private float[] local;
+    private int frame;
+
+    @Setup
+    public void setUp() {
+        pool = new ForkJoinPool();
+        sequential = build(null);
+        parallel = build(pool);
+        Random random = new Random(1);
+        movers = new int[moving];
+        for (int i = 0; i < moving; i++) {
+            movers[i] = GROUPS + random.nextInt(NODES - GROUPS);
+        }
+        local = new float[16];
+        Matrices.setIdentityM(local, 0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    private static SceneGraph build(ForkJoinPool pool) {
+        SceneGraph scene = new SceneGraph(NODES, pool);
+        Random random = new Random(2);
+        float[] m = new float[16];
+        for (int i = 0; i < NODES; i++) {
+            int parent = i < GROUPS ? SceneGraph.NO_PARENT
+                    : i < 2 * GROUPS ? i - GROUPS : GROUPS + random.nextInt(i - GROUPS);
+            scene.addNode(parent);
+            Matrices.setIdentityM(m, 0);
+            Matrices.translateM(m, 0, random.nextFloat(), random.nextFloat(), random.nextFloat());
+            scene.setLocal(i, m, 0);
+        }
+        scene.update();
+        return scene;
+    }
+
+    @Benchmark
+    public int movingNodes() {
+        return move(sequential);
+    }
+
+    @Benchmark
+    public int movingNodesParallel() {
+        return move(parallel);
+    }
+
+    @Benchmark
+    public int everyNode() {
+        return all(sequential);
+    }
+
+    @Benchmark
+    public int everyNodeParallel() {
+        return all(parallel);
+    }
+
+    private int move(SceneGraph scene) {
+        local[12] = frame++ & 7;
+        for (int node : movers) {
+            scene.setLocal(node, local, 0);
+        }
+        return scene.update();
+    }
+
+    private static int all(SceneGraph scene) {
+        for (int i = 0; i < GROUPS; i++) {
+            scene.invalidate(i);
+        }
+        return scene.update();
+    }
+}
@@ -0,0 +1,64 @@
+package com.cardbookvr.cardboardbox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shader source loading as MainActivity.readRawTextFile does it. The files
+ * are read into memory up front, like a raw resource inside the APK.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ShaderSourceBenchmark {
+    @Param({"light_vertex", "grid_fragment", "simple_fragment"})
+    public String shader;
+
+    private byte[] source;
+
+    @Setup
+    public void setUp() throws IOException {
+        File dir = new File(System.getProperty("raw.dir", "../app/src/main/res/raw"));
+        source = Files.readAllBytes(new File(dir, shader + ".shader").toPath());
+    }
+
+    @Benchmark
+    public String readRawTextFile() {
+        InputStream inputStream = new ByteArrayInputStream(source);
+        try {
+            BufferedReader reader = new BufferedReader(new
+                    InputStreamReader(inputStream));
+            StringBuilder sb = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                sb.append(line).append("\n");
+            }
+            reader.close();
+            return sb.toString();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,69 @@
+package com.cardbookvr.cardboardbox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Render thread cost of picking up a simulation snapshot and interpolating
+ * every object's transform, with the simulation stepping on its own
+ * thread. gc.alloc.rate.norm should be zero.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SimulationBenchmark {
+    @Param({"1", "100"})
+    public int objects;
+
+    private SimulationLoop loop;
+    private float[] transforms;
+
+    @Setup
+    public void setUp() {
+        float[] poses = new float[objects * SimulationLoop.POSE_FLOATS];
+        for (int i = 0; i < objects; i++) {
+            Quaternions.setAxisAngle(poses, i * SimulationLoop.POSE_FLOATS + 3, i, 0, 1, 0);
+        }
+        final float[] spin = new float[4];
+        Quaternions.setAxisAngle(spin, 0, 0.15f, 0.5f, 0.5f, 1.0f);
+        loop = new SimulationLoop(new Simulation() {
+            @Override
+            public void step(float[] poses, float dt) {
+                for (int p = 3; p < poses.length; p += SimulationLoop.POSE_FLOATS) {
+                    Quaternions.multiply(poses, p, poses, p, spin, 0);
+                }
+            }
+        }, poses, 1000000000L / 120);
+        loop.start();
+        transforms = new float[objects * 16];
+    }
+
+    @TearDown
+    public void tearDown() {
+        loop.stop();
+    }
+
+    @Benchmark
+    public float[] sampleAll() {
+        loop.sample(System.nanoTime());
+        for (int i = 0; i < objects; i++) {
+            loop.getTransform(i, transforms, i * 16);
+        }
+        return transforms;
+    }
+}